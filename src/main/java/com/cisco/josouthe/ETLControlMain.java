@@ -6,10 +6,13 @@ import com.cisco.josouthe.data.Controller;
 import com.cisco.josouthe.database.ControlEntry;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.exceptions.BadCommandException;
+import com.cisco.josouthe.exceptions.FailedDataLoadException;
 import com.cisco.josouthe.print.IPrintable;
 import com.cisco.josouthe.print.Printer;
+import com.cisco.josouthe.queue.DeadLetterStore;
 import com.cisco.josouthe.scheduler.MainControlScheduler;
 import com.cisco.josouthe.util.Utility;
+import com.google.gson.Gson;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -19,6 +22,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.text.ParseException;
@@ -53,7 +57,7 @@ public class ETLControlMain {
                 .help("Only manage a specific data type: {\"MetricData\", \"EventData\", \"AnalyticsData\"}");
         parser.addArgument("command")
                 .nargs("*")
-                .help("Commands are probably too flexible, some examples include: {\"show [status|tables]\", \"[select|drop|delete|update] <rest of sql statement with \\* escaped>\", \"purge [tableName] [newer|older] than [yyyy-MM-dd_HH:mm:ss_z]\", \"set last run [yyyy-MM-dd_HH:mm:ss_z]\", \"executeScheduler\" }")
+                .help("Commands are probably too flexible, some examples include: {\"show [status|tables]\", \"[select|drop|delete|update] <rest of sql statement with \\* escaped>\", \"purge [tableName] [newer|older] than [yyyy-MM-dd_HH:mm:ss_z]\", \"set last run [yyyy-MM-dd_HH:mm:ss_z]\", \"replay\", \"executeScheduler\" }")
                 .setDefault("executeScheduler");
 
         Namespace namespace = null;
@@ -122,6 +126,10 @@ public class ETLControlMain {
                     parseSetCommand(namespace, config);
                     break;
                 }
+                case "replay": {
+                    replayDeadLetters(config);
+                    break;
+                }
                 default: {
                     throw new BadCommandException("Unknown root command", commands.get(0));
                 }
@@ -133,6 +141,43 @@ public class ETLControlMain {
         if( forceExit ) System.exit(0);
     }
 
+    //replay, load the data the scheduler gave up on back into the database, whatever fails again stays a dead letter
+    private static void replayDeadLetters(Configuration configuration) {
+        DeadLetterStore deadLetterStore = new DeadLetterStore(new File(configuration.getProperty("scheduler-DeadLetterDirectory", "deadletter")));
+        Gson gson = new Gson();
+        List<DeadLetterStore.DeadLetter> deadLetters;
+        try {
+            deadLetters = deadLetterStore.takeAll();
+        } catch (IOException ioException) {
+            System.out.println(String.format("Could not read dead letters from %s, Exception: %s", deadLetterStore.getFile().getAbsolutePath(), ioException.toString()));
+            return;
+        }
+        int replayed = 0, failed = 0;
+        for( DeadLetterStore.DeadLetter deadLetter : deadLetters ) {
+            try {
+                configuration.getDatabase().importData(deadLetter.getData(gson));
+                replayed++;
+            } catch (FailedDataLoadException failedDataLoadException) {
+                failed++;
+                deadLetter.attempts++;
+                deadLetter.error = failedDataLoadException.getMessage();
+                deadLetter.failedTime = System.currentTimeMillis();
+                deadLetterStore.write(deadLetter);
+                System.out.println(String.format("Still failing: %s", deadLetter));
+            } catch (ClassNotFoundException | RuntimeException exception) {
+                failed++;
+                deadLetterStore.write(deadLetter);
+                System.out.println(String.format("Could not read %s, Exception: %s", deadLetter, exception.toString()));
+            }
+        }
+        try {
+            deadLetterStore.finishReplay();
+        } catch (IOException ioException) {
+            logger.warn("Could not clean up after the replay: %s", ioException.toString());
+        }
+        System.out.println(String.format("Replayed %d of %d dead letters from %s, %d failed again and are still there", replayed, deadLetters.size(), deadLetterStore.getFile().getAbsolutePath(), failed));
+    }
+
     private static void parseSetCommand(Namespace namespace, Configuration configuration) throws BadCommandException {
         List<ControlEntry> controlEntries = configuration.getDatabase().getControlTable().getControlEntries();
         String controller = namespace.getString("controller");
@@ -225,7 +225,8 @@ public class Configuration {
         }
         addAnalytics(analyticsConfig.getUrl(), analyticsConfig.getGlobalAccountName(), analyticsConfig.getaPIKey(),
                 analyticsConfig.getTableNamePrefix(), analyticsConfig.getLinkToControllerHostname(),
-                analyticsConfig.getAdjustEndTimeMinutes());
+                analyticsConfig.getAdjustEndTimeMinutes(), analyticsConfig.getPollIntervalMinutes(),
+                analyticsConfig.getSocketTimeoutSeconds(), analyticsConfig.getRequestDeadlineSeconds());
     }
 
     public void addAnalyticsSearch( String name, String query, long limit, String visualization ) throws InvalidConfigurationException {
@@ -239,7 +240,8 @@ public class Configuration {
         logger.info("Added Search %s: '%s' to list for collection",name, query);
     }
 
-    public void addAnalytics( String urlString, String accountName, String apiKey, String tableNamePrefix, String linkedControllerHostname, long minutesToAdjustEndTimestampBy ) throws InvalidConfigurationException {
+    public void addAnalytics( String urlString, String accountName, String apiKey, String tableNamePrefix, String linkedControllerHostname, long minutesToAdjustEndTimestampBy, long pollIntervalMinutes,
+                              long socketTimeoutSeconds, long requestDeadlineSeconds ) throws InvalidConfigurationException {
         if( urlString == null || accountName == null || apiKey == null ) {
             logger.warn("No valid minimum config paramters for Analytics, must have a url, global account name, and apikey, try again!");
             throw new InvalidConfigurationException("No valid minimum config paramters for Analytics, must have a url, global account name, and apikey, try again!");
@@ -256,6 +258,8 @@ public class Configuration {
         //if( this.searches.size() == 0 ) throw new InvalidConfigurationException("We can't add an Analytics section without any Searches!");
         try {
             Analytics analytic = new Analytics( urlString, accountName, apiKey, tableNamePrefix, getDatabase(), (ArrayList<Search>) this.searches.clone(), minutesToAdjustEndTimestampBy);
+            if( pollIntervalMinutes > 0 ) analytic.setPollIntervalMinutes(pollIntervalMinutes);
+            if( socketTimeoutSeconds > 0 || requestDeadlineSeconds > 0 ) analytic.setRequestTimeouts(socketTimeoutSeconds, requestDeadlineSeconds);
             this.searches = new ArrayList<>();
             this.analytics.add(analytic);
             this.definedAnalytics=true;
@@ -278,7 +282,7 @@ public class Configuration {
                                 boolean getAllEvents, boolean getAllHealthRuleViolations,
                                 String includeEventList, String excludeEventList, String eventSeverities,
                                 boolean isRegexAppName,
-                                int granularityMinutes, boolean onlyGetDefaultBaseline
+                                int granularityMinutes, boolean onlyGetDefaultBaseline, long pollIntervalMinutes
                                 ) throws InvalidConfigurationException {
         if( name == null ) {
             logger.warn("No valid minimum config parameters for Application! Ensure Name is configured");
@@ -288,14 +292,19 @@ public class Configuration {
         if( eventTable != null && database.isValidDatabaseTableName(eventTable) ) logger.debug("Application %s Event Table set to: %s", name, eventTable);
         if( baselineTable != null && database.isValidDatabaseTableName(baselineTable) ) logger.debug("Application %s Baseline Table set to: %s", name, baselineTable);
         logger.debug("Application %s Granularity Minutes set to %s", name, granularityMinutes);
+        if( pollIntervalMinutes < 0 ) pollIntervalMinutes = 0;
+        if( pollIntervalMinutes > 0 ) logger.debug("Application %s Poll Interval Minutes set to %d", name, pollIntervalMinutes);
         if( isRegexAppName ) {
-            applicationRegexList.add( new ApplicationRegex( name, getAllAvailableMetrics, defaultDisableAutoRollup, metricTable, eventTable, baselineTable,
-                    getAllEvents, getAllHealthRuleViolations, metrics, granularityMinutes, onlyGetDefaultBaseline ));
+            ApplicationRegex applicationRegex = new ApplicationRegex( name, getAllAvailableMetrics, defaultDisableAutoRollup, metricTable, eventTable, baselineTable,
+                    getAllEvents, getAllHealthRuleViolations, metrics, granularityMinutes, onlyGetDefaultBaseline );
+            applicationRegex.setPollIntervalMinutes(pollIntervalMinutes);
+            applicationRegexList.add( applicationRegex );
         } else {
             Application application = new Application(getAllAvailableMetrics, name, defaultDisableAutoRollup, metricTable, eventTable, baselineTable,
                     getAllEvents, getAllHealthRuleViolations, metrics, granularityMinutes, onlyGetDefaultBaseline);
             application.setEventTypeList(getEventListForApplication(includeEventList, excludeEventList));
             if (eventSeverities != null) application.eventSeverities = eventSeverities;
+            application.setPollIntervalMinutes(pollIntervalMinutes);
             applications.add(application);
         }
         metrics = new ArrayList<>();
@@ -315,16 +324,19 @@ public class Configuration {
                     applicationConfig.isGetAllEvents(), applicationConfig.isGetAllHealthRuleViolations(),
                     applicationConfig.getEvents().getInclude(), applicationConfig.getEvents().getExclude(),
                     applicationConfig.getEvents().getSeverities(), applicationConfig.getName().isRegex(),
-                    applicationConfig.getDefaults().getGranularityMinutes(), applicationConfig.getDefaults().isOnlyGetDefaultBaseline());
+                    applicationConfig.getDefaults().getGranularityMinutes(), applicationConfig.getDefaults().isOnlyGetDefaultBaseline(),
+                    applicationConfig.getDefaults().getPollIntervalMinutes());
         }
 
         //Last, add the controller, which adds all the applications in the global list and purges it
         addController( controllerConfig.getUrl(), controllerConfig.getClientID(), controllerConfig.getClientSecret(),
-                controllerConfig.isGetAllAnalyticsSearches(), controllerConfig.getAdjustEndTimeMinutes());
+                controllerConfig.isGetAllAnalyticsSearches(), controllerConfig.getAdjustEndTimeMinutes(),
+                controllerConfig.getSocketTimeoutSeconds(), controllerConfig.getRequestDeadlineSeconds());
     }
 
 
-    public void addController( String urlString, String clientID, String clientSecret, boolean getAllAnalyticsSearches, long minutesToAdjustEndTimestampBy ) throws InvalidConfigurationException {
+    public void addController( String urlString, String clientID, String clientSecret, boolean getAllAnalyticsSearches, long minutesToAdjustEndTimestampBy,
+                               long socketTimeoutSeconds, long requestDeadlineSeconds ) throws InvalidConfigurationException {
         if( urlString == null || clientID == null || clientSecret == null ) {
             logger.warn("No valid minimum config parameters for Controller! Ensure URL, ClientID, and ClientSecret are configured");
             throw new InvalidConfigurationException("No valid minimum config parameters for Controller! Ensure URL, ClientID, and ClientSecret are configured");
@@ -352,6 +364,7 @@ public class Configuration {
         }
         try{
             Controller controller = new Controller(urlString, clientID, clientSecret, applications.toArray( new Application[0] ), getAllAnalyticsSearches, applicationRegexList.toArray( new ApplicationRegex[0]), minutesToAdjustEndTimestampBy, this);
+            if( socketTimeoutSeconds > 0 || requestDeadlineSeconds > 0 ) controller.setRequestTimeouts(socketTimeoutSeconds, requestDeadlineSeconds);
             applications = new ArrayList<>();
             applicationRegexList = new ArrayList<>();
             controllerMap.put( controller.hostname, controller);
@@ -364,11 +377,217 @@ public class Configuration {
     private void setSchedulerProperties (SchedulerConfig schedulerConfig) {
         if( schedulerConfig == null ) {
             setSchedulerProperties(false,0l, 2l, 10l, 50l, 12l, 2l, 14l, false);
+            setQueueProperties(0l, 0l, "Blocking", 1024, false);
+            setSpillProperties("spill", 64l, 10240l, false);
+            setConcurrencyProperties(false, 0, 8, 8, false);
+            setConnectionPoolProperties(0, 0, false);
+            setTimeoutProperties(10l, 300l, 60l, 900l, false, false);
+            setInsertBatchProperties(10000l, 10l, false, false);
+            setRetryProperties(8, 5l, 600l, "deadletter", false);
+            setBaselineProperties(100, 60l, 5, false);
+            setBackfillProperties(60l, false);
+            setStreamingProperties(1000, false);
+            setDiscoveryCacheProperties("discovery", 24l, false);
         } else {
             setSchedulerProperties(schedulerConfig.isEnabled(), schedulerConfig.getPollIntervalMinutes(), schedulerConfig.getFirstRunHistoricNumberOfHours(), schedulerConfig.getControllerThreads(), schedulerConfig.getDatabaseThreads(), schedulerConfig.getConfigurationRefreshEveryHours(), schedulerConfig.getFirstRunHistoricNumberOfDays(), schedulerConfig.getMaxNumberOfDaysToQueryAtATime(), true);
+            setQueueProperties(schedulerConfig.getMaxQueueMegabytes(), schedulerConfig.getMaxQueueRows(), schedulerConfig.getQueueType(), schedulerConfig.getRingBufferSize(), true);
+            setSpillProperties(schedulerConfig.getSpillDirectory(), schedulerConfig.getSpillSegmentMegabytes(), schedulerConfig.getSpillMaxMegabytes(), "Spill".equals(getProperty("scheduler-QueueType")));
+            setConcurrencyProperties(schedulerConfig.isVirtualThreads(), schedulerConfig.getMaxRequestsPerController(), schedulerConfig.getMetricRequestsPerApplication(), schedulerConfig.getDiscoveryRequestsPerApplication(), true);
+            setConnectionPoolProperties(schedulerConfig.getMaxConnectionsPerRoute(), schedulerConfig.getMaxConnectionsTotal(), true);
+            setTimeoutProperties(schedulerConfig.getConnectTimeoutSeconds(), schedulerConfig.getSocketTimeoutSeconds(), schedulerConfig.getConnectionRequestTimeoutSeconds(),
+                    schedulerConfig.getRequestDeadlineSeconds(), schedulerConfig.isHedgeMetricRequests(), true);
+            setInsertBatchProperties(schedulerConfig.getInsertBatchRows(), schedulerConfig.getInsertBatchMaxAgeSeconds(), schedulerConfig.isTableAffineWriters(), true);
+            setRetryProperties(schedulerConfig.getInsertRetryMaxAttempts(), schedulerConfig.getInsertRetryBaseSeconds(), schedulerConfig.getInsertRetryMaxSeconds(), schedulerConfig.getDeadLetterDirectory(), true);
+            setBaselineProperties(schedulerConfig.getBaselineMetricsPerRequest(), schedulerConfig.getBaselinePollIntervalMinutes(), schedulerConfig.getBaselineThreads(), true);
+            setBackfillProperties(schedulerConfig.getBackfillSliceMinutes(), true);
+            setStreamingProperties(schedulerConfig.getMetricValuesPerChunk(), true);
+            setDiscoveryCacheProperties(schedulerConfig.getDiscoveryCacheDirectory(), schedulerConfig.getDiscoveryCacheMaxAgeHours(), true);
         }
     }
 
+    public void setQueueProperties( Long maxQueueMegabytes, Long maxQueueRows, String queueType, Integer ringBufferSize, boolean printOutput ) {
+        long maxQueueBytes;
+        if( maxQueueMegabytes == null || maxQueueMegabytes < 1 ) {
+            maxQueueBytes = Runtime.getRuntime().maxMemory() / 4; //a quarter of the heap leaves plenty for the metric graphs and jdbc drivers
+        } else {
+            maxQueueBytes = maxQueueMegabytes * 1024 * 1024;
+        }
+        if(printOutput) logger.info("Setting Max Data Queue Size to %d MB", maxQueueBytes/(1024*1024));
+        this.properties.setProperty("scheduler-MaxQueueBytes", String.valueOf(maxQueueBytes));
+        if( maxQueueRows == null || maxQueueRows < 0 ) {
+            maxQueueRows = 0l;
+        }
+        if(printOutput) logger.info("Setting Max Data Queue Rows to %s", (maxQueueRows == 0 ? "unlimited" : maxQueueRows.toString()));
+        this.properties.setProperty("scheduler-MaxQueueRows", maxQueueRows.toString());
+        if( queueType != null && "Disruptor".equalsIgnoreCase(queueType.trim()) ) {
+            queueType = "Disruptor";
+        } else if( queueType != null && "Spill".equalsIgnoreCase(queueType.trim()) ) {
+            queueType = "Spill";
+        } else {
+            queueType = "Blocking";
+        }
+        if(printOutput) logger.info("Setting Data Queue Type to %s", queueType);
+        this.properties.setProperty("scheduler-QueueType", queueType);
+        if( ringBufferSize == null || ringBufferSize < 2 ) {
+            ringBufferSize = 1024;
+        }
+        if(printOutput && "Disruptor".equals(queueType)) logger.info("Setting Ring Buffer Size to %d slots", ringBufferSize);
+        this.properties.setProperty("scheduler-RingBufferSize", ringBufferSize.toString());
+    }
+
+    public void setSpillProperties( String spillDirectory, Long spillSegmentMegabytes, Long spillMaxMegabytes, boolean printOutput ) {
+        if( spillDirectory == null || "".equals(spillDirectory.trim()) ) {
+            spillDirectory = "spill";
+        }
+        if(printOutput) logger.info("Setting Spill Directory to %s", new File(spillDirectory.trim()).getAbsolutePath());
+        this.properties.setProperty("scheduler-SpillDirectory", spillDirectory.trim());
+        if( spillSegmentMegabytes == null || spillSegmentMegabytes < 1 ) {
+            spillSegmentMegabytes = 64l;
+        }
+        if(printOutput) logger.info("Setting Spill Segment Size to %d MB", spillSegmentMegabytes);
+        this.properties.setProperty("scheduler-SpillSegmentBytes", String.valueOf(spillSegmentMegabytes * 1024 * 1024));
+        if( spillMaxMegabytes == null || spillMaxMegabytes < 0 ) {
+            spillMaxMegabytes = 10240l;
+        }
+        if(printOutput) logger.info("Setting Max Spill Size to %s", (spillMaxMegabytes == 0 ? "unlimited" : spillMaxMegabytes +" MB"));
+        this.properties.setProperty("scheduler-SpillMaxBytes", String.valueOf(spillMaxMegabytes * 1024 * 1024));
+    }
+
+    public void setRetryProperties( Integer insertRetryMaxAttempts, Long insertRetryBaseSeconds, Long insertRetryMaxSeconds, String deadLetterDirectory, boolean printOutput ) {
+        if( insertRetryMaxAttempts == null || insertRetryMaxAttempts < 1 ) {
+            insertRetryMaxAttempts = 8;
+        }
+        if(printOutput) logger.info("Setting Insert Retry Max Attempts to %d", insertRetryMaxAttempts);
+        this.properties.setProperty("scheduler-InsertRetryMaxAttempts", insertRetryMaxAttempts.toString());
+        if( insertRetryBaseSeconds == null || insertRetryBaseSeconds < 1 ) {
+            insertRetryBaseSeconds = 5l;
+        }
+        if( insertRetryMaxSeconds == null || insertRetryMaxSeconds < insertRetryBaseSeconds ) {
+            insertRetryMaxSeconds = Math.max(600l, insertRetryBaseSeconds);
+        }
+        if(printOutput) logger.info("Setting Insert Retry Backoff to start at %d seconds, doubling up to %d seconds", insertRetryBaseSeconds, insertRetryMaxSeconds);
+        this.properties.setProperty("scheduler-InsertRetryBaseSeconds", insertRetryBaseSeconds.toString());
+        this.properties.setProperty("scheduler-InsertRetryMaxSeconds", insertRetryMaxSeconds.toString());
+        if( deadLetterDirectory == null || "".equals(deadLetterDirectory.trim()) ) {
+            deadLetterDirectory = "deadletter";
+        }
+        if(printOutput) logger.info("Setting Dead Letter Directory to %s", new File(deadLetterDirectory.trim()).getAbsolutePath());
+        this.properties.setProperty("scheduler-DeadLetterDirectory", deadLetterDirectory.trim());
+    }
+
+    public void setInsertBatchProperties( Long insertBatchRows, Long insertBatchMaxAgeSeconds, boolean tableAffineWriters, boolean printOutput ) {
+        if( insertBatchRows == null || insertBatchRows < 1 ) {
+            insertBatchRows = 1l; //every element is written as soon as it is taken off the queue
+        }
+        if(printOutput) logger.info("Setting Database Insert Batch to %d rows", insertBatchRows);
+        this.properties.setProperty("scheduler-InsertBatchRows", insertBatchRows.toString());
+        if( insertBatchMaxAgeSeconds == null || insertBatchMaxAgeSeconds < 0 ) {
+            insertBatchMaxAgeSeconds = 10l;
+        }
+        if(printOutput) logger.info("Setting Database Insert Batch Max Age to %d seconds", insertBatchMaxAgeSeconds);
+        this.properties.setProperty("scheduler-InsertBatchMaxAgeSeconds", insertBatchMaxAgeSeconds.toString());
+        if(printOutput) logger.info("Setting Database Writers to %s", (tableAffineWriters ? "one thread per table, on a warm connection" : "any thread for any table"));
+        this.properties.setProperty("scheduler-TableAffineWriters", String.valueOf(tableAffineWriters));
+    }
+
+    public void setBackfillProperties( Long backfillSliceMinutes, boolean printOutput ) {
+        if( backfillSliceMinutes == null || backfillSliceMinutes < 0 ) {
+            backfillSliceMinutes = 60l;
+        }
+        if(printOutput) logger.info("Setting Backfill Slice to %s", (backfillSliceMinutes == 0 ? "disabled, one request per window" : backfillSliceMinutes +" minutes"));
+        this.properties.setProperty("scheduler-BackfillSliceMinutes", backfillSliceMinutes.toString());
+    }
+
+    public void setStreamingProperties( Integer metricValuesPerChunk, boolean printOutput ) {
+        if( metricValuesPerChunk == null || metricValuesPerChunk < 1 ) {
+            metricValuesPerChunk = 1000;
+        }
+        if(printOutput) logger.info("Setting Metric Values Per Chunk to %d", metricValuesPerChunk);
+        this.properties.setProperty("scheduler-MetricValuesPerChunk", metricValuesPerChunk.toString());
+    }
+
+    //a blank directory turns the cache off, every restart walks the whole metric tree again
+    public void setDiscoveryCacheProperties( String discoveryCacheDirectory, Long discoveryCacheMaxAgeHours, boolean printOutput ) {
+        if( discoveryCacheDirectory == null ) {
+            discoveryCacheDirectory = "discovery";
+        }
+        if(printOutput) logger.info("Setting Discovery Cache Directory to %s", ("".equals(discoveryCacheDirectory.trim()) ? "none, the cache is disabled" : new File(discoveryCacheDirectory.trim()).getAbsolutePath()));
+        this.properties.setProperty("scheduler-DiscoveryCacheDirectory", discoveryCacheDirectory.trim());
+        if( discoveryCacheMaxAgeHours == null || discoveryCacheMaxAgeHours < 0 ) {
+            discoveryCacheMaxAgeHours = 24l;
+        }
+        if(printOutput) logger.info("Setting Discovery Cache Max Age to %s", (discoveryCacheMaxAgeHours == 0 ? "0, every folder is listed again on each refresh" : discoveryCacheMaxAgeHours +" hours"));
+        this.properties.setProperty("scheduler-DiscoveryCacheMaxAgeHours", discoveryCacheMaxAgeHours.toString());
+    }
+
+    public void setBaselineProperties( Integer baselineMetricsPerRequest, Long baselinePollIntervalMinutes, Integer numberOfBaselineThreads, boolean printOutput ) {
+        if( baselineMetricsPerRequest == null || baselineMetricsPerRequest < 1 ) {
+            baselineMetricsPerRequest = 100;
+        }
+        if(printOutput) logger.info("Setting Baseline Metrics per Request to %d", baselineMetricsPerRequest);
+        this.properties.setProperty("scheduler-BaselineMetricsPerRequest", baselineMetricsPerRequest.toString());
+        if( baselinePollIntervalMinutes == null || baselinePollIntervalMinutes < 0 ) {
+            baselinePollIntervalMinutes = 60l;
+        }
+        if(printOutput) logger.info("Setting Baseline poll interval to %s", (baselinePollIntervalMinutes == 0 ? "the application poll interval" : "every "+ baselinePollIntervalMinutes +" minutes"));
+        this.properties.setProperty("scheduler-BaselinePollIntervalMinutes", baselinePollIntervalMinutes.toString());
+        if( numberOfBaselineThreads == null || numberOfBaselineThreads < 1 ) {
+            numberOfBaselineThreads = 5;
+        }
+        if(printOutput) logger.info("Setting Baseline Threads to %d", numberOfBaselineThreads);
+        this.properties.setProperty("scheduler-NumberOfBaselineThreads", numberOfBaselineThreads.toString());
+    }
+
+    public void setConcurrencyProperties( boolean virtualThreads, Integer maxRequestsPerController, Integer metricRequestsPerApplication, Integer discoveryRequestsPerApplication, boolean printOutput ) {
+        if(printOutput) logger.info("Setting Controller fetch tasks to run on %s threads", (virtualThreads ? "virtual" : "platform"));
+        this.properties.setProperty("scheduler-VirtualThreads", String.valueOf(virtualThreads));
+        if( maxRequestsPerController == null || maxRequestsPerController < 1 ) {
+            maxRequestsPerController = getProperty("scheduler-NumberOfControllerThreads", 50L).intValue();
+        }
+        if(printOutput) logger.info("Setting Max Concurrent Requests per Controller to %d", maxRequestsPerController);
+        this.properties.setProperty("scheduler-MaxRequestsPerController", maxRequestsPerController.toString());
+        if( metricRequestsPerApplication == null || metricRequestsPerApplication < 1 ) {
+            metricRequestsPerApplication = 8;
+        }
+        if(printOutput) logger.info("Setting Metric Requests per Application to %d", metricRequestsPerApplication);
+        this.properties.setProperty("scheduler-MetricRequestsPerApplication", metricRequestsPerApplication.toString());
+        if( discoveryRequestsPerApplication == null || discoveryRequestsPerApplication < 1 ) {
+            discoveryRequestsPerApplication = 8;
+        }
+        if(printOutput) logger.info("Setting Metric Discovery Requests per Application to %d", discoveryRequestsPerApplication);
+        this.properties.setProperty("scheduler-DiscoveryRequestsPerApplication", discoveryRequestsPerApplication.toString());
+    }
+
+    public void setConnectionPoolProperties( Integer maxConnectionsPerRoute, Integer maxConnectionsTotal, boolean printOutput ) {
+        if( maxConnectionsPerRoute == null || maxConnectionsPerRoute < 1 ) {
+            maxConnectionsPerRoute = getProperty("scheduler-MaxRequestsPerController", 50L).intValue();
+        }
+        if(printOutput) logger.info("Setting Max Connections per Route to %d", maxConnectionsPerRoute);
+        this.properties.setProperty("scheduler-MaxConnectionsPerRoute", maxConnectionsPerRoute.toString());
+        if( maxConnectionsTotal == null || maxConnectionsTotal < maxConnectionsPerRoute ) {
+            maxConnectionsTotal = maxConnectionsPerRoute * 2;
+        }
+        if(printOutput) logger.info("Setting Max Connections Total to %d per controller or analytics account", maxConnectionsTotal);
+        this.properties.setProperty("scheduler-MaxConnectionsTotal", maxConnectionsTotal.toString());
+    }
+
+    public void setTimeoutProperties( Long connectTimeoutSeconds, Long socketTimeoutSeconds, Long connectionRequestTimeoutSeconds, Long requestDeadlineSeconds, boolean hedgeMetricRequests, boolean printOutput ) {
+        if( connectTimeoutSeconds == null || connectTimeoutSeconds < 1 ) connectTimeoutSeconds = 10l;
+        if( socketTimeoutSeconds == null || socketTimeoutSeconds < 1 ) socketTimeoutSeconds = 300l;
+        if( connectionRequestTimeoutSeconds == null || connectionRequestTimeoutSeconds < 1 ) connectionRequestTimeoutSeconds = 60l;
+        if( requestDeadlineSeconds == null || requestDeadlineSeconds < 1 ) requestDeadlineSeconds = 900l;
+        if( requestDeadlineSeconds < socketTimeoutSeconds ) {
+            logger.warn("RequestDeadlineSeconds %d is shorter than SocketTimeoutSeconds %d, the socket timeout will never be reached", requestDeadlineSeconds, socketTimeoutSeconds);
+        }
+        if(printOutput) logger.info("Setting request timeouts to connect %d(s), socket %d(s), waiting for a connection %d(s), whole request %d(s)", connectTimeoutSeconds, socketTimeoutSeconds, connectionRequestTimeoutSeconds, requestDeadlineSeconds);
+        this.properties.setProperty("scheduler-ConnectTimeoutSeconds", connectTimeoutSeconds.toString());
+        this.properties.setProperty("scheduler-SocketTimeoutSeconds", socketTimeoutSeconds.toString());
+        this.properties.setProperty("scheduler-ConnectionRequestTimeoutSeconds", connectionRequestTimeoutSeconds.toString());
+        this.properties.setProperty("scheduler-RequestDeadlineSeconds", requestDeadlineSeconds.toString());
+        if(printOutput) logger.info("Setting Hedge Metric Requests to %s", hedgeMetricRequests);
+        this.properties.setProperty("scheduler-HedgeMetricRequests", String.valueOf(hedgeMetricRequests));
+    }
+
     public void setSchedulerProperties( boolean enabledFlag, Long pollIntervalMinutes, Long firstRunHistoricNumberOfHours, Long numberOfControllerThreads, Long numberOfDatabaseThreads, Long numberConfigRefreshHours, Long firstRunHistoricNumberOfDays, Long maxNumberOfDaysToQueryAtATime, boolean printOutput ) {
         if( enabledFlag ) {
             properties.setProperty("scheduler-enabled", "true");
@@ -26,6 +26,15 @@ public class AnalyticsConfig {
     @XmlElement(name = "AdjustEndTimeMinutes")
     private long adjustEndTimeMinutes = 5;
 
+    @XmlElement(name = "PollIntervalMinutes")
+    private long pollIntervalMinutes = 0;
+
+    @XmlElement(name = "SocketTimeoutSeconds")
+    private long socketTimeoutSeconds = 0;
+
+    @XmlElement(name = "RequestDeadlineSeconds")
+    private long requestDeadlineSeconds = 0;
+
     @XmlElement(name = "Search")
     private List<AnalyticsSearchConfig> searchList = new ArrayList<>();
 
@@ -84,4 +93,28 @@ public class AnalyticsConfig {
     public void setSearchList (List<AnalyticsSearchConfig> searchList) {
         this.searchList = searchList;
     }
+
+    public long getPollIntervalMinutes () {
+        return pollIntervalMinutes;
+    }
+
+    public void setPollIntervalMinutes (long pollIntervalMinutes) {
+        this.pollIntervalMinutes = pollIntervalMinutes;
+    }
+
+    public long getSocketTimeoutSeconds () {
+        return socketTimeoutSeconds;
+    }
+
+    public void setSocketTimeoutSeconds (long socketTimeoutSeconds) {
+        this.socketTimeoutSeconds = socketTimeoutSeconds;
+    }
+
+    public long getRequestDeadlineSeconds () {
+        return requestDeadlineSeconds;
+    }
+
+    public void setRequestDeadlineSeconds (long requestDeadlineSeconds) {
+        this.requestDeadlineSeconds = requestDeadlineSeconds;
+    }
 }
@@ -20,6 +20,8 @@ public class ApplicationDefaultsConfig {
     private int granularityMinutes;
     @XmlElement(name = "OnlyGetDefaultBaseline")
     private boolean onlyGetDefaultBaseline;
+    @XmlElement(name = "PollIntervalMinutes")
+    private long pollIntervalMinutes = 0;
 
     public boolean isDisableDataRollup () {
         return disableDataRollup;
@@ -68,4 +70,12 @@ public class ApplicationDefaultsConfig {
     public void setOnlyGetDefaultBaseline (boolean onlyGetDefaultBaseline) {
         this.onlyGetDefaultBaseline = onlyGetDefaultBaseline;
     }
+
+    public long getPollIntervalMinutes () {
+        return pollIntervalMinutes;
+    }
+
+    public void setPollIntervalMinutes (long pollIntervalMinutes) {
+        this.pollIntervalMinutes = pollIntervalMinutes;
+    }
 }
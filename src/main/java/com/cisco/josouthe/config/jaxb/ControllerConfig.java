@@ -24,6 +24,12 @@ public class ControllerConfig {
     @XmlElement(name = "AdjustEndTimeMinutes")
     private long adjustEndTimeMinutes = 5;
 
+    @XmlElement(name = "SocketTimeoutSeconds")
+    private long socketTimeoutSeconds = 0;
+
+    @XmlElement(name = "RequestDeadlineSeconds")
+    private long requestDeadlineSeconds = 0;
+
     @XmlElement(name = "Application")
     private List<ApplicationConfig> applicationList = new ArrayList<>();
 
@@ -67,6 +73,22 @@ public class ControllerConfig {
         this.adjustEndTimeMinutes = adjustEndTimeMinutes;
     }
 
+    public long getSocketTimeoutSeconds () {
+        return socketTimeoutSeconds;
+    }
+
+    public void setSocketTimeoutSeconds (long socketTimeoutSeconds) {
+        this.socketTimeoutSeconds = socketTimeoutSeconds;
+    }
+
+    public long getRequestDeadlineSeconds () {
+        return requestDeadlineSeconds;
+    }
+
+    public void setRequestDeadlineSeconds (long requestDeadlineSeconds) {
+        this.requestDeadlineSeconds = requestDeadlineSeconds;
+    }
+
     public List<ApplicationConfig> getApplicationList () {
         return applicationList;
     }
@@ -28,6 +28,102 @@ public class SchedulerConfig {
     @XmlElement(name = "MaxNumberOfDaysToQueryAtATime")
     private long maxNumberOfDaysToQueryAtATime = 14;
 
+    @XmlElement(name = "MaxQueueMegabytes")
+    private long maxQueueMegabytes = 0;
+
+    @XmlElement(name = "MaxQueueRows")
+    private long maxQueueRows = 0;
+
+    @XmlElement(name = "QueueType")
+    private String queueType = "Blocking";
+
+    @XmlElement(name = "SpillDirectory")
+    private String spillDirectory = "spill";
+
+    @XmlElement(name = "SpillSegmentMegabytes")
+    private long spillSegmentMegabytes = 64;
+
+    @XmlElement(name = "SpillMaxMegabytes")
+    private long spillMaxMegabytes = 10240;
+
+    @XmlElement(name = "RingBufferSize")
+    private int ringBufferSize = 1024;
+
+    @XmlElement(name = "InsertBatchRows")
+    private long insertBatchRows = 10000;
+
+    @XmlElement(name = "InsertBatchMaxAgeSeconds")
+    private long insertBatchMaxAgeSeconds = 10;
+
+    @XmlElement(name = "InsertRetryMaxAttempts")
+    private int insertRetryMaxAttempts = 8;
+
+    @XmlElement(name = "InsertRetryBaseSeconds")
+    private long insertRetryBaseSeconds = 5;
+
+    @XmlElement(name = "InsertRetryMaxSeconds")
+    private long insertRetryMaxSeconds = 600;
+
+    @XmlElement(name = "DeadLetterDirectory")
+    private String deadLetterDirectory = "deadletter";
+
+    @XmlElement(name = "TableAffineWriters")
+    private boolean tableAffineWriters = false;
+
+    @XmlElement(name = "VirtualThreads")
+    private boolean virtualThreads = false;
+
+    @XmlElement(name = "MaxRequestsPerController")
+    private int maxRequestsPerController = 0;
+
+    @XmlElement(name = "MetricRequestsPerApplication")
+    private int metricRequestsPerApplication = 8;
+
+    @XmlElement(name = "DiscoveryRequestsPerApplication")
+    private int discoveryRequestsPerApplication = 8;
+
+    @XmlElement(name = "MaxConnectionsPerRoute")
+    private int maxConnectionsPerRoute = 0;
+
+    @XmlElement(name = "MaxConnectionsTotal")
+    private int maxConnectionsTotal = 0;
+
+    @XmlElement(name = "ConnectTimeoutSeconds")
+    private long connectTimeoutSeconds = 10;
+
+    @XmlElement(name = "SocketTimeoutSeconds")
+    private long socketTimeoutSeconds = 300;
+
+    @XmlElement(name = "ConnectionRequestTimeoutSeconds")
+    private long connectionRequestTimeoutSeconds = 60;
+
+    @XmlElement(name = "RequestDeadlineSeconds")
+    private long requestDeadlineSeconds = 900;
+
+    @XmlElement(name = "HedgeMetricRequests")
+    private boolean hedgeMetricRequests = false;
+
+    @XmlElement(name = "BaselineMetricsPerRequest")
+    private int baselineMetricsPerRequest = 100;
+
+    @XmlElement(name = "BackfillSliceMinutes")
+    private long backfillSliceMinutes = 60;
+
+    @XmlElement(name = "MetricValuesPerChunk")
+    private int metricValuesPerChunk = 1000;
+
+    @XmlElement(name = "DiscoveryCacheDirectory")
+    private String discoveryCacheDirectory = "discovery";
+
+    @XmlElement(name = "DiscoveryCacheMaxAgeHours")
+    private long discoveryCacheMaxAgeHours = 24;
+
+    @XmlElement(name = "BaselinePollIntervalMinutes")
+    private long baselinePollIntervalMinutes = 60;
+
+    @XmlElement(name = "BaselineThreads")
+    private int baselineThreads = 5;
+
     public boolean isEnabled () {
         return enabled;
     }
@@ -91,4 +187,259 @@ public class SchedulerConfig {
     public void setMaxNumberOfDaysToQueryAtATime (long maxNumberOfDaysToQueryAtATime) {
         this.maxNumberOfDaysToQueryAtATime = maxNumberOfDaysToQueryAtATime;
     }
+
+    public long getMaxQueueMegabytes () {
+        return maxQueueMegabytes;
+    }
+
+    public void setMaxQueueMegabytes (long maxQueueMegabytes) {
+        this.maxQueueMegabytes = maxQueueMegabytes;
+    }
+
+    public long getMaxQueueRows () {
+        return maxQueueRows;
+    }
+
+    public void setMaxQueueRows (long maxQueueRows) {
+        this.maxQueueRows = maxQueueRows;
+    }
+    public String getQueueType () {
+        return queueType;
+    }
+
+    public void setQueueType (String queueType) {
+        this.queueType = queueType;
+    }
+
+    public int getRingBufferSize () {
+        return ringBufferSize;
+    }
+
+    public void setRingBufferSize (int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+    }
+
+    public boolean isVirtualThreads () {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads (boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getMaxRequestsPerController () {
+        return maxRequestsPerController;
+    }
+
+    public void setMaxRequestsPerController (int maxRequestsPerController) {
+        this.maxRequestsPerController = maxRequestsPerController;
+    }
+
+    public int getMetricRequestsPerApplication () {
+        return metricRequestsPerApplication;
+    }
+
+    public void setMetricRequestsPerApplication (int metricRequestsPerApplication) {
+        this.metricRequestsPerApplication = metricRequestsPerApplication;
+    }
+
+    public int getDiscoveryRequestsPerApplication () {
+        return discoveryRequestsPerApplication;
+    }
+
+    public void setDiscoveryRequestsPerApplication (int discoveryRequestsPerApplication) {
+        this.discoveryRequestsPerApplication = discoveryRequestsPerApplication;
+    }
+
+    public int getMaxConnectionsPerRoute () {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute (int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnectionsTotal () {
+        return maxConnectionsTotal;
+    }
+
+    public void setMaxConnectionsTotal (int maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public long getConnectTimeoutSeconds () {
+        return connectTimeoutSeconds;
+    }
+
+    public void setConnectTimeoutSeconds (long connectTimeoutSeconds) {
+        this.connectTimeoutSeconds = connectTimeoutSeconds;
+    }
+
+    public long getSocketTimeoutSeconds () {
+        return socketTimeoutSeconds;
+    }
+
+    public void setSocketTimeoutSeconds (long socketTimeoutSeconds) {
+        this.socketTimeoutSeconds = socketTimeoutSeconds;
+    }
+
+    public long getConnectionRequestTimeoutSeconds () {
+        return connectionRequestTimeoutSeconds;
+    }
+
+    public void setConnectionRequestTimeoutSeconds (long connectionRequestTimeoutSeconds) {
+        this.connectionRequestTimeoutSeconds = connectionRequestTimeoutSeconds;
+    }
+
+    public long getRequestDeadlineSeconds () {
+        return requestDeadlineSeconds;
+    }
+
+    public void setRequestDeadlineSeconds (long requestDeadlineSeconds) {
+        this.requestDeadlineSeconds = requestDeadlineSeconds;
+    }
+
+    public boolean isHedgeMetricRequests () {
+        return hedgeMetricRequests;
+    }
+
+    public void setHedgeMetricRequests (boolean hedgeMetricRequests) {
+        this.hedgeMetricRequests = hedgeMetricRequests;
+    }
+
+    public int getBaselineMetricsPerRequest () {
+        return baselineMetricsPerRequest;
+    }
+
+    public void setBaselineMetricsPerRequest (int baselineMetricsPerRequest) {
+        this.baselineMetricsPerRequest = baselineMetricsPerRequest;
+    }
+
+    public long getBackfillSliceMinutes () {
+        return backfillSliceMinutes;
+    }
+
+    public void setBackfillSliceMinutes (long backfillSliceMinutes) {
+        this.backfillSliceMinutes = backfillSliceMinutes;
+    }
+
+    public int getMetricValuesPerChunk () {
+        return metricValuesPerChunk;
+    }
+
+    public void setMetricValuesPerChunk (int metricValuesPerChunk) {
+        this.metricValuesPerChunk = metricValuesPerChunk;
+    }
+
+    public String getDiscoveryCacheDirectory () {
+        return discoveryCacheDirectory;
+    }
+
+    public void setDiscoveryCacheDirectory (String discoveryCacheDirectory) {
+        this.discoveryCacheDirectory = discoveryCacheDirectory;
+    }
+
+    public long getDiscoveryCacheMaxAgeHours () {
+        return discoveryCacheMaxAgeHours;
+    }
+
+    public void setDiscoveryCacheMaxAgeHours (long discoveryCacheMaxAgeHours) {
+        this.discoveryCacheMaxAgeHours = discoveryCacheMaxAgeHours;
+    }
+
+    public long getBaselinePollIntervalMinutes () {
+        return baselinePollIntervalMinutes;
+    }
+
+    public void setBaselinePollIntervalMinutes (long baselinePollIntervalMinutes) {
+        this.baselinePollIntervalMinutes = baselinePollIntervalMinutes;
+    }
+
+    public int getBaselineThreads () {
+        return baselineThreads;
+    }
+
+    public void setBaselineThreads (int baselineThreads) {
+        this.baselineThreads = baselineThreads;
+    }
+
+    public long getInsertBatchRows () {
+        return insertBatchRows;
+    }
+
+    public void setInsertBatchRows (long insertBatchRows) {
+        this.insertBatchRows = insertBatchRows;
+    }
+
+    public long getInsertBatchMaxAgeSeconds () {
+        return insertBatchMaxAgeSeconds;
+    }
+
+    public void setInsertBatchMaxAgeSeconds (long insertBatchMaxAgeSeconds) {
+        this.insertBatchMaxAgeSeconds = insertBatchMaxAgeSeconds;
+    }
+
+    public String getSpillDirectory () {
+        return spillDirectory;
+    }
+
+    public void setSpillDirectory (String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public long getSpillSegmentMegabytes () {
+        return spillSegmentMegabytes;
+    }
+
+    public void setSpillSegmentMegabytes (long spillSegmentMegabytes) {
+        this.spillSegmentMegabytes = spillSegmentMegabytes;
+    }
+
+    public long getSpillMaxMegabytes () {
+        return spillMaxMegabytes;
+    }
+
+    public void setSpillMaxMegabytes (long spillMaxMegabytes) {
+        this.spillMaxMegabytes = spillMaxMegabytes;
+    }
+
+    public int getInsertRetryMaxAttempts () {
+        return insertRetryMaxAttempts;
+    }
+
+    public void setInsertRetryMaxAttempts (int insertRetryMaxAttempts) {
+        this.insertRetryMaxAttempts = insertRetryMaxAttempts;
+    }
+
+    public long getInsertRetryBaseSeconds () {
+        return insertRetryBaseSeconds;
+    }
+
+    public void setInsertRetryBaseSeconds (long insertRetryBaseSeconds) {
+        this.insertRetryBaseSeconds = insertRetryBaseSeconds;
+    }
+
+    public long getInsertRetryMaxSeconds () {
+        return insertRetryMaxSeconds;
+    }
+
+    public void setInsertRetryMaxSeconds (long insertRetryMaxSeconds) {
+        this.insertRetryMaxSeconds = insertRetryMaxSeconds;
+    }
+
+    public String getDeadLetterDirectory () {
+        return deadLetterDirectory;
+    }
+
+    public void setDeadLetterDirectory (String deadLetterDirectory) {
+        this.deadLetterDirectory = deadLetterDirectory;
+    }
+
+    public boolean isTableAffineWriters () {
+        return tableAffineWriters;
+    }
+
+    public void setTableAffineWriters (boolean tableAffineWriters) {
+        this.tableAffineWriters = tableAffineWriters;
+    }
 }
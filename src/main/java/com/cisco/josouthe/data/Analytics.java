@@ -1,19 +1,27 @@
 package com.cisco.josouthe.data;
 
+import com.cisco.josouthe.config.Configuration;
 import com.cisco.josouthe.data.analytic.Result;
 import com.cisco.josouthe.data.analytic.Search;
 import com.cisco.josouthe.database.ControlEntry;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.database.IControlTable;
+import com.cisco.josouthe.database.WatermarkTracker;
 import com.cisco.josouthe.exceptions.ControllerBadStatusException;
+import com.cisco.josouthe.http.AdaptiveConcurrencyLimiter;
+import com.cisco.josouthe.http.HedgedRequestExecutor;
 import com.cisco.josouthe.http.HttpClientFactory;
+import com.cisco.josouthe.http.Watchdog;
+import com.cisco.josouthe.queue.IDataQueue;
+import com.cisco.josouthe.scheduler.FanOut;
+import com.cisco.josouthe.scheduler.WindowPlanner;
 import com.cisco.josouthe.util.Utility;
-import com.cisco.josouthe.http.WorkingStatusThread;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,8 +30,10 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 public class Analytics {
     private static final Logger logger = LogManager.getFormatterLogger();
@@ -32,11 +42,15 @@ public class Analytics {
     public URL url;
     private Database database;
     private long minutesToAdjustEndTimestampBy = 5;
+    private long pollIntervalMinutes = 0; //0 means use the scheduler poll interval
     ArrayList<Search> searches = new ArrayList<>();
     HttpClient client = null;
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     IControlTable controlTable = null;
     private ResponseHandler<String> responseHandler;
+    private AdaptiveConcurrencyLimiter requestLimiter;
+    private HedgedRequestExecutor requestExecutor;
+    private ExecutorService fetchExecutor;
 
     public Analytics( String urlString, String APIAccountName, String APIKey, String tableNamePrefix, Database database ) throws MalformedURLException {
         if( !urlString.endsWith("/") ) urlString+="/";
@@ -46,8 +60,16 @@ public class Analytics {
         if( tableNamePrefix != null )
             this.tableNamePrefix=tableNamePrefix;
         this.database = database;
-        this.client = HttpClientFactory.getHttpClient();
+        String endpoint = "analytics:"+ this.url.getHost() +"/"+ this.APIAccountName;
+        if( database == null ) {
+            this.client = HttpClientFactory.getHttpClient(endpoint, 50, 100);
+        } else {
+            this.client = HttpClientFactory.getHttpClient(endpoint, database.getConfiguration().getProperty("scheduler-MaxConnectionsPerRoute", 50), database.getConfiguration().getProperty("scheduler-MaxConnectionsTotal", 100));
+        }
         this.responseHandler = HttpClientFactory.getStringResponseHandler("analytics");
+        this.requestLimiter = AdaptiveConcurrencyLimiter.getLimiter(endpoint, (database == null ? 50 : database.getConfiguration().getProperty("scheduler-MaxRequestsPerController", 50)));
+        this.requestExecutor = HedgedRequestExecutor.getExecutor(endpoint, requestLimiter);
+        setRequestTimeouts(0, 0);
     }
 
     public Analytics(String urlString, String accountName, String apiKey, String tableNamePrefix, Database database, ArrayList<Search> searches, long minutesToAdjustEndTimestampBy ) throws MalformedURLException{
@@ -56,6 +78,38 @@ public class Analytics {
         this.minutesToAdjustEndTimestampBy=minutesToAdjustEndTimestampBy;
     }
 
+    public long getPollIntervalMinutes() { return pollIntervalMinutes; }
+    public void setPollIntervalMinutes( long pollIntervalMinutes ) { this.pollIntervalMinutes=pollIntervalMinutes; }
+
+    //0 uses the Scheduler setting, searches are POSTs so they are never hedged
+    public void setRequestTimeouts( long socketTimeoutSeconds, long requestDeadlineSeconds ) {
+        if( database == null ) return; //no configuration, keep the executor defaults
+        Configuration configuration = database.getConfiguration();
+        if( socketTimeoutSeconds < 1 ) socketTimeoutSeconds = configuration.getProperty("scheduler-SocketTimeoutSeconds", 300L);
+        if( requestDeadlineSeconds < 1 ) requestDeadlineSeconds = configuration.getProperty("scheduler-RequestDeadlineSeconds", 900L);
+        requestExecutor.setTimeouts(configuration.getProperty("scheduler-ConnectTimeoutSeconds", 10L), socketTimeoutSeconds,
+                configuration.getProperty("scheduler-ConnectionRequestTimeoutSeconds", 60L), requestDeadlineSeconds);
+    }
+
+    //limits the searches in flight against this analytics account, the same way Controller limits its api calls
+    private String executeRequest( HttpRequestBase request ) throws IOException {
+        long startNanos;
+        try {
+            startNanos = requestLimiter.acquire();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a request permit for analytics account "+ this.APIAccountName);
+        }
+        try {
+            String json = requestExecutor.execute(this.client, request, this.responseHandler);
+            requestLimiter.onSuccess(startNanos);
+            return json;
+        } catch (IOException | RuntimeException exception) {
+            requestLimiter.onException(startNanos, exception);
+            throw exception;
+        }
+    }
+
     public void setControlTable(IControlTable controlTable) {
         this.controlTable=controlTable;
     }
@@ -71,9 +125,12 @@ public class Analytics {
         return getAllSearches(null);
     }
 
-    public Result[] getAllSearches(LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue) {
+    public Result[] getAllSearches(IDataQueue dataToInsertLinkedBlockingQueue) {
         ArrayList<Result> results = new ArrayList<>();
         ControlEntry controlEntry = this.controlTable.getLastRunTimestamp(url.getHost(), this.APIAccountName, "AnalyticsData");
+        WatermarkTracker watermarkTracker = database.getWatermarkTracker();
+        WatermarkTracker.Window window = watermarkTracker.open(controlEntry);
+        IDataQueue trackedQueue = watermarkTracker.wrap(window, dataToInsertLinkedBlockingQueue);
         long startTimestamp = controlEntry.timestamp;
         long endTimestamp = Utility.now(this.minutesToAdjustEndTimestampBy*-60000 ); //going to try setting the end time to now()-5 minutes to see if this is enough to allow the backend time to finish collecting all data for a period
         if( database.getConfiguration().isTooLongATime( endTimestamp - startTimestamp ) )
@@ -81,29 +138,60 @@ public class Analytics {
         logger.trace("Adjustment, if enabled: minutes %d (negated)mil: %d", this.minutesToAdjustEndTimestampBy,this.minutesToAdjustEndTimestampBy*-60000 );
         if( endTimestamp <= startTimestamp ) {
             logger.warn("While trying to set the end timestamp to 5 minutes before now(), we have reached a situation where the end time is less than or equal to the start time, this means we are going to skip this run");
+            watermarkTracker.abandon(window);
             return null;
         }
-        for( Search search : searches ) {
-            //Transaction serviceEndPoint = AppdynamicsAgent.startTransactionAndServiceEndPoint("Analytics Search", null, "Analytics Search "+ search.name, EntryTypes.POJO, false);
-            //serviceEndPoint.collectData("Search Query", search.query, Utility.getSnapshotDatascope());
-            logger.info("Running Analytics Search %s query: '%s'", search.getName(), search.getQuery());
-            Result[] searchResults = runAnalyticsQuery(search, startTimestamp, endTimestamp, dataToInsertLinkedBlockingQueue);
-            //serviceEndPoint.end();
-            if( dataToInsertLinkedBlockingQueue == null && searchResults != null ) {
-                for( Result result : searchResults )
-                    results.add(result);
+        //every search for every slice of the window is its own request, a long backfill runs as many small searches at once instead of one huge one
+        Configuration configuration = database.getConfiguration();
+        List<WindowPlanner.TimeSlice> slices = WindowPlanner.plan(startTimestamp, endTimestamp, configuration.getProperty("scheduler-BackfillSliceMinutes", 60L)*60000);
+        List<Callable<Boolean>> fetches = new ArrayList<>();
+        for( WindowPlanner.TimeSlice slice : slices ) {
+            for( Search search : searches ) {
+                fetches.add(() -> {
+                    //Transaction serviceEndPoint = AppdynamicsAgent.startTransactionAndServiceEndPoint("Analytics Search", null, "Analytics Search "+ search.name, EntryTypes.POJO, false);
+                    //serviceEndPoint.collectData("Search Query", search.query, Utility.getSnapshotDatascope());
+                    logger.info("Running Analytics Search %s query: '%s' from %d to %d", search.getName(), search.getQuery(), slice.start, slice.end);
+                    if( search.getQuery() == null ) return true;
+                    Result[] searchResults = runAnalyticsQuery(search, slice.start, slice.end, trackedQueue);
+                    //serviceEndPoint.end();
+                    if( searchResults == null ) return false;
+                    if( dataToInsertLinkedBlockingQueue == null ) {
+                        synchronized (results) { results.addAll(Arrays.asList(searchResults)); }
+                    }
+                    return true;
+                });
             }
         }
-        controlEntry.timestamp = endTimestamp;
-        this.controlTable.setLastRunTimestamp(controlEntry);
+        try {
+            boolean[] succeeded = FanOut.runAll(getFetchExecutor(configuration), configuration.getProperty("scheduler-MetricRequestsPerApplication", 8), fetches, 1);
+            for( int i = 0; i < succeeded.length; i++ )
+                if( !succeeded[i] ) slices.get(i / searches.size()).failed = true;
+        } catch (InterruptedException interruptedException) {
+            logger.warn("Interrupted running analytics searches for %s, not moving the last run time forward", this.APIAccountName);
+            watermarkTracker.abandon(window);
+            return results.toArray(new Result[0]);
+        }
+        long watermark = WindowPlanner.getWatermark(startTimestamp, slices);
+        if( watermark < endTimestamp ) {
+            logger.warn("Could not run every analytics search for %s, the next run will start again from %d, %d ms short of %d", this.APIAccountName, watermark, endTimestamp - watermark, endTimestamp);
+            endTimestamp = watermark;
+        }
+        watermarkTracker.seal(window, endTimestamp);
         return results.toArray(new Result[0]);
     }
 
+    //the number of threads is bounded by MetricRequestsPerApplication
+    private synchronized ExecutorService getFetchExecutor( Configuration configuration ) {
+        if( fetchExecutor == null )
+            fetchExecutor = FanOut.newExecutor("AnalyticsFetch-"+ this.APIAccountName, configuration.getProperty("scheduler-VirtualThreads", false));
+        return fetchExecutor;
+    }
+
     public Result[] runAnalyticsQuery(Search search) {
         return runAnalyticsQuery(search.getName(), search.getQuery(), Utility.now(), Utility.now(this.minutesToAdjustEndTimestampBy*-60000), search.limit, null);
     }
 
-    public Result[] runAnalyticsQuery(Search search, long startTimestamp, long endTimestamp, LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue) {
+    public Result[] runAnalyticsQuery(Search search, long startTimestamp, long endTimestamp, IDataQueue dataToInsertLinkedBlockingQueue) {
         return runAnalyticsQuery(search.getName(), search.getQuery(), startTimestamp, endTimestamp, search.limit, dataToInsertLinkedBlockingQueue);
     }
 
@@ -111,7 +199,7 @@ public class Analytics {
         return runAnalyticsQuery(name, query, Utility.now(), Utility.now(-3600000), 10000, null);
     }
 
-    public Result[] runAnalyticsQuery(String name, String query, long startTimestamp, long endTimestamp, long limit, LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue ) {
+    public Result[] runAnalyticsQuery(String name, String query, long startTimestamp, long endTimestamp, long limit, IDataQueue dataToInsertLinkedBlockingQueue ) {
         if( query == null || startTimestamp < 1 ) return null;
         HttpPost request = new HttpPost( String.format("%sevents/query?start=%s&end=%s&limit=%d", this.url.toString(), Utility.getEncodedDateString(startTimestamp), Utility.getEncodedDateString(endTimestamp), limit));
         request.addHeader("X-Events-API-AccountName", this.APIAccountName);
@@ -132,10 +220,9 @@ public class Analytics {
         boolean succeeded=false;
         String json = "";
         while (!succeeded && tries < 3) {
-            WorkingStatusThread workingStatusThread = new WorkingStatusThread(String.format("Analytics Query %s",name), query, logger);
-            workingStatusThread.start();
+            Watchdog.Operation watchdog = Watchdog.watch(String.format("Analytics Query %s",name), query, logger);
             try{
-                json = this.client.execute(request, this.responseHandler);
+                json = executeRequest(request);
                 succeeded=true;
             } catch (ControllerBadStatusException controllerBadStatusException) {
                 tries++;
@@ -144,7 +231,7 @@ public class Analytics {
                 tries++;
                 logger.warn("IOException: %s",ioException.getMessage());
             } finally {
-                workingStatusThread.cancel();
+                watchdog.cancel();
             }
         }
         if( !succeeded ) {
@@ -165,27 +252,26 @@ public class Analytics {
                 result.endTimestamp = endTimestamp;
                 if( result.isError() ) {
                     logger.error("Query %s '%s' had Error fetching search results: %s", name, query, result.error);
-                    return null;
+                    return new Result[0]; //asking again won't fix the query, move on
                 }
                 if( result.isMoreDataSet() ) {
                     //we need to run again with scroll method
                     logger.info("Going to have to try again with scroll for query %s", name);
-                    runAnalyticsQueryWithScroll(name, query, startTimestamp, endTimestamp, new ArrayList<>(), null, dataToInsertLinkedBlockingQueue);
-                    return null;
+                    return runAnalyticsQueryWithScroll(name, query, startTimestamp, endTimestamp, new ArrayList<>(), null, dataToInsertLinkedBlockingQueue) ? new Result[0] : null;
                 }
             }
 
         if( dataToInsertLinkedBlockingQueue != null ) {
             dataToInsertLinkedBlockingQueue.add(results);
-            return null;
+            return new Result[0];
         } else {
             return results;
         }
     }
 
     //sometimes: https://docs.appdynamics.com/appd/22.x/latest/en/extend-appdynamics/appdynamics-apis/analytics-events-api#FirstRequest
-    private void runAnalyticsQueryWithScroll(String name, String query, long startTimestamp, long endTimestamp, List<Result> resultList, String scrollId, LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue ) {
-        if( query == null || startTimestamp < 1 ) return ;
+    private boolean runAnalyticsQueryWithScroll(String name, String query, long startTimestamp, long endTimestamp, List<Result> resultList, String scrollId, IDataQueue dataToInsertLinkedBlockingQueue ) {
+        if( query == null || startTimestamp < 1 ) return false;
         logger.trace("Search '%s' ScrollId: %s", name, scrollId);
         HttpPost request = new HttpPost( String.format("%sevents/query?start=%s&end=%s", this.url.toString(), Utility.getEncodedDateString(startTimestamp), Utility.getEncodedDateString(endTimestamp)));
         request.addHeader("X-Events-API-AccountName", this.APIAccountName);
@@ -200,7 +286,7 @@ public class Analytics {
             request.setEntity(new StringEntity(stringBuilder.toString(), "UTF-8"));
         } catch (Exception e) {
             logger.error("Query could not be encoded in the body of the request: '%s' Exception: %s",query,e.getMessage());
-            return ;
+            return false;
         }
         logger.trace("Request: %s with query: %s", request.toString(), query);
         if( HttpClientFactory.isWireTraceEnabled("analytics") ) {
@@ -210,10 +296,9 @@ public class Analytics {
         boolean succeeded=false;
         String json = "";
         while (!succeeded && tries < 3) {
-            WorkingStatusThread workingStatusThread = new WorkingStatusThread(String.format("Analytics Query %s",name), query, logger);
-            workingStatusThread.start();
+            Watchdog.Operation watchdog = Watchdog.watch(String.format("Analytics Query %s",name), query, logger);
             try{
-                json = this.client.execute(request, this.responseHandler);
+                json = executeRequest(request);
                 succeeded=true;
             } catch (ControllerBadStatusException controllerBadStatusException) {
                 tries++;
@@ -222,12 +307,12 @@ public class Analytics {
                 tries++;
                 logger.warn("IOException: %s",ioException.getMessage());
             } finally {
-                workingStatusThread.cancel();
+                watchdog.cancel();
             }
         }
         if( !succeeded ) {
             logger.error("Could not retrieve Analytic Search Results for '%s' Query: '%s' Message: '%s'", name, query, json);
-            return ;
+            return false;
         }
         Result[] results =  gson.fromJson(json, Result[].class);
         if( results != null ) {
@@ -243,16 +328,17 @@ public class Analytics {
                 result.endTimestamp = endTimestamp;
                 if (result.isError()) {
                     logger.error("Query %s '%s' had Error fetching search results: %s", name, query, result.error);
-                    return ;
+                    return true;
                 }
             }
             dataToInsertLinkedBlockingQueue.add(results);
             for( Result result : results ) {
                 if( result.isMoreDataSet() ) {
-                    runAnalyticsQueryWithScroll(name, query, startTimestamp, endTimestamp, resultList, result.scrollid, dataToInsertLinkedBlockingQueue);
+                    if( !runAnalyticsQueryWithScroll(name, query, startTimestamp, endTimestamp, resultList, result.scrollid, dataToInsertLinkedBlockingQueue) ) return false;
                 }
             }
         }
+        return true;
     }
 
 }
@@ -1,27 +1,39 @@
 package com.cisco.josouthe.data;
 
 import com.cisco.josouthe.data.event.EventData;
+import com.cisco.josouthe.data.metric.ApplicationMetricFile;
 import com.cisco.josouthe.data.metric.Baseline;
+import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.DiscoveredMetrics;
 import com.cisco.josouthe.data.metric.MetricData;
 import com.cisco.josouthe.data.metric.MetricGraph;
 import com.cisco.josouthe.data.metric.MetricPaths;
 import com.cisco.josouthe.data.model.TreeNode;
 import com.cisco.josouthe.exceptions.InvalidConfigurationException;
-import com.cisco.josouthe.http.WorkingStatusThread;
+import com.cisco.josouthe.http.Watchdog;
+import com.cisco.josouthe.queue.IDataQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 public class Application {
     private static final Logger logger = LogManager.getFormatterLogger();
     private Controller controller;
-    private boolean finishedInitialization = false;
+    private static final String ROOT_FOLDER = "Application Infrastructure Performance";
+    private final CountDownLatch initialization = new CountDownLatch(1);
+    private volatile DiscoveredMetrics initialDiscovery = null; //until the first discovery is done, what it has found so far
     public boolean getAllAvailableMetrics = true;
     public boolean getAllEvents = false;
     public boolean getAllHealthRuleViolations = false;
@@ -37,8 +49,13 @@ public class Application {
     public List<Baseline> baselines = null;
     public Baseline defaultBaseline = null;
     private MetricPaths metricPaths = null;
+    private final List<String> configuredMetrics = new ArrayList<>();
     private int granularityMinutes = 1;
     private boolean onlyGetDefaultBaseline = true;
+    private long pollIntervalMinutes = 0; //0 means use the scheduler poll interval
+    private final Map<Long,String> metricIdsForBaselines = new ConcurrentHashMap<>(); //the baseline api only takes metric ids, these are learned by the metric fetch
+    private final Object metricsLock = new Object(), eventsLock = new Object(), baselineLock = new Object();
+    private final CountDownLatch metricsFetched = new CountDownLatch(1);
 
     public Application(boolean getAllAvailableMetrics,
                        String name,
@@ -59,16 +76,25 @@ public class Application {
         if( defaultMetricTableName != null ) this.defaultMetricTableName = defaultMetricTableName;
         if( defaultEventTableName != null ) this.defaultEventTableName = defaultEventTableName;
         if( defaultBaselineTableName != null ) this.defaultBaselineTableName = defaultBaselineTableName;
-        this.metricGraph = new MetricGraph(metrics);
+        if( metrics != null ) this.configuredMetrics.addAll(metrics);
         this.baselines = new ArrayList<>();
         this.metricPaths = new MetricPaths();
+        this.metricGraph = new MetricGraph(metrics);
+        if( getAllAvailableMetrics ) {
+            this.initialDiscovery = new DiscoveredMetrics();
+            this.initialDiscovery.publish(newMetricGraph(new ArrayList<>()).getUniqueCompressedMetricNames()); //the configured metrics and metric paths need no discovery, they can be fetched right away
+        }
         this.granularityMinutes = granularityMinutes;
         this.onlyGetDefaultBaseline = onlyGetDefaultBaseline;
     }
 
-    public boolean isFinishedInitialization() { return finishedInitialization; }
+    public boolean isFinishedInitialization() { return initialization.getCount() == 0; }
+    public void awaitInitialization() throws InterruptedException { initialization.await(); }
+    public DiscoveredMetrics getDiscoveryInProgress() { return initialDiscovery; }
     public void setEventTypeList( String events ) { this.eventTypeList=events; }
     public int getGranularityMinutes() { return granularityMinutes; }
+    public long getPollIntervalMinutes() { return pollIntervalMinutes; }
+    public void setPollIntervalMinutes( long pollIntervalMinutes ) { this.pollIntervalMinutes=pollIntervalMinutes; }
 
     public void validateConfiguration(Controller controller) throws InvalidConfigurationException {
         if( !getAllAvailableMetrics && metricGraph.size() == 0 && !getAllEvents && !getAllHealthRuleViolations ) {
@@ -77,51 +103,277 @@ public class Application {
         }
         this.controller=controller;
         setBaselines( controller.getAllBaselines(this) );
-        if( ! getAllAvailableMetrics ) this.finishedInitialization=true;
+        if( ! getAllAvailableMetrics ) finishInitialization();
         //this.refreshAllAvailableMetricsIfEnabled(); moved to beginning of scheduler, to get some concurrency
     }
 
     public void refreshAllAvailableMetricsIfEnabled() {
         synchronized (this.metricsToAdd) {
             if( getAllAvailableMetrics ) {
-                WorkingStatusThread workingStatusThread = new WorkingStatusThread("Refresh Metrics", "Recursive Tree Walk", logger);
-                workingStatusThread.start();
-                TreeNode[] folders = controller.getApplicationMetricFolders(this, "Application Infrastructure Performance");
-                logger.debug("Found %d folders we can go into", (folders == null ? "0" : folders.length));
-                findMetrics( controller, folders, "");
-                workingStatusThread.cancel();
-                workingStatusThread = new WorkingStatusThread("Refresh Metrics", "Build Metric Graph", logger);
-                workingStatusThread.start();
-                this.metricGraph = new MetricGraph(metricsToAdd);
-                this.metricGraph.addMetricNames( this.metricPaths.getMetricPaths() );
-                workingStatusThread.cancel();
+                ApplicationMetricFile metricFile = getMetricFile();
+                if( !isFinishedInitialization() ) warmFromCache(metricFile);
+                DiscoveryWalk walk = new DiscoveryWalk(metricFile, initialDiscovery);
+                Watchdog.Operation watchdog = Watchdog.watch("Refresh Metrics", "Parallel Tree Walk", logger);
+                long startTime = System.currentTimeMillis();
+                boolean walkedEverything = false;
+                try {
+                    TreeNode[] folders = walk.visitListing(ROOT_FOLDER, controller.getApplicationMetricFolders(this, ROOT_FOLDER));
+                    logger.debug("Found %d folders we can go into", (folders == null ? 0 : folders.length));
+                    int countFolders = findMetrics( controller, folders, "", walk);
+                    logger.info("Discovered %d metrics of %s in %d(ms), %d folders listed by the controller and %d still fresh in the discovery cache", metricsToAdd.size(), this.name, System.currentTimeMillis() - startTime, countFolders, walk.countReused);
+                    walkedEverything = true;
+                } catch (InterruptedException interruptedException) {
+                    logger.warn("Interrupted discovering the metrics of %s, continuing with the %d found so far", this.name, metricsToAdd.size());
+                    Thread.currentThread().interrupt();
+                } finally {
+                    watchdog.cancel();
+                    walk.publishRemaining();
+                }
+                watchdog = Watchdog.watch("Refresh Metrics", "Build Metric Graph", logger);
+                try {
+                    buildMetricGraph(metricsToAdd);
+                } finally {
+                    watchdog.cancel(); //left armed it would keep logging a finished build as still running and stay in Watchdog.getInFlight()
+                }
+                if( walkedEverything ) writeCache(metricFile, walk.listings);
                 this.metricsToAdd.clear(); //possible memory leak, moving to the end of this method instead of beginning
             }
         }
-        this.finishedInitialization=true; //setting this here because we want to continue, even if partial data
+        finishInitialization(); //setting this here because we want to continue, even if partial data
+    }
+
+    //a fetch still taking batches from the first discovery is told there is no more, the walk already published everything it found,
+    //compressed a top level folder at a time, publishing the whole graph again here fetched the same data twice, later windows fetch it instead
+    private void finishInitialization() {
+        DiscoveredMetrics discovery = this.initialDiscovery;
+        if( discovery != null ) {
+            discovery.complete();
+            this.initialDiscovery = null;
+        }
+        initialization.countDown();
+    }
+
+    //the configured metrics are kept through every refresh, they used to be dropped by the first one
+    private void buildMetricGraph( List<String> discoveredMetrics ) {
+        this.metricGraph = newMetricGraph(discoveredMetrics);
+    }
+
+    private MetricGraph newMetricGraph( List<String> discoveredMetrics ) {
+        List<String> metrics = new ArrayList<>(configuredMetrics);
+        metrics.addAll(discoveredMetrics);
+        MetricGraph metricGraph = new MetricGraph(metrics);
+        metricGraph.addMetricNames( this.metricPaths.getMetricPaths() );
+        return metricGraph;
+    }
+
+    //null if DiscoveryCacheDirectory is blank, the controller is in the name as two controllers can have applications with the same name
+    private ApplicationMetricFile getMetricFile() {
+        String directory = controller.getConfiguration().getProperty("scheduler-DiscoveryCacheDirectory", "");
+        if( "".equals(directory) ) return null;
+        return new ApplicationMetricFile(controller.hostname +"-"+ this.name, directory);
+    }
+
+    //after a restart the metrics discovered last time are fetched right away, rather than after the whole tree is walked again
+    private void warmFromCache( ApplicationMetricFile metricFile ) {
+        if( metricFile == null || !metricFile.exists() ) return;
+        try {
+            List<String> cachedMetrics = metricFile.readMetricNames();
+            buildMetricGraph(cachedMetrics);
+            if( initialDiscovery != null ) initialDiscovery.publish(metricGraph.getUniqueCompressedMetricNames()); //nothing has been walked yet, the fetch waiting on discovery takes the cache instead
+            finishInitialization();
+            logger.info("Starting %s with the %d metrics in the discovery cache, refreshing them while the metrics are fetched", this.name, cachedMetrics.size());
+        } catch (IOException ioException) {
+            logger.warn("Could not read the discovery cache of %s, walking the whole metric tree before the first fetch, Exception: %s", this.name, ioException.toString());
+        }
+    }
+
+    private void writeCache( ApplicationMetricFile metricFile, Map<String,ApplicationMetricFile.FolderListing> listings ) {
+        if( metricFile == null ) return;
+        try {
+            metricFile.writeFolders(listings);
+            metricFile.writeMetrics(metricsToAdd);
+        } catch (IOException ioException) {
+            logger.warn("Could not write the discovery cache of %s, the next restart will walk the whole metric tree again, Exception: %s", this.name, ioException.toString());
+        }
     }
 
     private ArrayList<String> metricsToAdd = new ArrayList<>();
-    private void findMetrics(Controller controller, TreeNode[] somethings, String path) {
-        if( somethings == null || somethings.length == 0 ) return;
+    //every folder under these is listed by the controller, many at once, instead of one request after another down each branch
+    private int findMetrics(Controller controller, TreeNode[] somethings, String path, DiscoveryWalk walk) throws InterruptedException {
+        List<String> folders = walk.withoutFresh(walk.visitFolder(path, somethings));
+        walk.publishFinished(); //top level folders that were all in the cache, and metrics right at the top
+        return controller.findApplicationMetricFolders(this, folders, walk::visit);
+    }
+
+    //adds the metrics in a folder and returns the folders in it, only the thread walking the tree calls this so metricsToAdd needs no lock
+    private List<String> visitFolder( String path, TreeNode[] somethings ) {
+        List<String> folders = new ArrayList<>();
+        if( somethings == null || somethings.length == 0 ) return folders;
         if( !"".equals(path) ) path += "|";
 
         for( TreeNode something : somethings ) {
             if( something.isFolder() ) {
-                findMetrics( controller, controller.getApplicationMetricFolders(this, path+something.name), path+something.name);
+                folders.add(path+something.name);
             } else if( "Custom Metrics".contains(path + something.name)){
                 logger.debug("Adding metric: %s%s",path,something.name);
                 metricsToAdd.add(path+something.name);
             }
         }
+        return folders;
     }
 
-    public synchronized ArrayList<MetricData> getAllMetrics(LinkedBlockingQueue<Object[]> dataQueue ) {
-        return this.controller.getAllMetrics(this, dataQueue);
+    /*
+    One walk of the metric tree, a folder whose cached listing is still fresh is visited straight from the cache, without a request,
+    and so is a folder the controller fails to list, from however old a listing it has. Every listing visited ends up in listings,
+    which is written back as the cache, so folders that are gone from the tree drop out of it
+    On the first walk the metrics under each top level folder are published to discovery once none of the folders under it are left to list,
+    compressed with a MetricGraph of their own the same as every later fetch is, one request per leaf name was hundreds of thousands of them
+     */
+    private class DiscoveryWalk {
+        private final Map<String,ApplicationMetricFile.FolderListing> cached;
+        private final Map<String,ApplicationMetricFile.FolderListing> listings = new HashMap<>();
+        private final long maxAgeMillis, now = System.currentTimeMillis();
+        private int countReused = 0;
+        private final DiscoveredMetrics discovery;
+        private final Map<String,Integer> foldersToList = new HashMap<>(); //by top level folder
+        private final Map<String,List<String>> metricsFound = new HashMap<>(); //by top level folder, until published
+
+        private DiscoveryWalk( ApplicationMetricFile metricFile, DiscoveredMetrics discovery ) {
+            this.discovery = discovery;
+            Map<String,ApplicationMetricFile.FolderListing> folders = new HashMap<>();
+            if( metricFile != null ) {
+                try {
+                    folders = metricFile.readFolders();
+                } catch (IOException ioException) {
+                    logger.warn("Could not read the cached folder listings of %s, listing every folder again, Exception: %s", name, ioException.toString());
+                }
+            }
+            this.cached = folders;
+            this.maxAgeMillis = controller.getConfiguration().getProperty("scheduler-DiscoveryCacheMaxAgeHours", 24L) * 3600000;
+        }
+
+        //what the controller listed, or null if it couldn't, returns what to go by
+        private TreeNode[] visitListing( String path, TreeNode[] nodes ) {
+            if( nodes != null ) {
+                listings.put(path, new ApplicationMetricFile.FolderListing(now, nodes));
+                return nodes;
+            }
+            ApplicationMetricFile.FolderListing listing = cached.get(path);
+            if( listing == null ) return null;
+            logger.debug("Using the cached listing of %s from %d(ms) ago, the controller did not list it", path, now - listing.listedAt);
+            listings.put(path, listing);
+            return listing.nodes;
+        }
+
+        private List<String> visit( String path, TreeNode[] nodes ) {
+            List<String> folders = withoutFresh(visitFolder(path, visitListing(path, nodes)));
+            String topFolder = getTopFolder(path);
+            foldersToList.merge(topFolder, -1, Integer::sum);
+            publishIfFinished(topFolder);
+            return folders;
+        }
+
+        private List<String> visitFolder( String path, TreeNode[] nodes ) {
+            int countBefore = metricsToAdd.size();
+            List<String> folders = Application.this.visitFolder(path, nodes);
+            if( discovery != null )
+                for( String metricName : metricsToAdd.subList(countBefore, metricsToAdd.size()) )
+                    metricsFound.computeIfAbsent(getTopFolder(metricName), k -> new ArrayList<>()).add(metricName);
+            return folders;
+        }
+
+        private void publishIfFinished( String topFolder ) {
+            if( discovery == null || foldersToList.getOrDefault(topFolder, 0) > 0 ) return;
+            List<String> metricNames = metricsFound.remove(topFolder);
+            if( metricNames == null ) return;
+            int countCompressed = publish(metricNames);
+            logger.debug("Discovered all %d metrics under %s of %s, they can be fetched now as %d metric paths", metricNames.size(), topFolder, name, countCompressed);
+        }
+
+        private int publish( List<String> metricNames ) {
+            MetricGraph batchGraph = new MetricGraph(null);
+            batchGraph.addMetricNames(metricNames);
+            Set<String> compressed = batchGraph.getUniqueCompressedMetricNames();
+            discovery.publish(compressed);
+            return compressed.size();
+        }
+
+        private void publishFinished() {
+            for( String topFolder : new ArrayList<>(metricsFound.keySet()) ) publishIfFinished(topFolder);
+        }
+
+        //what was found under folders that could not be listed all the way down, or under all of them if the walk was interrupted
+        private void publishRemaining() {
+            if( discovery == null ) return;
+            for( List<String> metricNames : metricsFound.values() ) publish(metricNames);
+            metricsFound.clear();
+        }
+
+        private String getTopFolder( String path ) {
+            int separator = path.indexOf('|');
+            return (separator < 0 ? path : path.substring(0, separator));
+        }
+
+        //visits every folder with a fresh listing, and the fresh folders under them, returns the folders the controller has to list
+        private List<String> withoutFresh( List<String> folders ) {
+            List<String> toList = new ArrayList<>();
+            Deque<String> toVisit = new ArrayDeque<>(folders);
+            while( !toVisit.isEmpty() ) {
+                String path = toVisit.poll();
+                ApplicationMetricFile.FolderListing listing = cached.get(path);
+                if( listing != null && listing.isFresh(path, maxAgeMillis, now) ) {
+                    listings.put(path, listing);
+                    countReused++;
+                    toVisit.addAll(visitFolder(path, listing.nodes));
+                } else {
+                    toList.add(path);
+                    foldersToList.merge(getTopFolder(path), 1, Integer::sum);
+                }
+            }
+            return toList;
+        }
+    }
+
+    //the first fetch waits on discovery for as long as the walk takes, on this object's monitor that held up the event fetch the whole time
+    public ArrayList<MetricData> getAllMetrics(IDataQueue dataQueue ) {
+        synchronized (metricsLock) {
+            try {
+                return this.controller.getAllMetrics(this, dataQueue);
+            } finally {
+                this.metricsFetched.countDown();
+            }
+        }
     }
 
-    public synchronized ArrayList<EventData> getAllEvents(LinkedBlockingQueue<Object[]> dataQueue ) {
-        return this.controller.getAllEvents(this, dataQueue);
+    public boolean isMetricsFetched() { return metricsFetched.getCount() == 0; }
+    public void awaitMetricsFetched() throws InterruptedException { metricsFetched.await(); }
+
+    public ArrayList<EventData> getAllEvents(IDataQueue dataQueue ) {
+        synchronized (eventsLock) {
+            return this.controller.getAllEvents(this, dataQueue);
+        }
+    }
+
+    //not on this object's monitor, a slow baseline fetch shouldn't hold up the metric and event fetches
+    public List<BaselineData> getAllBaselineData(IDataQueue dataQueue ) {
+        synchronized (baselineLock) {
+            return this.controller.getAllBaselineData(this, dataQueue);
+        }
+    }
+
+    public void addMetricIdForBaselines( long metricId, String metricName ) {
+        if( metricId > 0 ) metricIdsForBaselines.put(metricId, metricName);
+    }
+
+    public List<MetricData> getMetricsForBaselines() {
+        List<MetricData> metrics = new ArrayList<>(metricIdsForBaselines.size());
+        for( Map.Entry<Long,String> entry : metricIdsForBaselines.entrySet() ) {
+            MetricData metricData = new MetricData();
+            metricData.metricId = entry.getKey();
+            metricData.metricName = entry.getValue();
+            metrics.add(metricData);
+        }
+        return metrics;
     }
 
     public String getName() { return this.name; }
@@ -14,6 +14,7 @@ public class ApplicationRegex {
     private Boolean getAllAvailableMetrics,defaultDisableAutoRollup,getAllEvents,getAllHealthRuleViolations;
     private ArrayList<String> metrics;
     private boolean onlyGetDefaultBaseline = true;
+    private long pollIntervalMinutes = 0;
     private Pattern pattern;
     public ApplicationRegex(String regexString, Boolean getAllAvailableMetrics, Boolean defaultDisableAutoRollup, String metricTable,
             String eventTable, String baselineTable, Boolean getAllEvents, Boolean getAllHealthRuleViolations, ArrayList<String> metrics, int granularityMinutes, boolean onlyGetDefaultBaseline) {
@@ -32,13 +33,17 @@ public class ApplicationRegex {
         this.onlyGetDefaultBaseline = onlyGetDefaultBaseline;
     }
 
+    public void setPollIntervalMinutes( long pollIntervalMinutes ) { this.pollIntervalMinutes=pollIntervalMinutes; }
+
     public Application getApplicationIfMatches( String name ) {
         if( "".equals(name) || name == null ) return null;
         Matcher matcher = pattern.matcher(name);
         if(matcher.matches()) {
             logger.debug("Application name '%s' matches pattern '%s', returning application object to Controller", name, this.regexString);
-            return new Application(getAllAvailableMetrics, name, defaultDisableAutoRollup, metricTable, eventTable, baselineTable,
+            Application application = new Application(getAllAvailableMetrics, name, defaultDisableAutoRollup, metricTable, eventTable, baselineTable,
                     getAllEvents, getAllHealthRuleViolations, metrics, granularityMinutes, onlyGetDefaultBaseline);
+            application.setPollIntervalMinutes(pollIntervalMinutes);
+            return application;
         }
         return null;
     }
@@ -6,19 +6,28 @@ import com.cisco.josouthe.data.auth.AccessToken;
 import com.cisco.josouthe.data.event.EventData;
 import com.cisco.josouthe.data.metric.Baseline;
 import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.DiscoveredMetrics;
 import com.cisco.josouthe.data.metric.MetricData;
+import com.cisco.josouthe.data.metric.MetricDataStreamParser;
 import com.cisco.josouthe.data.model.Model;
 import com.cisco.josouthe.data.model.Node;
 import com.cisco.josouthe.data.model.Tier;
 import com.cisco.josouthe.data.model.TreeNode;
 import com.cisco.josouthe.database.ControlEntry;
 import com.cisco.josouthe.database.IControlTable;
+import com.cisco.josouthe.database.WatermarkTracker;
 import com.cisco.josouthe.exceptions.ControllerBadStatusException;
+import com.cisco.josouthe.http.AdaptiveConcurrencyLimiter;
+import com.cisco.josouthe.http.HedgedRequestExecutor;
 import com.cisco.josouthe.http.HttpClientFactory;
-import com.cisco.josouthe.http.WorkingStatusThread;
+import com.cisco.josouthe.http.Watchdog;
+import com.cisco.josouthe.queue.IDataQueue;
+import com.cisco.josouthe.scheduler.FanOut;
+import com.cisco.josouthe.scheduler.WindowPlanner;
 import com.cisco.josouthe.util.Utility;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
 import org.apache.commons.codec.Charsets;
 import org.apache.http.Header;
@@ -35,6 +44,7 @@ import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.message.BasicNameValuePair;
@@ -50,11 +60,17 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 public class Controller {
     private static final Logger logger = LogManager.getFormatterLogger();
@@ -62,7 +78,9 @@ public class Controller {
     public String hostname;
     public URL url;
     private String clientId, clientSecret;
-    private AccessToken accessToken = null;
+    private static final String METRIC_DATA = "metric-data", EVENTS = "events", BASELINES = "baselines", METADATA = "metadata";
+    private volatile AccessToken accessToken = null;
+    private final ReentrantLock tokenLock = new ReentrantLock();
     public Application[] applications = null;
     public ApplicationRegex[] applicationRegexes = null;
     public Model controllerModel = null;
@@ -73,6 +91,8 @@ public class Controller {
     Gson gson = new GsonBuilder().setPrettyPrinting().create();
     HttpClient client = null;
     private ResponseHandler<String> responseHandler;
+    private HedgedRequestExecutor requestExecutor;
+    private ExecutorService fetchExecutor;
 
     public Controller(String urlString, String clientId, String clientSecret, Application[] applications, boolean getAllAnalyticsSearchesFlag, ApplicationRegex[] applicationRegexes, long minutesToAdjustEndTimestampBy, Configuration configuration ) throws MalformedURLException {
         if( !urlString.endsWith("/") ) urlString+="/"; //this simplifies some stuff downstream
@@ -82,11 +102,14 @@ public class Controller {
         this.clientSecret = clientSecret;
         this.applications = applications;
         this.getAllAnalyticsSearchesFlag=getAllAnalyticsSearchesFlag;
-        this.client = HttpClientFactory.getHttpClient();
         this.applicationRegexes = applicationRegexes;
         this.minutesToAdjustEndTimestampBy = minutesToAdjustEndTimestampBy;
         this.configuration = configuration;
+        this.client = getHttpClient(false);
         this.responseHandler = HttpClientFactory.getStringResponseHandler("controller");
+        this.requestExecutor = HedgedRequestExecutor.getExecutor("controller:"+ hostname, getRequestLimiter(METRIC_DATA)); //only metric data is hedged
+        this.requestExecutor.setHedgingEnabled(configuration.getProperty("scheduler-HedgeMetricRequests", false));
+        setRequestTimeouts(0, 0);
         if( this.applicationRegexes != null && this.applicationRegexes.length > 0 ) {
             initApplicationIdMap();
             List<Application> applicationsToAdd = new ArrayList<>();
@@ -110,6 +133,19 @@ public class Controller {
         }
     }
 
+    //0 uses the Scheduler setting, the connect and connection request timeouts are always the Scheduler's
+    public void setRequestTimeouts( long socketTimeoutSeconds, long requestDeadlineSeconds ) {
+        if( socketTimeoutSeconds < 1 ) socketTimeoutSeconds = configuration.getProperty("scheduler-SocketTimeoutSeconds", 300L);
+        if( requestDeadlineSeconds < 1 ) requestDeadlineSeconds = configuration.getProperty("scheduler-RequestDeadlineSeconds", 900L);
+        requestExecutor.setTimeouts(configuration.getProperty("scheduler-ConnectTimeoutSeconds", 10L), socketTimeoutSeconds,
+                configuration.getProperty("scheduler-ConnectionRequestTimeoutSeconds", 60L), requestDeadlineSeconds);
+    }
+
+    //this controller's own pool, sized to how many requests it is allowed in flight
+    private HttpClient getHttpClient( boolean forceRebuild ) {
+        return HttpClientFactory.getHttpClient("controller:"+ hostname, configuration.getProperty("scheduler-MaxConnectionsPerRoute", 50), configuration.getProperty("scheduler-MaxConnectionsTotal", 100), forceRebuild);
+    }
+
     public List<String> getAllApplicationTables() {
         List<String> tableNames = new ArrayList<>();
         for( Application application : applications ) {
@@ -132,14 +168,22 @@ public class Controller {
 
     public void setControlTable( IControlTable table ) { this.controlTable=table; }
 
+    //a valid token is read without locking, only a refresh takes the lock, a ReentrantLock because a monitor would pin a virtual thread's carrier for the whole refresh request
     public String getBearerToken() {
-        if( isAccessTokenExpired() && !refreshAccessToken()) return null;
-        return "Bearer "+ accessToken.access_token;
+        AccessToken token = this.accessToken;
+        if( !isAccessTokenExpired(token) ) return "Bearer "+ token.access_token;
+        tokenLock.lock();
+        try {
+            if( isAccessTokenExpired(this.accessToken) && !refreshAccessToken()) return null;
+            return "Bearer "+ this.accessToken.access_token;
+        } finally {
+            tokenLock.unlock();
+        }
     }
 
-    private boolean isAccessTokenExpired() {
+    private boolean isAccessTokenExpired( AccessToken token ) {
         long now = new Date().getTime();
-        if( accessToken == null || accessToken.expires_at < now ) return true;
+        if( token == null || token.expires_at < now ) return true;
         return false;
     }
 
@@ -168,6 +212,7 @@ public class Controller {
             logger.info("post parameters: %s", postParameters);
         }
 
+        request.setConfig(requestExecutor.getRequestConfig());
         HttpResponse response = null;
         int tries=0;
         boolean succeeded=false;
@@ -181,7 +226,7 @@ public class Controller {
                 tries++;
             } catch (java.lang.IllegalStateException illegalStateException) {
                 tries++;
-                this.client = HttpClientFactory.getHttpClient(true);
+                this.client = getHttpClient(true);
                 logger.warn("Caught exception on connection, building a new connection for retry, Exception: %s", illegalStateException.getMessage());
             }
         }
@@ -200,20 +245,33 @@ public class Controller {
             logger.warn("Access Key retreival returned bad status: %s message: %s", response.getStatusLine(), json);
             return false;
         }
-        this.accessToken = gson.fromJson(json, AccessToken.class); //if this doesn't work consider creating a custom instance creator
-        this.accessToken.expires_at = new Date().getTime() + (accessToken.expires_in*1000); //hoping this is enough, worry is the time difference
+        AccessToken token = gson.fromJson(json, AccessToken.class); //if this doesn't work consider creating a custom instance creator
+        token.expires_at = new Date().getTime() + (token.expires_in*1000); //hoping this is enough, worry is the time difference
+        this.accessToken = token; //only published once expires_at is set, readers don't lock
         return true;
     }
 
     public MetricData[] getMetricValue(Application application, String metricName, long startTimestamp, long endTimestamp ) {
-        MetricData[] metrics = null;
+        List<MetricData> metrics = new ArrayList<>();
+        if( !getMetricValue(application, metricName, startTimestamp, endTimestamp, metricDataChunk -> metrics.addAll(Arrays.asList(metricDataChunk))) ) return null;
+        return metrics.toArray(new MetricData[0]);
+    }
+
+    public boolean getMetricValue(Application application, String metricName, long startTimestamp, long endTimestamp, Consumer<MetricData[]> metricDataConsumer ) {
+        return getMetricValue(application, metricName, startTimestamp, endTimestamp, new MetricDataStreamParser.Progress(), metricDataConsumer);
+    }
 
+    //false if the controller wouldn't give them to us, the chunks already handed to metricDataConsumer by then are not taken back
+    //but are in progress, pass the same progress to a retry and it only hands over what the failed try didn't
+    public boolean getMetricValue(Application application, String metricName, long startTimestamp, long endTimestamp, MetricDataStreamParser.Progress progress, Consumer<MetricData[]> metricDataConsumer ) {
+        boolean returned = false;
         int tries=0;
         boolean succeeded = false;
         while (! succeeded && tries < 3 ) {
             try {
-                metrics = getMetricValue(String.format("%scontroller/rest/applications/%s/metric-data?metric-path=%s&time-range-type=BETWEEN_TIMES&start-time=%d&end-time=%d&output=JSON&rollup=false",
-                        this.url, Utility.encode(application.name), Utility.encode(metricName), startTimestamp, endTimestamp, application.getGranularityMinutes())
+                returned = getMetricValue(String.format("%scontroller/rest/applications/%s/metric-data?metric-path=%s&time-range-type=BETWEEN_TIMES&start-time=%d&end-time=%d&output=JSON&rollup=false",
+                        this.url, Utility.encode(application.name), Utility.encode(metricName), startTimestamp, endTimestamp, application.getGranularityMinutes()),
+                        progress, metricDataConsumer
                 );
                 succeeded=true;
             } catch (ControllerBadStatusException controllerBadStatusException) {
@@ -223,12 +281,22 @@ public class Controller {
         }
         if( !succeeded)
             logger.warn("Gave up after %d tries, not getting %s back", tries, metricName);
-        return metrics;
+        return returned;
     }
 
     public MetricData[] getMetricValue( String urlString ) throws ControllerBadStatusException {
-        MetricData[] metricData = null;
-        if( urlString == null ) return null;
+        List<MetricData> metrics = new ArrayList<>();
+        if( !getMetricValue(urlString, metricDataChunk -> metrics.addAll(Arrays.asList(metricDataChunk))) ) return null;
+        return metrics.toArray(new MetricData[0]);
+    }
+
+    public boolean getMetricValue( String urlString, Consumer<MetricData[]> metricDataConsumer ) throws ControllerBadStatusException {
+        return getMetricValue(urlString, new MetricDataStreamParser.Progress(), metricDataConsumer);
+    }
+
+    //the response is parsed as it is read and handed over in chunks of MetricValuesPerChunk values, so it is never all in memory at once
+    public boolean getMetricValue( String urlString, MetricDataStreamParser.Progress progress, Consumer<MetricData[]> metricDataConsumer ) throws ControllerBadStatusException {
+        if( urlString == null ) return false;
         logger.trace("metric url: %s",urlString);
         if( ! urlString.contains("output=JSON") ) urlString += "&output=JSON";
         HttpGet request = new HttpGet(urlString);
@@ -236,18 +304,19 @@ public class Controller {
         if( HttpClientFactory.isWireTraceEnabled("controller") ) {
             logger.info("Wire Trace Request: '%s'",request.toString());
         }
-        String json = null;
+        int valuesPerChunk = configuration.getProperty("scheduler-MetricValuesPerChunk", 1000);
         try {
-            json = client.execute(request, this.responseHandler);
+            int countSeries = executeRequest(request, HttpClientFactory.getStreamingResponseHandler("controller", reader -> new MetricDataStreamParser(valuesPerChunk, metricDataConsumer, progress).parse(reader)), true);
+            logger.trace("%d metric series returned for %s", countSeries, urlString);
         } catch (ControllerBadStatusException controllerBadStatusException) {
             controllerBadStatusException.setURL(urlString);
             throw controllerBadStatusException;
-        } catch (IOException e) {
+        } catch (IOException | JsonParseException | IllegalStateException e) { //JsonReader throws IllegalStateException when the response isn't shaped like metric data
+            //a deadline or a dropped connection part way through the response, what was handed over is in progress so a retry doesn't queue it again
             logger.error("Exception in attempting to get url, Exception: %s", e.getMessage());
-            return null;
+            return false;
         }
-        metricData = gson.fromJson(json, MetricData[].class);
-        return metricData;
+        return true;
     }
 
     public TreeNode[] getApplicationMetricFolders(Application application, String path) {
@@ -263,9 +332,9 @@ public class Controller {
                     json = getRequest(String.format("controller/rest/applications/%s/metrics?metric-path=%s&output=JSON", Utility.encode(application.name), Utility.encode(path)));
                 }
                 succeeded=true;
-            } catch (ControllerBadStatusException controllerBadStatusException) {
+            } catch (IOException ioException) {
                 tries++;
-                logger.warn("Try %d failed for request to get app application metric folders for %s with error: %s",tries,application.name,controllerBadStatusException.getMessage());
+                logger.warn("Try %d failed for request to get app application metric folders for %s with error: %s",tries,application.name,ioException.getMessage());
             }
         }
         if(!succeeded) logger.warn("Failing on get of application metric folder, controller may be down");
@@ -279,6 +348,11 @@ public class Controller {
         return treeNodes;
     }
 
+    //the metric browser tree of an application under the roots, at most DiscoveryRequestsPerApplication folders are listed at once, and MaxRequestsPerController still applies on top of that
+    public int findApplicationMetricFolders( Application application, List<String> roots, BiFunction<String,TreeNode[],List<String>> visitor ) throws InterruptedException {
+        return FanOut.crawl(getFetchExecutor(), configuration.getProperty("scheduler-DiscoveryRequestsPerApplication", 8), roots, path -> getApplicationMetricFolders(application, path), visitor);
+    }
+
     public MetricData[] getAllMetricsForAllApplications() {
         ArrayList<MetricData> metrics = new ArrayList<>();
         for( Application application : this.applications ) {
@@ -287,10 +361,13 @@ public class Controller {
         return metrics.toArray( new MetricData[0] );
     }
 
-    public ArrayList<MetricData> getAllMetrics( Application application, LinkedBlockingQueue<Object[]> dataQueue ) {
+    public ArrayList<MetricData> getAllMetrics( Application application, IDataQueue dataQueue ) {
         ArrayList<MetricData> metrics = new ArrayList<>();
         //Transaction serviceEndPoint = AppdynamicsAgent.startTransactionAndServiceEndPoint("Get Application Metrics", null, "Get Application Metrics", EntryTypes.POJO, false);
         ControlEntry controlEntry = this.controlTable.getLastRunTimestamp(hostname, application.name, "MetricData" );
+        WatermarkTracker watermarkTracker = configuration.getDatabase().getWatermarkTracker();
+        WatermarkTracker.Window window = watermarkTracker.open(controlEntry);
+        IDataQueue trackedQueue = watermarkTracker.wrap(window, dataQueue);
             /*
             serviceEndPoint.collectData("Controller", controlEntry.controller, Utility.getSnapshotDatascope());
             serviceEndPoint.collectData("Application", controlEntry.application, Utility.getSnapshotDatascope());
@@ -303,47 +380,155 @@ public class Controller {
             endTimestamp = startTimestamp + configuration.getMaxQueryDurationInMS();
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         logger.debug("Setting start time to %d (%s) and end time to %d (%s)",startTimestamp, sdf.format(startTimestamp), endTimestamp, sdf.format(endTimestamp));
-        WorkingStatusThread workingStatusThread = new WorkingStatusThread("Get Controller Metrics", application.name, logger);
-        workingStatusThread.start();
-        for( String applicationMetricName : application.metricGraph.getUniqueCompressedMetricNames() ) {
-            for( MetricData metricData : getMetricValue( application, applicationMetricName, startTimestamp, endTimestamp )) {
-                if( "METRIC DATA NOT FOUND".equals(metricData.metricName) ) continue;
-                metricData.controllerHostname = this.hostname;
-                metricData.applicationName = application.name;
-                metricData.targetTable = application.defaultMetricTableName;
-                metrics.add(metricData);
-                getBaselineValues( metricData, application, startTimestamp, endTimestamp, dataQueue);
-            }
-            if( dataQueue != null ) {
-                dataQueue.add(metrics.toArray(new MetricData[0]));
-                metrics.clear();
+        Watchdog.Operation watchdog = Watchdog.watch("Get Controller Metrics", application.name, logger);
+        //every metric path for every slice of the window is its own request, at most MetricRequestsPerApplication at a time, each one is queued for insert as soon as it comes back
+        List<WindowPlanner.TimeSlice> slices = WindowPlanner.plan(startTimestamp, endTimestamp, configuration.getProperty("scheduler-BackfillSliceMinutes", 60L)*60000);
+        //until the application's first discovery is done, its metrics come in batches as it finds them, all fetched for this one window
+        DiscoveredMetrics discovery = application.getDiscoveryInProgress();
+        try {
+            if( discovery == null ) {
+                fetchMetrics(application, slices, new ArrayList<>(application.metricGraph.getUniqueCompressedMetricNames()), trackedQueue, metrics);
+            } else {
+                logger.info("Fetching the metrics of %s as they are discovered, starting with the %d already known", application.name, discovery.countPublished());
+                List<String> metricNames;
+                for( int batch = 0; (metricNames = discovery.awaitBatch(batch)) != null; batch++ )
+                    fetchMetrics(application, slices, metricNames, trackedQueue, metrics);
             }
-        }
-        workingStatusThread.cancel();
-        controlEntry.timestamp = endTimestamp;
+        } catch (InterruptedException interruptedException) {
+            logger.warn("Interrupted getting metrics for %s, not moving the last run time forward", application.name);
+            watermarkTracker.abandon(window);
+            return metrics;
+        } finally {
+            watchdog.cancel();
+        }
+        endTimestamp = getWatermark("metrics", application, startTimestamp, endTimestamp, slices);
         //serviceEndPoint.collectData("End-Timestamp", String.valueOf(endTimestamp), Utility.getSnapshotDatascope());
         //serviceEndPoint.end();
-        this.controlTable.setLastRunTimestamp(controlEntry);
+        watermarkTracker.seal(window, endTimestamp); //the control table moves once everything queued above is in the database
         return metrics;
     }
 
-    public List<BaselineData> getBaselineValues(MetricData metricData, Application application, long startTimestamp, long endTimestamp, LinkedBlockingQueue<Object[]> dataQueue ) {
+    //a slice any of these metric names failed in is marked failed, the watermark stops before it
+    private void fetchMetrics( Application application, List<WindowPlanner.TimeSlice> slices, List<String> metricNames, IDataQueue trackedQueue, ArrayList<MetricData> metrics ) throws InterruptedException {
+        if( metricNames.isEmpty() ) return;
+        List<Callable<Boolean>> fetches = new ArrayList<>();
+        for( WindowPlanner.TimeSlice slice : slices ) {
+            for( String applicationMetricName : metricNames ) {
+                MetricDataStreamParser.Progress progress = new MetricDataStreamParser.Progress(); //kept across the retry of this fetch by FanOut
+                fetches.add(() -> getMetricValue( application, applicationMetricName, slice.start, slice.end, progress, metricDataReturned -> {
+                    List<MetricData> metricsReturned = new ArrayList<>();
+                    for( MetricData metricData : metricDataReturned ) {
+                        if( "METRIC DATA NOT FOUND".equals(metricData.metricName) ) continue;
+                        metricData.controllerHostname = this.hostname;
+                        metricData.applicationName = application.name;
+                        metricData.targetTable = application.defaultMetricTableName;
+                        metricsReturned.add(metricData);
+                        application.addMetricIdForBaselines(metricData.metricId, metricData.metricName);
+                    }
+                    if( metricsReturned.isEmpty() ) return;
+                    if( trackedQueue != null ) {
+                        trackedQueue.add(metricsReturned.toArray(new MetricData[0]));
+                    } else {
+                        synchronized (metrics) { metrics.addAll(metricsReturned); }
+                    }
+                }));
+            }
+        }
+        boolean[] succeeded = FanOut.runAll(getFetchExecutor(), configuration.getProperty("scheduler-MetricRequestsPerApplication", 8), fetches, 1);
+        for( int i = 0; i < succeeded.length; i++ )
+            if( !succeeded[i] ) slices.get(i / metricNames.size()).failed = true;
+    }
+
+    /*
+    baselines are their own task on their own cadence, with their own "BaselineData" control entry, so the metric export never waits on this undocumented api
+    they cover every metric the metric fetch has seen so far, until it has run once there is nothing to ask for and the window is left for next time
+     */
+    public List<BaselineData> getAllBaselineData( Application application, IDataQueue dataQueue ) {
+        List<MetricData> metrics = application.getMetricsForBaselines();
+        if( metrics.isEmpty() ) {
+            logger.debug("No metrics have been fetched yet for %s, skipping baselines until they have", application.name);
+            return new ArrayList<>();
+        }
+        ControlEntry controlEntry = this.controlTable.getLastRunTimestamp(hostname, application.name, "BaselineData" );
+        WatermarkTracker watermarkTracker = configuration.getDatabase().getWatermarkTracker();
+        WatermarkTracker.Window window = watermarkTracker.open(controlEntry);
+        long startTimestamp = controlEntry.timestamp;
+        long endTimestamp = Utility.now( this.minutesToAdjustEndTimestampBy.longValue() * -60000 );
+        if( configuration.isTooLongATime( endTimestamp - startTimestamp ) )
+            endTimestamp = startTimestamp + configuration.getMaxQueryDurationInMS();
+        Watchdog.Operation watchdog = Watchdog.watch("Get Controller Baselines", application.name, logger);
+        List<BaselineData> baselines;
+        try {
+            baselines = getBaselineValues( metrics, application, startTimestamp, endTimestamp, watermarkTracker.wrap(window, dataQueue));
+        } catch (RuntimeException runtimeException) {
+            watermarkTracker.abandon(window);
+            throw runtimeException;
+        } finally {
+            watchdog.cancel();
+        }
+        if( baselines == null ) { //the next run asks for this window again
+            logger.warn("Could not get all baselines for %s, the next run will start again from %d", application.name, startTimestamp);
+            watermarkTracker.abandon(window);
+            return new ArrayList<>();
+        }
+        watermarkTracker.seal(window, endTimestamp);
+        return baselines;
+    }
+
+    //the number of threads is bounded by MetricRequestsPerApplication for each application of this controller
+    private synchronized ExecutorService getFetchExecutor() {
+        if( fetchExecutor == null )
+            fetchExecutor = FanOut.newExecutor("ControllerFetch-"+ hostname, configuration.getProperty("scheduler-VirtualThreads", false));
+        return fetchExecutor;
+    }
+
+    //the end of the slices that all came back, a failed slice and everything after it is fetched again next run
+    private long getWatermark( String what, Application application, long startTimestamp, long endTimestamp, List<WindowPlanner.TimeSlice> slices ) {
+        long watermark = WindowPlanner.getWatermark(startTimestamp, slices);
+        if( watermark < endTimestamp )
+            logger.warn("Could not get all %s for %s, the next run will start again from %d, %d ms short of %d", what, application.name, watermark, endTimestamp - watermark, endTimestamp);
+        return watermark;
+    }
+
+    public List<BaselineData> getBaselineValues(MetricData metricData, Application application, long startTimestamp, long endTimestamp, IDataQueue dataQueue ) {
+        return getBaselineValues(Collections.singletonList(metricData), application, startTimestamp, endTimestamp, dataQueue);
+    }
+
+    //null if the controller didn't answer for one of the batches, the rest are not asked for
+    public List<BaselineData> getBaselineValues(List<MetricData> metricDataList, Application application, long startTimestamp, long endTimestamp, IDataQueue dataQueue ) {
         List<BaselineData> baselineDataList = new ArrayList<>();
         if( application.baselines == null || application.baselines.size() == 0 ) {
             logger.warn("No baselines found for app %s(%d)", application.getName(), application.id);
             return baselineDataList;
         }
-        if( application.isOnlyGetDefaultBaselineFlagSet() ) {
-            baselineDataList.addAll(getBaselineValue(metricData, application, application.getDefaultBaseline(), startTimestamp, endTimestamp, dataQueue));
-        } else {
-            for( Baseline baseline : application.getAllBaselines() )
-                baselineDataList.addAll(getBaselineValue(metricData, application, baseline, startTimestamp, endTimestamp, dataQueue));
+        List<Baseline> baselines = application.isOnlyGetDefaultBaselineFlagSet() ? Collections.singletonList(application.getDefaultBaseline()) : application.getAllBaselines();
+        int baselineMetricsPerRequest = Math.max(1, configuration.getProperty("scheduler-BaselineMetricsPerRequest", 100));
+        for( int from = 0; from < metricDataList.size(); from += baselineMetricsPerRequest ) {
+            List<MetricData> metricDataBatch = metricDataList.subList(from, Math.min(metricDataList.size(), from + baselineMetricsPerRequest));
+            for( Baseline baseline : baselines ) {
+                List<BaselineData> baselineData = getBaselineValue(metricDataBatch, application, baseline, startTimestamp, endTimestamp, dataQueue);
+                if( baselineData == null ) return null;
+                baselineDataList.addAll(baselineData);
+            }
         }
         return baselineDataList;
     }
 
-    public List<BaselineData> getBaselineValue( MetricData metricData, Application application, Baseline baseline, long startTimestamp, long endTimestamp, LinkedBlockingQueue<Object[]> dataQueue ) {
+    public List<BaselineData> getBaselineValue( MetricData metricData, Application application, Baseline baseline, long startTimestamp, long endTimestamp, IDataQueue dataQueue ) {
+        return getBaselineValue(Collections.singletonList(metricData), application, baseline, startTimestamp, endTimestamp, dataQueue);
+    }
+
+    //the endpoint takes a list of metricDataQueries, so one request returns this baseline for every metric in the batch, matched back up by metricId
+    //null if the controller didn't answer after 3 tries
+    public List<BaselineData> getBaselineValue( List<MetricData> metricDataBatch, Application application, Baseline baseline, long startTimestamp, long endTimestamp, IDataQueue dataQueue ) {
         ArrayList<BaselineData> baselines = new ArrayList<>();
+        Map<Long,MetricData> metricDataById = new HashMap<>();
+        StringBuilder metricDataQueries = new StringBuilder();
+        for( MetricData metricData : metricDataBatch ) {
+            if( metricDataById.put(metricData.metricId, metricData) != null ) continue;
+            if( metricDataQueries.length() > 0 ) metricDataQueries.append(',');
+            metricDataQueries.append(String.format("{\"metricId\":%d,\"entityId\":%d,\"entityType\":\"APPLICATION\"}", metricData.metricId, application.id));
+        }
         boolean succeeded=false;
         int tries=0;
         String json = "";
@@ -352,20 +537,27 @@ public class Controller {
             try {
                 json = postRequest(
                         String.format("controller/restui/metricBrowser/getMetricBaselineData?granularityMinutes=%s", application.getGranularityMinutes()),
-                        String.format("{\"metricDataQueries\":[{\"metricId\":%d,\"entityId\":%d,\"entityType\":\"APPLICATION\"}],\"timeRangeSpecifier\":{\"type\":\"BETWEEN_TIMES\",\"durationInMinutes\":null,\"endTime\":%d,\"startTime\":%d,\"timeRange\":null,\"timeRangeAdjusted\":false},\"metricBaseline\":%d,\"maxSize\":1440}",
-                                metricData.metricId, application.id, endTimestamp, startTimestamp, baseline.id));
+                        String.format("{\"metricDataQueries\":[%s],\"timeRangeSpecifier\":{\"type\":\"BETWEEN_TIMES\",\"durationInMinutes\":null,\"endTime\":%d,\"startTime\":%d,\"timeRange\":null,\"timeRangeAdjusted\":false},\"metricBaseline\":%d,\"maxSize\":1440}",
+                                metricDataQueries, endTimestamp, startTimestamp, baseline.id));
                 succeeded=true;
-            } catch (ControllerBadStatusException controllerBadStatusException) {
-                logger.warn("Error in request to pull baseline metrics using an undocumented, internal, api. This is retriable, attempt %d Error: %s", tries, controllerBadStatusException.getMessage());
+            } catch (IOException ioException) {
+                logger.warn("Error in request to pull baseline metrics using an undocumented, internal, api. This is retriable, attempt %d Error: %s", tries, ioException.getMessage());
             }
         }
         if( !succeeded ) {
-            logger.error("Giving up on attempt to get Baseline metrics, the controller isn't responding properly");
-            return baselines;
+            logger.error("Giving up on attempt to get Baseline metrics for %d metrics, the controller isn't responding properly", metricDataById.size());
+            return null;
         }
         long totalPurgeCount=0;
         for( BaselineData baselineData : gson.fromJson(json, BaselineData[].class)) {
-            baselineData.metricName = metricData.metricName; //this is blank on my test data, not sure why it isn't set
+            MetricData metricData = metricDataById.get(baselineData.metricId);
+            if( metricData != null ) {
+                baselineData.metricName = metricData.metricName; //this is blank on my test data, not sure why it isn't set
+            } else if( metricDataById.size() == 1 ) {
+                baselineData.metricName = metricDataBatch.get(0).metricName;
+            } else {
+                logger.debug("Baseline returned for metric id %d which wasn't requested, keeping name '%s'", baselineData.metricId, baselineData.metricName);
+            }
             baselineData.controllerHostname = this.hostname;
             baselineData.applicationName = application.name;
             baselineData.targetTable = application.defaultBaselineTableName;
@@ -392,10 +584,13 @@ public class Controller {
         return events.toArray( new EventData[0]);
     }
 
-    public ArrayList<EventData> getAllEvents( Application application, LinkedBlockingQueue<Object[]> dataQueue ) {
+    public ArrayList<EventData> getAllEvents( Application application, IDataQueue dataQueue ) {
         ArrayList<EventData> events = new ArrayList<>();
         //Transaction serviceEndPoint = AppdynamicsAgent.startTransactionAndServiceEndPoint("Get Application Events", null, "Get Application Events", EntryTypes.POJO, false);
         ControlEntry controlEntry = this.controlTable.getLastRunTimestamp(hostname, application.name, "EventData" );
+        WatermarkTracker watermarkTracker = configuration.getDatabase().getWatermarkTracker();
+        WatermarkTracker.Window window = watermarkTracker.open(controlEntry);
+        IDataQueue trackedQueue = watermarkTracker.wrap(window, dataQueue);
             /* serviceEndPoint.collectData("Controller", controlEntry.controller, Utility.getSnapshotDatascope());
             serviceEndPoint.collectData("Application", controlEntry.application, Utility.getSnapshotDatascope());
             serviceEndPoint.collectData("Datatype", controlEntry.type, Utility.getSnapshotDatascope());
@@ -407,49 +602,70 @@ public class Controller {
         if( configuration.isTooLongATime( endTimestamp - startTimestamp ) )
             endTimestamp = startTimestamp + configuration.getMaxQueryDurationInMS();
         if( application.getAllEvents ) {
-            int tries=0;
-            boolean succeeded=false;
-            String json = null;
-            while( !succeeded && tries < 3 ) {
-                WorkingStatusThread workingStatusThread = new WorkingStatusThread("Controller Events", application.name, logger);
-                workingStatusThread.start();
-                try {
-                    json = getRequest("controller/rest/applications/%s/events?time-range-type=BETWEEN_TIMES&start-time=%d&end-time=%d&event-types=%s&severities=%s&output=JSON",
-                            Utility.encode(application.name), startTimestamp, endTimestamp, application.eventTypeList, application.eventSeverities);
-                    succeeded=true;
-                } catch (ControllerBadStatusException controllerBadStatusException) {
-                    tries++;
-                    logger.warn("Error on try %d while trying to get Events for application %s Error: %s", tries, application.name, controllerBadStatusException.getMessage());
-                } finally {
-                   workingStatusThread.cancel();
-                }
-            }
-            if( !succeeded ) {
-                logger.error("Too many errors trying to get events from the controller, giving up for this scheduled run!");
-                return null;
+            List<WindowPlanner.TimeSlice> slices = WindowPlanner.plan(startTimestamp, endTimestamp, configuration.getProperty("scheduler-BackfillSliceMinutes", 60L)*60000);
+            List<Callable<Boolean>> fetches = new ArrayList<>();
+            for( WindowPlanner.TimeSlice slice : slices ) {
+                fetches.add(() -> {
+                    EventData[] eventsReturned = getEvents(application, slice.start, slice.end);
+                    if( eventsReturned == null ) return false;
+                    if (trackedQueue != null) {
+                        trackedQueue.add(eventsReturned);
+                    } else {
+                        synchronized (events) { events.addAll(Arrays.asList(eventsReturned)); }
+                    }
+                    return true;
+                });
             }
-            EventData[] eventsReturned = gson.fromJson(json, EventData[].class);
-            if( eventsReturned != null ) {
-                for (EventData event : eventsReturned) {
-                    event.controllerHostname = this.hostname;
-                    event.applicationName = application.name;
-                    event.targetTable = application.defaultEventTableName;
-                    events.add(event);
-                }
-                if (dataQueue != null) {
-                    dataQueue.add(events.toArray(new EventData[0]));
-                    events.clear();
-                }
+            try {
+                boolean[] succeeded = FanOut.runAll(getFetchExecutor(), configuration.getProperty("scheduler-MetricRequestsPerApplication", 8), fetches, 1);
+                for( int i = 0; i < succeeded.length; i++ )
+                    if( !succeeded[i] ) slices.get(i).failed = true;
+            } catch (InterruptedException interruptedException) {
+                logger.warn("Interrupted getting events for %s, not moving the last run time forward", application.name);
+                watermarkTracker.abandon(window);
+                return events;
             }
+            endTimestamp = getWatermark("events", application, startTimestamp, endTimestamp, slices);
         }
-        controlEntry.timestamp = endTimestamp;
         //serviceEndPoint.collectData("End-Timestamp", String.valueOf(endTimestamp), Utility.getSnapshotDatascope());
         //serviceEndPoint.end();
-        this.controlTable.setLastRunTimestamp(controlEntry);
+        watermarkTracker.seal(window, endTimestamp);
         return events;
     }
 
-    private String postRequest( String requestUri, String body ) throws ControllerBadStatusException {
+    //null if the controller wouldn't give them to us
+    private EventData[] getEvents( Application application, long startTimestamp, long endTimestamp ) {
+        int tries=0;
+        boolean succeeded=false;
+        String json = null;
+        while( !succeeded && tries < 3 ) {
+            Watchdog.Operation watchdog = Watchdog.watch("Controller Events", application.name, logger);
+            try {
+                json = getRequest("controller/rest/applications/%s/events?time-range-type=BETWEEN_TIMES&start-time=%d&end-time=%d&event-types=%s&severities=%s&output=JSON",
+                        Utility.encode(application.name), startTimestamp, endTimestamp, application.eventTypeList, application.eventSeverities);
+                succeeded=true;
+            } catch (IOException ioException) {
+                tries++;
+                logger.warn("Error on try %d while trying to get Events for application %s Error: %s", tries, application.name, ioException.getMessage());
+            } finally {
+               watchdog.cancel();
+            }
+        }
+        if( !succeeded ) {
+            logger.error("Too many errors trying to get events from the controller for %s between %d and %d", application.name, startTimestamp, endTimestamp);
+            return null;
+        }
+        EventData[] eventsReturned = gson.fromJson(json, EventData[].class);
+        if( eventsReturned == null ) return new EventData[0];
+        for (EventData event : eventsReturned) {
+            event.controllerHostname = this.hostname;
+            event.applicationName = application.name;
+            event.targetTable = application.defaultEventTableName;
+        }
+        return eventsReturned;
+    }
+
+    private String postRequest( String requestUri, String body ) throws IOException {
         HttpPost request = new HttpPost(String.format("%s%s", this.url.toString(), requestUri));
         request.addHeader(HttpHeaders.AUTHORIZATION, getBearerToken());
         logger.trace("HTTP Method: %s with body: '%s'",request, body);
@@ -461,38 +677,76 @@ public class Controller {
             request.setEntity( new StringEntity(body, "UTF8"));
             request.setHeader("Accept", "application/json");
             request.setHeader("Content-Type", "application/json");
-            json = client.execute( request, this.responseHandler);
+            json = executeRequest(request);
             logger.trace("Data Returned: '%s'", json);
         } catch (ControllerBadStatusException controllerBadStatusException) {
             controllerBadStatusException.setURL(request.getURI().toString());
             throw controllerBadStatusException;
-        } catch (IOException e) {
-            logger.warn("Exception: %s",e.getMessage());
         }
         return json;
     }
 
-    private String getRequest( String formatOrURI, Object... args ) throws ControllerBadStatusException {
+    //every api call to this controller goes through here, the limiter adapts the number in flight to how the controller is coping
+    //and every one has the timeouts and deadline, only metric data GETs are hedged
+    private String executeRequest( HttpRequestBase request ) throws IOException {
+        return executeRequest(request, this.responseHandler, false);
+    }
+
+    private <T> T executeRequest( HttpRequestBase request, ResponseHandler<T> responseHandler, boolean hedgeable ) throws IOException {
+        AdaptiveConcurrencyLimiter requestLimiter = getRequestLimiter(getEndpointClass(request.getURI().getPath()));
+        long startNanos;
+        try {
+            startNanos = requestLimiter.acquire();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a request permit for controller "+ hostname);
+        }
+        try {
+            T response = requestExecutor.execute(client, request, responseHandler, hedgeable);
+            requestLimiter.onSuccess(startNanos);
+            return response;
+        } catch (IOException | RuntimeException exception) {
+            requestLimiter.onException(startNanos, exception);
+            throw exception;
+        }
+    }
+
+    /*
+    each kind of api call has its own limit and latency average, a slow baseline or event query would otherwise read as the controller
+    slowing down and cut the limit for the quick metric data calls too, all of them share one MaxRequestsPerController ceiling for the controller
+     */
+    public AdaptiveConcurrencyLimiter getRequestLimiter( String endpointClass ) {
+        return AdaptiveConcurrencyLimiter.getLimiter("controller:"+ hostname +"/"+ endpointClass, configuration.getProperty("scheduler-MaxRequestsPerController", 50), "controller:"+ hostname);
+    }
+
+    private static String getEndpointClass( String path ) {
+        if( path == null ) return METADATA;
+        if( path.endsWith("/metric-data") ) return METRIC_DATA;
+        if( path.endsWith("/events") || path.contains("/problems/") ) return EVENTS;
+        if( path.contains("getMetricBaselineData") ) return BASELINES;
+        return METADATA;
+    }
+
+    public Configuration getConfiguration() { return configuration; }
+
+    private String getRequest( String formatOrURI, Object... args ) throws IOException {
         if( args == null || args.length == 0 ) return getRequest(formatOrURI);
         return getRequest( String.format(formatOrURI,args));
     }
 
-    private String getRequest( String uri ) throws ControllerBadStatusException {
+    //a timeout or a dropped connection is thrown like a bad status, a null body would read as "nothing there"
+    private String getRequest( String uri ) throws IOException {
         HttpGet request = new HttpGet(String.format("%s%s", this.url.toString(), uri));
         request.addHeader(HttpHeaders.AUTHORIZATION, getBearerToken());
         if( HttpClientFactory.isWireTraceEnabled("controller") ) {
             logger.info("Wire Trace GET Request: '%s'",request.toString());
         }
-        String json = null;
         try {
-            json = client.execute(request, this.responseHandler);
+            return executeRequest(request);
         } catch (ControllerBadStatusException controllerBadStatusException) {
             controllerBadStatusException.setURL(request.getURI().toString());
             throw controllerBadStatusException;
-        } catch (IOException e) {
-            logger.warn("Exception: %s",e.getMessage());
         }
-        return json;
     }
 
     Map<String,Long> _applicationIdMap = null;
@@ -512,7 +766,7 @@ public class Controller {
             _applicationIdMap = new HashMap<>();
             for (com.cisco.josouthe.data.model.Application app : applicationListing.getApplications() )
                 if( app.active ) _applicationIdMap.put(app.name, app.id);
-        } catch (ControllerBadStatusException controllerBadStatusException) {
+        } catch (IOException ioException) {
             logger.warn("Giving up on getting application id, not even going to retry");
         }
     }
@@ -528,7 +782,7 @@ public class Controller {
                     json = getRequest("controller/rest/applications/%d/nodes?output=json", application.id);
                     application.nodes = gson.fromJson(json, Node[].class);
                 }
-            } catch (ControllerBadStatusException controllerBadStatusException) {
+            } catch (IOException ioException) {
                 logger.warn("Giving up on getting controller model, not even going to retry");
             }
         }
@@ -539,7 +793,7 @@ public class Controller {
         try {
             String json = getRequest("controller/restui/analyticsSavedSearches/getAllAnalyticsSavedSearches?output=json");
             return gson.fromJson(json, Search[].class);
-        } catch (ControllerBadStatusException controllerBadStatusException) {
+        } catch (IOException ioException) {
             logger.warn("Error using undocumented api to pull back listing of all saved analytics searches");
         }
         return null;
@@ -557,7 +811,7 @@ public class Controller {
             String json = getRequest("controller/restui/baselines/getAllBaselines/%d?output=json", applicationId);
             Baseline[] baselines = gson.fromJson(json, Baseline[].class);
             return baselines;
-        } catch (ControllerBadStatusException controllerBadStatusException) {
+        } catch (IOException ioException) {
             logger.warn("Error using undocumented api to pull back listing of all application baselines, application '%s'", applicationId);
         }
         return null;
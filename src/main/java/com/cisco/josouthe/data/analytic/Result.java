@@ -11,6 +11,7 @@ public class Result {
     public Object[][] results;
     public String name, targetTable;
     public long startTimestamp, endTimestamp;
+    public long windowId; //the fetch window this came from, see WatermarkTracker
 
     public boolean isMoreDataSet() {
         return moreData;
@@ -16,6 +16,7 @@ public class EventData {
     public String targetTable = null;
     public String controllerHostname;
     public String applicationName;
+    public long windowId; //the fetch window this came from, see WatermarkTracker
 
     public long id, eventTime;
     public String type, subType, severity, summary;
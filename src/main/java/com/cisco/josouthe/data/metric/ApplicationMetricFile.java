@@ -1,20 +1,33 @@
 package com.cisco.josouthe.data.metric;
 
+import com.cisco.josouthe.data.model.TreeNode;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/*
+What metric discovery found for one application, on disk, so a restart doesn't have to walk the whole metric tree before its first fetch
+Metrics-<application>.txt is the metric names discovered, one a line, Folders-<application>.txt is every folder listing they came from,
+with when it was listed, so a refresh only asks the controller again for the listings that have gone stale
+Both are written to a temporary file that is renamed over the old one, a crash while writing leaves the last cache as it was
+ */
 public class ApplicationMetricFile {
     private static final Logger logger = LogManager.getFormatterLogger();
 
-    private File file;
-    private BufferedWriter writer = null;
-    private BufferedReader reader = null;
+    private File file, foldersFile;
 
     public ApplicationMetricFile( String application, String directory) {
-        this.file = new File(String.format("%s/Metrics-%s.txt",directory,application));
+        String fileName = application.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.file = new File(String.format("%s/Metrics-%s.txt",directory,fileName));
+        this.foldersFile = new File(String.format("%s/Folders-%s.txt",directory,fileName));
     }
 
     public boolean exists() { return this.file.exists(); }
@@ -22,14 +35,22 @@ public class ApplicationMetricFile {
 
     public MetricGraph readMetrics() throws IOException {
         MetricGraph metricGraph = new MetricGraph(null);
+        metricGraph.addMetricNames(readMetricNames());
+        return metricGraph;
+    }
+
+    public List<String> readMetricNames() throws IOException {
+        List<String> metricNames = new ArrayList<>();
+        if( !exists() ) return metricNames;
         synchronized (file) {
-            openFile();
-            while( reader.ready() ) {
-                metricGraph.addMetricName(reader.readLine());
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while( (line = reader.readLine()) != null ) {
+                    if( !line.isEmpty() ) metricNames.add(line);
+                }
             }
-            close();
         }
-        return metricGraph;
+        return metricNames;
     }
 
     public int writeMetrics( List<String> metricNames ) throws IOException {
@@ -38,36 +59,124 @@ public class ApplicationMetricFile {
     public int writeMetrics( String... metricNames ) throws IOException {
         int counter=0;
         synchronized (file) {
-            openFile();
-            for( String metricName : metricNames ) {
-                writer.write(metricName);
-                writer.newLine();
-                counter++;
+            File temporary = openTemporary(file);
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+                for( String metricName : metricNames ) {
+                    writer.write(metricName);
+                    writer.newLine();
+                    counter++;
+                }
             }
-            close();
+            replace(temporary, file);
         }
         return counter;
     }
 
-    private void openFile() throws IOException {
-        if( writer == null ) {
-            this.writer = new BufferedWriter( new FileWriter(file) );
-        }
-        if( reader == null) {
-            this.reader = new BufferedReader( new FileReader(file) );
+    //listed at, folder path, then the type and name of everything in it, tab separated
+    public Map<String,FolderListing> readFolders() throws IOException {
+        Map<String,FolderListing> folders = new HashMap<>();
+        if( !foldersFile.exists() ) return folders;
+        synchronized (file) {
+            try (BufferedReader reader = Files.newBufferedReader(foldersFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while( (line = reader.readLine()) != null ) {
+                    String[] fields = line.split("\t", -1);
+                    if( fields.length < 2 || fields.length % 2 != 0 ) {
+                        logger.warn("Skipping a malformed line in %s: '%s'", foldersFile, line);
+                        continue;
+                    }
+                    try {
+                        TreeNode[] nodes = new TreeNode[(fields.length - 2) / 2];
+                        for( int i=0; i < nodes.length; i++ ) {
+                            nodes[i] = new TreeNode();
+                            nodes[i].type = unescape(fields[2+i*2]);
+                            nodes[i].name = unescape(fields[3+i*2]);
+                        }
+                        folders.put(unescape(fields[1]), new FolderListing(Long.parseLong(fields[0]), nodes));
+                    } catch (NumberFormatException numberFormatException) {
+                        logger.warn("Skipping a malformed line in %s: '%s'", foldersFile, line);
+                    }
+                }
+            }
         }
+        return folders;
     }
 
-    public void close() throws IOException {
-        if( writer != null ) {
-            writer.flush();
-            writer.close();
-            writer=null;
+    public int writeFolders( Map<String,FolderListing> folders ) throws IOException {
+        int counter=0;
+        synchronized (file) {
+            File temporary = openTemporary(foldersFile);
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+                for( Map.Entry<String,FolderListing> entry : folders.entrySet() ) {
+                    writer.write(String.valueOf(entry.getValue().listedAt));
+                    writer.write('\t');
+                    writer.write(escape(entry.getKey()));
+                    for( TreeNode node : entry.getValue().nodes ) {
+                        writer.write('\t');
+                        writer.write(escape(node.type));
+                        writer.write('\t');
+                        writer.write(escape(node.name));
+                    }
+                    writer.newLine();
+                    counter++;
+                }
+            }
+            replace(temporary, foldersFile);
         }
-        if( reader != null ) {
-            reader.close();
-            reader=null;
+        return counter;
+    }
+
+    private File openTemporary( File target ) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        if( !directory.exists() && !directory.mkdirs() ) throw new IOException("Can not create directory "+ directory);
+        return new File(directory, target.getName() +".tmp");
+    }
+
+    private void replace( File temporary, File target ) throws IOException {
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String escape( String text ) {
+        if( text == null ) return "\\0";
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape( String text ) {
+        if( "\\0".equals(text) ) return null;
+        if( text.indexOf('\\') < 0 ) return text;
+        StringBuilder sb = new StringBuilder(text.length());
+        for( int i=0; i < text.length(); i++ ) {
+            char c = text.charAt(i);
+            if( c == '\\' && i+1 < text.length() ) {
+                char next = text.charAt(++i);
+                switch (next) {
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    default: sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
         }
+        return sb.toString();
     }
 
+    //what the controller said was in one folder of the metric tree, and when it said it
+    public static class FolderListing {
+        public long listedAt;
+        public TreeNode[] nodes;
+
+        public FolderListing( long listedAt, TreeNode[] nodes ) {
+            this.listedAt = listedAt;
+            this.nodes = nodes;
+        }
+
+        //a listing goes stale somewhere between half of maxAge and maxAge, by its path, so a refresh lists a slice of the tree again instead of all of it at once
+        public boolean isFresh( String path, long maxAgeMillis, long now ) {
+            if( maxAgeMillis <= 0 ) return false;
+            long halfAge = maxAgeMillis / 2;
+            return now < listedAt + halfAge + Math.floorMod((long) path.hashCode(), halfAge + 1);
+        }
+    }
 }
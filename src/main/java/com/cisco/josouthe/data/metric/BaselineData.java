@@ -1,40 +1,27 @@
 package com.cisco.josouthe.data.metric;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import com.google.gson.annotations.JsonAdapter;
 
 public class BaselineData {
     public long metricId;
     public String metricName, frequency;
     public int granularityMinutes;
-    public List<BaselineTimeslice> dataTimeslices;
+    @JsonAdapter(MetricValueBatch.TimesliceAdapter.class)
+    public MetricValueBatch dataTimeslices;
     public String targetTable = null;
     public String controllerHostname;
     public String applicationName;
     public Baseline baseline;
+    public long windowId; //the fetch window this came from, see WatermarkTracker
+    public int valuesInserted; //values already in the database from an earlier attempt, see ValueBatchBinder
 
+    //timeslices without a value are dropped as they are parsed, this is how many were
     public long purgeNullBaselineTimeslices() {
-        if( dataTimeslices == null || dataTimeslices.isEmpty() ) return 0;
-        long counter=0;
-        synchronized (this.dataTimeslices) {
-            List<BaselineTimeslice> newDataTimeslices = new ArrayList<>();
-            Iterator<BaselineTimeslice> it = dataTimeslices.iterator();
-            while(it.hasNext()) {
-                BaselineTimeslice baselineTimeslice = it.next();
-                if( baselineTimeslice.metricValue != null ) {
-                    newDataTimeslices.add(baselineTimeslice);
-                } else {
-                    counter++;
-                }
-            }
-            this.dataTimeslices.clear();
-            this.dataTimeslices.addAll(newDataTimeslices);
-        }
-        return counter;
+        if( dataTimeslices == null ) return 0;
+        return dataTimeslices.takeCountPurged();
     }
 
     public boolean hasData() {
-        return dataTimeslices != null && dataTimeslices.size() > 0;
+        return dataTimeslices != null && !dataTimeslices.isEmpty();
     }
 }
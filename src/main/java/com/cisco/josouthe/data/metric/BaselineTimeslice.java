@@ -1,6 +0,0 @@
-package com.cisco.josouthe.data.metric;
-
-public class BaselineTimeslice {
-    public long startTime;
-    public MetricValue metricValue;
-}
@@ -0,0 +1,72 @@
+package com.cisco.josouthe.data.metric;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+The metric names of an application as its first discovery finds them, in batches, so the metric fetch can start before the whole tree is walked
+The configured metrics are the first batch, then each top level folder of the metric tree is a batch as soon as everything under it is listed
+A fetch takes the batches in order, waiting for the next one until the walk completes, this replaced polling finishedInitialization every 10 seconds
+A name an earlier batch already covers with a * in its place is left out too, or its data would be fetched and inserted twice
+ */
+public class DiscoveredMetrics {
+    private final List<List<String>> batches = new ArrayList<>();
+    private final Set<String> published = new HashSet<>();
+    private final Map<Integer,List<String[]>> wildcards = new HashMap<>(); //the published names with a * segment, by their number of segments
+    private boolean complete = false;
+
+    //names already in an earlier batch, or covered by a wildcard name in one, are left out, an empty batch is not published at all
+    public synchronized void publish( Collection<String> metricNames ) {
+        if( complete ) return;
+        List<String> batch = new ArrayList<>();
+        for( String metricName : metricNames )
+            if( !published.contains(metricName) && !isCovered(metricName.split("\\|")) ) batch.add(metricName);
+        if( batch.isEmpty() ) return;
+        for( String metricName : batch ) {
+            published.add(metricName);
+            String[] segments = metricName.split("\\|");
+            for( String segment : segments ) {
+                if( "*".equals(segment) ) {
+                    wildcards.computeIfAbsent(segments.length, k -> new ArrayList<>()).add(segments);
+                    break;
+                }
+            }
+        }
+        batches.add(batch);
+        notifyAll();
+    }
+
+    //a * stands for any one segment of the path, the same as it does in the metric data api
+    private boolean isCovered( String[] segments ) {
+        List<String[]> sameLength = wildcards.get(segments.length);
+        if( sameLength == null ) return false;
+        for( String[] wildcard : sameLength ) {
+            boolean matches = true;
+            for( int i=0; i < segments.length && matches; i++ )
+                matches = "*".equals(wildcard[i]) || wildcard[i].equals(segments[i]);
+            if( matches ) return true;
+        }
+        return false;
+    }
+
+    public synchronized void complete() {
+        complete = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isComplete() { return complete; }
+
+    public synchronized int countPublished() { return published.size(); }
+
+    //the batch at index, waiting for it if it isn't published yet, null once discovery is complete and there are no more
+    public synchronized List<String> awaitBatch( int index ) throws InterruptedException {
+        while( index >= batches.size() && !complete )
+            wait();
+        return (index < batches.size() ? batches.get(index) : null);
+    }
+}
@@ -5,7 +5,6 @@ import org.apache.logging.log4j.Logger;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.List;
 
 public class MetricData {
     private static final Logger logger = LogManager.getFormatterLogger();
@@ -21,8 +20,10 @@ public class MetricData {
     public long metricId;
     public String metricName, metricPath, frequency, hostname;
     public transient URL url;
-    public List<MetricValue> metricValues;
+    public MetricValueBatch metricValues;
     public String targetTable = null;
     public String controllerHostname;
     public String applicationName;
+    public long windowId; //the fetch window this came from, see WatermarkTracker
+    public int valuesInserted; //values already in the database from an earlier attempt, see ValueBatchBinder
 }
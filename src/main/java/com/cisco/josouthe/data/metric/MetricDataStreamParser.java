@@ -0,0 +1,149 @@
+package com.cisco.josouthe.data.metric;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+Reads a metric-data response as it arrives instead of reading it into a String and then into an array of MetricData,
+a wildcard path can return thousands of series and all of it used to be held twice before the first one was queued
+Series are handed to the consumer in chunks of about valuesPerChunk values, a series with more values than that is split into several
+MetricData with the same id and name, so memory per request stays the same no matter how large the response is
+Values are read straight into the columns of a MetricValueBatch, no MetricValue object is made for them
+The controller sends metricValues after the name and id, if a response ever puts them first the values are held until the name shows up
+A response that breaks off part way has already handed over the chunks before the break, a retry of the same request gets the Progress
+of the first try and leaves out the values it handed over, so they aren't queued for insert twice
+ */
+public class MetricDataStreamParser {
+    private final int valuesPerChunk;
+    private final Consumer<MetricData[]> consumer;
+    private final Progress progress;
+    private final List<MetricData> pending = new ArrayList<>();
+    private int pendingValues = 0, countSeries = 0;
+
+    public MetricDataStreamParser( int valuesPerChunk, Consumer<MetricData[]> consumer ) {
+        this(valuesPerChunk, consumer, new Progress());
+    }
+
+    public MetricDataStreamParser( int valuesPerChunk, Consumer<MetricData[]> consumer, Progress progress ) {
+        this.valuesPerChunk = Math.max(1, valuesPerChunk);
+        this.consumer = consumer;
+        this.progress = progress;
+    }
+
+    //returns the number of series in the response
+    public int parse( Reader reader ) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        if( jsonReader.peek() == JsonToken.BEGIN_OBJECT ) { //a single series, not in an array
+            parseMetricData(jsonReader);
+        } else {
+            jsonReader.beginArray();
+            while( jsonReader.hasNext() ) parseMetricData(jsonReader);
+            jsonReader.endArray();
+        }
+        flush();
+        return countSeries;
+    }
+
+    private void parseMetricData( JsonReader jsonReader ) throws IOException {
+        MetricData header = new MetricData();
+        MetricValueBatch metricValues = new MetricValueBatch();
+        boolean emitted = false;
+        jsonReader.beginObject();
+        while( jsonReader.hasNext() ) {
+            switch (jsonReader.nextName()) {
+                case "metricId": header.metricId = jsonReader.nextLong(); break;
+                case "metricName": header.metricName = nextString(jsonReader); break;
+                case "metricPath": header.metricPath = nextString(jsonReader); break;
+                case "frequency": header.frequency = nextString(jsonReader); break;
+                case "metricValues": {
+                    if( jsonReader.peek() == JsonToken.NULL ) {
+                        jsonReader.nextNull();
+                        break;
+                    }
+                    jsonReader.beginArray();
+                    while( jsonReader.hasNext() ) {
+                        metricValues.readValue(jsonReader);
+                        if( metricValues.size() >= valuesPerChunk && header.metricName != null ) {
+                            emit(header, metricValues);
+                            metricValues = new MetricValueBatch();
+                            emitted = true;
+                        }
+                    }
+                    jsonReader.endArray();
+                    break;
+                }
+                default: jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        if( !metricValues.isEmpty() || !emitted ) emit(header, metricValues); //keep series with no values, "METRIC DATA NOT FOUND" is one and callers look for it
+        countSeries++;
+    }
+
+    private void emit( MetricData header, MetricValueBatch metricValues ) {
+        if( !metricValues.isEmpty() ) {
+            metricValues = progress.withoutHandedOver(header.metricId, metricValues);
+            if( metricValues.isEmpty() ) return; //all of it went to the consumer on an earlier try
+        }
+        MetricData metricData = new MetricData();
+        metricData.metricId = header.metricId;
+        metricData.metricName = header.metricName;
+        metricData.metricPath = header.metricPath;
+        metricData.frequency = header.frequency;
+        metricData.metricValues = metricValues;
+        pending.add(metricData);
+        pendingValues += metricValues.size();
+        if( pendingValues >= valuesPerChunk ) flush();
+    }
+
+    private void flush() {
+        if( pending.isEmpty() ) return;
+        consumer.accept(pending.toArray(new MetricData[0]));
+        for( MetricData metricData : pending )
+            progress.handedOver(metricData);
+        pending.clear();
+        pendingValues = 0;
+    }
+
+    //the latest value start time handed to the consumer for each metric id, the controller sends the values of a series in time order
+    public static class Progress {
+        private Map<Long,Long> latestStartTime = null; //most requests never need it
+
+        private void handedOver( MetricData metricData ) {
+            MetricValueBatch metricValues = metricData.metricValues;
+            if( metricValues == null || metricValues.isEmpty() ) return;
+            long latest = Long.MIN_VALUE;
+            for( int i=0; i < metricValues.size(); i++ )
+                latest = Math.max(latest, metricValues.startTimeInMillis[i]);
+            if( latestStartTime == null ) latestStartTime = new HashMap<>();
+            latestStartTime.merge(metricData.metricId, latest, Math::max);
+        }
+
+        private MetricValueBatch withoutHandedOver( long metricId, MetricValueBatch metricValues ) {
+            Long latest = (latestStartTime == null ? null : latestStartTime.get(metricId));
+            if( latest == null ) return metricValues;
+            MetricValueBatch newValues = new MetricValueBatch(metricValues.size());
+            for( int i=0; i < metricValues.size(); i++ )
+                if( metricValues.startTimeInMillis[i] > latest )
+                    newValues.add(metricValues.startTimeInMillis[i], metricValues.occurrences[i], metricValues.current[i], metricValues.min[i], metricValues.max[i],
+                            metricValues.count[i], metricValues.sum[i], metricValues.value[i], metricValues.useRange[i], metricValues.standardDeviation[i]);
+            return newValues;
+        }
+    }
+
+    private static String nextString( JsonReader jsonReader ) throws IOException {
+        if( jsonReader.peek() == JsonToken.NULL ) {
+            jsonReader.nextNull();
+            return null;
+        }
+        return jsonReader.nextString();
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /*
@@ -15,21 +16,33 @@ a vertex has the same number of left and right vertex references, this is a loca
 this most likely isn't fool proof, i didn't do a proof on this, it just seems to work pretty well. will need to confirm data loads are correct
 https://en.wikipedia.org/wiki/Deterministic_acyclic_finite_state_automaton
 will most likely migrate to this as my primary data structure, since the ArrayList of ApplicationMetrics is blowing up my limited heap 1GB
+
+Finding the blooms used to scan every edge for every vertex, minutes and a held refresh lock at 700K names, now each vertex counts its
+left and right references as they are added, so it is one pass over the vertices, O(V+E) overall. The counts include repeats, the same
+as the edge list did, so the output is unchanged
+
+A vertex is a word at a position, and it was an object with its own copy of the first metric name it was seen in, a "word+position" String
+key in a TreeMap, and lists of its neighbours. Now every word is interned once, as utf-8 bytes in one shared byte array, and given an int id,
+a vertex is an int index into parallel int arrays, found through a primitive hash of (word id, position), and the first metric name is kept
+once as word ids in one shared int array, only for names that added a vertex. Nothing ever walked the neighbour lists, only the reference
+counts are needed, so only those are kept
  */
 public class MetricGraph {
     private static final Logger logger = LogManager.getFormatterLogger();
+    private static final int NO_VERTEX = -1;
 
-    private ArrayList<Edge> edges;
-    private ArrayList<Vertex> startingVertices;
-    private TreeMap<String, Vertex> vertices;
+    private final WordPool words = new WordPool();
+    private final VertexIndex vertexIndex = new VertexIndex();
+    private int countOfVertices = 0;
+    private int[] vertexWord = new int[1024], vertexPosition = new int[1024], vertexOriginal = new int[1024];
+    private int[] leftReferences = new int[1024], rightReferences = new int[1024];
+    private int[] originals = new int[4096]; //for each name kept, its number of words and then the word ids
+    private int originalsSize = 0;
     private long originalSize, newSize, countOfMetricsAdded;
     private Set<String> newAppMetricsStrings = null;
     private List<String> staticMetrics = new ArrayList<>();
 
     public MetricGraph(List<String> metrics) {
-        edges = new ArrayList<>();
-        vertices = new TreeMap<>();
-        startingVertices = new ArrayList<>();
         countOfMetricsAdded=0;
         if( metrics != null )
             this.staticMetrics.addAll(metrics);
@@ -40,20 +53,14 @@ public class MetricGraph {
     public Set<String> getUniqueCompressedMetricNames() {
         if( newAppMetricsStrings != null ) return newAppMetricsStrings;
         newAppMetricsStrings = new HashSet<>();
-        logger.trace("getUniqueCompressedMetricNames number of vertices: %d edges: %d", vertices.size(), edges.size());
-        for( Vertex vertex : vertices.values() ) {                          //O(n^2) or O(n!) lol?!?!
-            if( vertex.isInitial() || vertex.value.contains("*") ) {
+        logger.trace("getUniqueCompressedMetricNames number of vertices: %d words: %d", countOfVertices, words.size);
+        for( int vertex=0; vertex < countOfVertices; vertex++ ) {
+            if( leftReferences[vertex] == 0 || words.containsWildcard(vertexWord[vertex]) ) {
                 continue;
             }
-            int rCnt=0, lCnt=0;
-            for( Edge edge : edges) {
-                logger.trace("Edge %s", edge);
-                if( edge.lVertex == vertex) lCnt++;
-                if( edge.rVertex == vertex) rCnt++;
-            }
-            if( lCnt == rCnt ) {
-                logger.trace("Found Bloom Vertex %s references r: %d l: %d", vertex, rCnt, lCnt);
-                newAppMetricsStrings.add( vertex.printWithWildcard() );
+            if( leftReferences[vertex] == rightReferences[vertex] ) {
+                logger.trace("Found Bloom Vertex '%s' at [%d] references r: %d l: %d", words.get(vertexWord[vertex]), vertexPosition[vertex], leftReferences[vertex], rightReferences[vertex]);
+                newAppMetricsStrings.add( printWithWildcard(vertex) );
             }
         }
         newAppMetricsStrings.addAll(this.staticMetrics);
@@ -71,20 +78,22 @@ public class MetricGraph {
     }
 
     public void addMetricName(String metricName) {
-        Vertex leftVertex = null;
-        int position = 0;
-        for( String word : metricName.split("\\|") ) {
-            Vertex vertex = vertices.get(word+String.valueOf(position));
-            if( vertex == null ) vertex = new Vertex(word, position, metricName);
-            if( leftVertex == null ) {
-                startingVertices.add(vertex);
-            } else {
-                edges.add( new Edge(leftVertex,vertex) );
-                leftVertex.addRightVertex(vertex);
-                vertex.addLeftVertex(leftVertex);
+        String[] nameWords = metricName.split("\\|");
+        int[] nameWordIds = new int[nameWords.length];
+        for( int position=0; position < nameWords.length; position++ )
+            nameWordIds[position] = words.intern(nameWords[position]);
+        int original = NO_VERTEX, leftVertex = NO_VERTEX;
+        for( int position=0; position < nameWordIds.length; position++ ) {
+            int vertex = vertexIndex.get(nameWordIds[position], position);
+            if( vertex == NO_VERTEX ) {
+                if( original == NO_VERTEX ) original = keepOriginal(nameWordIds);
+                vertex = addVertex(nameWordIds[position], position, original);
+                vertexIndex.put(nameWordIds[position], position, vertex);
+            }
+            if( leftVertex != NO_VERTEX ) {
+                rightReferences[leftVertex]++;
+                leftReferences[vertex]++;
             }
-            vertices.put(word+String.valueOf(position),vertex);
-            position++;
             leftVertex=vertex;
         }
         countOfMetricsAdded++;
@@ -95,110 +104,156 @@ public class MetricGraph {
         return addMetricNames( metricPaths.toArray(new String[0]));
     }
 
-    private class Edge {
-        public Vertex lVertex, rVertex;
-
-        public Edge(Vertex leftVertex, Vertex vertex) {
-            this.lVertex=leftVertex;
-            this.rVertex=vertex;
+    private int addVertex( int word, int position, int original ) {
+        if( countOfVertices == vertexWord.length ) {
+            int capacity = vertexWord.length * 2;
+            vertexWord = Arrays.copyOf(vertexWord, capacity);
+            vertexPosition = Arrays.copyOf(vertexPosition, capacity);
+            vertexOriginal = Arrays.copyOf(vertexOriginal, capacity);
+            leftReferences = Arrays.copyOf(leftReferences, capacity);
+            rightReferences = Arrays.copyOf(rightReferences, capacity);
         }
-        public boolean isLeftOf( Vertex v ){ return v == rVertex; }
-        public boolean isRightOf( Vertex v ) { return v == lVertex; }
-        public boolean isSource() { return lVertex == null; }
+        vertexWord[countOfVertices] = word;
+        vertexPosition[countOfVertices] = position;
+        vertexOriginal[countOfVertices] = original;
+        return countOfVertices++;
+    }
 
-        public String toString() { return String.format("left Vertex [%s] right Vertex [%s]", lVertex, rVertex ); }
+    private int keepOriginal( int[] nameWordIds ) {
+        while( originalsSize + nameWordIds.length + 1 > originals.length )
+            originals = Arrays.copyOf(originals, originals.length * 2);
+        int start = originalsSize;
+        originals[originalsSize++] = nameWordIds.length;
+        System.arraycopy(nameWordIds, 0, originals, originalsSize, nameWordIds.length);
+        originalsSize += nameWordIds.length;
+        return start;
     }
 
-    private class Vertex implements Comparable{
-        public String value, original;
-        public int position=-1;
-        private ArrayList<Vertex> rEdges, lEdges;
-
-        public Vertex(String word, int position, String original) {
-            this.value=word;
-            this.original=original;
-            this.position=position;
-            rEdges = new ArrayList<>();
-            lEdges = new ArrayList<>();
-        }
-
-        public String toString() { return String.format("'%s' of [%d]'%s'",value, position, original); }
-        public String printWithWildcard() {
-            StringBuilder sb = new StringBuilder();
-            String[] words = original.split("\\|");
-            for( int i=0; i< words.length; i++ ) {
-                if( i == position ) {
-                    sb.append("*");
-                } else {
-                    sb.append(words[i]);
-                }
-                if( i+1 < words.length ) sb.append("|");
+    //the first metric name this vertex was seen in, with its word replaced by *
+    private String printWithWildcard( int vertex ) {
+        StringBuilder sb = new StringBuilder();
+        int start = vertexOriginal[vertex], length = originals[start];
+        for( int i=0; i < length; i++ ) {
+            if( i == vertexPosition[vertex] ) {
+                sb.append("*");
+            } else {
+                sb.append(words.get(originals[start+1+i]));
             }
-            return sb.toString();
-        }
-        public void addRightVertex( Vertex v ) { this.rEdges.add(v); }
-        public void addLeftVertex( Vertex v ) { this.lEdges.add(v); }
-        public boolean isFinal() { return rEdges.size() == 0;}
-        public boolean isInitial() { return lEdges.size() == 0;}
-
-        public boolean isBloomCandidate() {
-            if( isFinal() ) return false;
-            if( rEdges.size() > 1 ) {
-                for( Vertex rightVertex : rEdges)
-                    if( rightVertex.isFinal() ) return false;
+            if( i+1 < length ) sb.append("|");
+        }
+        return sb.toString();
+    }
+
+    //open addressing from (word id, position) to vertex, two ints a slot instead of a String key and a TreeMap entry
+    private static class VertexIndex {
+        private long[] keys = new long[2048];
+        private int[] values = new int[2048];
+        private int size = 0;
+
+        VertexIndex() {
+            Arrays.fill(values, NO_VERTEX);
+        }
+
+        private static long key( int word, int position ) { return ((long) word << 32) | (position & 0xffffffffL); }
+
+        private static int slot( long key, int mask ) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        int get( int word, int position ) {
+            long key = key(word, position);
+            int mask = keys.length - 1;
+            for( int slot = slot(key, mask); values[slot] != NO_VERTEX; slot = (slot+1) & mask )
+                if( keys[slot] == key ) return values[slot];
+            return NO_VERTEX;
+        }
+
+        void put( int word, int position, int vertex ) {
+            if( (size+1) * 2 > keys.length ) grow();
+            insert(key(word, position), vertex);
+            size++;
+        }
+
+        private void insert( long key, int vertex ) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while( values[slot] != NO_VERTEX ) slot = (slot+1) & mask;
+            keys[slot] = key;
+            values[slot] = vertex;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(values, NO_VERTEX);
+            for( int i=0; i < oldKeys.length; i++ )
+                if( oldValues[i] != NO_VERTEX ) insert(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    //every distinct word once, end to end in one byte array, with an open addressing table from the bytes to the word id
+    private static class WordPool {
+        private byte[] bytes = new byte[65536];
+        private int[] offsets = new int[1024]; //word id to where it starts, it ends where the next one starts
+        private int[] table = new int[2048];
+        private int size = 0, bytesSize = 0;
+
+        WordPool() {
+            Arrays.fill(table, NO_VERTEX);
+        }
+
+        int intern( String word ) {
+            byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+            int mask = table.length - 1;
+            int slot = hash(encoded, 0, encoded.length) & mask;
+            while( table[slot] != NO_VERTEX ) {
+                int id = table[slot];
+                if( Arrays.equals(bytes, offsets[id], offsets[id+1], encoded, 0, encoded.length) ) return id;
+                slot = (slot+1) & mask;
             }
-            return true;
-        }
-
-        /**
-         * Compares this object with the specified object for order.  Returns a
-         * negative integer, zero, or a positive integer as this object is less
-         * than, equal to, or greater than the specified object.
-         *
-         * <p>The implementor must ensure
-         * {@code sgn(x.compareTo(y)) == -sgn(y.compareTo(x))}
-         * for all {@code x} and {@code y}.  (This
-         * implies that {@code x.compareTo(y)} must throw an exception iff
-         * {@code y.compareTo(x)} throws an exception.)
-         *
-         * <p>The implementor must also ensure that the relation is transitive:
-         * {@code (x.compareTo(y) > 0 && y.compareTo(z) > 0)} implies
-         * {@code x.compareTo(z) > 0}.
-         *
-         * <p>Finally, the implementor must ensure that {@code x.compareTo(y)==0}
-         * implies that {@code sgn(x.compareTo(z)) == sgn(y.compareTo(z))}, for
-         * all {@code z}.
-         *
-         * <p>It is strongly recommended, but <i>not</i> strictly required that
-         * {@code (x.compareTo(y)==0) == (x.equals(y))}.  Generally speaking, any
-         * class that implements the {@code Comparable} interface and violates
-         * this condition should clearly indicate this fact.  The recommended
-         * language is "Note: this class has a natural ordering that is
-         * inconsistent with equals."
-         *
-         * <p>In the foregoing description, the notation
-         * {@code sgn(}<i>expression</i>{@code )} designates the mathematical
-         * <i>signum</i> function, which is defined to return one of {@code -1},
-         * {@code 0}, or {@code 1} according to whether the value of
-         * <i>expression</i> is negative, zero, or positive, respectively.
-         *
-         * @param other the object to be compared.
-         * @return a negative integer, zero, or a positive integer as this object
-         * is less than, equal to, or greater than the specified object.
-         * @throws NullPointerException if the specified object is null
-         * @throws ClassCastException   if the specified object's type prevents it
-         *                              from being compared to this object.
-         */
-        @Override
-        public int compareTo(Object other) {
-            if( other == null ) return 1;
-            if( other instanceof Vertex ) {
-                Vertex otherV = (Vertex) other;
-                if (this.position == otherV.position && this.value.equals(otherV.value)) return 0;
-                if (this.position < otherV.position) return -1;
-                return 1;
+            int id = add(encoded);
+            table[slot] = id;
+            if( size * 2 > table.length ) rehash();
+            return id;
+        }
+
+        String get( int id ) {
+            return new String(bytes, offsets[id], offsets[id+1] - offsets[id], StandardCharsets.UTF_8);
+        }
+
+        boolean containsWildcard( int id ) {
+            for( int i = offsets[id]; i < offsets[id+1]; i++ )
+                if( bytes[i] == '*' ) return true; //never part of a multi byte character in utf-8
+            return false;
+        }
+
+        private int add( byte[] encoded ) {
+            while( bytesSize + encoded.length > bytes.length ) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            if( size + 2 > offsets.length ) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            System.arraycopy(encoded, 0, bytes, bytesSize, encoded.length);
+            bytesSize += encoded.length;
+            offsets[size+1] = bytesSize;
+            return size++;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            Arrays.fill(table, NO_VERTEX);
+            int mask = table.length - 1;
+            for( int id = 0; id < size; id++ ) {
+                int slot = hash(bytes, offsets[id], offsets[id+1]) & mask;
+                while( table[slot] != NO_VERTEX ) slot = (slot+1) & mask;
+                table[slot] = id;
             }
-            return -1;
+        }
+
+        private static int hash( byte[] array, int from, int to ) {
+            int hash = 1;
+            for( int i = from; i < to; i++ ) hash = 31 * hash + array[i];
+            return hash ^ (hash >>> 16);
         }
     }
 
@@ -0,0 +1,238 @@
+package com.cisco.josouthe.data.metric;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+The values of one metric series held as columns, one primitive array per field, instead of a list of MetricValue objects
+A backfill is tens of millions of data points a cycle, as objects that is a header, padding and a reference for every one of them,
+here it is ten array slots, the parser writes straight into the arrays and the table binders read straight out of them
+In json it looks the same as a list of MetricValue, so the spill queue and dead letter files can still read what older versions wrote,
+baselines come as a list of timeslices each wrapping a MetricValue, the TimesliceAdapter reads those into the same columns,
+the timeslice start time goes in startTimeInMillis and timeslices with no value are dropped
+ */
+@JsonAdapter(MetricValueBatch.Adapter.class)
+public class MetricValueBatch {
+    public long[] startTimeInMillis, occurrences, current, min, max, count, sum, value;
+    public double[] standardDeviation;
+    public boolean[] useRange;
+    private int size = 0;
+    private transient int countPurged = 0;
+
+    public MetricValueBatch() { this(16); }
+
+    public MetricValueBatch( int capacity ) {
+        allocate(Math.max(1, capacity));
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public void add( long startTimeInMillis, long occurrences, long current, long min, long max, long count, long sum, long value, boolean useRange, double standardDeviation ) {
+        if( size == this.startTimeInMillis.length ) grow();
+        this.startTimeInMillis[size] = startTimeInMillis;
+        this.occurrences[size] = occurrences;
+        this.current[size] = current;
+        this.min[size] = min;
+        this.max[size] = max;
+        this.count[size] = count;
+        this.sum[size] = sum;
+        this.value[size] = value;
+        this.useRange[size] = useRange;
+        this.standardDeviation[size] = standardDeviation;
+        size++;
+    }
+
+    public void add( MetricValue metricValue ) {
+        add(metricValue.startTimeInMillis, metricValue.occurrences, metricValue.current, metricValue.min, metricValue.max, metricValue.count, metricValue.sum, metricValue.value, metricValue.useRange, metricValue.standardDeviation);
+    }
+
+    //a copy of one row, for anything off the hot path that wants an object
+    public MetricValue get( int index ) {
+        if( index < 0 || index >= size ) throw new IndexOutOfBoundsException(String.format("index %d of %d values", index, size));
+        MetricValue metricValue = new MetricValue();
+        metricValue.startTimeInMillis = startTimeInMillis[index];
+        metricValue.occurrences = occurrences[index];
+        metricValue.current = current[index];
+        metricValue.min = min[index];
+        metricValue.max = max[index];
+        metricValue.count = count[index];
+        metricValue.sum = sum[index];
+        metricValue.value = value[index];
+        metricValue.useRange = useRange[index];
+        metricValue.standardDeviation = standardDeviation[index];
+        return metricValue;
+    }
+
+    //timeslices the TimesliceAdapter dropped for having no value, counted once
+    public int takeCountPurged() {
+        int purged = countPurged;
+        countPurged = 0;
+        return purged;
+    }
+
+    private void allocate( int capacity ) {
+        startTimeInMillis = new long[capacity];
+        occurrences = new long[capacity];
+        current = new long[capacity];
+        min = new long[capacity];
+        max = new long[capacity];
+        count = new long[capacity];
+        sum = new long[capacity];
+        value = new long[capacity];
+        useRange = new boolean[capacity];
+        standardDeviation = new double[capacity];
+    }
+
+    private void grow() {
+        int capacity = startTimeInMillis.length * 2;
+        startTimeInMillis = Arrays.copyOf(startTimeInMillis, capacity);
+        occurrences = Arrays.copyOf(occurrences, capacity);
+        current = Arrays.copyOf(current, capacity);
+        min = Arrays.copyOf(min, capacity);
+        max = Arrays.copyOf(max, capacity);
+        count = Arrays.copyOf(count, capacity);
+        sum = Arrays.copyOf(sum, capacity);
+        value = Arrays.copyOf(value, capacity);
+        useRange = Arrays.copyOf(useRange, capacity);
+        standardDeviation = Arrays.copyOf(standardDeviation, capacity);
+    }
+
+    //one MetricValue object from the reader into the next row
+    public void readValue( JsonReader jsonReader ) throws IOException {
+        long start = 0, occurrences = 0, current = 0, min = 0, max = 0, count = 0, sum = 0, value = 0;
+        boolean useRange = false;
+        double standardDeviation = 0;
+        jsonReader.beginObject();
+        while( jsonReader.hasNext() ) {
+            String name = jsonReader.nextName();
+            if( jsonReader.peek() == JsonToken.NULL ) {
+                jsonReader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "startTimeInMillis": start = jsonReader.nextLong(); break;
+                case "occurrences": occurrences = jsonReader.nextLong(); break;
+                case "current": current = jsonReader.nextLong(); break;
+                case "min": min = jsonReader.nextLong(); break;
+                case "max": max = jsonReader.nextLong(); break;
+                case "count": count = jsonReader.nextLong(); break;
+                case "sum": sum = jsonReader.nextLong(); break;
+                case "value": value = jsonReader.nextLong(); break;
+                case "useRange": useRange = jsonReader.nextBoolean(); break;
+                case "standardDeviation": standardDeviation = jsonReader.nextDouble(); break;
+                default: jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        add(start, occurrences, current, min, max, count, sum, value, useRange, standardDeviation);
+    }
+
+    private void writeValue( JsonWriter jsonWriter, int index ) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("startTimeInMillis").value(startTimeInMillis[index]);
+        jsonWriter.name("occurrences").value(occurrences[index]);
+        jsonWriter.name("current").value(current[index]);
+        jsonWriter.name("min").value(min[index]);
+        jsonWriter.name("max").value(max[index]);
+        jsonWriter.name("count").value(count[index]);
+        jsonWriter.name("sum").value(sum[index]);
+        jsonWriter.name("value").value(value[index]);
+        jsonWriter.name("useRange").value(useRange[index]);
+        jsonWriter.name("standardDeviation").value(standardDeviation[index]);
+        jsonWriter.endObject();
+    }
+
+    //[ {MetricValue}, ... ] as the controller sends metric data
+    public static class Adapter extends TypeAdapter<MetricValueBatch> {
+        @Override
+        public void write( JsonWriter jsonWriter, MetricValueBatch batch ) throws IOException {
+            if( batch == null ) {
+                jsonWriter.nullValue();
+                return;
+            }
+            jsonWriter.beginArray();
+            for( int i = 0; i < batch.size; i++ ) batch.writeValue(jsonWriter, i);
+            jsonWriter.endArray();
+        }
+
+        @Override
+        public MetricValueBatch read( JsonReader jsonReader ) throws IOException {
+            if( jsonReader.peek() == JsonToken.NULL ) {
+                jsonReader.nextNull();
+                return null;
+            }
+            MetricValueBatch batch = new MetricValueBatch();
+            jsonReader.beginArray();
+            while( jsonReader.hasNext() ) {
+                if( jsonReader.peek() == JsonToken.NULL ) {
+                    jsonReader.nextNull();
+                    continue;
+                }
+                batch.readValue(jsonReader);
+            }
+            jsonReader.endArray();
+            return batch;
+        }
+    }
+
+    //[ {"startTime": 123, "metricValue": {MetricValue}}, ... ] as the controller sends baseline data
+    public static class TimesliceAdapter extends TypeAdapter<MetricValueBatch> {
+        @Override
+        public void write( JsonWriter jsonWriter, MetricValueBatch batch ) throws IOException {
+            if( batch == null ) {
+                jsonWriter.nullValue();
+                return;
+            }
+            jsonWriter.beginArray();
+            for( int i = 0; i < batch.size; i++ ) {
+                jsonWriter.beginObject();
+                jsonWriter.name("startTime").value(batch.startTimeInMillis[i]);
+                jsonWriter.name("metricValue");
+                batch.writeValue(jsonWriter, i);
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+        }
+
+        @Override
+        public MetricValueBatch read( JsonReader jsonReader ) throws IOException {
+            if( jsonReader.peek() == JsonToken.NULL ) {
+                jsonReader.nextNull();
+                return null;
+            }
+            MetricValueBatch batch = new MetricValueBatch();
+            jsonReader.beginArray();
+            while( jsonReader.hasNext() ) {
+                long startTime = 0;
+                boolean hasValue = false;
+                jsonReader.beginObject();
+                while( jsonReader.hasNext() ) {
+                    String name = jsonReader.nextName();
+                    if( "startTime".equals(name) && jsonReader.peek() != JsonToken.NULL ) {
+                        startTime = jsonReader.nextLong();
+                    } else if( "metricValue".equals(name) && jsonReader.peek() == JsonToken.BEGIN_OBJECT ) {
+                        batch.readValue(jsonReader);
+                        hasValue = true;
+                    } else {
+                        jsonReader.skipValue();
+                    }
+                }
+                jsonReader.endObject();
+                if( hasValue ) {
+                    batch.startTimeInMillis[batch.size-1] = startTime; //startTime may come after the metricValue
+                } else {
+                    batch.countPurged++;
+                }
+            }
+            jsonReader.endArray();
+            return batch;
+        }
+    }
+}
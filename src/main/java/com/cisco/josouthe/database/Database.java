@@ -10,12 +10,12 @@ import com.cisco.josouthe.data.metric.MetricData;
 import com.cisco.josouthe.exceptions.BadCommandException;
 import com.cisco.josouthe.exceptions.FailedDataLoadException;
 import com.cisco.josouthe.exceptions.InvalidConfigurationException;
+import com.cisco.josouthe.http.Watchdog;
 import com.cisco.josouthe.print.IPrintable;
 import com.cisco.josouthe.print.Printer;
 import com.cisco.josouthe.print.ResultSetPrinter;
 import com.cisco.josouthe.print.TablePrinter;
 import com.cisco.josouthe.util.Utility;
-import com.cisco.josouthe.http.WorkingStatusThread;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -24,10 +24,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -50,6 +52,8 @@ public abstract class Database {
     protected String connectionString, user, password, vendorName;
     protected Table defaultMetricTable, controlTable, defaulEventTable, defaultBaselineTable;
     protected Map<String,Table> tablesMap = new HashMap<>();
+    private final ThreadLocal<WarmConnection> warmConnections = new ThreadLocal<>();
+    protected WatermarkTracker watermarkTracker = new WatermarkTracker(this);
 
     public Database( Configuration configuration, String connectionString, String user, String password ) {
         this.configuration = configuration;
@@ -69,8 +73,81 @@ public abstract class Database {
 
     public abstract boolean isDatabaseAvailable();
 
+    public WatermarkTracker getWatermarkTracker() { return watermarkTracker; }
+
+    /*
+    data from a fetch window is inserted in one transaction, together with the control entries of any windows it finishes, so the last run time
+    and the data it covers are committed or lost together, a table that fails only rolls back to its savepoint and the rest still goes in
+    the control rows in the transaction are not written under the control table's monitor, a thread waiting there while holding a row lock
+    another thread's transaction needs would be a deadlock the database can't see
+     */
     public void importData( Object[] someData ) throws FailedDataLoadException {
         if( someData == null || someData.length == 0 ) return;
+        if( !watermarkTracker.isTracked(someData) ) {
+            importDataByType(someData);
+            return;
+        }
+        boolean holding = warmConnections.get() != null;
+        holdWarmConnection();
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            if( connection == null ) { //csv, no transactions, write the control entries once the data is written
+                try {
+                    importDataByType(someData);
+                } catch (FailedDataLoadException failedDataLoadException) {
+                    setLastRunTimestamps(watermarkTracker.completed(WatermarkTracker.without(someData, failedDataLoadException.getData())), null);
+                    throw failedDataLoadException;
+                }
+                setLastRunTimestamps(watermarkTracker.completed(someData), null);
+                return;
+            }
+            connection.setAutoCommit(false);
+            FailedDataLoadException failure = null;
+            try {
+                importDataByType(someData);
+            } catch (FailedDataLoadException failedDataLoadException) {
+                failure = failedDataLoadException;
+            }
+            Object[] inserted = (failure == null ? someData : WatermarkTracker.without(someData, failure.getData()));
+            List<ControlEntry> written = watermarkTracker.peekReady(inserted);
+            for( ControlEntry controlEntry : written )
+                getControlTable().writeLastRunTimestamp(controlEntry); //a control row that fails rolls the data back with it
+            connection.commit();
+            connection.setAutoCommit(true); //so the row locks of the writes below are not held until this connection is handed back
+            setLastRunTimestamps(watermarkTracker.completed(inserted), written); //another thread may have finished a window along with us
+            if( failure != null ) throw failure;
+        } catch (SQLException sqlException) {
+            logger.warn("Error committing %d %s elements, Exception: %s", someData.length, someData.getClass().getComponentType().getSimpleName(), sqlException.toString());
+            if( connection != null ) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ignored) { }
+            }
+            throw new FailedDataLoadException(String.format("Error committing inserts, Exception: %s", sqlException.toString()), someData);
+        } finally {
+            if( connection != null ) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ignored) { }
+            }
+            if( !holding ) dropWarmConnection();
+        }
+    }
+
+    //the data is in the dead letters, as safe as in the database as far as the last run time goes
+    public void deadLettered( Object[] someData ) {
+        setLastRunTimestamps(watermarkTracker.completed(someData), null);
+    }
+
+    private void setLastRunTimestamps( List<ControlEntry> controlEntries, List<ControlEntry> alreadyWritten ) {
+        for( ControlEntry controlEntry : controlEntries ) {
+            if( alreadyWritten != null && alreadyWritten.contains(controlEntry) ) continue;
+            getControlTable().setLastRunTimestamp(controlEntry);
+        }
+    }
+
+    private void importDataByType( Object[] someData ) throws FailedDataLoadException {
         if( someData instanceof MetricData[] ) {
             importMetricData((MetricData[]) someData);
         } else if( someData instanceof EventData[] ) {
@@ -92,26 +169,34 @@ public abstract class Database {
         }
         int cntStarted = 0;
         int cntFinished = 0;
-        int cntAverageCalc = 0;
         long startTimeOverall = Utility.now();
-        long maxDurationTime = -1;
-        long minDurationTime = Long.MAX_VALUE;
-        for( MetricData metric : metricData ) { //TODO pop a data element off the array on success, otherwise leave the data in the array, in case of exception
+        Map<String,List<MetricData>> metricsByTable = new LinkedHashMap<>();
+        for( MetricData metric : metricData ) {
             if( "METRIC DATA NOT FOUND".equals(metric.metricName) ) continue;
-            cntStarted+=metric.metricValues.size();
-            IMetricTable table = (IMetricTable) getMetricTable(metric.targetTable);
+            cntStarted+=metric.metricValues.size() - metric.valuesInserted;
+            metricsByTable.computeIfAbsent(metric.targetTable, k -> new ArrayList<>()).add(metric);
+        }
+        List<MetricData> failed = new ArrayList<>();
+        FailedDataLoadException lastException = null;
+        for( List<MetricData> tableMetrics : metricsByTable.values() ) { //one connection and one batch per table, no matter how many small arrays were coalesced into this one
+            IMetricTable table = (IMetricTable) getMetricTable(tableMetrics.get(0).targetTable);
             long startTimeTransaction = Utility.now();
-            cntFinished += table.insert(metric);
-            cntAverageCalc++;
-            long durationTimeTransaction = Utility.now() - startTimeTransaction;
-            if( durationTimeTransaction > maxDurationTime ) maxDurationTime = durationTimeTransaction;
-            if( durationTimeTransaction < minDurationTime ) minDurationTime = durationTimeTransaction;
-            logger.debug("Loaded %d metrics into the database in time %d(ms)", metric.metricValues.size(), durationTimeTransaction);
+            Savepoint savepoint = setSavepoint();
+            try {
+                cntFinished += table.insertAll(tableMetrics.toArray(new MetricData[0]));
+            } catch (FailedDataLoadException failedDataLoadException) {
+                rollbackToSavepoint(savepoint);
+                failed.addAll(tableMetrics);
+                lastException = failedDataLoadException;
+                continue;
+            }
+            logger.debug("Loaded %d metric data sets into %s in time %d(ms)", tableMetrics.size(), table, Utility.now() - startTimeTransaction);
         }
         long durationTimeOverallMS = Utility.now() - startTimeOverall;
         if( cntStarted > 0 )
             logger.info("Attempted to load %d metrics, succeeded in loading %d metrics. Total Time %d(ms)",cntStarted,cntFinished,durationTimeOverallMS);
-
+        if( !failed.isEmpty() )
+            throw new FailedDataLoadException(lastException.getMessage(), failed.toArray(new MetricData[0]));
     }
 
     public void importBaselineData(BaselineData[] baselineData) throws FailedDataLoadException {
@@ -122,25 +207,33 @@ public abstract class Database {
         }
         int cntStarted = 0;
         int cntFinished = 0;
-        int cntAverageCalc = 0;
         long startTimeOverall = Utility.now();
-        long maxDurationTime = -1;
-        long minDurationTime = Long.MAX_VALUE;
+        Map<String,List<BaselineData>> baselinesByTable = new LinkedHashMap<>();
         for( BaselineData baseline : baselineData ) {
-            cntStarted+=baseline.dataTimeslices.size();
-            IBaselineTable table = (IBaselineTable) getBaselineTable(baseline.targetTable);
+            cntStarted+=baseline.dataTimeslices.size() - baseline.valuesInserted;
+            baselinesByTable.computeIfAbsent(baseline.targetTable, k -> new ArrayList<>()).add(baseline);
+        }
+        List<BaselineData> failed = new ArrayList<>();
+        FailedDataLoadException lastException = null;
+        for( List<BaselineData> tableBaselines : baselinesByTable.values() ) {
+            IBaselineTable table = (IBaselineTable) getBaselineTable(tableBaselines.get(0).targetTable);
             long startTimeTransaction = Utility.now();
-            cntFinished += table.insert(baseline);
-            cntAverageCalc++;
-            long durationTimeTransaction = Utility.now() - startTimeTransaction;
-            if( durationTimeTransaction > maxDurationTime ) maxDurationTime = durationTimeTransaction;
-            if( durationTimeTransaction < minDurationTime ) minDurationTime = durationTimeTransaction;
-            logger.debug("Loaded %d baseline metrics into the database in time %d(ms)", baseline.dataTimeslices.size(), durationTimeTransaction);
+            Savepoint savepoint = setSavepoint();
+            try {
+                cntFinished += table.insertAll(tableBaselines.toArray(new BaselineData[0]));
+            } catch (FailedDataLoadException failedDataLoadException) {
+                rollbackToSavepoint(savepoint);
+                failed.addAll(tableBaselines);
+                lastException = failedDataLoadException;
+                continue;
+            }
+            logger.debug("Loaded %d baseline data sets into %s in time %d(ms)", tableBaselines.size(), table, Utility.now() - startTimeTransaction);
         }
         long durationTimeOverallMS = Utility.now() - startTimeOverall;
         if( cntStarted > 0 )
             logger.info("Attempted to load %d baseline metrics, succeeded in loading %d baseline metrics. Total Time %d(ms)",cntStarted,cntFinished,durationTimeOverallMS);
-
+        if( !failed.isEmpty() )
+            throw new FailedDataLoadException(lastException.getMessage(), failed.toArray(new BaselineData[0]));
     }
 
     public void importEventData(EventData[] events) throws FailedDataLoadException{
@@ -152,20 +245,31 @@ public abstract class Database {
         int cntStarted = 0;
         int cntFinished = 0;
         long startTimeOverall = Utility.now();
-        long maxDurationTime = -1;
-        long minDurationTime = Long.MAX_VALUE;
+        Map<String,List<EventData>> eventsByTable = new LinkedHashMap<>();
         for( EventData event : events ) {
             cntStarted++;
+            eventsByTable.computeIfAbsent(event.targetTable, k -> new ArrayList<>()).add(event);
+        }
+        List<EventData> failed = new ArrayList<>();
+        FailedDataLoadException lastException = null;
+        for( List<EventData> tableEvents : eventsByTable.values() ) {
+            IEventTable table = (IEventTable) getEventTable(tableEvents.get(0).targetTable);
             long startTimeTransaction = Utility.now();
-            IEventTable table = (IEventTable) getEventTable(event.targetTable);
-            cntFinished += table.insert(event);
-            long durationTimeTransaction = Utility.now() - startTimeTransaction;
-            if( durationTimeTransaction > maxDurationTime ) maxDurationTime = durationTimeTransaction;
-            if( durationTimeTransaction < minDurationTime ) minDurationTime = durationTimeTransaction;
-            logger.debug("Loaded %d event into the database in time %d(ms)", 1, durationTimeTransaction);
+            Savepoint savepoint = setSavepoint();
+            try {
+                cntFinished += table.insertAll(tableEvents.toArray(new EventData[0]));
+            } catch (FailedDataLoadException failedDataLoadException) {
+                rollbackToSavepoint(savepoint);
+                failed.addAll(tableEvents);
+                lastException = failedDataLoadException;
+                continue;
+            }
+            logger.debug("Loaded %d events into %s in time %d(ms)", tableEvents.size(), table, Utility.now() - startTimeTransaction);
         }
         long durationTimeOverallMS = Utility.now() - startTimeOverall;
         logger.info("Attempted to load %d events, succeeded in loading %d events. Total Time %d(ms)",cntStarted,cntFinished,durationTimeOverallMS);
+        if( !failed.isEmpty() )
+            throw new FailedDataLoadException(lastException.getMessage(), failed.toArray(new EventData[0]));
     }
 
     public void importAnalyticData(Result[] results) throws FailedDataLoadException{
@@ -179,12 +283,22 @@ public abstract class Database {
         long startTimeOverall = Utility.now();
         long maxDurationTime = -1;
         long minDurationTime = Long.MAX_VALUE;
-        for( Result result : results ) {
+        List<Result> failed = new ArrayList<>();
+        FailedDataLoadException lastException = null;
+        for( Result result : results ) { //a result that fails is rolled back on its own, the rest still go in
             if( result.results == null ) continue;
             cntStarted+=result.results.length;
             long startTimeTransaction = Utility.now();
             IAnalyticTable table = (IAnalyticTable) getAnalyticTable(result);
-            cntFinished += table.insert(result);
+            Savepoint savepoint = setSavepoint();
+            try {
+                cntFinished += table.insert(result);
+            } catch (FailedDataLoadException failedDataLoadException) {
+                rollbackToSavepoint(savepoint);
+                failed.add(result);
+                lastException = failedDataLoadException;
+                continue;
+            }
             long durationTimeTransaction = Utility.now() - startTimeTransaction;
             if( durationTimeTransaction > maxDurationTime ) maxDurationTime = durationTimeTransaction;
             if( durationTimeTransaction < minDurationTime ) minDurationTime = durationTimeTransaction;
@@ -194,9 +308,57 @@ public abstract class Database {
         logger.info(
                 "Attempted to load %d analytic search results, succeeded in loading %d rows. Total Time %d(ms)",
                 cntStarted, cntFinished, durationTimeOverallMS);
+        if( !failed.isEmpty() )
+            throw new FailedDataLoadException(lastException.getMessage(), failed.toArray(new Result[0]));
+    }
+
+    //a thread holding a warm connection always gets that one back, everyone else borrows from the pool and closes it as usual
+    public Connection getConnection() throws SQLException {
+        WarmConnection warmConnection = warmConnections.get();
+        if( warmConnection != null ) return warmConnection.getConnection();
+        return getPooledConnection();
     }
 
-    public abstract Connection getConnection() throws SQLException;
+    protected abstract Connection getPooledConnection() throws SQLException;
+
+    //for table affine writers, every getConnection() on this thread reuses one connection and its prepared statements until released
+    public void holdWarmConnection() {
+        if( warmConnections.get() == null ) warmConnections.set(new WarmConnection(this));
+    }
+
+    //give the connection back to the pool while idle or after a failure, the next getConnection() on this thread borrows a fresh one
+    public void releaseWarmConnection() {
+        WarmConnection warmConnection = warmConnections.get();
+        if( warmConnection != null ) warmConnection.release();
+    }
+
+    private void dropWarmConnection() {
+        releaseWarmConnection();
+        warmConnections.remove();
+    }
+
+    //only inside the importData() transaction, everywhere else there is nothing to roll back to
+    private Savepoint setSavepoint() {
+        WarmConnection warmConnection = warmConnections.get();
+        if( warmConnection == null || !warmConnection.isHolding() ) return null;
+        try {
+            Connection connection = warmConnection.getConnection();
+            if( connection == null || connection.getAutoCommit() ) return null;
+            return connection.setSavepoint();
+        } catch (SQLException sqlException) {
+            logger.debug("Could not set a savepoint, a failed table will fail the whole transaction: %s", sqlException.toString());
+            return null;
+        }
+    }
+
+    private void rollbackToSavepoint( Savepoint savepoint ) {
+        if( savepoint == null ) return;
+        try {
+            warmConnections.get().getConnection().rollback(savepoint);
+        } catch (SQLException sqlException) {
+            logger.warn("Could not roll back to the savepoint before a failed table, the whole transaction will fail: %s", sqlException.toString());
+        }
+    }
 
     public abstract String convertToAcceptableColumnName(String label, Collection<ColumnFeatures> existingColumns);
 
@@ -275,12 +437,11 @@ public abstract class Database {
         }
         Connection conn = getConnection();
         Statement statement = conn.createStatement();
-        WorkingStatusThread workingStatusThread = new WorkingStatusThread("Database Execute", query.toString(), logger);
-        workingStatusThread.start();
+        Watchdog.Operation watchdog = Watchdog.watch("Database Execute", query.toString(), logger);
         try {
             statement.execute(query.toString());
         } finally {
-            workingStatusThread.cancel();
+            watchdog.cancel();
         }
         statement.close();
         conn.close();
@@ -294,12 +455,11 @@ public abstract class Database {
         Connection conn = getConnection();
         Statement statement = conn.createStatement();
         ResultSet resultSet = null;
-        WorkingStatusThread workingStatusThread = new WorkingStatusThread("Database Query", query.toString(), logger);
-        workingStatusThread.start();
+        Watchdog.Operation watchdog = Watchdog.watch("Database Query", query.toString(), logger);
         try {
             resultSet = statement.executeQuery(query.toString());
         } finally {
-            workingStatusThread.cancel();
+            watchdog.cancel();
         }
         List<IPrintable> resultSetPrinters = new ArrayList<>();
         while( resultSet.next() ) {
@@ -338,30 +498,28 @@ public abstract class Database {
 
     private long purgeAnalData(String tableName, Boolean purgeOlderData, long purgeTimestamp) throws BadCommandException {
         String query = String.format("delete from %s where starttimestamp %s ? or endtimestamp %s ?", tableName, ( purgeOlderData?"<":">"), ( purgeOlderData?"<":">"));
-        WorkingStatusThread workingStatusThread = new WorkingStatusThread("Database Execute", query, logger);
+        Watchdog.Operation watchdog = Watchdog.watch("Database Execute", query, logger);
         try (Connection conn = getConnection(); PreparedStatement statement = conn.prepareStatement(query);) {
-            workingStatusThread.start();
             statement.setDate(1, new java.sql.Date(purgeTimestamp) );
             statement.setDate(2, new java.sql.Date(purgeTimestamp));
             return statement.executeLargeUpdate();
         } catch (SQLException e) {
             throw new BadCommandException(String.format("Error trying to purge Analytics Table '%s', Exception: %s",tableName,e));
         } finally {
-            workingStatusThread.cancel();
+            watchdog.cancel();
         }
     }
 
     private long purgeControllerData(String tableName, Boolean purgeOlderData, long purgeTimestamp) throws BadCommandException {
         String query = String.format("delete from %s where starttimeinmillis %s ? ", tableName, ( purgeOlderData?"<":">"));
-        WorkingStatusThread workingStatusThread = new WorkingStatusThread("Database Execute", query, logger);
+        Watchdog.Operation watchdog = Watchdog.watch("Database Execute", query, logger);
         try (Connection conn = getConnection(); PreparedStatement statement = conn.prepareStatement(query);) {
-            workingStatusThread.start();
             statement.setLong(1, purgeTimestamp);
             return statement.executeLargeUpdate();
         } catch (SQLException e) {
             throw new BadCommandException(String.format("Error trying to purge Controller Table '%s', Exception: %s",tableName,e));
         } finally {
-            workingStatusThread.cancel();
+            watchdog.cancel();
         }
     }
 
@@ -1,5 +1,6 @@
 package com.cisco.josouthe.database;
 
+import java.sql.SQLException;
 import java.util.List;
 
 public interface IControlTable {
@@ -9,6 +10,9 @@ public interface IControlTable {
 
     int setLastRunTimestamp(ControlEntry controlEntry);
 
+    //on the calling thread's connection, in whatever transaction it has open, a failure is thrown so that transaction can roll back
+    int writeLastRunTimestamp(ControlEntry controlEntry) throws SQLException;
+
     List<ControlEntry> getControlEntries();
 
     String getName();
@@ -4,4 +4,5 @@ import com.cisco.josouthe.exceptions.FailedDataLoadException;
 
 public interface IMetricTable {
     public int insert( Object object ) throws FailedDataLoadException;
+    public int insertAll( Object[] objects ) throws FailedDataLoadException;
 }
@@ -66,6 +66,14 @@ public abstract class Table {
     //each table has a specific method for the insert
     public abstract int insert(Object object) throws FailedDataLoadException;
 
+    //many objects bound for this same table, jdbc tables override this to use one connection and one batch for all of them
+    public int insertAll(Object[] objects) throws FailedDataLoadException {
+        int counter=0;
+        for( Object object : objects )
+            counter += insert(object);
+        return counter;
+    }
+
     //each database vendor has their own specific SQL for these methods
     protected abstract void createTable();
     protected abstract void alterTableToIncreaseColumnSize(ColumnFeatures column, int size);
@@ -0,0 +1,174 @@
+package com.cisco.josouthe.database;
+
+import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.MetricData;
+import com.cisco.josouthe.data.metric.MetricValueBatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Binds the values of metric and baseline series into a vendor's insert statement, one pass over the columns of each MetricValueBatch
+Every vendor used to drain the value list with remove(0), shifting the whole list for every row, and a failed insert left the retry with nothing to insert
+Nothing is removed now, instead each series keeps a cursor, valuesInserted, of how many of its values are already in the database
+The statement is executed every ROWS_PER_EXECUTE rows, with autocommit on each execute is durable, so the cursor moves past it and a retry picks up there
+Inside a transaction nothing is durable until the commit and a failure rolls it all back, so the cursor is left alone and a retry starts from the same place
+The vendors only differ in how they take useRange and the start timestamp, the sql is still theirs
+ */
+public class ValueBatchBinder {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    public static final int ROWS_PER_EXECUTE = 1000;
+
+    private final Table table;
+    private final boolean useRangeAsBoolean, startTimestampAsTimestamp;
+
+    public ValueBatchBinder( Table table, boolean useRangeAsBoolean, boolean startTimestampAsTimestamp ) {
+        this.table = table;
+        this.useRangeAsBoolean = useRangeAsBoolean;
+        this.startTimestampAsTimestamp = startTimestampAsTimestamp;
+    }
+
+    //controller, application, metricname, metricpath, frequency, metricid, then the values
+    public int insertMetrics( PreparedStatement preparedStatement, Object[] objects ) throws SQLException {
+        return insertAll(preparedStatement, objects, (object, values, index) -> {
+            MetricData metric = (MetricData) object;
+            int parameterIndex=1;
+            preparedStatement.setString(parameterIndex++, metric.controllerHostname);
+            preparedStatement.setString(parameterIndex++, metric.applicationName);
+            preparedStatement.setString(parameterIndex++, table.fitToSize(metric.metricName, "metricname"));
+            preparedStatement.setString(parameterIndex++, table.fitToSize(metric.metricPath, "metricpath"));
+            preparedStatement.setString(parameterIndex++, metric.frequency);
+            preparedStatement.setLong(parameterIndex++, metric.metricId);
+            bindValues(preparedStatement, parameterIndex, values, index);
+        });
+    }
+
+    //controller, application, metricname, baseline, frequency, metricid, then the values
+    public int insertBaselines( PreparedStatement preparedStatement, Object[] objects ) throws SQLException {
+        return insertAll(preparedStatement, objects, (object, values, index) -> {
+            BaselineData baselineData = (BaselineData) object;
+            int parameterIndex=1;
+            preparedStatement.setString(parameterIndex++, table.fitToSize(baselineData.controllerHostname, "controller"));
+            preparedStatement.setString(parameterIndex++, table.fitToSize(baselineData.applicationName, "application"));
+            preparedStatement.setString(parameterIndex++, table.fitToSize(baselineData.metricName, "metricname"));
+            preparedStatement.setString(parameterIndex++, table.fitToSize(baselineData.baseline.name, "baseline"));
+            preparedStatement.setString(parameterIndex++, table.fitToSize(baselineData.frequency, "frequency"));
+            preparedStatement.setLong(parameterIndex++, baselineData.metricId);
+            bindValues(preparedStatement, parameterIndex, values, index);
+        });
+    }
+
+    //userange, starttimeinmillis, occurrences, currentvalue, min, max, count, sum, value, standarddeviation, starttimestamp
+    private void bindValues( PreparedStatement preparedStatement, int parameterIndex, MetricValueBatch values, int index ) throws SQLException {
+        if( useRangeAsBoolean ) {
+            preparedStatement.setBoolean(parameterIndex++, values.useRange[index]);
+        } else {
+            preparedStatement.setInt(parameterIndex++, (values.useRange[index] ? 1: 0 ));
+        }
+        preparedStatement.setLong(parameterIndex++, values.startTimeInMillis[index]);
+        preparedStatement.setLong(parameterIndex++, values.occurrences[index]);
+        preparedStatement.setLong(parameterIndex++, values.current[index]);
+        preparedStatement.setLong(parameterIndex++, values.min[index]);
+        preparedStatement.setLong(parameterIndex++, values.max[index]);
+        preparedStatement.setLong(parameterIndex++, values.count[index]);
+        preparedStatement.setLong(parameterIndex++, values.sum[index]);
+        preparedStatement.setLong(parameterIndex++, values.value[index]);
+        preparedStatement.setDouble(parameterIndex++, values.standardDeviation[index]);
+        if( startTimestampAsTimestamp ) {
+            preparedStatement.setTimestamp(parameterIndex++, new Timestamp(values.startTimeInMillis[index]));
+        } else {
+            preparedStatement.setLong(parameterIndex++, values.startTimeInMillis[index]);
+        }
+    }
+
+    private int insertAll( PreparedStatement preparedStatement, Object[] objects, IRowBinder rowBinder ) throws SQLException {
+        boolean autoCommit = preparedStatement.getConnection().getAutoCommit();
+        List<Cursor> sinceLastExecute = new ArrayList<>();
+        int counter = 0, rows = 0;
+        for( Object object : objects ) {
+            if( object == null ) {
+                logger.warn("Can not insert a null %s data object!", table.getType());
+                continue;
+            }
+            MetricValueBatch values = getValues(object);
+            if( values == null ) continue;
+            Cursor cursor = null;
+            for( int index = getValuesInserted(object); index < values.size(); index++ ) {
+                rowBinder.bind(object, values, index);
+                preparedStatement.addBatch();
+                preparedStatement.clearParameters();
+                if( cursor == null ) {
+                    cursor = new Cursor(object);
+                    sinceLastExecute.add(cursor);
+                }
+                cursor.upTo = index+1;
+                if( ++rows == ROWS_PER_EXECUTE ) {
+                    counter += execute(preparedStatement, sinceLastExecute, autoCommit);
+                    rows = 0;
+                    sinceLastExecute.clear();
+                    cursor = null;
+                }
+            }
+        }
+        if( rows > 0 ) counter += execute(preparedStatement, sinceLastExecute, autoCommit);
+        return counter;
+    }
+
+    private int execute( PreparedStatement preparedStatement, List<Cursor> cursors, boolean autoCommit ) throws SQLException {
+        try {
+            int count = preparedStatement.executeBatch().length;
+            if( autoCommit )
+                for( Cursor cursor : cursors ) setValuesInserted(cursor.object, cursor.upTo);
+            return count;
+        } catch (SQLException sqlException) {
+            if( !cursors.isEmpty() ) {
+                Cursor first = cursors.get(0);
+                logger.debug("Insert into %s failed in the rows from value %d of %s, %s", table.getName(), getValuesInserted(first.object), getName(first.object),
+                        (autoCommit ? "everything before that is in and won't be inserted again" : "the transaction will be rolled back"));
+            }
+            throw sqlException;
+        }
+    }
+
+    private static MetricValueBatch getValues( Object object ) {
+        if( object instanceof MetricData ) return ((MetricData) object).metricValues;
+        if( object instanceof BaselineData ) return ((BaselineData) object).dataTimeslices;
+        return null;
+    }
+
+    public static int getValuesInserted( Object object ) {
+        if( object instanceof MetricData ) return ((MetricData) object).valuesInserted;
+        if( object instanceof BaselineData ) return ((BaselineData) object).valuesInserted;
+        return 0;
+    }
+
+    private static void setValuesInserted( Object object, int valuesInserted ) {
+        if( object instanceof MetricData ) ((MetricData) object).valuesInserted = valuesInserted;
+        else if( object instanceof BaselineData ) ((BaselineData) object).valuesInserted = valuesInserted;
+    }
+
+    private static String getName( Object object ) {
+        if( object instanceof MetricData ) return ((MetricData) object).metricName;
+        if( object instanceof BaselineData ) return ((BaselineData) object).metricName;
+        return String.valueOf(object);
+    }
+
+    private interface IRowBinder {
+        void bind( Object object, MetricValueBatch values, int index ) throws SQLException;
+    }
+
+    //how far through one series the rows added since the last execute go
+    private static class Cursor {
+        private final Object object;
+        private int upTo;
+
+        private Cursor( Object object ) {
+            this.object = object;
+        }
+    }
+}
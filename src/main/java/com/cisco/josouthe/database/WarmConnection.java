@@ -0,0 +1,148 @@
+package com.cisco.josouthe.database;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+A pooled connection kept by one database writer thread across inserts, so the tables that thread owns are written on the same session
+with the same prepared insert statements, instead of borrowing a connection and preparing the SQL again for every batch
+The table code doesn't know, it gets a proxy where close() on the connection and on its prepared statements only resets them,
+the real ones go back to the pool on release(), which the writer calls whenever it runs out of work
+Not thread safe, one per thread, see Database.holdWarmConnection()
+ */
+public class WarmConnection {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final int MAX_CACHED_STATEMENTS = 32;
+
+    private final Database database;
+    private Connection connection, proxy;
+    private boolean suspect = false;
+    private long countPrepared = 0, countReused = 0;
+    private final Map<String,PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String,PreparedStatement> eldest ) {
+            if( size() <= MAX_CACHED_STATEMENTS ) return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    public WarmConnection( Database database ) {
+        this.database = database;
+    }
+
+    public Connection getConnection() throws SQLException {
+        if( connection != null && suspect && !isInTransaction() ) { //never swap the connection out from under an open transaction, its commit will fail instead
+            suspect = false;
+            if( !isUsable() ) {
+                logger.info("Warm database connection on %s is no longer valid, getting a new one", Thread.currentThread().getName());
+                release();
+            }
+        }
+        if( connection == null ) {
+            connection = database.getPooledConnection();
+            if( connection == null ) return null; //csv has no connections
+            proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{ Connection.class }, this::invokeConnection);
+        }
+        return proxy;
+    }
+
+    public boolean isHolding() { return connection != null; }
+
+    //close the cached statements and hand the connection back to the pool, the next getConnection() borrows a new one
+    public void release() {
+        if( connection == null ) return;
+        for( PreparedStatement statement : statements.values() )
+            closeQuietly(statement);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException sqlException) {
+            logger.debug("Error returning warm connection to the pool: %s", sqlException.toString());
+        }
+        logger.debug("Released warm database connection on %s, prepared %d statements and reused them %d times", Thread.currentThread().getName(), countPrepared, countReused);
+        connection = null;
+        proxy = null;
+        suspect = false;
+    }
+
+    private boolean isInTransaction() {
+        try {
+            return !connection.getAutoCommit();
+        } catch (SQLException sqlException) {
+            return false;
+        }
+    }
+
+    private boolean isUsable() {
+        try {
+            return !connection.isClosed() && connection.isValid(5);
+        } catch (SQLException sqlException) {
+            return false;
+        }
+    }
+
+    private PreparedStatement prepareStatement( String sql ) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if( statement != null ) {
+            countReused++;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{ PreparedStatement.class }, (p, method, args) -> invokeStatement(statement, p, method, args));
+        }
+        PreparedStatement prepared = connection.prepareStatement(sql);
+        countPrepared++;
+        statements.put(sql, prepared);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{ PreparedStatement.class }, (p, method, args) -> invokeStatement(prepared, p, method, args));
+    }
+
+    private Object invokeConnection( Object p, Method method, Object[] args ) throws Throwable {
+        switch (method.getName()) {
+            case "close": return null;
+            case "equals": return p == args[0];
+            case "hashCode": return System.identityHashCode(p);
+            case "prepareStatement":
+                if( args.length == 1 ) return prepareStatement((String) args[0]);
+        }
+        return delegate(connection, method, args);
+    }
+
+    private Object invokeStatement( PreparedStatement statement, Object p, Method method, Object[] args ) throws Throwable {
+        switch (method.getName()) {
+            case "close": //leave it ready for the next batch
+                try {
+                    statement.clearBatch();
+                    statement.clearParameters();
+                } catch (SQLException sqlException) {
+                    suspect = true;
+                }
+                return null;
+            case "isClosed": return false;
+            case "equals": return p == args[0];
+            case "hashCode": return System.identityHashCode(p);
+        }
+        return delegate(statement, method, args);
+    }
+
+    private Object delegate( Object target, Method method, Object[] args ) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException invocationTargetException) {
+            if( invocationTargetException.getCause() instanceof SQLException ) suspect = true; //check the connection before it is used again
+            throw invocationTargetException.getCause();
+        }
+    }
+
+    private static void closeQuietly( PreparedStatement statement ) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) { }
+    }
+}
@@ -0,0 +1,238 @@
+package com.cisco.josouthe.database;
+
+import com.cisco.josouthe.data.analytic.Result;
+import com.cisco.josouthe.data.event.EventData;
+import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.MetricData;
+import com.cisco.josouthe.queue.IDataQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Keeps the control table from moving past data that isn't in the database yet, it used to be set as soon as the data was queued,
+so a crash or an insert that never succeeded lost that window for good
+A fetch opens a window on its control entry and queues through wrap(), which tags every element with the window id and counts it,
+then seals the window with its end time once it is done fetching. Database.importData() counts elements off as they are inserted,
+or written to the dead letters, and once a sealed window has nothing outstanding its end time goes to the control table,
+for jdbc in the same transaction as the batch that finished it
+Windows on the same control entry finish in the order they were opened, so the last run time never passes one still in flight,
+and a new fetch starts from the end of the last window it sealed instead of the control table, so a slow insert doesn't mean fetching it all twice
+With a durable queue the data is safe once add() returns, so windows are done as soon as they are sealed
+ */
+public class WatermarkTracker {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final Database database;
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis() * 1000); //ids spilled to disk by an earlier run never match this run's windows
+    private final Map<Long,Window> windows = new HashMap<>();
+    private final Map<String,Deque<Window>> windowsByEntry = new HashMap<>();
+    private final Map<String,Long> doneUpTo = new HashMap<>(); //in case a slower transaction writes an older end time over a newer one
+    private volatile boolean durableQueue = false;
+
+    public WatermarkTracker( Database database ) {
+        this.database = database;
+    }
+
+    public void setDurableQueue( boolean durableQueue ) { this.durableQueue = durableQueue; }
+
+    //start a window from the control entry, moving its timestamp up to the end of a window on the same entry still waiting on inserts
+    public synchronized Window open( ControlEntry controlEntry ) {
+        String key = getKey(controlEntry);
+        Deque<Window> queued = windowsByEntry.computeIfAbsent(key, k -> new ArrayDeque<>());
+        Long done = doneUpTo.get(key);
+        if( done != null && done > controlEntry.timestamp ) controlEntry.timestamp = done;
+        for( Window earlier : queued )
+            if( earlier.sealed && earlier.controlEntry.timestamp > controlEntry.timestamp ) controlEntry.timestamp = earlier.controlEntry.timestamp;
+        Window window = new Window(nextId.incrementAndGet(), key, copy(controlEntry));
+        windows.put(window.id, window);
+        queued.add(window);
+        return window;
+    }
+
+    //tags and counts everything added through it, or null if there is no queue to wrap
+    public IDataQueue wrap( Window window, IDataQueue dataQueue ) {
+        if( dataQueue == null ) return null;
+        return new IDataQueue() {
+            public void add( Object[] data ) {
+                if( data == null || data.length == 0 ) return;
+                if( !durableQueue ) tag(window, data);
+                dataQueue.add(data);
+            }
+            public void requeue( Object[] data ) { dataQueue.requeue(data); }
+            public boolean isEmpty() { return dataQueue.isEmpty(); }
+            public int size() { return dataQueue.size(); }
+            public double getFillLevel() { return dataQueue.getFillLevel(); }
+            public String getStatus() { return dataQueue.getStatus(); }
+        };
+    }
+
+    private synchronized void tag( Window window, Object[] data ) {
+        for( Object object : data ) {
+            if( object == null ) continue;
+            setWindowId(object, window.id);
+            window.outstanding++;
+        }
+    }
+
+    //the fetch is done, write the end time now if everything it queued is already in, or let the insert that finishes it do so
+    public void seal( Window window, long endTimestamp ) {
+        List<ControlEntry> ready;
+        synchronized (this) {
+            window.controlEntry.timestamp = endTimestamp;
+            window.sealed = true;
+            ready = collectReady(Collections.singleton(window.key));
+        }
+        for( ControlEntry controlEntry : ready )
+            database.getControlTable().setLastRunTimestamp(controlEntry);
+    }
+
+    //the fetch didn't finish, its window won't move the last run time, the next fetch starts over from where the last good one ended
+    public void abandon( Window window ) {
+        List<ControlEntry> ready;
+        synchronized (this) {
+            windows.remove(window.id);
+            Deque<Window> queued = windowsByEntry.get(window.key);
+            if( queued != null ) queued.remove(window);
+            ready = collectReady(Collections.singleton(window.key));
+        }
+        logger.debug("Abandoned %s", window);
+        for( ControlEntry controlEntry : ready )
+            database.getControlTable().setLastRunTimestamp(controlEntry);
+    }
+
+    public synchronized boolean isTracked( Object[] data ) {
+        if( windows.isEmpty() || data == null ) return false;
+        for( Object object : data )
+            if( object != null && windows.containsKey(getWindowId(object)) ) return true;
+        return false;
+    }
+
+    //count off data that is in the database, or dead lettered, returns the control entries to write, the latest one for each entry that moved
+    public synchronized List<ControlEntry> completed( Object[] data ) {
+        if( data == null || windows.isEmpty() ) return new ArrayList<>();
+        Set<String> touched = new HashSet<>();
+        for( Object object : data ) {
+            if( object == null ) continue;
+            Window window = windows.get(getWindowId(object));
+            if( window == null ) continue;
+            window.outstanding--;
+            touched.add(window.key);
+        }
+        return collectReady(touched);
+    }
+
+    //the control entries completed() would return for this data, without counting it off yet, so they can be written before the data is committed
+    public synchronized List<ControlEntry> peekReady( Object[] data ) {
+        List<ControlEntry> ready = new ArrayList<>();
+        if( data == null || windows.isEmpty() ) return ready;
+        Map<Long,Long> counts = new HashMap<>();
+        for( Object object : data )
+            if( object != null && windows.containsKey(getWindowId(object)) ) counts.merge(getWindowId(object), 1L, Long::sum);
+        Set<String> keys = new HashSet<>();
+        for( Long id : counts.keySet() ) keys.add(windows.get(id).key);
+        for( String key : keys ) {
+            ControlEntry latest = null;
+            for( Window window : windowsByEntry.get(key) ) {
+                if( !window.sealed || window.outstanding - counts.getOrDefault(window.id, 0L) > 0 ) break;
+                latest = window.controlEntry;
+            }
+            if( latest != null ) ready.add(latest);
+        }
+        return ready;
+    }
+
+    //everything in data that isn't in failed, by identity
+    public static Object[] without( Object[] data, Object[] failed ) {
+        if( failed == null || failed.length == 0 ) return data;
+        Set<Object> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        Collections.addAll(failedSet, failed);
+        List<Object> remaining = new ArrayList<>();
+        for( Object object : data )
+            if( !failedSet.contains(object) ) remaining.add(object);
+        return remaining.toArray();
+    }
+
+    private List<ControlEntry> collectReady( Set<String> keys ) {
+        List<ControlEntry> ready = new ArrayList<>();
+        for( String key : keys ) {
+            Deque<Window> queued = windowsByEntry.get(key);
+            if( queued == null ) continue;
+            ControlEntry latest = null;
+            while( !queued.isEmpty() && queued.peekFirst().isDone() ) {
+                Window window = queued.pollFirst();
+                windows.remove(window.id);
+                latest = window.controlEntry;
+            }
+            if( queued.isEmpty() ) windowsByEntry.remove(key);
+            if( latest != null ) {
+                ready.add(latest);
+                doneUpTo.merge(key, latest.timestamp, Math::max);
+            }
+        }
+        return ready;
+    }
+
+    public synchronized String getStatus() {
+        long outstanding = 0;
+        for( Window window : windows.values() ) outstanding += window.outstanding;
+        return String.format("%d fetch windows waiting on %d elements to be inserted", windows.size(), outstanding);
+    }
+
+    private static String getKey( ControlEntry controlEntry ) {
+        return String.format("%s|%s|%s", controlEntry.controller, controlEntry.application, controlEntry.type).toLowerCase();
+    }
+
+    private static ControlEntry copy( ControlEntry controlEntry ) {
+        ControlEntry copy = new ControlEntry();
+        copy.controller = controlEntry.controller;
+        copy.application = controlEntry.application;
+        copy.type = controlEntry.type;
+        copy.timestamp = controlEntry.timestamp;
+        return copy;
+    }
+
+    public static long getWindowId( Object object ) {
+        if( object instanceof MetricData ) return ((MetricData) object).windowId;
+        if( object instanceof BaselineData ) return ((BaselineData) object).windowId;
+        if( object instanceof EventData ) return ((EventData) object).windowId;
+        if( object instanceof Result ) return ((Result) object).windowId;
+        return 0;
+    }
+
+    private static void setWindowId( Object object, long windowId ) {
+        if( object instanceof MetricData ) ((MetricData) object).windowId = windowId;
+        else if( object instanceof BaselineData ) ((BaselineData) object).windowId = windowId;
+        else if( object instanceof EventData ) ((EventData) object).windowId = windowId;
+        else if( object instanceof Result ) ((Result) object).windowId = windowId;
+    }
+
+    public static class Window {
+        private final long id;
+        private final String key;
+        private final ControlEntry controlEntry;
+        private long outstanding = 0;
+        private boolean sealed = false;
+
+        private Window( long id, String key, ControlEntry controlEntry ) {
+            this.id = id;
+            this.key = key;
+            this.controlEntry = controlEntry;
+        }
+
+        private boolean isDone() { return sealed && outstanding <= 0; }
+
+        public String toString() { return String.format("window %d on %s, %d outstanding%s", id, key, outstanding, (sealed ? ", sealed" : "")); }
+    }
+}
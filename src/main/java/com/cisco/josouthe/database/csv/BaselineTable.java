@@ -1,8 +1,7 @@
 package com.cisco.josouthe.database.csv;
 
 import com.cisco.josouthe.data.metric.BaselineData;
-import com.cisco.josouthe.data.metric.BaselineTimeslice;
-import com.cisco.josouthe.data.metric.MetricValue;
+import com.cisco.josouthe.data.metric.MetricValueBatch;
 import com.cisco.josouthe.database.ColumnFeatures;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.database.IBaselineTable;
@@ -62,25 +61,25 @@ public class BaselineTable extends CSVTable implements IBaselineTable {
                 printStream.print("controller, application, metricname, baseline, frequency, metricid, userange, ");
                 printStream.println("startTimeInMillis, occurrences, currentvalue, min, max, count, sum, value, standardDeviation, startTimestamp");
             }
-            for( BaselineTimeslice baselineTimeslice : baseline.dataTimeslices ) {
-                MetricValue metricValue = baselineTimeslice.metricValue;
+            MetricValueBatch timeslices = baseline.dataTimeslices;
+            for( int i = 0; i < timeslices.size(); i++ ) {
                 printStream.printf("\"%s\", ", baseline.controllerHostname);
                 printStream.printf("\"%s\", ", baseline.applicationName);
                 printStream.printf("\"%s\", ", baseline.metricName);
                 printStream.printf("\"%s\", ", baseline.baseline.name);
                 printStream.printf("\"%s\", ", baseline.frequency);
                 printStream.printf("%s, ", baseline.metricId);
-                printStream.printf("%s, ", String.valueOf(metricValue.useRange));
-                printStream.printf("%d, ", baselineTimeslice.startTime);
-                printStream.printf("%d, ", metricValue.occurrences);
-                printStream.printf("%d, ", metricValue.current);
-                printStream.printf("%d, ", metricValue.min);
-                printStream.printf("%d, ", metricValue.max);
-                printStream.printf("%d, ", metricValue.count);
-                printStream.printf("%d, ", metricValue.sum);
-                printStream.printf("%d, ", metricValue.value);
-                printStream.printf("%f, ", metricValue.standardDeviation);
-                printStream.printf("\"%s\"\n", new Date(baselineTimeslice.startTime).toString());
+                printStream.printf("%s, ", String.valueOf(timeslices.useRange[i]));
+                printStream.printf("%d, ", timeslices.startTimeInMillis[i]);
+                printStream.printf("%d, ", timeslices.occurrences[i]);
+                printStream.printf("%d, ", timeslices.current[i]);
+                printStream.printf("%d, ", timeslices.min[i]);
+                printStream.printf("%d, ", timeslices.max[i]);
+                printStream.printf("%d, ", timeslices.count[i]);
+                printStream.printf("%d, ", timeslices.sum[i]);
+                printStream.printf("%d, ", timeslices.value[i]);
+                printStream.printf("%f, ", timeslices.standardDeviation[i]);
+                printStream.printf("\"%s\"\n", new Date(timeslices.startTimeInMillis[i]).toString());
                 printStream.flush();
                 counter++;
             }
@@ -47,7 +47,7 @@ public class CSVDatabase extends Database {
     }
 
     @Override
-    public Connection getConnection() throws SQLException {
+    protected Connection getPooledConnection() throws SQLException {
         return null;
     }
 
@@ -104,6 +104,12 @@ public class ControlTable extends CSVTable implements IControlTable {
         return 0;
     }
 
+    //csv files have no transactions, the control file is written the same either way
+    @Override
+    public int writeLastRunTimestamp(ControlEntry controlEntry) {
+        return setLastRunTimestamp(controlEntry);
+    }
+
     public List<ControlEntry> getControlEntries() {
         List<ControlEntry> entries = new ArrayList<>();
         logger.warn("Sorry CSV files do not support this feature");
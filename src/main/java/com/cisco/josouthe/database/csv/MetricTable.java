@@ -1,7 +1,7 @@
 package com.cisco.josouthe.database.csv;
 
 import com.cisco.josouthe.data.metric.MetricData;
-import com.cisco.josouthe.data.metric.MetricValue;
+import com.cisco.josouthe.data.metric.MetricValueBatch;
 import com.cisco.josouthe.database.ColumnFeatures;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.database.IMetricTable;
@@ -60,24 +60,25 @@ public class MetricTable extends CSVTable implements IMetricTable {
                 printStream.print("controller, application, metricname, metricpath, frequency, metricid, userange, ");
                 printStream.println("startTimeInMillis, occurrences, currentvalue, min, max, count, sum, value, standardDeviation, startTimestamp");
             }
-            for( MetricValue metricValue : metric.metricValues ) {
+            MetricValueBatch metricValues = metric.metricValues;
+            for( int i = 0; i < metricValues.size(); i++ ) {
                 printStream.printf("\"%s\", ", metric.controllerHostname);
                 printStream.printf("\"%s\", ", metric.applicationName);
                 printStream.printf("\"%s\", ", metric.metricName);
                 printStream.printf("\"%s\", ", metric.metricPath);
                 printStream.printf("\"%s\", ", metric.frequency);
                 printStream.printf("%s, ", metric.metricId);
-                printStream.printf("%s, ", String.valueOf(metricValue.useRange));
-                printStream.printf("%d, ", metricValue.startTimeInMillis);
-                printStream.printf("%d, ", metricValue.occurrences);
-                printStream.printf("%d, ", metricValue.current);
-                printStream.printf("%d, ", metricValue.min);
-                printStream.printf("%d, ", metricValue.max);
-                printStream.printf("%d, ", metricValue.count);
-                printStream.printf("%d, ", metricValue.sum);
-                printStream.printf("%d, ", metricValue.value);
-                printStream.printf("%f, ", metricValue.standardDeviation);
-                printStream.printf("\"%s\"\n", new Date(metricValue.startTimeInMillis).toString());
+                printStream.printf("%s, ", String.valueOf(metricValues.useRange[i]));
+                printStream.printf("%d, ", metricValues.startTimeInMillis[i]);
+                printStream.printf("%d, ", metricValues.occurrences[i]);
+                printStream.printf("%d, ", metricValues.current[i]);
+                printStream.printf("%d, ", metricValues.min[i]);
+                printStream.printf("%d, ", metricValues.max[i]);
+                printStream.printf("%d, ", metricValues.count[i]);
+                printStream.printf("%d, ", metricValues.sum[i]);
+                printStream.printf("%d, ", metricValues.value[i]);
+                printStream.printf("%f, ", metricValues.standardDeviation[i]);
+                printStream.printf("\"%s\"\n", new Date(metricValues.startTimeInMillis[i]).toString());
                 printStream.flush();
                 counter++;
             }
@@ -64,8 +64,18 @@ public class ControlTable extends MicrosoftTable implements IControlTable {
 
     @Override
     public synchronized int setLastRunTimestamp(ControlEntry controlEntry) {
+        try {
+            return writeLastRunTimestamp(controlEntry);
+        } catch (SQLException exception) {
+            logger.error("Error setting last run time into table %s for %s:%s(%s), Exception: %s", getName(), controlEntry.controller, controlEntry.application, controlEntry.type, exception.toString());
+        }
+        return 0;
+    }
+
+    @Override
+    public int writeLastRunTimestamp(ControlEntry controlEntry) throws SQLException {
         /* Merge sucks in ms sql so we have to do it differently */
-        StringBuilder update = new StringBuilder("Not yet initialized");
+        StringBuilder update;
         try (Connection conn = database.getConnection(); Statement statement = conn.createStatement();){
             if( controlEntry.rowExistsInDB ) { //update
                 update = new StringBuilder(String.format("update %s set lastRunTimestamp = %d where lower(controller) like lower('%s') and lower(application) like lower('%s') and lower(dataType) like lower('%s')", this.name, controlEntry.controller, controlEntry.application, controlEntry.type ));
@@ -77,11 +87,9 @@ public class ControlTable extends MicrosoftTable implements IControlTable {
             update.append(String.format(" when not matched then insert (controller,application,dataType,lastRunTimestamp) values ('%s','%s','%s',%d) ", controlEntry.controller, controlEntry.application, controlEntry.type, controlEntry.timestamp));
             update.append(String.format(" when matched then update set lastRunTimestamp = %d;",controlEntry.timestamp));
              */
+            logger.trace("SQL: '%s'", update);
             return statement.executeUpdate(update.toString());
-        } catch (SQLException exception) {
-            logger.error("Error setting last run time into table %s for %s:%s(%s), Exception: %s merge sql: '%s'", getName(), controlEntry.controller, controlEntry.application, controlEntry.type, exception.toString(), update);
         }
-        return 0;
     }
 
     public List<ControlEntry> getControlEntries() {
@@ -33,40 +33,49 @@ public class EventTable extends MicrosoftTable implements IEventTable {
 
     @Override
     public int insert(Object object) throws FailedDataLoadException {
-        EventData event = (EventData) object;
+        return insertAll(new Object[]{ object });
+    }
+
+    @Override
+    public int insertAll(Object[] objects) throws FailedDataLoadException {
         int counter=0;
         StringBuilder insertSQL = new StringBuilder(String.format("insert into %s (",name));
         insertSQL.append("controller, application, id, eventTime, type, subtype, severity, summary, triggeredEntityId, triggeredEntityName, triggeredEntityType, eventTimestamp");
         insertSQL.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?, dateadd(s, ?/1000, '1970-01-01') )");
         logger.trace("insertMetric SQL: %s",insertSQL);
         try ( Connection conn = database.getConnection(); PreparedStatement preparedStatement = conn.prepareStatement(insertSQL.toString());){
-            int parameterIndex = 1;
-            preparedStatement.setString(parameterIndex++, fitToSize(event.controllerHostname, "controller"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.applicationName, "application"));
-            preparedStatement.setLong(parameterIndex++, event.id);
-            preparedStatement.setLong(parameterIndex++, event.eventTime);
-            preparedStatement.setString(parameterIndex++, fitToSize(event.type, "type"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.subType, "subType"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.severity, "severity"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.summary, "summary"));
-            if( event.triggeredEntity != null ) {
-                preparedStatement.setLong(parameterIndex++, event.triggeredEntity.entityId);
-                preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.name,"triggeredEntityName"));
-                preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.entityType, "triggeredEntityType"));
-            } else if( event.affectedEntities != null ) {
-                    preparedStatement.setLong(parameterIndex++, event.affectedEntities.get(0).entityId);
-                    preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).name, "triggeredEntityName"));
-                    preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).entityType, "triggeredEntityType"));
-            } else {
-                preparedStatement.setLong(parameterIndex++, -1);
-                preparedStatement.setString(parameterIndex++, "");
-                preparedStatement.setString(parameterIndex++, "");
+            for( Object object : objects ) {
+                EventData event = (EventData) object;
+                int parameterIndex = 1;
+                preparedStatement.setString(parameterIndex++, fitToSize(event.controllerHostname, "controller"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.applicationName, "application"));
+                preparedStatement.setLong(parameterIndex++, event.id);
+                preparedStatement.setLong(parameterIndex++, event.eventTime);
+                preparedStatement.setString(parameterIndex++, fitToSize(event.type, "type"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.subType, "subType"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.severity, "severity"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.summary, "summary"));
+                if( event.triggeredEntity != null ) {
+                    preparedStatement.setLong(parameterIndex++, event.triggeredEntity.entityId);
+                    preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.name,"triggeredEntityName"));
+                    preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.entityType, "triggeredEntityType"));
+                } else if( event.affectedEntities != null ) {
+                        preparedStatement.setLong(parameterIndex++, event.affectedEntities.get(0).entityId);
+                        preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).name, "triggeredEntityName"));
+                        preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).entityType, "triggeredEntityType"));
+                } else {
+                    preparedStatement.setLong(parameterIndex++, -1);
+                    preparedStatement.setString(parameterIndex++, "");
+                    preparedStatement.setString(parameterIndex++, "");
+                }
+                preparedStatement.setLong(parameterIndex++, event.eventTime);
+                preparedStatement.addBatch();
+                preparedStatement.clearParameters();
             }
-            preparedStatement.setLong(parameterIndex++, event.eventTime);
-            counter += preparedStatement.executeUpdate();
+            counter += preparedStatement.executeBatch().length;
         } catch (Exception exception) {
             logger.error("Error inserting events into %s, Exception: %s Query: '%s'", name, exception.toString(), insertSQL.toString());
-            throw new FailedDataLoadException( String.format("Error inserting events into %s, Exception: %s", name, exception.toString()), object);
+            throw new FailedDataLoadException( String.format("Error inserting events into %s, Exception: %s", name, exception.toString()), objects);
         }
         return counter;
     }
@@ -122,7 +122,7 @@ public class MicrosoftDatabase extends Database {
         return (IAnalyticTable) this.tablesMap.get(result.targetTable);
     }
 
-    public Connection getConnection() throws SQLException {
+    protected Connection getPooledConnection() throws SQLException {
         logger.trace("Getting Connection to DB for user %s",this.user);
         int tries=0;
         boolean succeeded = false;
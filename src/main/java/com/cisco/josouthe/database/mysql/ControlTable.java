@@ -62,6 +62,16 @@ public class ControlTable extends MySQLTable implements IControlTable {
 
     @Override
     public synchronized int setLastRunTimestamp(ControlEntry controlEntry) {
+        try {
+            return writeLastRunTimestamp(controlEntry);
+        } catch (SQLException exception) {
+            logger.error("Error setting last run time into table %s for %s:%s(%s), Exception: %s", getName(), controlEntry.controller, controlEntry.application, controlEntry.type, exception.toString());
+        }
+        return 0;
+    }
+
+    @Override
+    public int writeLastRunTimestamp(ControlEntry controlEntry) throws SQLException {
         try (Connection conn = database.getConnection(); Statement statement = conn.createStatement();){
             /*
             StringBuilder update = new StringBuilder(String.format(" merge %s t using dual on ( lower(t.controller) = '%s' and lower(t.application) = '%s' and lower(t.dataType) = '%s' )", this.name, controlEntry.controller.toLowerCase(), controlEntry.application.toLowerCase(), controlEntry.type.toLowerCase() ));
@@ -71,10 +81,7 @@ public class ControlTable extends MySQLTable implements IControlTable {
             StringBuilder update = new StringBuilder(String.format("insert into %s (controller,application,dataType,lastRunTimestamp) values ('%s','%s','%s',%d)  ", this.name,controlEntry.controller, controlEntry.application, controlEntry.type, controlEntry.timestamp ));
             update.append(String.format("on duplicate key update lastRunTimestamp = %d", controlEntry.timestamp));
             return statement.executeUpdate(update.toString());
-        } catch (SQLException exception) {
-            logger.error("Error setting last run time into table %s for %s:%s(%s), Exception: %s", getName(), controlEntry.controller, controlEntry.application, controlEntry.type, exception.toString());
         }
-        return 0;
     }
 
     public List<ControlEntry> getControlEntries() {
@@ -1,11 +1,9 @@
 package com.cisco.josouthe.database.oracle;
 
-import com.cisco.josouthe.data.metric.BaselineData;
-import com.cisco.josouthe.data.metric.BaselineTimeslice;
-import com.cisco.josouthe.data.metric.MetricValue;
 import com.cisco.josouthe.database.ColumnFeatures;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.database.IBaselineTable;
+import com.cisco.josouthe.database.ValueBatchBinder;
 import com.cisco.josouthe.exceptions.FailedDataLoadException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,6 +14,7 @@ import java.sql.PreparedStatement;
 
 public class BaselineTable extends OracleTable implements IBaselineTable {
     protected static final Logger logger = LogManager.getFormatterLogger();
+    private final ValueBatchBinder binder = new ValueBatchBinder(this, false, false);
 
     public BaselineTable(String tableName, Database database ) {
         super(tableName,"Metric Table",database);
@@ -32,11 +31,11 @@ public class BaselineTable extends OracleTable implements IBaselineTable {
     }
 
     public int insert(Object object) throws FailedDataLoadException {
-        if( object == null ) {
-            logger.warn("Can not insert a null Baseline Data Object!");
-            return 0;
-        }
-        BaselineData baselineData = (BaselineData) object;
+        return insertAll(new Object[]{ object });
+    }
+
+    @Override
+    public int insertAll(Object[] objects) throws FailedDataLoadException {
         int counter=0;
         StringBuilder insertSQL = new StringBuilder(String.format("insert into %s (",name));
         insertSQL.append("controller, application, metricname, baseline, frequency, metricid, userange, ");
@@ -44,39 +43,10 @@ public class BaselineTable extends OracleTable implements IBaselineTable {
         insertSQL.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,TO_DATE('19700101','yyyymmdd') + ((?/1000)/24/60/60))");
         logger.trace("insertMetric SQL: %s",insertSQL);
         try ( Connection conn = database.getConnection(); PreparedStatement preparedStatement = conn.prepareStatement(insertSQL.toString());){
-            //for(BaselineTimeslice baselineTimeslice : baselineData.dataTimeslices ) {
-            while( !baselineData.dataTimeslices.isEmpty() ) {
-                BaselineTimeslice baselineTimeslice = baselineData.dataTimeslices.remove(0);
-                MetricValue metricValue = baselineTimeslice.metricValue;
-                if( metricValue == null ) {
-                    logger.warn("Metric Value in Baseline Timeslice is null! for metric %s timeslice %d", baselineData.metricName, baselineTimeslice.startTime);
-                    continue;
-                }
-                int parameterIndex=1;
-                preparedStatement.setString(parameterIndex++, fitToSize(baselineData.controllerHostname, "controller"));
-                preparedStatement.setString(parameterIndex++, fitToSize(baselineData.applicationName, "application"));
-                preparedStatement.setString(parameterIndex++, fitToSize(baselineData.metricName, "metricname"));
-                preparedStatement.setString(parameterIndex++, fitToSize(baselineData.baseline.name, "baseline"));
-                preparedStatement.setString(parameterIndex++, fitToSize(baselineData.frequency, "frequency"));
-                preparedStatement.setLong(parameterIndex++, baselineData.metricId);
-                preparedStatement.setInt(parameterIndex++, (metricValue.useRange ? 1: 0 ));
-                preparedStatement.setLong(parameterIndex++, baselineTimeslice.startTime);
-                preparedStatement.setLong(parameterIndex++, metricValue.occurrences);
-                preparedStatement.setLong(parameterIndex++, metricValue.current);
-                preparedStatement.setLong(parameterIndex++, metricValue.min);
-                preparedStatement.setLong(parameterIndex++, metricValue.max);
-                preparedStatement.setLong(parameterIndex++, metricValue.count);
-                preparedStatement.setLong(parameterIndex++, metricValue.sum);
-                preparedStatement.setLong(parameterIndex++, metricValue.value);
-                preparedStatement.setDouble(parameterIndex++, metricValue.standardDeviation);
-                preparedStatement.setLong(parameterIndex++, baselineTimeslice.startTime);
-                preparedStatement.addBatch();
-                preparedStatement.clearParameters();
-            }
-            counter += preparedStatement.executeBatch().length;
+            counter += binder.insertBaselines(preparedStatement, objects);
         } catch (Exception exception) {
             logger.error("Error inserting baseline into %s, Exception: %s", name, exception.toString());
-            throw new FailedDataLoadException( String.format("Error inserting baseline into %s, Exception: %s", name, exception.toString()), object);
+            throw new FailedDataLoadException( String.format("Error inserting baseline into %s, Exception: %s", name, exception.toString()), objects);
         }
         return counter;
     }
@@ -62,15 +62,22 @@ public class ControlTable extends OracleTable implements IControlTable {
 
     @Override
     public synchronized int setLastRunTimestamp(ControlEntry controlEntry) {
+        try {
+            return writeLastRunTimestamp(controlEntry);
+        } catch (SQLException exception) {
+            logger.error("Error setting last run time into table %s for %s:%s(%s), Exception: %s", getName(), controlEntry.controller, controlEntry.application, controlEntry.type, exception.toString());
+        }
+        return 0;
+    }
+
+    @Override
+    public int writeLastRunTimestamp(ControlEntry controlEntry) throws SQLException {
         try (Connection conn = database.getConnection(); Statement statement = conn.createStatement();){
             StringBuilder update = new StringBuilder(String.format(" merge into %s C using dual on ( lower(controller) like lower('%s') and lower(application) like lower('%s') and lower(dataType) like lower('%s') )", this.name, controlEntry.controller, controlEntry.application, controlEntry.type ));
             update.append(String.format(" when not matched then insert (controller,application,dataType,lastRunTimestamp) values ('%s','%s','%s',%d) ", controlEntry.controller, controlEntry.application, controlEntry.type, controlEntry.timestamp));
             update.append(String.format(" when matched then update set lastRunTimestamp = %d",controlEntry.timestamp));
             return statement.executeUpdate(update.toString());
-        } catch (SQLException exception) {
-            logger.error("Error setting last run time into table %s for %s:%s(%s), Exception: %s", getName(), controlEntry.controller, controlEntry.application, controlEntry.type, exception.toString());
         }
-        return 0;
     }
 
     public List<ControlEntry> getControlEntries() {
@@ -1,10 +1,9 @@
 package com.cisco.josouthe.database.oracle;
 
-import com.cisco.josouthe.data.metric.MetricData;
-import com.cisco.josouthe.data.metric.MetricValue;
 import com.cisco.josouthe.database.ColumnFeatures;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.database.IMetricTable;
+import com.cisco.josouthe.database.ValueBatchBinder;
 import com.cisco.josouthe.exceptions.FailedDataLoadException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,6 +13,7 @@ import java.sql.PreparedStatement;
 
 public class MetricTable extends OracleTable implements IMetricTable {
     protected static final Logger logger = LogManager.getFormatterLogger();
+    private final ValueBatchBinder binder = new ValueBatchBinder(this, false, false);
 
     public MetricTable( String tableName, Database database ) {
         super(tableName,"Metric Table",database);
@@ -30,7 +30,11 @@ public class MetricTable extends OracleTable implements IMetricTable {
     }
 
     public int insert(Object object) throws FailedDataLoadException {
-        MetricData metric = (MetricData) object;
+        return insertAll(new Object[]{ object });
+    }
+
+    @Override
+    public int insertAll(Object[] objects) throws FailedDataLoadException {
         int counter=0;
         StringBuilder insertSQL = new StringBuilder(String.format("insert into %s (",name));
         insertSQL.append("controller, application, metricname, metricpath, frequency, metricid, userange, ");
@@ -38,34 +42,10 @@ public class MetricTable extends OracleTable implements IMetricTable {
         insertSQL.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,TO_DATE('19700101','yyyymmdd') + ((?/1000)/24/60/60))");
         logger.trace("insertMetric SQL: %s",insertSQL);
         try ( Connection conn = database.getConnection(); PreparedStatement preparedStatement = conn.prepareStatement(insertSQL.toString());){
-            //for(MetricValue metricValue : metric.metricValues ) {
-            while( !metric.metricValues.isEmpty() ) {
-                MetricValue metricValue = metric.metricValues.remove(0);
-                int parameterIndex=1;
-                preparedStatement.setString(parameterIndex++, metric.controllerHostname);
-                preparedStatement.setString(parameterIndex++, metric.applicationName);
-                preparedStatement.setString(parameterIndex++, fitToSize(metric.metricName, "metricname"));
-                preparedStatement.setString(parameterIndex++, fitToSize(metric.metricPath, "metricpath"));
-                preparedStatement.setString(parameterIndex++, metric.frequency);
-                preparedStatement.setLong(parameterIndex++, metric.metricId);
-                preparedStatement.setInt(parameterIndex++, (metricValue.useRange ? 1: 0 ));
-                preparedStatement.setLong(parameterIndex++, metricValue.startTimeInMillis);
-                preparedStatement.setLong(parameterIndex++, metricValue.occurrences);
-                preparedStatement.setLong(parameterIndex++, metricValue.current);
-                preparedStatement.setLong(parameterIndex++, metricValue.min);
-                preparedStatement.setLong(parameterIndex++, metricValue.max);
-                preparedStatement.setLong(parameterIndex++, metricValue.count);
-                preparedStatement.setLong(parameterIndex++, metricValue.sum);
-                preparedStatement.setLong(parameterIndex++, metricValue.value);
-                preparedStatement.setDouble(parameterIndex++, metricValue.standardDeviation);
-                preparedStatement.setLong(parameterIndex++, metricValue.startTimeInMillis);
-                preparedStatement.addBatch();
-                preparedStatement.clearParameters();
-            }
-            counter += preparedStatement.executeBatch().length;
+            counter += binder.insertMetrics(preparedStatement, objects);
         } catch (Exception exception) {
             logger.error("Error inserting metrics into %s, Exception: %s", name, exception.toString());
-            throw new FailedDataLoadException( String.format("Error inserting metrics into %s, Exception: %s", name, exception.toString()), object);
+            throw new FailedDataLoadException( String.format("Error inserting metrics into %s, Exception: %s", name, exception.toString()), objects);
         }
         return counter;
     }
@@ -34,41 +34,50 @@ public class EventTable extends PGSQLTable implements IEventTable {
 
     @Override
     public int insert(Object object) throws FailedDataLoadException {
-        EventData event = (EventData) object;
+        return insertAll(new Object[]{ object });
+    }
+
+    @Override
+    public int insertAll(Object[] objects) throws FailedDataLoadException {
         int counter=0;
         StringBuilder insertSQL = new StringBuilder(String.format("insert into %s (",name));
         insertSQL.append("controller, application, id, eventTime, type, subtype, severity, summary, triggeredEntityId, triggeredentityname, triggeredentitytype, eventtimestamp");
         insertSQL.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?)");
         logger.trace("insertMetric SQL: %s",insertSQL);
         try ( Connection conn = database.getConnection(); PreparedStatement preparedStatement = conn.prepareStatement(insertSQL.toString());){
-            int parameterIndex = 1;
-            preparedStatement.setString(parameterIndex++, fitToSize(event.controllerHostname, "controller"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.applicationName, "application"));
-            preparedStatement.setLong(parameterIndex++, event.id);
-            preparedStatement.setLong(parameterIndex++, event.eventTime);
-            preparedStatement.setString(parameterIndex++, fitToSize(event.type, "type"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.subType, "subtype"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.severity, "severity"));
-            preparedStatement.setString(parameterIndex++, fitToSize(event.summary, "summary"));
-            if( event.triggeredEntity != null ) {
-                preparedStatement.setInt(parameterIndex++, event.triggeredEntity.entityId);
-                preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.name,"triggeredentityname"));
-                preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.entityType, "triggeredentitytype"));
-            } else if( event.affectedEntities != null ) {
-                    preparedStatement.setInt(parameterIndex++, event.affectedEntities.get(0).entityId);
-                    preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).name, "triggeredentityname"));
-                    preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).entityType, "triggeredentitytype"));
-            } else {
-                preparedStatement.setInt(parameterIndex++, -1);
-                preparedStatement.setString(parameterIndex++, "");
-                preparedStatement.setString(parameterIndex++, "");
+            for( Object object : objects ) {
+                EventData event = (EventData) object;
+                int parameterIndex = 1;
+                preparedStatement.setString(parameterIndex++, fitToSize(event.controllerHostname, "controller"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.applicationName, "application"));
+                preparedStatement.setLong(parameterIndex++, event.id);
+                preparedStatement.setLong(parameterIndex++, event.eventTime);
+                preparedStatement.setString(parameterIndex++, fitToSize(event.type, "type"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.subType, "subtype"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.severity, "severity"));
+                preparedStatement.setString(parameterIndex++, fitToSize(event.summary, "summary"));
+                if( event.triggeredEntity != null ) {
+                    preparedStatement.setInt(parameterIndex++, event.triggeredEntity.entityId);
+                    preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.name,"triggeredentityname"));
+                    preparedStatement.setString(parameterIndex++, fitToSize(event.triggeredEntity.entityType, "triggeredentitytype"));
+                } else if( event.affectedEntities != null ) {
+                        preparedStatement.setInt(parameterIndex++, event.affectedEntities.get(0).entityId);
+                        preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).name, "triggeredentityname"));
+                        preparedStatement.setString(parameterIndex++, fitToSize(event.affectedEntities.get(0).entityType, "triggeredentitytype"));
+                } else {
+                    preparedStatement.setInt(parameterIndex++, -1);
+                    preparedStatement.setString(parameterIndex++, "");
+                    preparedStatement.setString(parameterIndex++, "");
+                }
+                preparedStatement.setTimestamp(parameterIndex++, new Timestamp(event.eventTime));
+                preparedStatement.addBatch();
+                preparedStatement.clearParameters();
             }
-            preparedStatement.setTimestamp(parameterIndex++, new Timestamp(event.eventTime));
-            counter += preparedStatement.executeUpdate();
+            counter += preparedStatement.executeBatch().length;
         } catch (Exception exception) {
             logger.error("Error inserting events into %s, Exception: %s", name, exception.toString());
             logger.warn("Bad SQL: %s",insertSQL.toString());
-            throw new FailedDataLoadException( String.format("Error inserting events into %s, Exception: %s", name, exception.toString()), object);
+            throw new FailedDataLoadException( String.format("Error inserting events into %s, Exception: %s", name, exception.toString()), objects);
         }
         return counter;
     }
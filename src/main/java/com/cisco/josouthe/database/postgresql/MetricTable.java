@@ -1,21 +1,20 @@
 package com.cisco.josouthe.database.postgresql;
 
-import com.cisco.josouthe.data.metric.MetricData;
-import com.cisco.josouthe.data.metric.MetricValue;
 import com.cisco.josouthe.database.ColumnFeatures;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.database.IMetricTable;
+import com.cisco.josouthe.database.ValueBatchBinder;
 import com.cisco.josouthe.exceptions.FailedDataLoadException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.Timestamp;
 
 
 public class MetricTable extends PGSQLTable implements IMetricTable {
     protected static final Logger logger = LogManager.getFormatterLogger();
+    private final ValueBatchBinder binder = new ValueBatchBinder(this, true, true);
 
     public MetricTable( String tableName, Database database ) {
         super(tableName,"Metric Table",database);
@@ -33,7 +32,11 @@ public class MetricTable extends PGSQLTable implements IMetricTable {
     }
 
     public int insert(Object object) throws FailedDataLoadException {
-        MetricData metric = (MetricData) object;
+        return insertAll(new Object[]{ object });
+    }
+
+    @Override
+    public int insertAll(Object[] objects) throws FailedDataLoadException {
         int counter=0;
         StringBuilder insertSQL = new StringBuilder(String.format("insert into %s (",name));
         insertSQL.append("controller, application, metricname, metricpath, frequency, metricid, userange, ");
@@ -41,35 +44,11 @@ public class MetricTable extends PGSQLTable implements IMetricTable {
         insertSQL.append(") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
         logger.trace("insertMetric SQL: %s",insertSQL);
         try ( Connection conn = database.getConnection(); PreparedStatement preparedStatement = conn.prepareStatement(insertSQL.toString());){
-            //for(MetricValue metricValue : metric.metricValues ) {
-            while( !metric.metricValues.isEmpty() ) {
-                MetricValue metricValue = metric.metricValues.remove(0);
-                int parameterIndex=1;
-                preparedStatement.setString(parameterIndex++, metric.controllerHostname);
-                preparedStatement.setString(parameterIndex++, metric.applicationName);
-                preparedStatement.setString(parameterIndex++, fitToSize(metric.metricName, "metricname"));
-                preparedStatement.setString(parameterIndex++, fitToSize(metric.metricPath, "metricpath"));
-                preparedStatement.setString(parameterIndex++, metric.frequency);
-                preparedStatement.setLong(parameterIndex++, metric.metricId);
-                preparedStatement.setBoolean(parameterIndex++, metricValue.useRange);
-                preparedStatement.setLong(parameterIndex++, metricValue.startTimeInMillis);
-                preparedStatement.setLong(parameterIndex++, metricValue.occurrences);
-                preparedStatement.setLong(parameterIndex++, metricValue.current);
-                preparedStatement.setLong(parameterIndex++, metricValue.min);
-                preparedStatement.setLong(parameterIndex++, metricValue.max);
-                preparedStatement.setLong(parameterIndex++, metricValue.count);
-                preparedStatement.setLong(parameterIndex++, metricValue.sum);
-                preparedStatement.setLong(parameterIndex++, metricValue.value);
-                preparedStatement.setDouble(parameterIndex++, metricValue.standardDeviation);
-                preparedStatement.setTimestamp(parameterIndex++, new Timestamp(metricValue.startTimeInMillis) );
-                preparedStatement.addBatch();
-                preparedStatement.clearParameters();
-            }
-            counter += preparedStatement.executeBatch().length;
+            counter += binder.insertMetrics(preparedStatement, objects);
         } catch (Exception exception) {
             logger.error("Error inserting metrics into %s, Exception: %s", name, exception.toString());
             logger.warn("Bad SQL: %s",insertSQL.toString());
-            throw new FailedDataLoadException( String.format("Error inserting metrics into %s, Exception: %s", name, exception.toString()), object);
+            throw new FailedDataLoadException( String.format("Error inserting metrics into %s, Exception: %s", name, exception.toString()), objects);
         }
         return counter;
     }
@@ -4,12 +4,20 @@ import java.io.IOException;
 
 public class ControllerBadStatusException extends IOException {
     public String urlRequestString, responseJSON;
+    private int statusCode = -1;
     public ControllerBadStatusException( String message, String json, String url) {
         super(message);
         this.responseJSON = json;
         this.urlRequestString = url;
     }
 
+    public ControllerBadStatusException( String message, String json, String url, int statusCode ) {
+        this(message, json, url);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() { return statusCode; }
+
     public void setURL(String uri) {
         this.urlRequestString=uri;
     }
@@ -1,5 +1,7 @@
 package com.cisco.josouthe.exceptions;
 
+import java.lang.reflect.Array;
+
 public class FailedDataLoadException  extends Exception {
     Object[] data;
     public FailedDataLoadException( String s, Object[] someData ) {
@@ -8,7 +10,9 @@ public class FailedDataLoadException  extends Exception {
     }
     public FailedDataLoadException( String s, Object atomicData ) {
         super(s);
-        this.data = new Object[]{ atomicData };
+        //keep the array typed, Database.importData() decides what to do with requeued data by the array type
+        this.data = (Object[]) Array.newInstance(atomicData == null ? Object.class : atomicData.getClass(), 1);
+        this.data[0] = atomicData;
     }
     public Object[] getData() { return data; }
 }
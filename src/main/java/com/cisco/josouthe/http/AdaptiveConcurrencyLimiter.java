@@ -0,0 +1,230 @@
+package com.cisco.josouthe.http;
+
+import com.cisco.josouthe.exceptions.ControllerBadStatusException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+AIMD limit on the requests in flight against one controller or analytics account
+Every success adds 1/limit, so the limit grows by one per limit's worth of successful requests while latency stays near what it is
+when the controller is idle. When the recent latency inflates past the tolerance over the long term latency, or the controller answers
+429/503, or a request times out, the limit is cut multiplicatively, at most once per recent latency so one bad burst doesn't collapse it to 1
+The limit never goes over the configured MaxRequestsPerController, that stays the hard ceiling, limiters that share a ceiling, one for each
+kind of call to the same controller, also take a permit from it, so together they never have more than that max in flight either
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final Map<String,AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private static final Map<String,Semaphore> ceilings = new ConcurrentHashMap<>();
+
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double DROP_BACKOFF = 0.5;
+    private static final double SHORT_SMOOTHING = 0.2, LONG_SMOOTHING = 0.01;
+
+    private final String name;
+    private final int minLimit, maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private final Semaphore ceiling; //null if this limiter shares its max with no other
+    private double limit;
+    private int inFlight = 0;
+    private double shortLatencyNanos = 0, longLatencyNanos = 0;
+    private long lastDecreaseNanos = 0;
+    private long countSuccess = 0, countDropped = 0, countDecreases = 0;
+
+    public static AdaptiveConcurrencyLimiter getLimiter( String name, int maxLimit ) {
+        return limiters.computeIfAbsent(name, k -> new AdaptiveConcurrencyLimiter(k, 1, maxLimit, Math.max(2, maxLimit/4)));
+    }
+
+    //a limiter of its own, that also takes a permit from the ceiling of that name, shared by every limiter created with it
+    public static AdaptiveConcurrencyLimiter getLimiter( String name, int maxLimit, String ceilingName ) {
+        return limiters.computeIfAbsent(name, k -> new AdaptiveConcurrencyLimiter(k, 1, maxLimit, Math.max(2, maxLimit/4), getCeiling(ceilingName, maxLimit)));
+    }
+
+    private static Semaphore getCeiling( String ceilingName, int maxLimit ) {
+        return ceilings.computeIfAbsent(ceilingName, k -> new Semaphore(Math.max(1, maxLimit)));
+    }
+
+    public static List<String> getAllStatus() {
+        List<String> status = new ArrayList<>();
+        for( AdaptiveConcurrencyLimiter limiter : limiters.values() )
+            status.add(limiter.getStatus());
+        return status;
+    }
+
+    public AdaptiveConcurrencyLimiter( String name, int minLimit, int maxLimit, int initialLimit ) {
+        this(name, minLimit, maxLimit, initialLimit, null);
+    }
+
+    public AdaptiveConcurrencyLimiter( String name, int minLimit, int maxLimit, int initialLimit, Semaphore ceiling ) {
+        this.name = name;
+        this.ceiling = ceiling;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        logger.debug("Created concurrency limiter for %s starting at %d requests, max %d", name, (int) this.limit, this.maxLimit);
+    }
+
+    //returns the start time to hand back to onSuccess(), onDropped() or onIgnore(), one of which must always be called
+    public long acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while( inFlight >= (int) limit )
+                permitAvailable.await();
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        if( ceiling != null ) {
+            try {
+                ceiling.acquire();
+            } catch (InterruptedException interruptedException) {
+                lock.lock();
+                try {
+                    inFlight--;
+                    permitAvailable.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw interruptedException;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    //a permit only if one is free right now, -1 if not, for extra requests that are not worth waiting for
+    public long tryAcquire() {
+        lock.lock();
+        try {
+            if( inFlight >= (int) limit ) return -1;
+            if( ceiling != null && !ceiling.tryAcquire() ) return -1;
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    public void onSuccess( long startNanos ) {
+        long now = System.nanoTime();
+        long latency = now - startNanos;
+        lock.lock();
+        try {
+            countSuccess++;
+            if( longLatencyNanos == 0 ) {
+                shortLatencyNanos = longLatencyNanos = latency;
+            } else {
+                shortLatencyNanos += SHORT_SMOOTHING * (latency - shortLatencyNanos);
+                longLatencyNanos += LONG_SMOOTHING * (latency - longLatencyNanos);
+            }
+            if( shortLatencyNanos > longLatencyNanos * LATENCY_TOLERANCE ) {
+                decrease(now, LATENCY_BACKOFF, "latency inflation");
+            } else if( inFlight >= (int) limit ) { //only grow when we are actually using the limit we have
+                int oldLimit = (int) limit;
+                limit = Math.min(maxLimit, limit + 1.0/limit);
+                if( (int) limit > oldLimit ) permitAvailable.signal();
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //429, 503, or a timeout, the controller is telling us to back off
+    public void onDropped( long startNanos ) {
+        lock.lock();
+        try {
+            countDropped++;
+            decrease(System.nanoTime(), DROP_BACKOFF, "dropped request");
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //any other failure, it says nothing about load so the limit is left alone
+    public void onIgnore( long startNanos ) {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onException( long startNanos, Throwable throwable ) {
+        if( isOverloadSignal(throwable) ) {
+            onDropped(startNanos);
+        } else {
+            onIgnore(startNanos);
+        }
+    }
+
+    public static boolean isOverloadSignal( Throwable throwable ) {
+        if( throwable instanceof ConnectionPoolTimeoutException ) return false; //our own connection pool ran dry, the controller never saw the request
+        if( throwable instanceof InterruptedIOException ) return true; //SocketTimeoutException, ConnectTimeoutException
+        if( throwable instanceof ControllerBadStatusException ) {
+            int statusCode = ((ControllerBadStatusException) throwable).getStatusCode();
+            return statusCode == 429 || statusCode == 503;
+        }
+        return false;
+    }
+
+    private void decrease( long now, double factor, String reason ) {
+        long cooldown = (long) Math.max(shortLatencyNanos, TimeUnit.MILLISECONDS.toNanos(100));
+        if( lastDecreaseNanos != 0 && now - lastDecreaseNanos < cooldown ) return;
+        double oldLimit = limit;
+        limit = Math.max(minLimit, limit * factor);
+        lastDecreaseNanos = now;
+        countDecreases++;
+        if( (int) oldLimit != (int) limit )
+            logger.debug("%s concurrency limit reduced from %d to %d because of %s", name, (int) oldLimit, (int) limit, reason);
+    }
+
+    private void release() {
+        inFlight--;
+        permitAvailable.signal();
+        if( ceiling != null ) ceiling.release();
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getStatus() {
+        lock.lock();
+        try {
+            return String.format("%s limit %d of max %d, %d in flight, latency recent %d(ms) long term %d(ms), %d succeeded, %d dropped, %d reductions",
+                    name, (int) limit, maxLimit, inFlight, TimeUnit.NANOSECONDS.toMillis((long) shortLatencyNanos), TimeUnit.NANOSECONDS.toMillis((long) longLatencyNanos),
+                    countSuccess, countDropped, countDecreases);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
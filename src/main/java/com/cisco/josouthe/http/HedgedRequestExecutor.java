@@ -0,0 +1,254 @@
+package com.cisco.josouthe.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+Runs the requests of one controller or analytics account with timeouts, a request used to have none, one hung response held its fetch thread forever
+The connect, socket and connection request timeouts go on every request, the socket timeout only covers the wait between two reads though,
+so there is also a deadline for the whole request, when it passes the request is aborted and fails with a SocketTimeoutException
+Idempotent GETs, like metric data, can be hedged, when there is no response after the recent p95 latency of those requests a duplicate is sent
+and whichever gets a response first is read, the other one is aborted. A hedge only goes out when the limiter has a permit free right now,
+so hedging never pushes a controller past its concurrency limit, and the one that loses never reaches the response handler, so a handler
+that queues what it reads, as the metric stream parser does, still only runs once
+The deadline can still abort a response the handler is part way through, what a streaming handler queued before that stays queued,
+the caller has to retry with what was handed over already left out (see MetricDataStreamParser.Progress), not simply run it again
+ */
+public class HedgedRequestExecutor {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final Map<String,HedgedRequestExecutor> executors = new ConcurrentHashMap<>();
+    private static final ScheduledThreadPoolExecutor timer;
+    private static final ExecutorService hedgePool;
+    private static final int LATENCY_SAMPLES = 256, MIN_SAMPLES_TO_HEDGE = 20;
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Request-Deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true); //nearly every deadline and hedge is cancelled long before it is due
+        AtomicInteger threadCount = new AtomicInteger();
+        hedgePool = Executors.newCachedThreadPool( runnable -> {
+            Thread thread = new Thread(runnable, "Hedged-Request-"+ threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final String name;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private volatile RequestConfig requestConfig;
+    private volatile long deadlineMillis;
+    private volatile boolean hedgingEnabled = false;
+    private final long[] latencyMillis = new long[LATENCY_SAMPLES];
+    private int countLatencies = 0, nextLatency = 0;
+    private long countHedged = 0, countHedgeWon = 0, countDeadlineExceeded = 0;
+
+    public static HedgedRequestExecutor getExecutor( String name, AdaptiveConcurrencyLimiter limiter ) {
+        return executors.computeIfAbsent(name, k -> new HedgedRequestExecutor(k, limiter));
+    }
+
+    public static List<String> getAllStatus() {
+        List<String> status = new ArrayList<>();
+        for( HedgedRequestExecutor executor : executors.values() )
+            status.add(executor.getStatus());
+        return status;
+    }
+
+    public HedgedRequestExecutor( String name, AdaptiveConcurrencyLimiter limiter ) {
+        this.name = name;
+        this.limiter = limiter;
+        setTimeouts(10, 300, 60, 900);
+    }
+
+    public void setTimeouts( long connectTimeoutSeconds, long socketTimeoutSeconds, long connectionRequestTimeoutSeconds, long deadlineSeconds ) {
+        this.requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(connectTimeoutSeconds))
+                .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(socketTimeoutSeconds))
+                .setConnectionRequestTimeout((int) TimeUnit.SECONDS.toMillis(connectionRequestTimeoutSeconds))
+                .build();
+        this.deadlineMillis = TimeUnit.SECONDS.toMillis(deadlineSeconds);
+        logger.debug("%s request timeouts connect %d(s), socket %d(s), connection request %d(s), deadline %d(s)", name, connectTimeoutSeconds, socketTimeoutSeconds, connectionRequestTimeoutSeconds, deadlineSeconds);
+    }
+
+    public void setHedgingEnabled( boolean hedgingEnabled ) { this.hedgingEnabled = hedgingEnabled; }
+
+    public RequestConfig getRequestConfig() { return requestConfig; }
+
+    public <T> T execute( HttpClient client, HttpRequestBase request, ResponseHandler<T> responseHandler ) throws IOException {
+        return execute(client, request, responseHandler, false);
+    }
+
+    //hedgeable must only be true for requests that are safe to send twice
+    public <T> T execute( HttpClient client, HttpRequestBase request, ResponseHandler<T> responseHandler, boolean hedgeable ) throws IOException {
+        request.setConfig(requestConfig);
+        Race<T> race = new Race<>(client, request, responseHandler);
+        ScheduledFuture<?> deadline = null, hedge = null;
+        if( deadlineMillis > 0 ) deadline = timer.schedule(race::deadlineExceeded, deadlineMillis, TimeUnit.MILLISECONDS);
+        long hedgeAfterMillis = (hedgeable && hedgingEnabled ? getHedgeDelayMillis() : -1);
+        if( hedgeAfterMillis >= 0 ) hedge = timer.schedule(race::sendHedge, hedgeAfterMillis, TimeUnit.MILLISECONDS);
+        try {
+            T response = race.runPrimary();
+            if( hedgeable ) recordLatency(race.primary.latencyMillis);
+            return response;
+        } finally {
+            if( deadline != null ) deadline.cancel(false);
+            if( hedge != null ) hedge.cancel(false);
+        }
+    }
+
+    //the p95 of the recent hedgeable requests, -1 until there are enough of them to go by
+    private synchronized long getHedgeDelayMillis() {
+        if( countLatencies < MIN_SAMPLES_TO_HEDGE ) return -1;
+        long[] sorted = Arrays.copyOf(latencyMillis, countLatencies);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length-1, Math.ceil(sorted.length * HEDGE_PERCENTILE) - 1)];
+    }
+
+    private synchronized void recordLatency( long millis ) {
+        if( millis < 0 ) return;
+        latencyMillis[nextLatency] = millis;
+        nextLatency = (nextLatency+1) % LATENCY_SAMPLES;
+        if( countLatencies < LATENCY_SAMPLES ) countLatencies++;
+    }
+
+    private synchronized void countHedged() { countHedged++; }
+
+    private synchronized void countHedgeWon() { countHedgeWon++; }
+
+    private synchronized void countDeadlineExceeded() { countDeadlineExceeded++; }
+
+    public synchronized String getStatus() {
+        long hedgeDelay = getHedgeDelayMillis();
+        return String.format("%s hedge after %s, %d hedges sent, %d of them answered first, %d requests past their deadline of %d(s)",
+                name, (!hedgingEnabled ? "disabled" : hedgeDelay < 0 ? "not enough samples" : hedgeDelay +"(ms)"),
+                countHedged, countHedgeWon, countDeadlineExceeded, TimeUnit.MILLISECONDS.toSeconds(deadlineMillis));
+    }
+
+    //the primary request and maybe a hedge of it, the first one to get a response claims it and aborts the other
+    private class Race<T> {
+        private final HttpClient client;
+        private final ResponseHandler<T> responseHandler;
+        private final Attempt primary;
+        private final AtomicReference<Attempt> winner = new AtomicReference<>();
+        private volatile Attempt hedge = null;
+        private volatile boolean deadlineExceeded = false;
+        private final CompletableFuture<T> hedgeResult = new CompletableFuture<>();
+
+        private Race( HttpClient client, HttpRequestBase request, ResponseHandler<T> responseHandler ) {
+            this.client = client;
+            this.responseHandler = responseHandler;
+            this.primary = new Attempt(request);
+        }
+
+        private T runPrimary() throws IOException {
+            try {
+                return client.execute(primary.request, response -> claim(primary, response));
+            } catch (IOException | RuntimeException exception) {
+                if( deadlineExceeded ) throw deadlineException();
+                if( hedge == null ) throw exception;
+                //the hedge got the response, or the primary failed on its own and the hedge is still a fair try
+                try {
+                    return hedgeResult.get();
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    hedge.request.abort();
+                    throw new RequestAbortedException("Interrupted while waiting for a hedged request to "+ name);
+                } catch (ExecutionException executionException) {
+                    if( deadlineExceeded ) throw deadlineException();
+                    if( winner.get() != hedge ) throw exception;
+                    Throwable cause = executionException.getCause();
+                    if( cause instanceof IOException ) throw (IOException) cause;
+                    if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+                    throw new IOException(cause);
+                }
+            }
+        }
+
+        private T claim( Attempt attempt, HttpResponse response ) throws IOException {
+            attempt.latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attempt.startNanos);
+            if( !winner.compareAndSet(null, attempt) ) throw new RequestAbortedException("Lost the race to a duplicate request to "+ name);
+            Attempt other = (attempt == primary ? hedge : primary);
+            if( other != null ) other.request.abort();
+            return responseHandler.handleResponse(response);
+        }
+
+        private void sendHedge() {
+            if( winner.get() != null || deadlineExceeded ) return;
+            long permitNanos = limiter.tryAcquire();
+            if( permitNanos < 0 ) return; //the controller is at its limit already, a duplicate would only make it worse
+            hedge = new Attempt(copyRequest(primary.request));
+            countHedged();
+            logger.debug("No response from %s after %d(ms), sending a duplicate of %s", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - primary.startNanos), primary.request.getURI());
+            hedgePool.execute(() -> {
+                try {
+                    T response = client.execute(hedge.request, r -> claim(hedge, r));
+                    limiter.onSuccess(permitNanos);
+                    countHedgeWon();
+                    recordLatency(hedge.latencyMillis);
+                    hedgeResult.complete(response);
+                } catch (Throwable throwable) {
+                    if( winner.get() == hedge ) {
+                        limiter.onException(permitNanos, throwable);
+                    } else {
+                        limiter.onIgnore(permitNanos);
+                    }
+                    hedgeResult.completeExceptionally(throwable);
+                }
+            });
+        }
+
+        private void deadlineExceeded() {
+            deadlineExceeded = true;
+            countDeadlineExceeded();
+            primary.request.abort();
+            Attempt hedgeAttempt = hedge;
+            if( hedgeAttempt != null ) hedgeAttempt.request.abort();
+        }
+
+        private SocketTimeoutException deadlineException() {
+            return new SocketTimeoutException(String.format("Request to %s did not finish within its deadline of %d(s): %s", name, TimeUnit.MILLISECONDS.toSeconds(deadlineMillis), primary.request.getURI()));
+        }
+    }
+
+    //not clone(), a clone shares the abort handle of the original, so aborting the loser could leave it hanging
+    private HttpRequestBase copyRequest( HttpRequestBase request ) {
+        return (HttpRequestBase) RequestBuilder.copy(request).setConfig(requestConfig).build();
+    }
+
+    private static class Attempt {
+        private final HttpRequestBase request;
+        private final long startNanos = System.nanoTime();
+        private volatile long latencyMillis = -1;
+
+        private Attempt( HttpRequestBase request ) {
+            this.request = request;
+        }
+    }
+}
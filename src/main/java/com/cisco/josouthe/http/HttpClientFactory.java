@@ -17,10 +17,12 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.ProxyAuthenticationStrategy;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
@@ -29,62 +31,110 @@ import org.apache.logging.log4j.Logger;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSession;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class HttpClientFactory {
     private static final Logger logger = LogManager.getFormatterLogger();
-    private static HttpClient httpClient = null;
+    private static final Map<String,Pool> pools = new ConcurrentHashMap<>();
 
-    public static HttpClient getHttpClient() {
-        return getHttpClient(false);
+    //each controller and analytics account gets its own client and pool, the pool default of 2 connections per route and 20 total,
+    //shared by everything, quietly capped every controller at 2 requests in flight no matter how many threads we run
+    public static HttpClient getHttpClient( String name, int maxPerRoute, int maxTotal ) {
+        return getHttpClient(name, maxPerRoute, maxTotal, false);
     }
 
-    public static HttpClient getHttpClient( boolean forceRebuild ) {
-        if( httpClient == null || forceRebuild == true ) {
-            logger.debug("Creating new HttpClient instance, forceRebuild=%s",forceRebuild);
-            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(20, TimeUnit.MINUTES);
-            connectionManager.setValidateAfterInactivity(1000);
-            HttpClientBuilder httpClientBuilder = HttpClientBuilder
-                .create()
-                .useSystemProperties()
-                .setConnectionManager(connectionManager)
-                .setConnectionManagerShared(true);
-            if( isProxyHostDefined() ) {
-                logger.debug("Proxy host is defined, setting proxy to: %s:%s",System.getProperty("http.proxyHost"),System.getProperty("http.proxyPort") );
-                HttpHost proxyHost = new HttpHost( System.getProperty("http.proxyHost"), Integer.parseInt(System.getProperty("http.proxyPort")));
-                httpClientBuilder.setProxy(proxyHost);
-                if( isProxyAuthDefined() ) {
-                    CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-                    Credentials credentials = null;
-                    if( isProxyNTLMDefined() ) {
-                        logger.debug("Using NTLM Proxy Authentication, user=%s, pass=****, workstation=%s, domain=%s",System.getProperty("http.proxyUser"), System.getProperty("http.proxyWorkstation"), System.getProperty("http.proxyDomain"));
-                        credentials = new NTCredentials(System.getProperty("http.proxyUser"), System.getProperty("http.proxyPassword"), System.getProperty("http.proxyWorkstation"), System.getProperty("http.proxyDomain"));
-                    } else {
-                        logger.debug("Using Basic Proxy Authentication, user=%s, pass=****",System.getProperty("http.proxyUser"));
-                        credentials = new UsernamePasswordCredentials( System.getProperty("http.proxyUser"), System.getProperty("http.proxyPassword") );
-                    }
-                    credentialsProvider.setCredentials( new AuthScope(proxyHost), credentials );
-                    httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-                    httpClientBuilder.setProxyAuthenticationStrategy( new ProxyAuthenticationStrategy());
+    public static HttpClient getHttpClient( String name, int maxPerRoute, int maxTotal, boolean forceRebuild ) {
+        if( forceRebuild ) {
+            Pool old = pools.remove(name);
+            if( old != null ) old.connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        }
+        return pools.computeIfAbsent(name, k -> buildPool(name, maxPerRoute, maxTotal)).httpClient;
+    }
+
+    //leased, pending and available connections of every pool, pending are threads waiting for a socket
+    public static List<String> getAllPoolStatus() {
+        List<String> status = new ArrayList<>();
+        for( Map.Entry<String,Pool> entry : new TreeMap<>(pools).entrySet() ) {
+            PoolStats stats = entry.getValue().connectionManager.getTotalStats();
+            status.add(String.format("%s leased %d, pending %d, available %d, max %d", entry.getKey(), stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax()));
+        }
+        return status;
+    }
+
+    public static int getTotalPending() {
+        int pending = 0;
+        for( Pool pool : pools.values() ) pending += pool.connectionManager.getTotalStats().getPending();
+        return pending;
+    }
+
+    private static Pool buildPool( String name, int maxPerRoute, int maxTotal ) {
+        maxPerRoute = Math.max(1, maxPerRoute);
+        maxTotal = Math.max(maxPerRoute, maxTotal);
+        logger.debug("Creating new HttpClient instance for %s, max connections per route %d, total %d", name, maxPerRoute, maxTotal);
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(20, TimeUnit.MINUTES);
+        connectionManager.setValidateAfterInactivity(1000);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setMaxTotal(maxTotal);
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder
+            .create()
+            .useSystemProperties()
+            .setConnectionManager(connectionManager)
+            .setConnectionManagerShared(true);
+        if( isProxyHostDefined() ) {
+            logger.debug("Proxy host is defined, setting proxy to: %s:%s",System.getProperty("http.proxyHost"),System.getProperty("http.proxyPort") );
+            HttpHost proxyHost = new HttpHost( System.getProperty("http.proxyHost"), Integer.parseInt(System.getProperty("http.proxyPort")));
+            httpClientBuilder.setProxy(proxyHost);
+            if( isProxyAuthDefined() ) {
+                CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                Credentials credentials = null;
+                if( isProxyNTLMDefined() ) {
+                    logger.debug("Using NTLM Proxy Authentication, user=%s, pass=****, workstation=%s, domain=%s",System.getProperty("http.proxyUser"), System.getProperty("http.proxyWorkstation"), System.getProperty("http.proxyDomain"));
+                    credentials = new NTCredentials(System.getProperty("http.proxyUser"), System.getProperty("http.proxyPassword"), System.getProperty("http.proxyWorkstation"), System.getProperty("http.proxyDomain"));
+                } else {
+                    logger.debug("Using Basic Proxy Authentication, user=%s, pass=****",System.getProperty("http.proxyUser"));
+                    credentials = new UsernamePasswordCredentials( System.getProperty("http.proxyUser"), System.getProperty("http.proxyPassword") );
                 }
+                credentialsProvider.setCredentials( new AuthScope(proxyHost), credentials );
+                httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+                httpClientBuilder.setProxyAuthenticationStrategy( new ProxyAuthenticationStrategy());
             }
-            if( isAcceptSelfSignedDefined() ) {
-                HostnameVerifier hv = new HostnameVerifier() { public boolean verify(String urlHostname, SSLSession session) { return true; }};
-                HttpsURLConnection.setDefaultHostnameVerifier(hv);
-                try {
-                    SSLContextBuilder sslContextBuilder = new SSLContextBuilder();
-                    sslContextBuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
-                    SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContextBuilder.build());
-                    httpClientBuilder.setSSLSocketFactory(sslsf);
-                } catch (Exception exception) {
-                    logger.warn("Exception raised trying to accept self signed keys, Exception: %s", exception.getMessage());
-                }
-
+        }
+        if( isAcceptSelfSignedDefined() ) {
+            HostnameVerifier hv = new HostnameVerifier() { public boolean verify(String urlHostname, SSLSession session) { return true; }};
+            HttpsURLConnection.setDefaultHostnameVerifier(hv);
+            try {
+                SSLContextBuilder sslContextBuilder = new SSLContextBuilder();
+                sslContextBuilder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
+                SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContextBuilder.build());
+                httpClientBuilder.setSSLSocketFactory(sslsf);
+            } catch (Exception exception) {
+                logger.warn("Exception raised trying to accept self signed keys, Exception: %s", exception.getMessage());
             }
-            httpClient = httpClientBuilder.build();
+
+        }
+        return new Pool(httpClientBuilder.build(), connectionManager);
+    }
+
+    private static class Pool {
+        private final HttpClient httpClient;
+        private final PoolingHttpClientConnectionManager connectionManager;
+
+        private Pool( HttpClient httpClient, PoolingHttpClientConnectionManager connectionManager ) {
+            this.httpClient = httpClient;
+            this.connectionManager = connectionManager;
         }
-        return httpClient;
     }
 
     public static boolean isProxyHostDefined() {
@@ -139,10 +189,32 @@ public class HttpClientFactory {
                         throw new ClientProtocolException(ex);
                     }
                 } else {
-                    throw new ControllerBadStatusException(response.getStatusLine().toString(), EntityUtils.toString(response.getEntity()), uri);
+                    throw new ControllerBadStatusException(response.getStatusLine().toString(), EntityUtils.toString(response.getEntity()), uri, status);
                 }
             }
 
         };
     }
+
+    //hands the body to responseReader as a stream instead of reading it into a String, with wire trace on it is read whole so it can be logged
+    public static <T> ResponseHandler<T> getStreamingResponseHandler( String wireToTrace, IResponseReader<T> responseReader ) {
+        boolean wireTraceEnabled = isWireTraceEnabled(wireToTrace);
+        return response -> {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status < HttpStatus.SC_OK || status >= HttpStatus.SC_TEMPORARY_REDIRECT)
+                throw new ControllerBadStatusException(response.getStatusLine().toString(), EntityUtils.toString(response.getEntity()), "Unset", status);
+            final HttpEntity entity = response.getEntity();
+            if( entity == null ) return responseReader.read(new StringReader("[]"));
+            Charset charset = ContentType.getOrDefault(entity).getCharset();
+            if( charset == null ) charset = StandardCharsets.UTF_8;
+            if( wireTraceEnabled ) {
+                String json = EntityUtils.toString(entity, charset);
+                logger.info("JSON returned: '%s'",json);
+                return responseReader.read(new StringReader(json));
+            }
+            try (Reader reader = new BufferedReader(new InputStreamReader(entity.getContent(), charset), 65536)) {
+                return responseReader.read(reader);
+            }
+        };
+    }
 }
@@ -0,0 +1,11 @@
+package com.cisco.josouthe.http;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+Reads a response body as it comes off the connection, for responses too large to hold as a String first
+ */
+public interface IResponseReader<T> {
+    public T read( Reader reader ) throws IOException;
+}
@@ -0,0 +1,102 @@
+package com.cisco.josouthe.http;
+
+import com.cisco.josouthe.util.Utility;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Logs long running controller requests, searches and database work while they are still running, getting louder the longer they take
+This used to be a thread started and stopped around every single operation, now one shared timer thread checks in on all of them,
+watch() and cancel() only add and remove a scheduled entry, and what is in flight at any moment is available from getInFlight()
+ */
+public class Watchdog {
+    private static final ScheduledThreadPoolExecutor timer;
+    private static final Map<Long,Operation> inFlight = new ConcurrentHashMap<>();
+    private static final AtomicLong nextId = new AtomicLong();
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Execution-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true); //most operations finish long before their first report, don't leave them in the queue
+    }
+
+    public static Operation watch( String name, String query, long cycleTime, Logger logger ) {
+        Operation operation = new Operation(nextId.incrementAndGet(), name, query, logger);
+        inFlight.put(operation.id, operation);
+        operation.future = timer.scheduleAtFixedRate(operation::report, cycleTime, cycleTime, TimeUnit.MILLISECONDS);
+        return operation;
+    }
+
+    public static Operation watch( String name, String query, Logger logger ) {
+        //if in debug set more verbose messages, trace, even more
+        long cycleTime = 30000;
+        if( logger.isDebugEnabled() ) cycleTime=10000;
+        if( logger.isTraceEnabled() ) cycleTime=3000;
+        return watch(name, query, cycleTime, logger);
+    }
+
+    //longest running first
+    public static List<Operation> getInFlight() {
+        List<Operation> operations = new ArrayList<>(inFlight.values());
+        operations.sort(Comparator.comparingLong(operation -> operation.startTime));
+        return operations;
+    }
+
+    public static class Operation {
+        private final long id, startTime;
+        private final String name, query, threadName;
+        private final Logger logger;
+        private volatile ScheduledFuture<?> future;
+
+        private Operation( long id, String name, String query, Logger logger ) {
+            this.id = id;
+            this.name = name;
+            this.query = query;
+            this.logger = logger;
+            this.threadName = Thread.currentThread().getName();
+            this.startTime = Utility.now();
+        }
+
+        public void cancel() {
+            inFlight.remove(id);
+            ScheduledFuture<?> scheduled = future;
+            if( scheduled != null ) scheduled.cancel(false);
+        }
+
+        public String getName() { return name; }
+        public String getQuery() { return query; }
+        public String getThreadName() { return threadName; }
+        public long getRuntimeSeconds() { return (Utility.now()-this.startTime)/1000; }
+
+        private void report() {
+            String holdName = Thread.currentThread().getName();
+            Thread.currentThread().setName("Execution-Watchdog-"+ name);
+            long runtimeSeconds = getRuntimeSeconds();
+            logger.log( getLogLevel(runtimeSeconds), "%s '%s' is still running, so far %d (s)", this.name, this.query, runtimeSeconds );
+            Thread.currentThread().setName(holdName);
+        }
+
+        private Level getLogLevel( long runtimeSeconds ) {
+            if( runtimeSeconds <= 300 ) return Level.INFO;
+            if( runtimeSeconds <= 600 ) return Level.WARN;
+            return Level.ERROR;
+        }
+
+        public String toString() {
+            return String.format("%s '%s' on %s for %d (s)", name, query, threadName, getRuntimeSeconds());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.cisco.josouthe.queue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+A FIFO queue bounded by the estimated heap size of its contents, and optionally by row count, instead of element count.
+Element count means nothing here, one MetricData[] can be a single datapoint or a million of them
+When the queue is full, add() blocks the fetch thread until the insert threads make room, so a slow database slows the controller pulls
+instead of filling the heap until the pod is OOM killed
+ */
+public class BoundedDataQueue implements IPollingDataQueue {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final long maxBytes, maxRows;
+    private long currentBytes = 0, currentRows = 0;
+    private long countBlockedAdds = 0;
+
+    public BoundedDataQueue( long maxBytes, long maxRows ) {
+        this.maxBytes = (maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+        this.maxRows = (maxRows > 0 ? maxRows : Long.MAX_VALUE);
+        logger.info("Data queue capacity set to %d MB and %s rows", this.maxBytes/(1024*1024), (maxRows > 0 ? String.valueOf(maxRows) : "unlimited"));
+    }
+
+    @Override
+    public void add( Object[] data ) {
+        if( data == null ) return;
+        Entry entry = new Entry(data);
+        lock.lock();
+        try {
+            boolean blocked = false;
+            while( !entries.isEmpty() && !hasRoomFor(entry) ) {
+                if( !blocked ) {
+                    blocked = true;
+                    countBlockedAdds++;
+                    logger.debug("Data queue is full, %s, waiting for the database to catch up", getStatus());
+                }
+                try {
+                    notFull.await(5000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Interrupted while waiting for room in the data queue, adding anyway");
+                    break;
+                }
+            }
+            enqueue(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void requeue( Object[] data ) {
+        if( data == null ) return;
+        lock.lock();
+        try {
+            enqueue(new Entry(data));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object[] poll( long timeout, TimeUnit unit ) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while( entries.isEmpty() ) {
+                if( nanos <= 0 ) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            Entry entry = entries.poll();
+            currentBytes -= entry.bytes;
+            currentRows -= entry.rows;
+            notFull.signalAll();
+            return entry.data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void hold( long bytes, long rows ) {
+        lock.lock();
+        try {
+            currentBytes += bytes;
+            currentRows += rows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void release( long bytes, long rows ) {
+        lock.lock();
+        try {
+            currentBytes -= bytes;
+            currentRows -= rows;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue( Entry entry ) {
+        entries.add(entry);
+        currentBytes += entry.bytes;
+        currentRows += entry.rows;
+        notEmpty.signal();
+    }
+
+    private boolean hasRoomFor( Entry entry ) {
+        return currentBytes + entry.bytes <= maxBytes && currentRows + entry.rows <= maxRows;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return entries.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEstimatedBytes() { return currentBytes; }
+    public long getRows() { return currentRows; }
+
+    @Override
+    public double getFillLevel() {
+        lock.lock();
+        try {
+            return Math.max( (double) currentBytes / maxBytes, (double) currentRows / maxRows );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        lock.lock();
+        try {
+            return String.format("%d elements, %d rows, %d KB estimated, %.1f%% full, fetchers blocked %d times",
+                    entries.size(), currentRows, currentBytes/1024, getFillLevel()*100, countBlockedAdds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class Entry {
+        public Object[] data;
+        public long bytes, rows;
+
+        public Entry( Object[] data ) {
+            this.data = data;
+            this.bytes = DataSizeEstimator.estimateBytes(data);
+            this.rows = DataSizeEstimator.estimateRows(data);
+        }
+    }
+}
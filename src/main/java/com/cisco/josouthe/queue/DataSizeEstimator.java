@@ -0,0 +1,71 @@
+package com.cisco.josouthe.queue;
+
+import com.cisco.josouthe.data.analytic.Result;
+import com.cisco.josouthe.data.event.EventData;
+import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.MetricData;
+
+/*
+Rough heap cost of the data we push through the insert queue, this doesn't need to be exact, it only needs to be close enough
+that a queue capacity in bytes means something. Numbers are for a 64bit jvm with compressed oops
+ */
+public class DataSizeEstimator {
+    private static final long OBJECT_HEADER_BYTES = 16;
+    private static final long REFERENCE_BYTES = 8;
+    private static final long METRIC_VALUE_BYTES = 73; //a slot in each of the MetricValueBatch columns, 8 longs, a double and a boolean
+    private static final long METRIC_VALUE_BATCH_BYTES = 10 * OBJECT_HEADER_BYTES + 48; //the arrays and the batch itself
+    private static final long METRIC_DATA_BYTES = 200;
+    private static final long EVENT_DATA_BYTES = 400;
+    private static final long ANALYTIC_CELL_BYTES = 48;
+
+    public static long estimateBytes( Object[] data ) {
+        if( data == null ) return 0;
+        long bytes = OBJECT_HEADER_BYTES + (REFERENCE_BYTES * data.length);
+        for( Object object : data ) {
+            if( object instanceof MetricData ) {
+                MetricData metricData = (MetricData) object;
+                bytes += METRIC_DATA_BYTES + stringBytes(metricData.metricName) + stringBytes(metricData.metricPath);
+                if( metricData.metricValues != null ) bytes += METRIC_VALUE_BATCH_BYTES + metricData.metricValues.size() * METRIC_VALUE_BYTES;
+            } else if( object instanceof BaselineData ) {
+                BaselineData baselineData = (BaselineData) object;
+                bytes += METRIC_DATA_BYTES + stringBytes(baselineData.metricName);
+                if( baselineData.dataTimeslices != null ) bytes += METRIC_VALUE_BATCH_BYTES + baselineData.dataTimeslices.size() * METRIC_VALUE_BYTES;
+            } else if( object instanceof EventData ) {
+                EventData eventData = (EventData) object;
+                bytes += EVENT_DATA_BYTES + stringBytes(eventData.summary);
+            } else if( object instanceof Result ) {
+                Result result = (Result) object;
+                bytes += METRIC_DATA_BYTES + stringBytes(result.query);
+                if( result.results != null )
+                    for( Object[] row : result.results )
+                        bytes += OBJECT_HEADER_BYTES + (row == null ? 0 : row.length * ANALYTIC_CELL_BYTES);
+            }
+        }
+        return bytes;
+    }
+
+    public static long estimateRows( Object[] data ) {
+        if( data == null ) return 0;
+        long rows = 0;
+        for( Object object : data ) {
+            if( object instanceof MetricData ) {
+                MetricData metricData = (MetricData) object;
+                if( metricData.metricValues != null ) rows += metricData.metricValues.size();
+            } else if( object instanceof BaselineData ) {
+                BaselineData baselineData = (BaselineData) object;
+                if( baselineData.dataTimeslices != null ) rows += baselineData.dataTimeslices.size();
+            } else if( object instanceof Result ) {
+                Result result = (Result) object;
+                if( result.results != null ) rows += result.results.length;
+            } else {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static long stringBytes( String s ) {
+        if( s == null ) return 0;
+        return 40 + s.length();
+    }
+}
@@ -0,0 +1,109 @@
+package com.cisco.josouthe.queue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Data the database refused too many times, kept as one json line per failed array with the last error, until "ETLControl replay" loads it again
+Replay renames the file away first, so a scheduler still running and writing new dead letters is never racing the replay for the same file
+ */
+public class DeadLetterStore {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    public static final String FILE_NAME = "dead-letters.jsonl";
+    private static final String REPLAY_SUFFIX = ".replaying";
+
+    private final File directory, file;
+    private final Gson gson = new Gson();
+
+    public DeadLetterStore( File directory ) {
+        this.directory = directory;
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    public File getFile() { return file; }
+
+    public void write( Object[] data, int attempts, String error ) {
+        DeadLetter deadLetter = new DeadLetter();
+        deadLetter.failedTime = System.currentTimeMillis();
+        deadLetter.attempts = attempts;
+        deadLetter.error = error;
+        deadLetter.dataType = data.getClass().getName();
+        deadLetter.data = gson.toJsonTree(data);
+        write(deadLetter);
+    }
+
+    public synchronized void write( DeadLetter deadLetter ) {
+        if( !directory.isDirectory() && !directory.mkdirs() ) {
+            logger.error("Could not create dead letter directory %s, %s is lost", directory.getAbsolutePath(), deadLetter);
+            return;
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+            outputStream.write((gson.toJson(deadLetter) +"\n").getBytes(StandardCharsets.UTF_8));
+            outputStream.getFD().sync();
+        } catch (IOException ioException) {
+            logger.error("Could not write to dead letter file %s, %s is lost, Exception: %s", file.getAbsolutePath(), deadLetter, ioException.toString());
+        }
+    }
+
+    //move the dead letters aside and return them, anything the caller can't load it should write() back, a replay interrupted earlier is picked up again
+    public synchronized List<DeadLetter> takeAll() throws IOException {
+        File replaying = new File(directory, FILE_NAME + REPLAY_SUFFIX);
+        if( replaying.exists() ) {
+            logger.warn("Found %s from a replay that didn't finish, loading that first, some of it may already be in the database, run replay again for anything newer", replaying.getName());
+            return read(replaying);
+        }
+        if( !file.exists() ) return new ArrayList<>();
+        Files.move(file.toPath(), replaying.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return read(replaying);
+    }
+
+    //the caller has loaded or written back everything takeAll() gave it
+    public synchronized void finishReplay() throws IOException {
+        Files.deleteIfExists(new File(directory, FILE_NAME + REPLAY_SUFFIX).toPath());
+    }
+
+    private List<DeadLetter> read( File from ) throws IOException {
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(from.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while( (line = reader.readLine()) != null ) {
+                lineNumber++;
+                if( line.trim().isEmpty() ) continue;
+                try {
+                    deadLetters.add(gson.fromJson(line, DeadLetter.class));
+                } catch (RuntimeException exception) {
+                    logger.warn("Skipping unreadable dead letter on line %d of %s: %s", lineNumber, from.getName(), exception.toString());
+                }
+            }
+        }
+        return deadLetters;
+    }
+
+    public static class DeadLetter {
+        public long failedTime;
+        public int attempts;
+        public String error, dataType;
+        public JsonElement data;
+
+        public Object[] getData( Gson gson ) throws ClassNotFoundException {
+            return (Object[]) gson.fromJson(data, Class.forName(dataType));
+        }
+
+        public String toString() {
+            return String.format("dead letter of %s after %d attempts, error: %s", dataType, attempts, error);
+        }
+    }
+}
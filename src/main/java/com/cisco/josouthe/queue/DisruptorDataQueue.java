@@ -0,0 +1,301 @@
+package com.cisco.josouthe.queue;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.LifecycleAware;
+import com.lmax.disruptor.LiteTimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.TimeoutHandler;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+Ring buffer transport between the fetch tasks and the database, an alternative to BoundedDataQueue for when the fetch bursts are big
+and the 50 database threads are all fighting over one lock. Slots are preallocated and reused, producers claim slots without a lock,
+and each consumer sees the whole batch of published sequences at once, so it can merge everything it owns into one insert per datatype
+Consumers are sharded by sequence, every handler sees every event but only processes the ones where sequence % numberOfConsumers == ordinal,
+or when table affine, by the table the data is going to so each table is only ever written by one consumer (see TableAffinity)
+The same byte and row budget as BoundedDataQueue is enforced on top of the ring size, the ring only bounds the number of elements
+ */
+public class DisruptorDataQueue implements IDataQueue {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final int MAX_ELEMENTS_PER_FLUSH = 64;
+    private static final EventTranslatorOneArg<DataEvent, DataEvent> TRANSLATOR = (event, sequence, from) -> {
+        event.data = from.data;
+        event.bytes = from.bytes;
+        event.rows = from.rows;
+        event.shard = from.shard;
+    };
+
+    private final Disruptor<DataEvent> disruptor;
+    private final RingBuffer<DataEvent> ringBuffer;
+    private final ConcurrentLinkedQueue<DataEvent> overflow = new ConcurrentLinkedQueue<>();
+    private final int numberOfConsumers;
+    private final boolean tableAffine;
+    private final long maxBytes, maxRows;
+    private final AtomicLong currentBytes = new AtomicLong(), currentRows = new AtomicLong();
+    private final AtomicLong countBlockedAdds = new AtomicLong();
+    private boolean started = false;
+
+    public DisruptorDataQueue( int ringBufferSize, long maxBytes, long maxRows, int numberOfConsumers, boolean tableAffine, ThreadFactory threadFactory ) {
+        int size = Integer.highestOneBit(Math.max(ringBufferSize, 2));
+        if( size < ringBufferSize ) size <<= 1; //ring buffer size must be a power of 2, round up
+        this.numberOfConsumers = Math.max(numberOfConsumers, 1);
+        this.tableAffine = tableAffine;
+        this.maxBytes = (maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+        this.maxRows = (maxRows > 0 ? maxRows : Long.MAX_VALUE);
+        this.disruptor = new Disruptor<>(DataEvent::new, size, threadFactory, ProducerType.MULTI, new LiteTimeoutBlockingWaitStrategy(5000, TimeUnit.MILLISECONDS));
+        this.disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler());
+        this.ringBuffer = this.disruptor.getRingBuffer();
+        logger.info("Data ring buffer created with %d slots, %d consumers sharded by %s, capacity %d MB and %s rows", size, this.numberOfConsumers, (tableAffine ? "table" : "sequence"), this.maxBytes/(1024*1024), (maxRows > 0 ? String.valueOf(maxRows) : "unlimited"));
+    }
+
+    public synchronized void start( IDataConsumer consumer ) {
+        if( started ) return;
+        ShardedHandler[] handlers = new ShardedHandler[numberOfConsumers]; //not generic itself, so the array needs no unchecked cast
+        for( int i=0; i < numberOfConsumers; i++ )
+            handlers[i] = new ShardedHandler(i, consumer);
+        disruptor.handleEventsWith(handlers);
+        disruptor.start();
+        started = true;
+        logger.info("Started %d ring buffer consumers", numberOfConsumers);
+    }
+
+    public void shutdown( long timeout, TimeUnit unit ) {
+        try {
+            disruptor.shutdown(timeout, unit);
+        } catch (com.lmax.disruptor.TimeoutException timeoutException) {
+            logger.warn("Ring buffer consumers did not finish within %d %s, halting with %s", timeout, unit, getStatus());
+            disruptor.halt();
+        }
+    }
+
+    @Override
+    public void add( Object[] data ) {
+        if( data == null ) return;
+        List<DataEvent> events = toEvents(data);
+        long bytes = 0, rows = 0;
+        for( DataEvent event : events ) {
+            bytes += event.bytes;
+            rows += event.rows;
+        }
+        boolean blocked = false;
+        while( !tryReserve(bytes, rows) ) {
+            if( !blocked ) {
+                blocked = true;
+                countBlockedAdds.incrementAndGet();
+                logger.debug("Data ring buffer is full, %s, waiting for the database to catch up", getStatus());
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            if( Thread.currentThread().isInterrupted() ) {
+                logger.warn("Interrupted while waiting for room in the data ring buffer, adding anyway");
+                currentBytes.addAndGet(bytes);
+                currentRows.addAndGet(rows);
+                break;
+            }
+        }
+        for( DataEvent event : events )
+            ringBuffer.publishEvent(TRANSLATOR, event); //blocks if every slot is claimed
+    }
+
+    /*
+    takes the room first and gives it back if that went over, checking the budget and then adding to it was a race, producers that checked at
+    the same time could all pass the check and together go over the budget
+    an element bigger than the whole budget is still let in when the queue is empty, otherwise it could never be added
+     */
+    private boolean tryReserve( long bytes, long rows ) {
+        long bytesBefore = currentBytes.getAndAdd(bytes);
+        long rowsBefore = currentRows.getAndAdd(rows);
+        if( (bytesBefore + bytes <= maxBytes && rowsBefore + rows <= maxRows) || (bytesBefore == 0 && rowsBefore == 0) ) return true;
+        release(bytes, rows);
+        return false;
+    }
+
+    @Override
+    public void requeue( Object[] data ) {
+        if( data == null ) return;
+        for( DataEvent event : toEvents(data) ) {
+            currentBytes.addAndGet(event.bytes);
+            currentRows.addAndGet(event.rows);
+            if( !ringBuffer.tryPublishEvent(TRANSLATOR, event) ) {
+                //the consumers calling this can't wait for a slot, they are the ones who free them
+                overflow.add(event);
+            }
+        }
+    }
+
+    //when table affine, one event per table lane so a single handler owns each of them
+    private List<DataEvent> toEvents( Object[] data ) {
+        List<DataEvent> events = new ArrayList<>();
+        if( tableAffine ) {
+            for( Map.Entry<Integer,Object[]> split : TableAffinity.split(data, numberOfConsumers).entrySet() )
+                events.add(new DataEvent(split.getValue(), split.getKey()));
+        } else {
+            events.add(new DataEvent(data, -1));
+        }
+        return events;
+    }
+
+    private void drainOverflow() {
+        DataEvent event;
+        while( (event = overflow.peek()) != null ) {
+            if( !ringBuffer.tryPublishEvent(TRANSLATOR, event) ) return;
+            overflow.poll();
+        }
+    }
+
+    private void release( long bytes, long rows ) {
+        currentBytes.addAndGet(-bytes);
+        currentRows.addAndGet(-rows);
+    }
+
+    //a sequence is only released once the handler that owns it has returned, so this doesn't go true while an insert is still running
+    @Override
+    public boolean isEmpty() {
+        return overflow.isEmpty() && ringBuffer.remainingCapacity() == ringBuffer.getBufferSize();
+    }
+
+    @Override
+    public int size() {
+        return (int) (ringBuffer.getBufferSize() - ringBuffer.remainingCapacity()) + overflow.size();
+    }
+
+    @Override
+    public double getFillLevel() {
+        double ringLevel = (double) (ringBuffer.getBufferSize() - ringBuffer.remainingCapacity()) / ringBuffer.getBufferSize();
+        return Math.max( ringLevel, Math.max( (double) currentBytes.get() / maxBytes, (double) currentRows.get() / maxRows ));
+    }
+
+    @Override
+    public String getStatus() {
+        return String.format("%d of %d slots used, %d overflow, %d rows, %d KB estimated, %.1f%% full, fetchers blocked %d times",
+                ringBuffer.getBufferSize() - ringBuffer.remainingCapacity(), ringBuffer.getBufferSize(), overflow.size(),
+                currentRows.get(), currentBytes.get()/1024, getFillLevel()*100, countBlockedAdds.get());
+    }
+
+    public static class DataEvent {
+        public Object[] data;
+        public long bytes, rows;
+        public int shard = -1;
+
+        public DataEvent() {}
+
+        public DataEvent( Object[] data, int shard ) {
+            this.data = data;
+            this.bytes = DataSizeEstimator.estimateBytes(data);
+            this.rows = DataSizeEstimator.estimateRows(data);
+            this.shard = shard;
+        }
+    }
+
+    private class ShardedHandler implements EventHandler<DataEvent>, TimeoutHandler, LifecycleAware {
+        private final int ordinal;
+        private final IDataConsumer consumer;
+        private final List<Object[]> pending = new ArrayList<>();
+        private long pendingBytes = 0, pendingRows = 0;
+
+        public ShardedHandler( int ordinal, IDataConsumer consumer ) {
+            this.ordinal = ordinal;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void onEvent( DataEvent event, long sequence, boolean endOfBatch ) {
+            if( owns(event, sequence) && event.data != null ) {
+                pending.add(event.data);
+                pendingBytes += event.bytes;
+                pendingRows += event.rows;
+                event.data = null; //don't leave the slot holding a reference until it is reused
+            }
+            if( endOfBatch || pending.size() >= MAX_ELEMENTS_PER_FLUSH ) flush();
+            //caught up with everything published, give back what is held now instead of waiting out the idle timeout
+            if( endOfBatch && sequence == ringBuffer.getCursor() && overflow.isEmpty() ) consumer.onIdle();
+        }
+
+        private boolean owns( DataEvent event, long sequence ) {
+            if( tableAffine ) return event.shard == ordinal;
+            return sequence % numberOfConsumers == ordinal;
+        }
+
+        @Override
+        public void onStart() {}
+
+        @Override
+        public void onShutdown() {
+            consumer.onShutdown();
+        }
+
+        @Override
+        public void onTimeout( long sequence ) {
+            if( ordinal == 0 ) drainOverflow();
+            consumer.onIdle();
+        }
+
+        private void flush() {
+            if( pending.isEmpty() ) return;
+            logger.trace("Ring buffer consumer %d flushing %d elements, %d rows", ordinal, pending.size(), pendingRows);
+            try {
+                for( Object[] data : merge(pending) )
+                    consumer.consume(data);
+            } finally {
+                release(pendingBytes, pendingRows);
+                pending.clear();
+                pendingBytes = 0;
+                pendingRows = 0;
+            }
+            if( !overflow.isEmpty() ) drainOverflow();
+        }
+    }
+
+    //concatenate the arrays of the same type so the database sees one import per datatype instead of one per fetch
+    private static List<Object[]> merge( List<Object[]> arrays ) {
+        if( arrays.size() == 1 ) return arrays;
+        Map<Class<?>, List<Object[]>> byType = new LinkedHashMap<>();
+        for( Object[] array : arrays )
+            byType.computeIfAbsent(array.getClass(), k -> new ArrayList<>()).add(array);
+        List<Object[]> merged = new ArrayList<>(byType.size());
+        for( List<Object[]> sameType : byType.values() ) {
+            int total = 0;
+            for( Object[] array : sameType ) total += array.length;
+            Object[] combined = Arrays.copyOf(sameType.get(0), total);
+            int position = sameType.get(0).length;
+            for( int i=1; i < sameType.size(); i++ ) {
+                System.arraycopy(sameType.get(i), 0, combined, position, sameType.get(i).length);
+                position += sameType.get(i).length;
+            }
+            merged.add(combined);
+        }
+        return merged;
+    }
+
+    private static class LoggingExceptionHandler implements ExceptionHandler<DataEvent> {
+        @Override
+        public void handleEventException( Throwable ex, long sequence, DataEvent event ) {
+            logger.error("Unexpected exception in ring buffer consumer at sequence %d, data dropped: %s", sequence, ex.toString(), ex);
+        }
+
+        @Override
+        public void handleOnStartException( Throwable ex ) {
+            logger.error("Ring buffer consumer failed to start: %s", ex.toString(), ex);
+        }
+
+        @Override
+        public void handleOnShutdownException( Throwable ex ) {
+            logger.warn("Ring buffer consumer failed to shut down cleanly: %s", ex.toString(), ex);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.cisco.josouthe.queue;
+
+/*
+For transports that own their consumer threads, like the disruptor, this is the work done with each batch of data taken off the queue
+Implementations are responsible for their own failures, usually by calling requeue() on the queue they came from
+ */
+public interface IDataConsumer {
+    public void consume( Object[] data );
+
+    //nothing has arrived for a while, a chance to give back anything held between batches
+    public default void onIdle() {}
+
+    //the consumer thread is stopping, called on that thread so anything it holds can be given back
+    public default void onShutdown() { onIdle(); }
+}
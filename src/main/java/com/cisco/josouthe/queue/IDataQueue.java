@@ -0,0 +1,21 @@
+package com.cisco.josouthe.queue;
+
+/*
+The pipeline stage between the controller/analytics fetch tasks and the database insert tasks.
+Producers call add(), which is allowed to block when the stage is full, so the fetch rate self-regulates to what the database can absorb
+ */
+public interface IDataQueue {
+    public void add( Object[] data );
+
+    //for consumers putting back data they could not process, this must never block or a full queue could deadlock the insert threads
+    public void requeue( Object[] data );
+
+    public boolean isEmpty();
+
+    public int size();
+
+    //0.0 is empty, 1.0 is full, it can go over 1.0 slightly because a single oversized element is always admitted into an empty queue
+    public double getFillLevel();
+
+    public String getStatus();
+}
@@ -0,0 +1,23 @@
+package com.cisco.josouthe.queue;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+A queue the database insert tasks pull from themselves, as opposed to transports like the ring buffer that push to an IDataConsumer
+ */
+public interface IPollingDataQueue extends IDataQueue {
+    //null if nothing arrived within the timeout
+    public Object[] poll( long timeout, TimeUnit unit ) throws InterruptedException;
+
+    //everything polled through this so far is in the database or has been requeued, durable queues can forget it now
+    public default void commit() {}
+
+    //true when data polled but not committed survives a restart, the caller should then commit regularly instead of holding data
+    public default boolean isDurable() { return false; }
+
+    //polled data the caller keeps in memory for a while before writing it, counted against the queue budget again until it is released
+    //so data a consumer is holding back still holds back the producers
+    public default void hold( long bytes, long rows ) {}
+
+    public default void release( long bytes, long rows ) {}
+}
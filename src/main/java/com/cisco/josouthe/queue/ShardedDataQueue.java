@@ -0,0 +1,260 @@
+package com.cisco.josouthe.queue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+BoundedDataQueue split into one lane per database thread, data goes into the lane of the table it is going to (see TableAffinity)
+so each table is only ever written by one thread, in the order it was fetched, instead of every thread racing for any element and
+several of them inserting into the same table at once. The byte and row budget is shared by all the lanes, a busy table can use all of it
+Each insert task polls its own lane through getShard()
+ */
+public class ShardedDataQueue implements IDataQueue {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition[] notEmpty;
+    private final List<ArrayDeque<Entry>> shards;
+    private final long maxBytes, maxRows;
+    private long currentBytes = 0, currentRows = 0;
+    private int elements = 0;
+    private long countBlockedAdds = 0;
+
+    public ShardedDataQueue( long maxBytes, long maxRows, int numberOfShards ) {
+        numberOfShards = Math.max(numberOfShards, 1);
+        this.maxBytes = (maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+        this.maxRows = (maxRows > 0 ? maxRows : Long.MAX_VALUE);
+        this.shards = new ArrayList<>(numberOfShards);
+        this.notEmpty = new Condition[numberOfShards];
+        for( int i=0; i < numberOfShards; i++ ) {
+            shards.add(new ArrayDeque<>());
+            notEmpty[i] = lock.newCondition();
+        }
+        logger.info("Data queue sharded by table into %d lanes, capacity set to %d MB and %s rows", numberOfShards, this.maxBytes/(1024*1024), (maxRows > 0 ? String.valueOf(maxRows) : "unlimited"));
+    }
+
+    public int getNumberOfShards() { return shards.size(); }
+
+    public IPollingDataQueue getShard( int shard ) { return new Shard(shard); }
+
+    @Override
+    public void add( Object[] data ) {
+        if( data == null ) return;
+        List<Entry> entries = toEntries(data);
+        long bytes = 0, rows = 0;
+        for( Entry entry : entries ) {
+            bytes += entry.bytes;
+            rows += entry.rows;
+        }
+        lock.lock();
+        try {
+            boolean blocked = false;
+            while( elements > 0 && (currentBytes + bytes > maxBytes || currentRows + rows > maxRows) ) {
+                if( !blocked ) {
+                    blocked = true;
+                    countBlockedAdds++;
+                    logger.debug("Data queue is full, %s, waiting for the database to catch up", getStatus());
+                }
+                try {
+                    notFull.await(5000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Interrupted while waiting for room in the data queue, adding anyway");
+                    break;
+                }
+            }
+            for( Entry entry : entries )
+                enqueue(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void requeue( Object[] data ) {
+        if( data == null ) return;
+        List<Entry> entries = toEntries(data);
+        lock.lock();
+        try {
+            for( Entry entry : entries )
+                enqueue(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Object[] poll( int shard, long timeout, TimeUnit unit ) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while( shards.get(shard).isEmpty() ) {
+                if( nanos <= 0 ) return null;
+                nanos = notEmpty[shard].awaitNanos(nanos);
+            }
+            Entry entry = shards.get(shard).poll();
+            elements--;
+            currentBytes -= entry.bytes;
+            currentRows -= entry.rows;
+            notFull.signalAll();
+            return entry.data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void hold( long bytes, long rows ) {
+        lock.lock();
+        try {
+            currentBytes += bytes;
+            currentRows += rows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release( long bytes, long rows ) {
+        lock.lock();
+        try {
+            currentBytes -= bytes;
+            currentRows -= rows;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Entry> toEntries( Object[] data ) {
+        List<Entry> entries = new ArrayList<>();
+        for( Map.Entry<Integer,Object[]> split : TableAffinity.split(data, shards.size()).entrySet() )
+            entries.add(new Entry(split.getKey(), split.getValue()));
+        return entries;
+    }
+
+    private void enqueue( Entry entry ) {
+        shards.get(entry.shard).add(entry);
+        elements++;
+        currentBytes += entry.bytes;
+        currentRows += entry.rows;
+        notEmpty[entry.shard].signal();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return elements == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty( int shard ) {
+        lock.lock();
+        try {
+            return shards.get(shard).isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return elements;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size( int shard ) {
+        lock.lock();
+        try {
+            return shards.get(shard).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getFillLevel() {
+        lock.lock();
+        try {
+            return Math.max( (double) currentBytes / maxBytes, (double) currentRows / maxRows );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        lock.lock();
+        try {
+            int busiest = 0, lanesInUse = 0;
+            for( ArrayDeque<Entry> shard : shards ) {
+                busiest = Math.max(busiest, shard.size());
+                if( !shard.isEmpty() ) lanesInUse++;
+            }
+            return String.format("%d elements in %d of %d lanes, busiest lane %d elements, %d rows, %d KB estimated, %.1f%% full, fetchers blocked %d times",
+                    elements, lanesInUse, shards.size(), busiest, currentRows, currentBytes/1024, getFillLevel()*100, countBlockedAdds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry {
+        public int shard;
+        public Object[] data;
+        public long bytes, rows;
+
+        public Entry( int shard, Object[] data ) {
+            this.shard = shard;
+            this.data = data;
+            this.bytes = DataSizeEstimator.estimateBytes(data);
+            this.rows = DataSizeEstimator.estimateRows(data);
+        }
+    }
+
+    //one lane as seen by the insert task that owns it, adding or requeueing still routes by table
+    private class Shard implements IPollingDataQueue {
+        private final int shard;
+
+        public Shard( int shard ) { this.shard = shard; }
+
+        @Override
+        public Object[] poll( long timeout, TimeUnit unit ) throws InterruptedException { return ShardedDataQueue.this.poll(shard, timeout, unit); }
+
+        @Override
+        public void hold( long bytes, long rows ) { ShardedDataQueue.this.hold(bytes, rows); }
+
+        @Override
+        public void release( long bytes, long rows ) { ShardedDataQueue.this.release(bytes, rows); }
+
+        @Override
+        public void add( Object[] data ) { ShardedDataQueue.this.add(data); }
+
+        @Override
+        public void requeue( Object[] data ) { ShardedDataQueue.this.requeue(data); }
+
+        @Override
+        public boolean isEmpty() { return ShardedDataQueue.this.isEmpty(shard); }
+
+        @Override
+        public int size() { return ShardedDataQueue.this.size(shard); }
+
+        @Override
+        public double getFillLevel() { return ShardedDataQueue.this.getFillLevel(); }
+
+        @Override
+        public String getStatus() { return ShardedDataQueue.this.getStatus(); }
+    }
+}
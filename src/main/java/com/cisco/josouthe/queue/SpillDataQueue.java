@@ -0,0 +1,535 @@
+package com.cisco.josouthe.queue;
+
+import com.cisco.josouthe.data.analytic.Result;
+import com.cisco.josouthe.data.event.EventData;
+import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.MetricData;
+import com.google.gson.Gson;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+A write ahead log on local disk between the fetch tasks and the database, so an outage of the database costs disk instead of heap
+and data already fetched, whose window the control table has moved past, survives a restart of this process
+add() appends a record to the current segment and returns once it is fsynced, writers arriving during an fsync share the next one
+Insert tasks read through their own newReader() and commit() once what they read is in the database, or requeued which appends it again,
+commits go to a small .ack file next to the segment and a segment is deleted once it is full and every record in it is acknowledged
+On startup any segments left behind are replayed, minus the records already acknowledged, a torn record at the end of a segment is cut off
+Record: marker(1) payload length(4) crc32 of payload(4) record id(8) payload, payload is a type byte and the deflated json of the array
+ */
+public class SpillDataQueue implements IDataQueue {
+    private static final Logger logger = LogManager.getFormatterLogger();
+    private static final byte RECORD_MARKER = (byte) 0xD7;
+    private static final int HEADER_BYTES = 1 + 4 + 4 + 8;
+    private static final String LOG_SUFFIX = ".log", ACK_SUFFIX = ".ack";
+    private static final Class<?>[] TYPES = { null, MetricData[].class, BaselineData[].class, EventData[].class, Result[].class };
+
+    private final File directory;
+    private final long segmentBytes, maxBytes;
+    private final Gson gson = new Gson();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ReentrantLock ackLock = new ReentrantLock();
+    private final TreeMap<Long,Segment> segments = new TreeMap<>();
+    private Segment writeSegment, readSegment;
+    private long readPosition = 0;
+    private long nextRecordId = 1;
+    private long writtenOffset = 0, syncedOffset = 0; //running totals across segments, only used to know who an fsync covered
+    private long unread = 0, diskBytes = 0;
+    private long countBlockedAdds = 0, countSyncs = 0, countRecords = 0;
+
+    public SpillDataQueue( File directory, long segmentBytes, long maxBytes ) throws IOException {
+        this.directory = directory;
+        this.maxBytes = (maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+        this.segmentBytes = Math.max(1024*1024, Math.min(segmentBytes, this.maxBytes/4)); //room for a few segments or nothing could ever be deleted
+        if( !directory.isDirectory() && !directory.mkdirs() )
+            throw new IOException("Could not create spill directory "+ directory.getAbsolutePath());
+        replay();
+        writeSegment = openSegment(segments.isEmpty() ? 1 : segments.lastKey()+1);
+        readSegment = segments.firstEntry().getValue();
+        logger.info("Spill queue in %s with %d MB segments and %s MB on disk, %d records waiting from a previous run",
+                directory.getAbsolutePath(), this.segmentBytes/(1024*1024), (maxBytes > 0 ? String.valueOf(maxBytes/(1024*1024)) : "unlimited"), unread);
+    }
+
+    //every insert task reads through its own reader, which remembers what it has read until it commits
+    public IPollingDataQueue newReader() { return new SpillReader(); }
+
+    @Override
+    public void add( Object[] data ) {
+        append(data, true);
+    }
+
+    //the failed data is appended again as a new record, the one it was read from is acknowledged on the reader's next commit
+    @Override
+    public void requeue( Object[] data ) {
+        append(data, false);
+    }
+
+    private void append( Object[] data, boolean waitForRoom ) {
+        if( data == null || data.length == 0 ) return;
+        byte[] payload = encode(data);
+        if( payload == null ) return;
+        long myOffset;
+        lock.lock();
+        try {
+            if( waitForRoom ) waitForRoom(HEADER_BYTES + payload.length);
+            if( writeSegment.size > 0 && writeSegment.size + HEADER_BYTES + payload.length > segmentBytes ) rollSegment();
+            long recordId = nextRecordId++;
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+            buffer.put(RECORD_MARKER).putInt(payload.length).putInt((int) crc.getValue()).putLong(recordId).put(payload).flip();
+            writeFully(writeSegment.channel, buffer, writeSegment.size);
+            writeSegment.size += buffer.limit();
+            writeSegment.records++;
+            diskBytes += buffer.limit();
+            writtenOffset += buffer.limit();
+            myOffset = writtenOffset;
+            unread++;
+            countRecords++;
+            notEmpty.signal();
+        } catch (IOException ioException) {
+            throw new UncheckedIOException("Could not write to spill segment "+ writeSegment.logFile.getName(), ioException);
+        } finally {
+            lock.unlock();
+        }
+        sync(myOffset);
+    }
+
+    private void waitForRoom( long bytes ) {
+        boolean blocked = false;
+        while( unread > 0 && diskBytes + bytes > maxBytes ) {
+            if( writeSegment.records > 0 && writeSegment.acked == writeSegment.records ) {
+                rollSegment(); //everything in it is done, seal it so it can be deleted
+                continue;
+            }
+            if( !blocked ) {
+                blocked = true;
+                countBlockedAdds++;
+                logger.debug("Spill queue is full, %s, waiting for the database to catch up", getStatus());
+            }
+            try {
+                notFull.await(5000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for room in the spill queue, adding anyway");
+                return;
+            }
+        }
+    }
+
+    //group commit, whoever gets the sync lock forces everything written so far, those waiting behind it usually find they are covered
+    private void sync( long offset ) {
+        syncLock.lock();
+        try {
+            if( syncedOffset >= offset ) return;
+            long upTo;
+            FileChannel channel;
+            lock.lock();
+            try {
+                upTo = writtenOffset;
+                channel = writeSegment.channel;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException closedChannelException) {
+                //rolled over and already deleted since we looked, the roll forced it
+            }
+            syncedOffset = Math.max(syncedOffset, upTo);
+            countSyncs++;
+        } catch (IOException ioException) {
+            throw new UncheckedIOException("Could not fsync spill segment", ioException);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void rollSegment() {
+        try {
+            writeSegment.channel.force(false); //the sync after a roll only covers the new segment
+            writeSegment.sealed = true;
+            Segment sealed = writeSegment;
+            writeSegment = openSegment(sealed.id+1);
+            deleteIfDone(sealed);
+        } catch (IOException ioException) {
+            throw new UncheckedIOException("Could not start a new spill segment", ioException);
+        }
+    }
+
+    private Segment openSegment( long id ) throws IOException {
+        Segment segment = new Segment(id);
+        if( segment.ackFile.exists() && !segment.ackFile.delete() ) //left from an earlier segment with this id, it would acknowledge the wrong records
+            throw new IOException("Could not delete stale spill acknowledgements "+ segment.ackFile.getAbsolutePath());
+        segment.channel = FileChannel.open(segment.logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    //under the lock
+    private void deleteIfDone( Segment segment ) {
+        if( segment.deleted || !segment.sealed || segment.acked < segment.records || segment == readSegment && readPosition < segment.size ) return;
+        segment.deleted = true;
+        segments.remove(segment.id);
+        diskBytes -= segment.size;
+        segment.close();
+        if( !segment.logFile.delete() || segment.ackFile.exists() && !segment.ackFile.delete() )
+            logger.warn("Could not delete finished spill segment %s", segment.logFile.getAbsolutePath());
+        logger.debug("Spill segment %d finished, %d records, deleted", segment.id, segment.records);
+        notFull.signalAll();
+    }
+
+    private RawRecord read( long timeoutNanos ) throws InterruptedException, IOException {
+        lock.lockInterruptibly();
+        try {
+            while( unread == 0 ) {
+                if( timeoutNanos <= 0 ) return null;
+                timeoutNanos = notEmpty.awaitNanos(timeoutNanos);
+            }
+            while( true ) {
+                if( readPosition >= readSegment.size ) {
+                    if( !readSegment.sealed ) return null; //can't happen while unread > 0
+                    Segment finished = readSegment;
+                    readSegment = segments.higherEntry(finished.id).getValue();
+                    readPosition = 0;
+                    finished.ackedOnReplay = null;
+                    deleteIfDone(finished);
+                    continue;
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                readFully(readSegment.channel, header, readPosition);
+                header.flip();
+                header.get();
+                int length = header.getInt();
+                header.getInt();
+                long recordId = header.getLong();
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(readSegment.channel, payload, readPosition + HEADER_BYTES);
+                readPosition += HEADER_BYTES + length;
+                if( readSegment.ackedOnReplay != null && readSegment.ackedOnReplay.contains(recordId) ) continue; //committed before the restart
+                unread--;
+                return new RawRecord(readSegment, recordId, payload.array());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit( List<RawRecord> records ) {
+        if( records.isEmpty() ) return;
+        Map<Segment,List<Long>> bySegment = new LinkedHashMap<>();
+        for( RawRecord record : records )
+            bySegment.computeIfAbsent(record.segment, k -> new ArrayList<>()).add(record.recordId);
+        ackLock.lock();
+        try {
+            for( Map.Entry<Segment,List<Long>> entry : bySegment.entrySet() ) {
+                Segment segment = entry.getKey();
+                ByteBuffer buffer = ByteBuffer.allocate(8 * entry.getValue().size());
+                for( Long recordId : entry.getValue() ) buffer.putLong(recordId);
+                buffer.flip();
+                try {
+                    if( segment.ackChannel == null )
+                        segment.ackChannel = FileChannel.open(segment.ackFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    while( buffer.hasRemaining() ) segment.ackChannel.write(buffer);
+                    segment.ackChannel.force(false);
+                } catch (IOException ioException) {
+                    //not fatal, the worst case is these records are loaded again after a restart
+                    logger.warn("Could not write acknowledgements for spill segment %d: %s", segment.id, ioException.toString());
+                }
+                lock.lock();
+                try {
+                    segment.acked += entry.getValue().size();
+                    deleteIfDone(segment);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            ackLock.unlock();
+        }
+    }
+
+    private void replay() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(LOG_SUFFIX));
+        if( files == null ) return;
+        for( File file : files ) {
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - LOG_SUFFIX.length()));
+            } catch (NumberFormatException numberFormatException) {
+                logger.warn("Ignoring unexpected file in the spill directory: %s", file.getName());
+                continue;
+            }
+            Segment segment = new Segment(id);
+            segment.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment.sealed = true;
+            Set<Long> recordIds = scan(segment);
+            Set<Long> acked = readAcks(segment.ackFile);
+            acked.retainAll(recordIds);
+            segment.acked = acked.size();
+            segment.ackedOnReplay = (acked.isEmpty() ? null : acked);
+            segments.put(id, segment);
+            diskBytes += segment.size;
+            unread += segment.records - segment.acked;
+            for( Long recordId : recordIds ) nextRecordId = Math.max(nextRecordId, recordId+1);
+        }
+        for( Segment segment : new ArrayList<>(segments.values()) )
+            deleteIfDone(segment);
+    }
+
+    //walk the records, checking each one, and cut the file at the first one that is incomplete or damaged
+    private Set<Long> scan( Segment segment ) throws IOException {
+        Set<Long> recordIds = new HashSet<>();
+        long fileSize = segment.channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while( position + HEADER_BYTES <= fileSize ) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            if( header.get() != RECORD_MARKER ) break;
+            int length = header.getInt();
+            int crcValue = header.getInt();
+            long recordId = header.getLong();
+            if( length < 0 || position + HEADER_BYTES + length > fileSize ) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, position + HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if( (int) crc.getValue() != crcValue ) break;
+            recordIds.add(recordId);
+            position += HEADER_BYTES + length;
+        }
+        if( position < fileSize ) {
+            logger.warn("Spill segment %s has a damaged or incomplete record at byte %d of %d, truncating it there", segment.logFile.getName(), position, fileSize);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+        segment.records = recordIds.size();
+        return recordIds;
+    }
+
+    private Set<Long> readAcks( File ackFile ) throws IOException {
+        Set<Long> acked = new HashSet<>();
+        if( !ackFile.exists() ) return acked;
+        try (FileChannel channel = FileChannel.open(ackFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - channel.size() % 8));
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            while( buffer.remaining() >= 8 ) acked.add(buffer.getLong());
+        }
+        return acked;
+    }
+
+    private byte[] encode( Object[] data ) {
+        byte type = 0;
+        for( byte i=1; i < TYPES.length; i++ )
+            if( TYPES[i].isInstance(data) ) type = i;
+        if( type == 0 ) {
+            logger.error("The spill queue doesn't know how to store %s, dropping %d elements", data.getClass().getSimpleName(), data.length);
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(type);
+        try (Writer writer = new OutputStreamWriter(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)), StandardCharsets.UTF_8)) {
+            gson.toJson(data, writer);
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object[] decode( byte[] payload ) {
+        Class<?> type = (payload.length > 0 && payload[0] > 0 && payload[0] < TYPES.length ? TYPES[payload[0]] : null);
+        if( type == null ) return null;
+        try (Reader reader = new InputStreamReader(new InflaterInputStream(new ByteArrayInputStream(payload, 1, payload.length-1)), StandardCharsets.UTF_8)) {
+            return (Object[]) gson.fromJson(reader, type);
+        } catch (IOException | RuntimeException exception) {
+            logger.error("Could not read a spilled record, dropping it: %s", exception.toString());
+            return null;
+        }
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+        while( buffer.hasRemaining() )
+            position += channel.write(buffer, position);
+    }
+
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+        while( buffer.hasRemaining() ) {
+            int read = channel.read(buffer, position);
+            if( read < 0 ) throw new IOException("Unexpected end of spill segment at byte "+ position);
+            position += read;
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            for( Segment segment : segments.values() ) {
+                try {
+                    segment.channel.force(false);
+                } catch (IOException ignored) { }
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Spill queue closed, %s", getStatus());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return unread == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) unread;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getFillLevel() {
+        lock.lock();
+        try {
+            return (double) diskBytes / maxBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        lock.lock();
+        try {
+            return String.format("%d records waiting, %d segments, %d KB on disk, %.1f%% full, %d records written with %d fsyncs, fetchers blocked %d times",
+                    unread, segments.size(), diskBytes/1024, getFillLevel()*100, countRecords, countSyncs, countBlockedAdds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class Segment {
+        public long id;
+        public File logFile, ackFile;
+        public FileChannel channel, ackChannel;
+        public long size = 0;
+        public int records = 0, acked = 0;
+        public boolean sealed = false, deleted = false;
+        public Set<Long> ackedOnReplay;
+
+        public Segment( long id ) {
+            this.id = id;
+            this.logFile = new File(directory, String.format("%020d%s", id, LOG_SUFFIX));
+            this.ackFile = new File(directory, String.format("%020d%s", id, ACK_SUFFIX));
+        }
+
+        public void close() {
+            try {
+                channel.close();
+                if( ackChannel != null ) ackChannel.close();
+            } catch (IOException ignored) { }
+        }
+    }
+
+    private static class RawRecord {
+        public Segment segment;
+        public long recordId;
+        public byte[] payload;
+
+        public RawRecord( Segment segment, long recordId, byte[] payload ) {
+            this.segment = segment;
+            this.recordId = recordId;
+            this.payload = payload;
+        }
+    }
+
+    private class SpillReader implements IPollingDataQueue {
+        private final List<RawRecord> uncommitted = new ArrayList<>();
+
+        @Override
+        public Object[] poll( long timeout, TimeUnit unit ) throws InterruptedException {
+            while( true ) {
+                RawRecord record;
+                try {
+                    record = read(unit.toNanos(timeout));
+                } catch (IOException ioException) {
+                    throw new UncheckedIOException("Could not read from the spill queue", ioException);
+                }
+                if( record == null ) return null;
+                uncommitted.add(record);
+                Object[] data = decode(record.payload);
+                if( data != null ) return data;
+            }
+        }
+
+        @Override
+        public void commit() {
+            SpillDataQueue.this.commit(uncommitted);
+            uncommitted.clear();
+        }
+
+        @Override
+        public boolean isDurable() { return true; }
+
+        @Override
+        public void add( Object[] data ) { SpillDataQueue.this.add(data); }
+
+        @Override
+        public void requeue( Object[] data ) { SpillDataQueue.this.requeue(data); }
+
+        @Override
+        public boolean isEmpty() { return SpillDataQueue.this.isEmpty(); }
+
+        @Override
+        public int size() { return SpillDataQueue.this.size(); }
+
+        @Override
+        public double getFillLevel() { return SpillDataQueue.this.getFillLevel(); }
+
+        @Override
+        public String getStatus() { return SpillDataQueue.this.getStatus(); }
+    }
+}
@@ -0,0 +1,50 @@
+package com.cisco.josouthe.queue;
+
+import com.cisco.josouthe.data.analytic.Result;
+import com.cisco.josouthe.data.event.EventData;
+import com.cisco.josouthe.data.metric.BaselineData;
+import com.cisco.josouthe.data.metric.MetricData;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Which database writer owns a piece of data, decided by the table it is going to, so every row for a table is written by the same thread
+in the order it was queued, on that thread's warm connection
+ */
+public class TableAffinity {
+
+    public static String getTargetTable( Object object ) {
+        if( object instanceof MetricData ) return ((MetricData) object).targetTable;
+        if( object instanceof BaselineData ) return ((BaselineData) object).targetTable;
+        if( object instanceof EventData ) return ((EventData) object).targetTable;
+        if( object instanceof Result ) return ((Result) object).targetTable;
+        return null;
+    }
+
+    public static int getShard( Object object, int numberOfShards ) {
+        String targetTable = getTargetTable(object);
+        if( targetTable == null || numberOfShards < 2 ) return 0;
+        return Math.floorMod(targetTable.toLowerCase().hashCode(), numberOfShards);
+    }
+
+    //one typed array per shard, the usual case of a whole array going to one table hands back the array itself
+    public static Map<Integer,Object[]> split( Object[] data, int numberOfShards ) {
+        Map<Integer,List<Object>> byShard = new LinkedHashMap<>();
+        for( Object object : data ) {
+            if( object == null ) continue;
+            byShard.computeIfAbsent(getShard(object, numberOfShards), k -> new ArrayList<>()).add(object);
+        }
+        Map<Integer,Object[]> split = new LinkedHashMap<>();
+        if( byShard.size() == 1 && byShard.values().iterator().next().size() == data.length ) {
+            split.put(byShard.keySet().iterator().next(), data);
+            return split;
+        }
+        for( Map.Entry<Integer,List<Object>> entry : byShard.entrySet() )
+            split.put(entry.getKey(), entry.getValue().toArray((Object[]) Array.newInstance(data.getClass().getComponentType(), entry.getValue().size())));
+        return split;
+    }
+}
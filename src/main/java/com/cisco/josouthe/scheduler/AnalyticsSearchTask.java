@@ -1,20 +1,20 @@
 package com.cisco.josouthe.scheduler;
 
 import com.cisco.josouthe.data.Analytics;
+import com.cisco.josouthe.queue.IDataQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 
 public class AnalyticsSearchTask implements Runnable {
     private static final Logger logger = LogManager.getFormatterLogger();
 
     private Analytics analytics;
-    private LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue;
+    private IDataQueue dataToInsertLinkedBlockingQueue;
     private CountDownLatch countDownLatch;
 
-    public AnalyticsSearchTask(Analytics analytic, LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue, CountDownLatch fetchDataLatch) {
+    public AnalyticsSearchTask(Analytics analytic, IDataQueue dataToInsertLinkedBlockingQueue, CountDownLatch fetchDataLatch) {
         this.analytics=analytic;
         this.dataToInsertLinkedBlockingQueue=dataToInsertLinkedBlockingQueue;
         this.countDownLatch=fetchDataLatch;
@@ -33,7 +33,10 @@ public class AnalyticsSearchTask implements Runnable {
      */
     @Override
     public void run() {
-        this.analytics.getAllSearches(dataToInsertLinkedBlockingQueue);
-        this.countDownLatch.countDown();
+        try {
+            this.analytics.getAllSearches(dataToInsertLinkedBlockingQueue);
+        } finally {
+            if( this.countDownLatch != null ) this.countDownLatch.countDown();
+        }
     }
 }
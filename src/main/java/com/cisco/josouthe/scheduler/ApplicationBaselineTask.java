@@ -0,0 +1,49 @@
+package com.cisco.josouthe.scheduler;
+
+import com.cisco.josouthe.data.Application;
+import com.cisco.josouthe.queue.IDataQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CountDownLatch;
+
+public class ApplicationBaselineTask implements Runnable{
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private Application application;
+    private IDataQueue dataQueue;
+    private CountDownLatch countDownLatch;
+
+    public ApplicationBaselineTask(Application application, IDataQueue dataQueue, CountDownLatch fetchDataLatch) {
+        this.application=application;
+        this.dataQueue=dataQueue;
+        this.countDownLatch=fetchDataLatch;
+    }
+
+    /**
+     * When an object implementing interface {@code Runnable} is used
+     * to create a thread, starting the thread causes the object's
+     * {@code run} method to be called in that separately executing
+     * thread.
+     * <p>
+     * The general contract of the method {@code run} is that it may
+     * take any action whatsoever.
+     *
+     * @see Thread#run()
+     */
+    @Override
+    public void run() {
+        try {
+            try {
+                this.application.awaitMetricsFetched(); //the baselines are for the metrics the metric task finds
+            } catch (InterruptedException interruptedException) {
+                logger.debug("Interrupted waiting for the first metric fetch of %s, skipping baselines", this.application.getName());
+                Thread.currentThread().interrupt();
+                return;
+            }
+            this.application.getAllBaselineData(dataQueue);
+        } finally {
+            if( this.countDownLatch != null ) this.countDownLatch.countDown();
+        }
+    }
+}
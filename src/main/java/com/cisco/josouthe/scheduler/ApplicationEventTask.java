@@ -1,20 +1,20 @@
 package com.cisco.josouthe.scheduler;
 
 import com.cisco.josouthe.data.Application;
+import com.cisco.josouthe.queue.IDataQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 
 public class ApplicationEventTask implements Runnable{
     private static final Logger logger = LogManager.getFormatterLogger();
 
     private Application application;
-    private LinkedBlockingQueue<Object[]> dataQueue;
+    private IDataQueue dataQueue;
     private CountDownLatch countDownLatch;
 
-    public ApplicationEventTask(Application application, LinkedBlockingQueue<Object[]> dataQueue, CountDownLatch fetchDataLatch) {
+    public ApplicationEventTask(Application application, IDataQueue dataQueue, CountDownLatch fetchDataLatch) {
         this.application=application;
         this.dataQueue=dataQueue;
         this.countDownLatch=fetchDataLatch;
@@ -33,7 +33,10 @@ public class ApplicationEventTask implements Runnable{
      */
     @Override
     public void run() {
-        this.application.getAllEvents(dataQueue);
-        this.countDownLatch.countDown();
+        try {
+            this.application.getAllEvents(dataQueue);
+        } finally {
+            if( this.countDownLatch != null ) this.countDownLatch.countDown();
+        }
     }
 }
@@ -1,20 +1,20 @@
 package com.cisco.josouthe.scheduler;
 
 import com.cisco.josouthe.data.Application;
+import com.cisco.josouthe.queue.IDataQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 
 public class ApplicationMetricTask implements Runnable{
     private static final Logger logger = LogManager.getFormatterLogger();
 
     private Application application;
-    private LinkedBlockingQueue<Object[]> dataQueue;
+    private IDataQueue dataQueue;
     private CountDownLatch countDownLatch;
 
-    public ApplicationMetricTask(Application application, LinkedBlockingQueue<Object[]> dataQueue, CountDownLatch fetchDataLatch) {
+    public ApplicationMetricTask(Application application, IDataQueue dataQueue, CountDownLatch fetchDataLatch) {
         this.application=application;
         this.dataQueue=dataQueue;
         this.countDownLatch=fetchDataLatch;
@@ -33,12 +33,11 @@ public class ApplicationMetricTask implements Runnable{
      */
     @Override
     public void run() {
-        while( ! this.application.isFinishedInitialization() ) {
-            try {
-                Thread.sleep(10000);
-            } catch (InterruptedException ignored) { }
+        try {
+            //no waiting for discovery, while it runs the metrics are fetched as it publishes them
+            this.application.getAllMetrics(dataQueue);
+        } finally {
+            if( this.countDownLatch != null ) this.countDownLatch.countDown();
         }
-        this.application.getAllMetrics(dataQueue);
-        this.countDownLatch.countDown();
     }
 }
@@ -0,0 +1,93 @@
+package com.cisco.josouthe.scheduler;
+
+import com.cisco.josouthe.queue.DataSizeEstimator;
+import com.cisco.josouthe.queue.TableAffinity;
+import com.cisco.josouthe.util.Utility;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+The fetch side queues one tiny array per metric name and per baseline, this collects them per data type and target table
+until there are enough rows to be worth a round trip, or the oldest one has waited long enough, then hands back one typed array per group
+getBytes() and getRows() are the estimated size of everything held, so the caller can keep it counted against the queue budget until written
+Not thread safe, each DatabaseInsertTask keeps its own
+ */
+public class CoalescingBuffer {
+    private final long maxRows, maxAgeMS;
+    private final Map<String,Group> groups = new LinkedHashMap<>();
+    private long bytes = 0, rows = 0;
+
+    public CoalescingBuffer( long maxRows, long maxAgeMS ) {
+        this.maxRows = maxRows;
+        this.maxAgeMS = maxAgeMS;
+    }
+
+    public void add( Object[] data ) {
+        if( data == null ) return;
+        for( Object object : data ) {
+            if( object == null ) continue;
+            String key = object.getClass().getName() +"|"+ TableAffinity.getTargetTable(object);
+            Group group = groups.get(key);
+            if( group == null ) {
+                group = new Group(object.getClass());
+                groups.put(key, group);
+            }
+            Object[] element = new Object[]{ object };
+            long elementBytes = DataSizeEstimator.estimateBytes(element), elementRows = DataSizeEstimator.estimateRows(element);
+            group.objects.add(object);
+            group.bytes += elementBytes;
+            group.rows += elementRows;
+            bytes += elementBytes;
+            rows += elementRows;
+        }
+    }
+
+    public boolean isEmpty() { return groups.isEmpty(); }
+
+    public long getBytes() { return bytes; }
+    public long getRows() { return rows; }
+
+    //groups that are over the row threshold or too old, or every group when flushAll is set, removed from the buffer
+    public List<Object[]> takeReady( boolean flushAll ) {
+        List<Object[]> ready = new ArrayList<>();
+        long now = Utility.now();
+        Iterator<Group> iterator = groups.values().iterator();
+        while( iterator.hasNext() ) {
+            Group group = iterator.next();
+            if( flushAll || group.rows >= maxRows || now - group.firstAddedTime >= maxAgeMS ) {
+                ready.add(group.toTypedArray());
+                bytes -= group.bytes;
+                rows -= group.rows;
+                iterator.remove();
+            }
+        }
+        return ready;
+    }
+
+    //how long until the oldest group is due, so the caller doesn't wait on the queue past it
+    public long getMillisUntilNextFlush() {
+        long oldest = Long.MAX_VALUE;
+        for( Group group : groups.values() )
+            oldest = Math.min(oldest, group.firstAddedTime);
+        if( oldest == Long.MAX_VALUE ) return maxAgeMS;
+        return Math.max(0, oldest + maxAgeMS - Utility.now());
+    }
+
+    private static class Group {
+        public Class<?> type;
+        public List<Object> objects = new ArrayList<>();
+        public long bytes = 0, rows = 0;
+        public long firstAddedTime = Utility.now();
+
+        public Group( Class<?> type ) { this.type=type; }
+
+        public Object[] toTypedArray() {
+            return objects.toArray((Object[]) Array.newInstance(type, objects.size()));
+        }
+    }
+}
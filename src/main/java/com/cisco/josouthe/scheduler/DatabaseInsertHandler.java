@@ -0,0 +1,56 @@
+package com.cisco.josouthe.scheduler;
+
+import com.cisco.josouthe.database.Database;
+import com.cisco.josouthe.exceptions.FailedDataLoadException;
+import com.cisco.josouthe.http.Watchdog;
+import com.cisco.josouthe.queue.IDataConsumer;
+import com.cisco.josouthe.queue.IDataQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+The DatabaseInsertTask work for transports that run their own consumer threads, there is no poll loop here, data is handed to us
+When the transport is sharded by table each consumer thread keeps a warm connection while it has work, see Database.holdWarmConnection()
+ */
+public class DatabaseInsertHandler implements IDataConsumer {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private Database database;
+    private IDataQueue dataQueue;
+    private boolean warmConnection;
+    private InsertRetryScheduler retryScheduler;
+
+    public DatabaseInsertHandler( Database database, IDataQueue dataQueue, boolean warmConnection, InsertRetryScheduler retryScheduler ) {
+        this.database=database;
+        this.dataQueue=dataQueue;
+        this.warmConnection=warmConnection;
+        this.retryScheduler=retryScheduler;
+    }
+
+    @Override
+    public void consume( Object[] data ) {
+        if( data == null || data.length == 0 ) return;
+        logger.debug("Ring buffer handed us %d data elements to insert into the database", data.length);
+        Watchdog.Operation watchdog = Watchdog.watch("Database Insert", Thread.currentThread().getName(), logger);
+        if( warmConnection ) this.database.holdWarmConnection();
+        try {
+            this.database.importData(data);
+        } catch (FailedDataLoadException e) {
+            if( warmConnection ) this.database.releaseWarmConnection();
+            if( retryScheduler != null ) {
+                logger.warn("Failed to load data into the database, will retry it later, message: %s", e);
+                retryScheduler.retry(e.getData(), e.getMessage());
+            } else {
+                logger.warn("Failed to load data into the database, will add it back to the queue for processing, message: %s", e);
+                dataQueue.requeue(e.getData());
+            }
+        } finally {
+            watchdog.cancel();
+        }
+    }
+
+    @Override
+    public void onIdle() {
+        if( warmConnection ) this.database.releaseWarmConnection();
+    }
+}
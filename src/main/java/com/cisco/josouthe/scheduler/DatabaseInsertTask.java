@@ -3,24 +3,37 @@ package com.cisco.josouthe.scheduler;
 import com.cisco.josouthe.config.Configuration;
 import com.cisco.josouthe.database.Database;
 import com.cisco.josouthe.exceptions.FailedDataLoadException;
-import com.cisco.josouthe.http.WorkingStatusThread;
+import com.cisco.josouthe.http.Watchdog;
+import com.cisco.josouthe.queue.IPollingDataQueue;
+import com.cisco.josouthe.util.Utility;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatabaseInsertTask implements Runnable{
     private static final Logger logger = LogManager.getFormatterLogger();
 
     private Configuration configuration;
     private Database database;
-    private LinkedBlockingQueue<Object[]> dataQueue;
+    private IPollingDataQueue dataQueue;
+    private boolean warmConnection;
+    private InsertRetryScheduler retryScheduler;
+    private final AtomicInteger pendingRetries = new AtomicInteger();
 
-    public DatabaseInsertTask( Configuration configuration, Database database, LinkedBlockingQueue<Object[]> dataQueue ) {
+    public DatabaseInsertTask( Configuration configuration, Database database, IPollingDataQueue dataQueue ) {
+        this( configuration, database, dataQueue, false, null);
+    }
+
+    //warmConnection is for table affine writers, the tables this task owns are written on one connection it keeps while there is work
+    //failed inserts go to the retryScheduler, or straight back on the queue without one
+    public DatabaseInsertTask( Configuration configuration, Database database, IPollingDataQueue dataQueue, boolean warmConnection, InsertRetryScheduler retryScheduler ) {
         this.configuration=configuration;
         this.database=database;
         this.dataQueue=dataQueue;
+        this.warmConnection=warmConnection;
+        this.retryScheduler=retryScheduler;
     }
     /**
      * When an object implementing interface {@code Runnable} is used
@@ -35,25 +48,57 @@ public class DatabaseInsertTask implements Runnable{
      */
     @Override
     public void run() {
-        while( configuration.isRunning() || !dataQueue.isEmpty() ) {
-            WorkingStatusThread workingStatusThread = null;
+        long maxAgeMS = configuration.getProperty("scheduler-InsertBatchMaxAgeSeconds", 10L) * 1000;
+        CoalescingBuffer coalescingBuffer = new CoalescingBuffer( configuration.getProperty("scheduler-InsertBatchRows", 10000L), maxAgeMS );
+        long lastCommitTime = Utility.now();
+        if( warmConnection ) this.database.holdWarmConnection();
+        while( configuration.isRunning() || !dataQueue.isEmpty() || !coalescingBuffer.isEmpty() ) {
             try {
-                Object[] data = dataQueue.poll(5000, TimeUnit.MILLISECONDS);
+                long waitMS = (coalescingBuffer.isEmpty() ? 5000 : Math.min(5000, coalescingBuffer.getMillisUntilNextFlush()));
+                Object[] data = dataQueue.poll(waitMS, TimeUnit.MILLISECONDS);
                 if( data != null && data.length > 0 ) {
-                    logger.debug("Poll returned %d data elements to insert into the database", (data == null ? 0 : data.length));
-                    workingStatusThread = new WorkingStatusThread("Database Insert", Thread.currentThread().getName(), logger);
-                    workingStatusThread.start();
-                    this.database.importData(data);
+                    logger.debug("Poll returned %d data elements to insert into the database", data.length);
+                    long heldBytes = coalescingBuffer.getBytes(), heldRows = coalescingBuffer.getRows();
+                    coalescingBuffer.add(data);
+                    dataQueue.hold(coalescingBuffer.getBytes() - heldBytes, coalescingBuffer.getRows() - heldRows); //still counts against the queue budget until written
+                }
+                //when the queue has gone quiet there is nothing left to wait for, so write whatever we are holding
+                //a durable queue keeps everything we took until we commit, so with one of those don't hold data back for longer than a batch can age
+                boolean flushAll = data == null || dataQueue.isDurable() && Utility.now() - lastCommitTime >= maxAgeMS;
+                long heldBytes = coalescingBuffer.getBytes(), heldRows = coalescingBuffer.getRows();
+                for( Object[] batch : coalescingBuffer.takeReady(flushAll) )
+                    insert(batch);
+                dataQueue.release(heldBytes - coalescingBuffer.getBytes(), heldRows - coalescingBuffer.getRows());
+                if( coalescingBuffer.isEmpty() ) {
+                    //a durable queue forgets what it acknowledges, so nothing is committed while data we read from it is still waiting to retry
+                    if( pendingRetries.get() == 0 ) dataQueue.commit();
+                    lastCommitTime = Utility.now();
                 }
+                if( data == null && warmConnection ) this.database.releaseWarmConnection(); //don't sit on a pooled connection while idle
             } catch (InterruptedException ignored) {
                 //ignore it
-            } catch (FailedDataLoadException e) {
-                logger.warn("Failed to load data into the database, will add it back to the queue for processing, message: %s", e);
-                dataQueue.add(e.getData());
-            } finally {
-                if( workingStatusThread != null ) workingStatusThread.cancel();
             }
         }
+        if( warmConnection ) this.database.releaseWarmConnection();
         logger.debug("Shutting down database Insert Task");
     }
+
+    private void insert( Object[] data ) {
+        Watchdog.Operation watchdog = Watchdog.watch("Database Insert", Thread.currentThread().getName(), logger);
+        try {
+            logger.debug("Inserting %d coalesced data elements into the database", data.length);
+            this.database.importData(data);
+        } catch (FailedDataLoadException e) {
+            if( warmConnection ) this.database.releaseWarmConnection();
+            if( retryScheduler != null ) {
+                logger.warn("Failed to load data into the database, will retry it later, message: %s", e);
+                retryScheduler.retry(e.getData(), e.getMessage(), (dataQueue.isDurable() ? pendingRetries : null));
+            } else {
+                logger.warn("Failed to load data into the database, will add it back to the queue for processing, message: %s", e);
+                dataQueue.requeue(e.getData());
+            }
+        } finally {
+            watchdog.cancel();
+        }
+    }
 }
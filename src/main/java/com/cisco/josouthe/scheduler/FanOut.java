@@ -0,0 +1,109 @@
+package com.cisco.josouthe.scheduler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/*
+Runs fetch tasks with at most maxInFlight running at once, each task queues its own data and returns true, or false if it couldn't get it
+Tasks that fail, or throw, are run again after all the others, so one bad slice is retried on its own without holding up the rest
+crawl() walks a tree where listing the children of a node is a request, the same way, a node is listed as soon as there is room for it,
+so the walk goes as wide as maxInFlight allows instead of one request after another down each branch
+ */
+public class FanOut {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    //virtual threads if asked for and the jvm has them, otherwise a cached pool, the callers bound how many run at once
+    public static ExecutorService newExecutor( String prefix, boolean virtualThreads ) {
+        ExecutorService executorService = null;
+        if( virtualThreads ) executorService = VirtualThreadSupport.newVirtualThreadPerTaskExecutor(prefix);
+        if( executorService == null ) executorService = Executors.newCachedThreadPool(new NamedThreadFactory(prefix));
+        return executorService;
+    }
+
+    public static boolean[] runAll( ExecutorService executorService, int maxInFlight, List<Callable<Boolean>> tasks, int retries ) throws InterruptedException {
+        boolean[] succeeded = new boolean[tasks.size()];
+        List<Integer> toRun = new ArrayList<>();
+        for( int i = 0; i < tasks.size(); i++ ) toRun.add(i);
+        for( int attempt = 0; attempt <= retries && !toRun.isEmpty(); attempt++ ) {
+            if( attempt > 0 ) logger.info("Retrying %d of %d fetches that failed", toRun.size(), tasks.size());
+            toRun = run(executorService, Math.max(1, maxInFlight), tasks, toRun, succeeded);
+        }
+        return succeeded;
+    }
+
+    /*
+    list runs on the executor, visit only ever runs on the calling thread, so it can add to what it collects without locking,
+    it gets each node with what listing it returned and gives back the nodes under it that need listing too
+    a node that throws is logged and its branch is left out, returns the number of nodes listed
+     */
+    public static <T,R> int crawl( ExecutorService executorService, int maxInFlight, List<T> roots, Function<T,R> list, BiFunction<T,R,List<T>> visit ) throws InterruptedException {
+        CompletionService<R> completionService = new ExecutorCompletionService<>(executorService);
+        Map<Future<R>,T> inFlight = new HashMap<>();
+        Deque<T> toList = new ArrayDeque<>(roots);
+        int listed = 0;
+        maxInFlight = Math.max(1, maxInFlight);
+        try {
+            while( !toList.isEmpty() || !inFlight.isEmpty() ) {
+                while( !toList.isEmpty() && inFlight.size() < maxInFlight ) {
+                    T node = toList.poll();
+                    inFlight.put(completionService.submit(() -> list.apply(node)), node);
+                }
+                Future<R> future = completionService.take();
+                T node = inFlight.remove(future);
+                listed++;
+                try {
+                    List<T> children = visit.apply(node, future.get());
+                    if( children != null ) toList.addAll(children);
+                } catch (ExecutionException executionException) {
+                    logger.warn("Exception listing %s, skipping everything under it, Exception: %s", node, executionException.getCause().toString());
+                }
+            }
+        } finally {
+            for( Future<R> future : inFlight.keySet() ) future.cancel(true);
+        }
+        return listed;
+    }
+
+    //returns the indexes that failed
+    private static List<Integer> run( ExecutorService executorService, int maxInFlight, List<Callable<Boolean>> tasks, List<Integer> toRun, boolean[] succeeded ) throws InterruptedException {
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executorService);
+        Map<Future<Boolean>,Integer> inFlight = new HashMap<>();
+        List<Integer> failed = new ArrayList<>();
+        int submitted = 0;
+        try {
+            while( submitted < toRun.size() || !inFlight.isEmpty() ) {
+                while( submitted < toRun.size() && inFlight.size() < maxInFlight ) {
+                    int index = toRun.get(submitted++);
+                    inFlight.put(completionService.submit(tasks.get(index)), index);
+                }
+                Future<Boolean> future = completionService.take();
+                int index = inFlight.remove(future);
+                try {
+                    succeeded[index] = Boolean.TRUE.equals(future.get());
+                } catch (ExecutionException executionException) {
+                    logger.warn("Exception in fetch, it will be retried, Exception: %s", executionException.getCause().toString());
+                }
+                if( !succeeded[index] ) failed.add(index);
+            }
+        } finally {
+            for( Future<Boolean> future : inFlight.keySet() ) future.cancel(true);
+        }
+        return failed;
+    }
+}
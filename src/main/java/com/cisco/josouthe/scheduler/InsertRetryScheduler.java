@@ -0,0 +1,271 @@
+package com.cisco.josouthe.scheduler;
+
+import com.cisco.josouthe.database.Database;
+import com.cisco.josouthe.exceptions.FailedDataLoadException;
+import com.cisco.josouthe.queue.DataSizeEstimator;
+import com.cisco.josouthe.queue.DeadLetterStore;
+import com.cisco.josouthe.util.Utility;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Failed inserts wait here instead of going straight back on the data queue, where a batch the database will never take, a value too long
+for its column or a constraint violation, was retried as fast as the insert threads could pick it up, starving everything else
+Each failure waits twice as long as the one before, with jitter so a burst of failures doesn't come back all at once, and an array that
+fails again is split in two, so one bad row ends up on its own instead of holding back everything it was batched with
+After MaxAttempts the data goes to the DeadLetterStore with the last error, "ETLControl replay" loads it again once the problem is fixed
+While the database is unreachable a failure doesn't count as an attempt, an outage is not the data's fault
+What waits here is bounded by bytes and rows like the data queue, when it is full retry() blocks the insert thread, so during an outage
+the insert threads stop taking data off the queue and the fetch side backs up behind it instead of everything moving into this heap
+Data read from a durable queue keeps a count of its pending retries, its reader doesn't commit until they are in the database or dead lettered
+so the log still has them if this process dies while they wait
+ */
+public class InsertRetryScheduler implements Runnable {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final Database database;
+    private final DeadLetterStore deadLetterStore;
+    private final int maxAttempts;
+    private final long baseDelayMS, maxDelayMS;
+    private final long maxBytes, maxRows;
+    private final DelayQueue<RetryItem> delayQueue = new DelayQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private long currentBytes = 0, currentRows = 0;
+    private final AtomicLong countScheduled = new AtomicLong(), countSucceeded = new AtomicLong(), countDeadLettered = new AtomicLong();
+    private volatile boolean running = true;
+
+    public InsertRetryScheduler( Database database, DeadLetterStore deadLetterStore, int maxAttempts, long baseDelayMS, long maxDelayMS, long maxBytes, long maxRows ) {
+        this.database = database;
+        this.deadLetterStore = deadLetterStore;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMS = Math.max(1, baseDelayMS);
+        this.maxDelayMS = Math.max(this.baseDelayMS, maxDelayMS);
+        this.maxBytes = (maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+        this.maxRows = (maxRows > 0 ? maxRows : Long.MAX_VALUE);
+    }
+
+    //first failure of this data, called by the insert threads instead of requeueing it
+    public void retry( Object[] data, String error ) {
+        retry(data, error, null);
+    }
+
+    //pendingRetries is counted up until this data and everything split from it is in the database or dead lettered, null when nobody is waiting on it
+    public void retry( Object[] data, String error, AtomicInteger pendingRetries ) {
+        if( data == null || data.length == 0 ) return;
+        RetryItem item = new RetryItem(data, 1, error, pendingRetries);
+        reserve(item);
+        if( !running ) {
+            shutDown(item);
+            return;
+        }
+        schedule(item);
+    }
+
+    //blocks the insert thread while the retries are over budget, something that is bigger than the whole budget still goes in on its own
+    private void reserve( RetryItem item ) {
+        lock.lock();
+        try {
+            boolean blocked = false;
+            while( running && currentBytes > 0 && (currentBytes + item.bytes > maxBytes || currentRows + item.rows > maxRows) ) {
+                if( !blocked ) {
+                    blocked = true;
+                    logger.debug("Insert retries are full, %s, waiting before taking more data off the queue", getStatus());
+                }
+                try {
+                    notFull.await(1000, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            currentBytes += item.bytes;
+            currentRows += item.rows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //the same data, or part of it, tried again later, it takes over the budget and pending count of the item it came from without blocking
+    private RetryItem next( RetryItem item, Object[] data, int attempts, String error ) {
+        RetryItem next = new RetryItem(data, attempts, error, item.pendingRetries);
+        lock.lock();
+        try {
+            currentBytes += next.bytes;
+            currentRows += next.rows;
+        } finally {
+            lock.unlock();
+        }
+        return next;
+    }
+
+    private void release( RetryItem item ) {
+        lock.lock();
+        try {
+            currentBytes -= item.bytes;
+            currentRows -= item.rows;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //the item is in the database or in the dead letters
+    private void finish( RetryItem item ) {
+        release(item);
+        if( item.pendingRetries != null ) item.pendingRetries.decrementAndGet();
+    }
+
+    long getRetryDelay( int attempts ) {
+        long delay = Math.min(maxDelayMS, baseDelayMS << Math.min(30, attempts-1));
+        return delay/2 + ThreadLocalRandom.current().nextLong(delay/2 + 1);
+    }
+
+    private void schedule( RetryItem item ) {
+        if( item.attempts >= maxAttempts ) {
+            deadLetter(item);
+            finish(item);
+            return;
+        }
+        long delay = getRetryDelay(item.attempts);
+        item.dueTime = Utility.now() + delay;
+        countScheduled.incrementAndGet();
+        delayQueue.add(item);
+        logger.debug("Retrying %d %s elements in %d(ms), attempt %d of %d, last error: %s", item.data.length, item.data.getClass().getComponentType().getSimpleName(), delay, item.attempts+1, maxAttempts, item.error);
+    }
+
+    private void deadLetter( RetryItem item ) {
+        countDeadLettered.addAndGet(item.data.length);
+        logger.warn("Giving up on %d %s elements after %d attempts, writing them to %s, last error: %s", item.data.length, item.data.getClass().getComponentType().getSimpleName(), item.attempts, deadLetterStore.getFile().getAbsolutePath(), item.error);
+        deadLetterStore.write(item.data, item.attempts, item.error);
+        database.deadLettered(item.data); //it is kept on disk, so it doesn't hold back the last run time any longer
+    }
+
+    @Override
+    public void run() {
+        while( running ) {
+            RetryItem item;
+            try {
+                item = delayQueue.poll(1000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+                continue;
+            }
+            if( item == null ) continue;
+            try {
+                database.importData(item.data);
+                countSucceeded.addAndGet(item.data.length);
+                logger.info("Retry of %d %s elements succeeded on attempt %d", item.data.length, item.data.getClass().getComponentType().getSimpleName(), item.attempts+1);
+            } catch (FailedDataLoadException failedDataLoadException) {
+                failed(item, failedDataLoadException);
+            } catch (RuntimeException runtimeException) {
+                logger.warn("Unexpected exception retrying an insert: %s", runtimeException.toString(), runtimeException);
+                schedule(next(item, item.data, item.attempts+1, runtimeException.toString()));
+            }
+            finish(item); //anything still to retry was handed to a new item first, so a pending count can't reach 0 in between
+        }
+        List<RetryItem> waiting = new ArrayList<>(); //anything the last retry scheduled again after shutdown() emptied the queue
+        delayQueue.drainTo(waiting);
+        for( RetryItem item : waiting )
+            shutDown(item);
+        logger.debug("Shutting down insert retry scheduler");
+    }
+
+    private void failed( RetryItem item, FailedDataLoadException failedDataLoadException ) {
+        Object[] failedData = (failedDataLoadException.getData() != null ? failedDataLoadException.getData() : item.data); //only the tables that failed, the rest went in
+        String error = failedDataLoadException.getMessage();
+        if( !database.isDatabaseAvailable() ) {
+            logger.info("Database is not available, the retry of %d elements doesn't count as an attempt", failedData.length);
+            schedule(next(item, failedData, item.attempts, error));
+            return;
+        }
+        if( failedData.length > 1 && item.attempts+1 < maxAttempts ) {
+            int half = failedData.length / 2;
+            RetryItem first = next(item, Arrays.copyOfRange(failedData, 0, half), item.attempts+1, error);
+            RetryItem second = next(item, Arrays.copyOfRange(failedData, half, failedData.length), item.attempts+1, error);
+            schedule(first);
+            schedule(second);
+            return;
+        }
+        schedule(next(item, failedData, item.attempts+1, error));
+    }
+
+    //anything still waiting is written to the dead letters, so "ETLControl replay" can load it after the restart
+    public void shutdown() {
+        running = false;
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        List<RetryItem> waiting = new ArrayList<>(delayQueue);
+        delayQueue.clear();
+        for( RetryItem item : waiting )
+            shutDown(item);
+    }
+
+    //data from a durable queue was never committed there, it is read again on the next start, so it isn't dead lettered as well
+    private void shutDown( RetryItem item ) {
+        if( item.pendingRetries != null ) {
+            logger.info("Shut down while waiting to retry %d elements, they are still in the spill log and load again on the next start", item.data.length);
+            release(item);
+            return;
+        }
+        item.error = "Shut down while waiting to retry, last error: "+ item.error;
+        deadLetter(item);
+        finish(item);
+    }
+
+    public boolean isEmpty() { return delayQueue.isEmpty(); }
+
+    public String getStatus() {
+        lock.lock();
+        try {
+            return String.format("%d arrays waiting to retry, %d rows, %d KB estimated, %d retries scheduled, %d elements loaded on retry, %d elements dead lettered",
+                    delayQueue.size(), currentRows, currentBytes/1024, countScheduled.get(), countSucceeded.get(), countDeadLettered.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class RetryItem implements Delayed {
+        public Object[] data;
+        public int attempts;
+        public String error;
+        public long dueTime;
+        public long bytes, rows;
+        public AtomicInteger pendingRetries;
+
+        public RetryItem( Object[] data, int attempts, String error, AtomicInteger pendingRetries ) {
+            this.data = data;
+            this.attempts = attempts;
+            this.error = error;
+            this.bytes = DataSizeEstimator.estimateBytes(data);
+            this.rows = DataSizeEstimator.estimateRows(data);
+            this.pendingRetries = pendingRetries;
+            if( pendingRetries != null ) pendingRetries.incrementAndGet();
+        }
+
+        @Override
+        public long getDelay( TimeUnit unit ) {
+            return unit.convert(dueTime - Utility.now(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo( Delayed other ) {
+            return Long.compare(dueTime, ((RetryItem) other).dueTime);
+        }
+    }
+}
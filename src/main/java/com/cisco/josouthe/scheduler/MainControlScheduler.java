@@ -4,24 +4,56 @@ import com.cisco.josouthe.config.Configuration;
 import com.cisco.josouthe.data.Analytics;
 import com.cisco.josouthe.data.Application;
 import com.cisco.josouthe.data.Controller;
+import com.cisco.josouthe.http.AdaptiveConcurrencyLimiter;
+import com.cisco.josouthe.http.HedgedRequestExecutor;
+import com.cisco.josouthe.http.HttpClientFactory;
+import com.cisco.josouthe.http.Watchdog;
+import com.cisco.josouthe.queue.BoundedDataQueue;
+import com.cisco.josouthe.queue.DeadLetterStore;
+import com.cisco.josouthe.queue.DisruptorDataQueue;
+import com.cisco.josouthe.queue.IDataQueue;
+import com.cisco.josouthe.queue.ShardedDataQueue;
+import com.cisco.josouthe.queue.SpillDataQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 
 public class MainControlScheduler {
     private static final Logger logger = LogManager.getFormatterLogger();
     Configuration configuration;
-    private LinkedBlockingQueue<Object[]> dataToInsertLinkedBlockingQueue;
-    private ThreadPoolExecutor executorFetchData;
+    private IDataQueue dataToInsertLinkedBlockingQueue;
+    private InsertRetryScheduler insertRetryScheduler;
+    private ExecutorService executorFetchData;
+    private ExecutorService executorFetchBaselines;
     private ThreadPoolExecutor executorInsertData;
     private ScheduledThreadPoolExecutor executorConfigRefresh;
+    private ScheduledThreadPoolExecutor executorSchedule;
     private CountDownLatch fetchDataLatch;
+    private List<ScheduledFetch> scheduledFetches = new ArrayList<>();
 
     public MainControlScheduler(Configuration configuration ) {
         this.configuration = configuration;
-        dataToInsertLinkedBlockingQueue = new LinkedBlockingQueue<>();
-        executorFetchData = (ThreadPoolExecutor) Executors.newFixedThreadPool( this.configuration.getProperty("scheduler-NumberOfControllerThreads", 50), new NamedThreadFactory("ControllerAPI") );
+        dataToInsertLinkedBlockingQueue = createDataQueue();
+        //the spill queue is on disk once add() returns, so a fetch window is safe as soon as it is queued
+        configuration.getDatabase().getWatermarkTracker().setDurableQueue( dataToInsertLinkedBlockingQueue instanceof SpillDataQueue );
+        insertRetryScheduler = new InsertRetryScheduler( configuration.getDatabase(), new DeadLetterStore(new File(this.configuration.getProperty("scheduler-DeadLetterDirectory", "deadletter"))),
+                this.configuration.getProperty("scheduler-InsertRetryMaxAttempts", 8), this.configuration.getProperty("scheduler-InsertRetryBaseSeconds", 5L)*1000, this.configuration.getProperty("scheduler-InsertRetryMaxSeconds", 600L)*1000,
+                this.configuration.getProperty("scheduler-MaxQueueBytes", 0L), this.configuration.getProperty("scheduler-MaxQueueRows", 0L) ); //failed data waiting to retry is bounded like the queue it came from
+        if( this.configuration.getProperty("scheduler-VirtualThreads", false) )
+            executorFetchData = VirtualThreadSupport.newVirtualThreadPerTaskExecutor("ControllerAPI");
+        if( executorFetchData == null ) {
+            if( this.configuration.getProperty("scheduler-VirtualThreads", false) )
+                logger.warn("Virtual threads were requested but this jvm (%s) doesn't support them, java 21 or newer is needed, falling back to %d platform threads", System.getProperty("java.version"), this.configuration.getProperty("scheduler-NumberOfControllerThreads", 50));
+            executorFetchData = Executors.newFixedThreadPool( this.configuration.getProperty("scheduler-NumberOfControllerThreads", 50), new NamedThreadFactory("ControllerAPI") );
+        } else {
+            logger.info("Controller fetch tasks will run on virtual threads, concurrency is bounded by %d requests per controller", this.configuration.getProperty("scheduler-MaxRequestsPerController", 50));
+        }
+        executorFetchBaselines = Executors.newFixedThreadPool( this.configuration.getProperty("scheduler-NumberOfBaselineThreads", 5), new NamedThreadFactory("BaselineAPI") );
         executorInsertData = (ThreadPoolExecutor) Executors.newFixedThreadPool( this.configuration.getProperty("scheduler-NumberOfDatabaseThreads", 50), new NamedThreadFactory("Database") );
         executorConfigRefresh = (ScheduledThreadPoolExecutor)  Executors.newScheduledThreadPool(this.configuration.getProperty("scheduler-NumberOfControllerThreads", 50), new NamedThreadFactory("ConfigRefresh"));
         for( Controller controller : configuration.getControllerList() ) {
@@ -31,70 +63,194 @@ public class MainControlScheduler {
         }
     }
 
+    private IDataQueue createDataQueue() {
+        if( "Spill".equals(this.configuration.getProperty("scheduler-QueueType", "Blocking")) ) {
+            if( this.configuration.getProperty("scheduler-TableAffineWriters", false) )
+                logger.warn("TableAffineWriters is not supported with the Spill queue, every database thread will write any table");
+            try {
+                return new SpillDataQueue( new File(this.configuration.getProperty("scheduler-SpillDirectory", "spill")), this.configuration.getProperty("scheduler-SpillSegmentBytes", 64L*1024*1024), this.configuration.getProperty("scheduler-SpillMaxBytes", 0L) );
+            } catch (IOException ioException) {
+                logger.error("Could not open the spill queue, falling back to an in memory queue: %s", ioException.toString());
+            }
+        }
+        if( "Disruptor".equals(this.configuration.getProperty("scheduler-QueueType", "Blocking")) )
+            return new DisruptorDataQueue( this.configuration.getProperty("scheduler-RingBufferSize", 1024), this.configuration.getProperty("scheduler-MaxQueueBytes", 0L), this.configuration.getProperty("scheduler-MaxQueueRows", 0L), this.configuration.getProperty("scheduler-NumberOfDatabaseThreads", 50), this.configuration.getProperty("scheduler-TableAffineWriters", false), new NamedThreadFactory("Database") );
+        if( this.configuration.getProperty("scheduler-TableAffineWriters", false) )
+            return new ShardedDataQueue( this.configuration.getProperty("scheduler-MaxQueueBytes", 0L), this.configuration.getProperty("scheduler-MaxQueueRows", 0L), this.configuration.getProperty("scheduler-NumberOfDatabaseThreads", 50) );
+        return new BoundedDataQueue( this.configuration.getProperty("scheduler-MaxQueueBytes", 0L), this.configuration.getProperty("scheduler-MaxQueueRows", 0L) );
+    }
+
     public void run() {
-        for( int i=0; i < this.configuration.getProperty("scheduler-NumberOfDatabaseThreads", 50); i++) {
-            executorInsertData.execute( new DatabaseInsertTask(configuration, configuration.getDatabase(), dataToInsertLinkedBlockingQueue));
+        new NamedThreadFactory("DatabaseRetry").newThread(insertRetryScheduler).start();
+        if( dataToInsertLinkedBlockingQueue instanceof DisruptorDataQueue ) {
+            ((DisruptorDataQueue) dataToInsertLinkedBlockingQueue).start( new DatabaseInsertHandler(configuration.getDatabase(), dataToInsertLinkedBlockingQueue, this.configuration.getProperty("scheduler-TableAffineWriters", false), insertRetryScheduler) );
+        } else if( dataToInsertLinkedBlockingQueue instanceof ShardedDataQueue ) {
+            ShardedDataQueue shardedDataQueue = (ShardedDataQueue) dataToInsertLinkedBlockingQueue;
+            for (int i = 0; i < shardedDataQueue.getNumberOfShards(); i++) {
+                executorInsertData.execute(new DatabaseInsertTask(configuration, configuration.getDatabase(), shardedDataQueue.getShard(i), true, insertRetryScheduler));
+            }
+            logger.info("Started %d Database Insert Tasks, each one writing the tables that hash to its lane", executorInsertData.getPoolSize());
+        } else if( dataToInsertLinkedBlockingQueue instanceof SpillDataQueue ) {
+            for (int i = 0; i < this.configuration.getProperty("scheduler-NumberOfDatabaseThreads", 50); i++) {
+                executorInsertData.execute(new DatabaseInsertTask(configuration, configuration.getDatabase(), ((SpillDataQueue) dataToInsertLinkedBlockingQueue).newReader(), false, insertRetryScheduler));
+            }
+            logger.info("Started %d Database Insert Tasks, all reading from the spill queue", executorInsertData.getPoolSize());
+        } else {
+            for (int i = 0; i < this.configuration.getProperty("scheduler-NumberOfDatabaseThreads", 50); i++) {
+                executorInsertData.execute(new DatabaseInsertTask(configuration, configuration.getDatabase(), (BoundedDataQueue) dataToInsertLinkedBlockingQueue, false, insertRetryScheduler));
+            }
+            logger.info("Started %d Database Insert Tasks, all looking for work", executorInsertData.getPoolSize());
         }
-        logger.info("Started %d Database Insert Tasks, all looking for work", executorInsertData.getPoolSize());
-        while(configuration.isRunning() ) {
-            int numberOfJobs = 0;
-
-            for( Controller controller : configuration.getControllerList() ) {
-                for (Application application : controller.applications) {
-                    numberOfJobs += 2;
-                }
+        if( configuration.getProperty("scheduler-enabled", true) ) {
+            runScheduled();
+        } else {
+            runOnce();
+        }
+    }
+
+    /*
+    every application and analytics account fetches on its own cadence, a slow one skips its own cycles instead of holding everyone else up
+     */
+    private void runScheduled() {
+        long defaultPollIntervalMinutes = configuration.getProperty("scheduler-pollIntervalMinutes", 60L);
+        executorSchedule = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, new NamedThreadFactory("Scheduler"));
+        for( Controller controller : configuration.getControllerList() ) {
+            for (Application application : controller.applications) {
+                long pollIntervalMinutes = (application.getPollIntervalMinutes() > 0 ? application.getPollIntervalMinutes() : defaultPollIntervalMinutes);
+                logger.info("Scheduling collector for %s@%s every %d minutes", application.getName(), controller.hostname, pollIntervalMinutes);
+                schedule( new ScheduledFetch(String.format("Metrics %s@%s", application.getName(), controller.hostname), new ApplicationMetricTask(application, dataToInsertLinkedBlockingQueue, null), executorFetchData, pollIntervalMinutes) );
+                schedule( new ScheduledFetch(String.format("Events %s@%s", application.getName(), controller.hostname), new ApplicationEventTask(application, dataToInsertLinkedBlockingQueue, null), executorFetchData, pollIntervalMinutes) );
+                long baselinePollIntervalMinutes = configuration.getProperty("scheduler-BaselinePollIntervalMinutes", 60L);
+                if( baselinePollIntervalMinutes < 1 ) baselinePollIntervalMinutes = pollIntervalMinutes;
+                schedule( new ScheduledFetch(String.format("Baselines %s@%s", application.getName(), controller.hostname), new ApplicationBaselineTask(application, dataToInsertLinkedBlockingQueue, null), executorFetchBaselines, baselinePollIntervalMinutes) );
             }
-            if( configuration.getAnalyticsList() != null )
-                numberOfJobs += configuration.getAnalyticsList().length;
+        }
+        for(Analytics analytic : configuration.getAnalyticsList() ) {
+            long pollIntervalMinutes = (analytic.getPollIntervalMinutes() > 0 ? analytic.getPollIntervalMinutes() : defaultPollIntervalMinutes);
+            logger.info("Scheduling analytics searches for %s every %d minutes", analytic.APIAccountName, pollIntervalMinutes);
+            schedule( new ScheduledFetch(String.format("Analytics %s", analytic.APIAccountName), new AnalyticsSearchTask(analytic, dataToInsertLinkedBlockingQueue, null), executorFetchData, pollIntervalMinutes) );
+        }
+        logger.info("MainControlScheduler is enabled, %d fetch tasks scheduled, default poll interval is %d minutes", scheduledFetches.size(), defaultPollIntervalMinutes);
+        while( configuration.isRunning() ) {
+            sleep(60000);
+            int inFlight = 0;
+            for( ScheduledFetch scheduledFetch : scheduledFetches )
+                if( scheduledFetch.isInFlight() ) inFlight++;
+            logger.info("%d of %d fetch tasks running, data queue status: %s", inFlight, scheduledFetches.size(), dataToInsertLinkedBlockingQueue.getStatus());
+            logger.info("Insert retries: %s", insertRetryScheduler.getStatus());
+            logger.info("Control table: %s", configuration.getDatabase().getWatermarkTracker().getStatus());
+            List<Watchdog.Operation> operations = Watchdog.getInFlight();
+            logger.info("%d controller, analytics and database operations in flight", operations.size());
+            for( Watchdog.Operation operation : operations ) logger.debug("In flight: %s", operation);
+            for( String limiterStatus : AdaptiveConcurrencyLimiter.getAllStatus() )
+                logger.debug("Concurrency limiter %s", limiterStatus);
+            int pendingConnections = HttpClientFactory.getTotalPending();
+            if( pendingConnections > 0 ) logger.info("%d requests are waiting for a free connection, MaxConnectionsPerRoute may be too low", pendingConnections);
+            for( String poolStatus : HttpClientFactory.getAllPoolStatus() )
+                logger.debug("Connection pool %s", poolStatus);
+            for( String executorStatus : HedgedRequestExecutor.getAllStatus() )
+                logger.debug("Requests %s", executorStatus);
+        }
+        executorSchedule.shutdownNow();
+        executorFetchBaselines.shutdownNow();
+        shutdown();
+    }
 
-            this.fetchDataLatch = new CountDownLatch(numberOfJobs);
+    private void schedule( ScheduledFetch scheduledFetch ) {
+        scheduledFetches.add(scheduledFetch);
+        executorSchedule.scheduleAtFixedRate(scheduledFetch, 0, scheduledFetch.getIntervalMinutes(), TimeUnit.MINUTES);
+    }
 
-            for( Controller controller : configuration.getControllerList() ) {
-                for(Application application : controller.applications ) {
-                    logger.info("Running collector for %s@%s", application.getName(), controller.hostname);
-                    executorFetchData.execute(new ApplicationMetricTask( application, dataToInsertLinkedBlockingQueue, fetchDataLatch));
-                    executorFetchData.execute( new ApplicationEventTask( application, dataToInsertLinkedBlockingQueue, fetchDataLatch));
-                }
+    private void runOnce() {
+        int numberOfJobs = 0;
+
+        for( Controller controller : configuration.getControllerList() ) {
+            for (Application application : controller.applications) {
+                numberOfJobs += 2;
             }
+        }
+        if( configuration.getAnalyticsList() != null )
+            numberOfJobs += configuration.getAnalyticsList().length;
+
+        this.fetchDataLatch = new CountDownLatch(numberOfJobs);
 
-            for(Analytics analytic : configuration.getAnalyticsList() ) {
-                executorFetchData.execute( new AnalyticsSearchTask( analytic, dataToInsertLinkedBlockingQueue, fetchDataLatch) );
+        for( Controller controller : configuration.getControllerList() ) {
+            for(Application application : controller.applications ) {
+                logger.info("Running collector for %s@%s", application.getName(), controller.hostname);
+                executorFetchData.execute(new ApplicationMetricTask( application, dataToInsertLinkedBlockingQueue, fetchDataLatch));
+                executorFetchData.execute( new ApplicationEventTask( application, dataToInsertLinkedBlockingQueue, fetchDataLatch));
             }
-            sleep(200);
-            try {
-                logger.debug("starting await for fetchDataLatch awaiting %d tasks", fetchDataLatch.getCount());
-                fetchDataLatch.await();
-                logger.debug("finished fetchDataLatch.await() %d jobs (expecting 0) toString: '%s'", fetchDataLatch.getCount(), fetchDataLatch.toString());
-            } catch (InterruptedException ignored) {}
-
-            if( configuration.getProperty("scheduler-enabled", true) ) {
-                logger.info("MainControlScheduler is enabled, so sleeping for %d minutes and running again", configuration.getProperty("scheduler-pollIntervalMinutes", 60L));
-                sleep( configuration.getProperty("scheduler-pollIntervalMinutes", 60L) * 60000 );
-                logger.info("MainControlScheduler is awakened and running once more");
-            } else {
-                sleep(5000);
-                for( Controller controller : configuration.getControllerList() ) {
-                   logger.debug("Waiting for Controller %s to finish initializing all %d applications",controller.hostname, controller.applications.length);
-                   for (Application application : controller.applications) {
-                        logger.debug("Waiting for Application %s to finish initializing",application.getName());
-                        while( ! application.isFinishedInitialization() ) sleep(10000 );
-                        logger.debug("Application %s finished initializing",application.getName());
-                   }
-                   logger.debug("Controller %s finished initializing",controller.hostname);
-                }
-                executorConfigRefresh.shutdownNow();
-                sleep(5000);
-                logger.info("MainControlScheduler is disabled, so exiting when database queue is drained");
-                while(!dataToInsertLinkedBlockingQueue.isEmpty()) {
-                    sleep(5000);
-                }
-                configuration.setRunning(false);
-                sleep(10000); //so database workers can finish up
-                executorInsertData.shutdown();
-                executorFetchData.shutdown();
+        }
+
+        for(Analytics analytic : configuration.getAnalyticsList() ) {
+            executorFetchData.execute( new AnalyticsSearchTask( analytic, dataToInsertLinkedBlockingQueue, fetchDataLatch) );
+        }
+        sleep(200);
+        try {
+            logger.debug("starting await for fetchDataLatch awaiting %d tasks", fetchDataLatch.getCount());
+            fetchDataLatch.await();
+            logger.debug("finished fetchDataLatch.await() %d jobs (expecting 0) toString: '%s'", fetchDataLatch.getCount(), fetchDataLatch.toString());
+        } catch (InterruptedException ignored) {}
+        logger.info("Data queue status: %s", dataToInsertLinkedBlockingQueue.getStatus());
+
+        //baselines go last, they are fetched for the metrics the run above found
+        CountDownLatch fetchBaselinesLatch = new CountDownLatch(countApplications());
+        for( Controller controller : configuration.getControllerList() ) {
+            for(Application application : controller.applications ) {
+                executorFetchBaselines.execute( new ApplicationBaselineTask( application, dataToInsertLinkedBlockingQueue, fetchBaselinesLatch));
             }
         }
+        try {
+            fetchBaselinesLatch.await();
+        } catch (InterruptedException ignored) {}
+        executorFetchBaselines.shutdown();
+
+        sleep(5000);
+        for( Controller controller : configuration.getControllerList() ) {
+           logger.debug("Waiting for Controller %s to finish initializing all %d applications",controller.hostname, controller.applications.length);
+           for (Application application : controller.applications) {
+                logger.debug("Waiting for Application %s to finish initializing",application.getName());
+                try {
+                    application.awaitInitialization();
+                } catch (InterruptedException ignored) {}
+                logger.debug("Application %s finished initializing",application.getName());
+           }
+           logger.debug("Controller %s finished initializing",controller.hostname);
+        }
+        executorConfigRefresh.shutdownNow();
+        sleep(5000);
+        logger.info("MainControlScheduler is disabled, so exiting when database queue is drained");
+        while(!dataToInsertLinkedBlockingQueue.isEmpty()) {
+            logger.debug("Waiting for data queue to drain: %s", dataToInsertLinkedBlockingQueue.getStatus());
+            sleep(5000);
+        }
+        long retryWaitUntil = System.currentTimeMillis() + this.configuration.getProperty("scheduler-InsertRetryMaxSeconds", 600L)*1000;
+        while(!insertRetryScheduler.isEmpty() && System.currentTimeMillis() < retryWaitUntil) {
+            logger.debug("Waiting for insert retries: %s", insertRetryScheduler.getStatus());
+            sleep(5000);
+        }
+        configuration.setRunning(false);
+        shutdown();
+    }
+
+    //both ways of running end here, whether scheduled or once, retries still in memory would be lost and the spill log left unforced otherwise
+    private void shutdown() {
+        sleep(10000); //so database workers can finish up
+        executorConfigRefresh.shutdownNow();
+        executorInsertData.shutdown();
+        executorFetchData.shutdown();
+        if( dataToInsertLinkedBlockingQueue instanceof DisruptorDataQueue )
+            ((DisruptorDataQueue) dataToInsertLinkedBlockingQueue).shutdown(60, TimeUnit.SECONDS);
+        insertRetryScheduler.shutdown(); //anything still failing goes to the dead letters
+        if( dataToInsertLinkedBlockingQueue instanceof SpillDataQueue )
+            ((SpillDataQueue) dataToInsertLinkedBlockingQueue).close();
+    }
 
+    private int countApplications() {
+        int count = 0;
+        for( Controller controller : configuration.getControllerList() )
+            count += controller.applications.length;
+        return count;
     }
 
     private void sleep( long forMilliseconds ) {
@@ -0,0 +1,86 @@
+package com.cisco.josouthe.scheduler;
+
+import com.cisco.josouthe.util.Utility;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+One fetch task, an application's metrics or events or an analytics account's searches, on its own cadence
+Each tick hands the task to the fetch executor unless the previous run is still going, in which case that tick is skipped,
+so a slow application only delays itself and never stacks up runs of its own. A tick is also skipped while the last one is still waiting in
+the executor's queue for a thread, when the pool is saturated each queued copy used to run one after the other, fetching the same thing again
+ */
+public class ScheduledFetch implements Runnable {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    private final String name;
+    private final Runnable task;
+    private final Executor executor;
+    private final long intervalMinutes;
+    private final AtomicBoolean inFlight = new AtomicBoolean(false), queued = new AtomicBoolean(false);
+    private volatile long lastStartTime = 0, lastDurationMS = 0;
+    private long countRuns = 0, countSkipped = 0;
+
+    public ScheduledFetch( String name, Runnable task, Executor executor, long intervalMinutes ) {
+        this.name=name;
+        this.task=task;
+        this.executor=executor;
+        this.intervalMinutes=intervalMinutes;
+    }
+
+    public String getName() { return name; }
+    public long getIntervalMinutes() { return intervalMinutes; }
+    public boolean isInFlight() { return inFlight.get(); }
+    public long getLastStartTime() { return lastStartTime; }
+
+    @Override
+    public void run() {
+        if( inFlight.get() ) {
+            skip();
+            return;
+        }
+        if( !queued.compareAndSet(false, true) ) {
+            skipQueued();
+            return;
+        }
+        try {
+            executor.execute(this::runTask);
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            queued.set(false);
+            logger.warn("%s could not be started, the fetch executor rejected it: %s", name, rejectedExecutionException.toString());
+        }
+    }
+
+    private synchronized void skip() {
+        countSkipped++;
+        logger.info("%s is still running after %d seconds, skipping this %d minute cycle, %d skipped so far", name, (Utility.now()-lastStartTime)/1000, intervalMinutes, countSkipped);
+    }
+
+    private synchronized void skipQueued() {
+        countSkipped++;
+        logger.info("%s is still waiting for a fetch thread, skipping this %d minute cycle, %d skipped so far", name, intervalMinutes, countSkipped);
+    }
+
+    private void runTask() {
+        queued.set(false);
+        if( !inFlight.compareAndSet(false, true) ) {
+            skip();
+            return;
+        }
+        lastStartTime = Utility.now();
+        countRuns++;
+        try {
+            task.run();
+        } catch (Throwable throwable) {
+            logger.warn("%s failed with exception: %s", name, throwable.toString(), throwable);
+        } finally {
+            lastDurationMS = Utility.now() - lastStartTime;
+            inFlight.set(false);
+            logger.debug("%s finished run %d in %d(ms)", name, countRuns, lastDurationMS);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.cisco.josouthe.scheduler;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+We build for java 11 but plenty of people run us on 21, so virtual threads are looked up by reflection
+On a jvm without them we log it and the caller falls back to a fixed pool of platform threads
+ */
+public class VirtualThreadSupport {
+    private static final Logger logger = LogManager.getFormatterLogger();
+
+    public static boolean isAvailable() {
+        return getVirtualThreadFactory("probe") != null;
+    }
+
+    //Thread.ofVirtual().name(prefix, 1).factory()
+    public static ThreadFactory getVirtualThreadFactory( String prefix ) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-virtual-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError exception) {
+            logger.trace("Virtual threads are not available in this jvm: %s", exception.toString());
+            return null;
+        }
+    }
+
+    //Executors.newThreadPerTaskExecutor(factory), or null if this jvm doesn't have virtual threads
+    public static ExecutorService newVirtualThreadPerTaskExecutor( String prefix ) {
+        ThreadFactory threadFactory = getVirtualThreadFactory(prefix);
+        if( threadFactory == null ) return null;
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException exception) {
+            logger.trace("Executors.newThreadPerTaskExecutor is not available in this jvm: %s", exception.toString());
+            return null;
+        }
+    }
+}
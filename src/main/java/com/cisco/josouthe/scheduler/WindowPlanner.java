@@ -0,0 +1,50 @@
+package com.cisco.josouthe.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Splits a fetch window into slices on boundaries that are multiples of the slice length, so a long backfill becomes many small requests that can run at once
+A window no longer than one slice, the normal case once caught up, is left alone so it still costs a single request
+The control table keeps one timestamp per data type, so progress is the end of the unbroken run of completed slices from the start,
+a failed slice holds the timestamp there and the next run starts again from that slice
+ */
+public class WindowPlanner {
+
+    public static List<TimeSlice> plan( long startTimestamp, long endTimestamp, long sliceMS ) {
+        List<TimeSlice> slices = new ArrayList<>();
+        if( endTimestamp <= startTimestamp ) return slices;
+        if( sliceMS < 1 || endTimestamp - startTimestamp <= sliceMS ) {
+            slices.add(new TimeSlice(startTimestamp, endTimestamp));
+            return slices;
+        }
+        long sliceStart = startTimestamp;
+        while( sliceStart < endTimestamp ) {
+            long sliceEnd = Math.min(endTimestamp, (Math.floorDiv(sliceStart, sliceMS) +1) * sliceMS);
+            slices.add(new TimeSlice(sliceStart, sliceEnd));
+            sliceStart = sliceEnd;
+        }
+        return slices;
+    }
+
+    public static long getWatermark( long startTimestamp, List<TimeSlice> slices ) {
+        long watermark = startTimestamp;
+        for( TimeSlice slice : slices ) {
+            if( slice.failed ) break;
+            watermark = slice.end;
+        }
+        return watermark;
+    }
+
+    public static class TimeSlice {
+        public final long start, end;
+        public volatile boolean failed = false;
+
+        public TimeSlice( long start, long end ) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public String toString() { return String.format("[%d,%d)", start, end); }
+    }
+}
@@ -0,0 +1,68 @@
+package com.cisco.josouthe.data.metric;
+
+import com.cisco.josouthe.data.model.TreeNode;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ApplicationMetricFileTest extends TestCase {
+
+    public ApplicationMetricFileTest() {}
+
+    private TreeNode getTreeNode( String type, String name ) {
+        TreeNode treeNode = new TreeNode();
+        treeNode.type = type;
+        treeNode.name = name;
+        return treeNode;
+    }
+
+    @Test
+    public void testFoldersAndMetricsSurviveARestart() throws Exception {
+        File directory = Files.createTempDirectory("discovery").toFile();
+        ApplicationMetricFile metricFile = new ApplicationMetricFile("controller.example.com-My App/Prod", directory.getPath());
+        assert !metricFile.exists();
+        assert metricFile.readMetricNames().isEmpty();
+        assert metricFile.readFolders().isEmpty();
+
+        Map<String,ApplicationMetricFile.FolderListing> folders = new HashMap<>();
+        folders.put("Tier|Node", new ApplicationMetricFile.FolderListing(1234, new TreeNode[]{ getTreeNode("folder", "JMX"), getTreeNode("leaf", "Calls\tper \\ Minute") }));
+        folders.put("Empty", new ApplicationMetricFile.FolderListing(5678, new TreeNode[0]));
+        metricFile.writeFolders(folders);
+        metricFile.writeMetrics(Arrays.asList("Tier|Node|Calls per Minute", "Custom Metrics|Queue|Depth"));
+
+        ApplicationMetricFile restarted = new ApplicationMetricFile("controller.example.com-My App/Prod", directory.getPath());
+        assert restarted.exists();
+        List<String> metricNames = restarted.readMetricNames();
+        assert metricNames.size() == 2;
+        assert "Custom Metrics|Queue|Depth".equals(metricNames.get(1));
+        Map<String,ApplicationMetricFile.FolderListing> read = restarted.readFolders();
+        assert read.size() == 2;
+        assert read.get("Tier|Node").listedAt == 1234;
+        assert read.get("Tier|Node").nodes[0].isFolder();
+        assert "Calls\tper \\ Minute".equals(read.get("Tier|Node").nodes[1].name);
+        assert read.get("Empty").nodes.length == 0;
+
+        //rewriting replaces the whole cache, a folder that is gone from the tree is gone from the file
+        folders.remove("Empty");
+        restarted.writeFolders(folders);
+        assert restarted.readFolders().size() == 1;
+        assert directory.listFiles().length == 2;
+    }
+
+    @Test
+    public void testListingsGoStaleBetweenHalfAndFullMaxAge() {
+        long maxAge = 24 * 3600000L;
+        for( String path : Arrays.asList("a", "Tier|Node|JMX", "Custom Metrics|Queue") ) {
+            ApplicationMetricFile.FolderListing listing = new ApplicationMetricFile.FolderListing(0, new TreeNode[0]);
+            assert listing.isFresh(path, maxAge, maxAge/2 - 1);
+            assert !listing.isFresh(path, maxAge, maxAge + 1);
+            assert !listing.isFresh(path, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.cisco.josouthe.data.metric;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class DiscoveredMetricsTest extends TestCase {
+
+    public DiscoveredMetricsTest() {}
+
+    @Test
+    public void testNamesCoveredByAnEarlierWildcardAreLeftOut() throws InterruptedException {
+        DiscoveredMetrics discovery = new DiscoveredMetrics();
+        discovery.publish(Arrays.asList("Overall Application Performance|*|Calls per Minute"));
+        discovery.publish(Arrays.asList("Overall Application Performance|Web|Calls per Minute", "Overall Application Performance|Web|Errors per Minute",
+                "Overall Application Performance|Web|Node|Calls per Minute"));
+        discovery.publish(Arrays.asList("Overall Application Performance|Web|Calls per Minute")); //nothing new, no batch at all
+        discovery.complete();
+
+        assert discovery.awaitBatch(0).size() == 1;
+        List<String> batch = discovery.awaitBatch(1);
+        assert batch.size() == 2;
+        assert batch.contains("Overall Application Performance|Web|Errors per Minute");
+        assert batch.contains("Overall Application Performance|Web|Node|Calls per Minute"); //a * is one segment, not any number of them
+        assert discovery.awaitBatch(2) == null;
+    }
+}
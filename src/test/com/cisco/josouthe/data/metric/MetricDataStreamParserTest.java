@@ -0,0 +1,86 @@
+package com.cisco.josouthe.data.metric;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricDataStreamParserTest extends TestCase {
+
+    public MetricDataStreamParserTest() {}
+
+    private static String series( long id, String name, int values ) {
+        StringBuilder json = new StringBuilder(String.format("{\"metricId\":%d,\"metricName\":\"%s\",\"metricPath\":\"Overall|%s\",\"frequency\":\"ONE_MIN\",\"metricValues\":[", id, name, name));
+        for( int i = 0; i < values; i++ ) {
+            if( i > 0 ) json.append(',');
+            json.append(String.format("{\"startTimeInMillis\":%d,\"occurrences\":0,\"current\":%d,\"min\":1,\"max\":9,\"useRange\":true,\"count\":2,\"sum\":10,\"value\":5,\"standardDeviation\":0.5}", 60000L*i, i));
+        }
+        return json.append("]}").toString();
+    }
+
+    @Test
+    public void testLargeSeriesIsSplitIntoChunks() throws Exception {
+        List<MetricData[]> chunks = new ArrayList<>();
+        int countSeries = new MetricDataStreamParser(100, chunks::add).parse(new StringReader("["+ series(1, "Calls", 250) +","+ series(2, "Errors", 30) +"]"));
+        assert countSeries == 2;
+        int calls = 0, errors = 0;
+        for( MetricData[] chunk : chunks ) {
+            int valuesInChunk = 0;
+            for( MetricData metricData : chunk ) {
+                valuesInChunk += metricData.metricValues.size();
+                if( metricData.metricId == 1 ) calls += metricData.metricValues.size();
+                if( metricData.metricId == 2 ) errors += metricData.metricValues.size();
+                assert metricData.metricName != null && metricData.metricPath.startsWith("Overall|");
+            }
+            assert valuesInChunk <= 100;
+        }
+        assert calls == 250 && errors == 30;
+        assert chunks.get(2)[0].metricValues.get(49).current == 249;
+        assert chunks.get(0)[0].metricValues.get(0).standardDeviation == 0.5;
+    }
+
+    @Test
+    public void testEmptySeriesIsKept() throws Exception {
+        List<MetricData[]> chunks = new ArrayList<>();
+        new MetricDataStreamParser(100, chunks::add).parse(new StringReader("[{\"metricId\":0,\"metricName\":\"METRIC DATA NOT FOUND\",\"metricPath\":\"x\",\"frequency\":\"ONE_MIN\",\"metricValues\":[]}]"));
+        assert chunks.size() == 1 && chunks.get(0).length == 1;
+        assert "METRIC DATA NOT FOUND".equals(chunks.get(0)[0].metricName);
+        chunks.clear();
+        new MetricDataStreamParser(100, chunks::add).parse(new StringReader("[]"));
+        assert chunks.isEmpty();
+    }
+
+    @Test
+    public void testRetryAfterABrokenResponseSkipsWhatWasHandedOver() throws Exception {
+        String response = "["+ series(1, "Calls", 250) +","+ series(2, "Errors", 30) +"]";
+        List<MetricData[]> chunks = new ArrayList<>();
+        MetricDataStreamParser.Progress progress = new MetricDataStreamParser.Progress();
+        try {
+            new MetricDataStreamParser(100, chunks::add, progress).parse(new StringReader(response.substring(0, response.length()*2/3)));
+            fail("a response cut short should not parse");
+        } catch (IOException expected) { }
+        int handedOver = 0;
+        for( MetricData[] chunk : chunks )
+            for( MetricData metricData : chunk ) handedOver += metricData.metricValues.size();
+        assert handedOver > 0 && handedOver < 250;
+
+        new MetricDataStreamParser(100, chunks::add, progress).parse(new StringReader(response));
+        int calls = 0, errors = 0;
+        long lastStartTime = -1;
+        for( MetricData[] chunk : chunks ) {
+            for( MetricData metricData : chunk ) {
+                if( metricData.metricId == 2 ) errors += metricData.metricValues.size();
+                if( metricData.metricId != 1 ) continue;
+                calls += metricData.metricValues.size();
+                for( int i=0; i < metricData.metricValues.size(); i++ ) {
+                    assert metricData.metricValues.startTimeInMillis[i] > lastStartTime; //no value handed over twice
+                    lastStartTime = metricData.metricValues.startTimeInMillis[i];
+                }
+            }
+        }
+        assert calls == 250 && errors == 30;
+    }
+}
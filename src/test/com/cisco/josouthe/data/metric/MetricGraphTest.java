@@ -0,0 +1,62 @@
+package com.cisco.josouthe.data.metric;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+public class MetricGraphTest extends TestCase {
+    private static final String DIRECTORY = "./src/test/com/cisco/josouthe/data/metric/";
+
+    public MetricGraphTest() {}
+
+    private static List<String> readLines( String fileName ) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for( String line : Files.readAllLines(new File(DIRECTORY + fileName).toPath(), StandardCharsets.UTF_8) )
+            if( !line.isEmpty() ) lines.add(line);
+        return lines;
+    }
+
+    //MetricGraph-expected.txt is what the graph produced for MetricGraph-input.txt before the bloom search was made linear, the input has repeated names and a name that already has a wildcard
+    @Test
+    public void testCompressionMatchesGoldenFile() throws IOException {
+        MetricGraph metricGraph = new MetricGraph(null);
+        for( String metricName : readLines("MetricGraph-input.txt") )
+            metricGraph.addMetricName(metricName);
+        assert new TreeSet<>(metricGraph.getUniqueCompressedMetricNames()).equals(new TreeSet<>(readLines("MetricGraph-expected.txt")));
+    }
+
+    @Test
+    public void testStaticMetricsAreKept() {
+        List<String> staticMetrics = new ArrayList<>();
+        staticMetrics.add("Overall Application Performance|Calls per Minute");
+        MetricGraph metricGraph = new MetricGraph(staticMetrics);
+        metricGraph.addMetricNames("A|B|C", "A|B|D");
+        assert metricGraph.getUniqueCompressedMetricNames().contains("Overall Application Performance|Calls per Minute");
+        assert metricGraph.size() == 3;
+    }
+
+    /*
+    vertices used to be keyed by the word with its position appended, so "x1" at position 2 and "x" at position 12 were the same vertex,
+    their reference counts were added together and the bloom at "x1" was lost, nothing asked the controller for the first name any more
+    the graph has to come out the same as it does with the colliding word renamed to one that can't collide
+     */
+    @Test
+    public void testWordAndPositionDoNotCollide() {
+        MetricGraph metricGraph = new MetricGraph(null);
+        metricGraph.addMetricNames("r|b|x1|d|e|f|g|h|i|j|k|l|m", "r|b|c|d|e|f|g|h|i|j|k|l|x");
+        MetricGraph renamed = new MetricGraph(null);
+        renamed.addMetricNames("r|b|x1|d|e|f|g|h|i|j|k|l|m", "r|b|c|d|e|f|g|h|i|j|k|l|y");
+        TreeSet<String> expected = new TreeSet<>();
+        for( String metricName : renamed.getUniqueCompressedMetricNames() )
+            expected.add(metricName.replaceAll("\\|y$", "|x"));
+        assert expected.contains("r|b|*|d|e|f|g|h|i|j|k|l|m");
+        assert new TreeSet<>(metricGraph.getUniqueCompressedMetricNames()).equals(expected);
+    }
+}
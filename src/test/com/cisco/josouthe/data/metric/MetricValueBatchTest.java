@@ -0,0 +1,44 @@
+package com.cisco.josouthe.data.metric;
+
+import com.google.gson.Gson;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class MetricValueBatchTest extends TestCase {
+    private final Gson gson = new Gson();
+
+    public MetricValueBatchTest() {}
+
+    @Test
+    public void testGrowsAndKeepsColumnsAligned() {
+        MetricValueBatch batch = new MetricValueBatch(2);
+        for( int i = 0; i < 100; i++ )
+            batch.add(60000L*i, i, i+1, i+2, i+3, i+4, i+5, i+6, i % 2 == 0, i / 10.0);
+        assert batch.size() == 100;
+        MetricValue metricValue = batch.get(77);
+        assert metricValue.startTimeInMillis == 60000L*77 && metricValue.current == 78 && metricValue.value == 83;
+        assert !metricValue.useRange && metricValue.standardDeviation == 7.7;
+    }
+
+    @Test
+    public void testMetricDataJsonRoundTrip() {
+        String json = "{\"metricId\":5,\"metricName\":\"Calls\",\"metricValues\":[{\"startTimeInMillis\":1000,\"current\":3,\"value\":42,\"useRange\":true,\"standardDeviation\":1.5},null]}";
+        MetricData metricData = gson.fromJson(json, MetricData.class);
+        assert metricData.metricValues.size() == 1;
+        MetricData copy = gson.fromJson(gson.toJson(metricData), MetricData.class);
+        assert copy.metricValues.size() == 1 && copy.metricValues.value[0] == 42 && copy.metricValues.useRange[0];
+        assert copy.metricValues.standardDeviation[0] == 1.5;
+    }
+
+    @Test
+    public void testBaselineTimeslicesDropEmptyValues() {
+        String json = "{\"metricId\":5,\"dataTimeslices\":[{\"startTime\":1000,\"metricValue\":{\"startTimeInMillis\":0,\"value\":7}},{\"startTime\":2000,\"metricValue\":null},{\"metricValue\":{\"value\":9},\"startTime\":3000}]}";
+        BaselineData baselineData = gson.fromJson(json, BaselineData.class);
+        assert baselineData.dataTimeslices.size() == 2;
+        assert baselineData.dataTimeslices.startTimeInMillis[0] == 1000 && baselineData.dataTimeslices.startTimeInMillis[1] == 3000;
+        assert baselineData.purgeNullBaselineTimeslices() == 1;
+        assert baselineData.purgeNullBaselineTimeslices() == 0;
+        BaselineData copy = gson.fromJson(gson.toJson(baselineData), BaselineData.class);
+        assert copy.dataTimeslices.size() == 2 && copy.dataTimeslices.value[1] == 9 && copy.dataTimeslices.startTimeInMillis[1] == 3000;
+    }
+}
@@ -0,0 +1,79 @@
+package com.cisco.josouthe.http;
+
+import com.cisco.josouthe.exceptions.ControllerBadStatusException;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Semaphore;
+
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+
+    public AdaptiveConcurrencyLimiterTest() {}
+
+    @Test
+    public void testGrowsWhileLatencyIsFlat() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 10, 2);
+        for( int i=0; i < 200; i++ ) {
+            int limit = limiter.getLimit();
+            long[] starts = new long[limit];
+            for( int j=0; j < limit; j++ ) starts[j] = limiter.acquire();
+            for( int j=0; j < limit; j++ ) limiter.onSuccess(starts[j]);
+        }
+        assert limiter.getLimit() == 10;
+        assert limiter.getInFlight() == 0;
+    }
+
+    @Test
+    public void testBacksOffOnOverload() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 50, 40);
+        limiter.onDropped(limiter.acquire());
+        assert limiter.getLimit() == 20;
+        limiter.onDropped(limiter.acquire()); //inside the cooldown, one burst only counts once
+        assert limiter.getLimit() == 20;
+        limiter.onIgnore(limiter.acquire());
+        assert limiter.getLimit() == 20;
+        assert limiter.getInFlight() == 0;
+    }
+
+    @Test
+    public void testTryAcquireNeverWaits() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 2, 2);
+        long first = limiter.acquire();
+        long second = limiter.tryAcquire();
+        assert second >= 0;
+        assert limiter.tryAcquire() == -1; //at the limit, a hedge is skipped instead of waiting
+        limiter.onIgnore(second);
+        limiter.onSuccess(first);
+        assert limiter.getInFlight() == 0;
+    }
+
+    @Test
+    public void testOverloadSignals() {
+        assert AdaptiveConcurrencyLimiter.isOverloadSignal(new SocketTimeoutException("read timed out"));
+        assert AdaptiveConcurrencyLimiter.isOverloadSignal(new ControllerBadStatusException("HTTP/1.1 429 Too Many Requests", "", "", 429));
+        assert AdaptiveConcurrencyLimiter.isOverloadSignal(new ControllerBadStatusException("HTTP/1.1 503 Service Unavailable", "", "", 503));
+        assert !AdaptiveConcurrencyLimiter.isOverloadSignal(new ControllerBadStatusException("HTTP/1.1 404 Not Found", "", "", 404));
+        assert !AdaptiveConcurrencyLimiter.isOverloadSignal(new RuntimeException("anything else"));
+        assert !AdaptiveConcurrencyLimiter.isOverloadSignal(new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"));
+    }
+
+    @Test
+    public void testSharedCeilingHoldsAcrossLimiters() throws InterruptedException {
+        Semaphore ceiling = new Semaphore(3);
+        AdaptiveConcurrencyLimiter metrics = new AdaptiveConcurrencyLimiter("metrics", 1, 3, 3, ceiling);
+        AdaptiveConcurrencyLimiter events = new AdaptiveConcurrencyLimiter("events", 1, 3, 3, ceiling);
+        long first = metrics.acquire(), second = metrics.acquire(), third = events.acquire();
+        assert events.tryAcquire() == -1; //events is under its own limit, but the controller is at its max
+        assert events.getInFlight() == 1;
+        metrics.onSuccess(first);
+        long fourth = events.tryAcquire();
+        assert fourth >= 0;
+        metrics.onSuccess(second);
+        events.onIgnore(third);
+        events.onSuccess(fourth);
+        assert ceiling.availablePermits() == 3;
+    }
+}
@@ -0,0 +1,71 @@
+package com.cisco.josouthe.queue;
+
+import com.cisco.josouthe.data.metric.MetricData;
+import com.cisco.josouthe.data.metric.MetricValue;
+import com.cisco.josouthe.data.metric.MetricValueBatch;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class SpillDataQueueTest extends TestCase {
+
+    public SpillDataQueueTest() {}
+
+    private MetricData getMetricData( String name ) {
+        MetricData metricData = new MetricData();
+        metricData.metricName = name;
+        metricData.targetTable = "metrics";
+        metricData.metricValues = new MetricValueBatch();
+        MetricValue metricValue = new MetricValue();
+        metricValue.startTimeInMillis = 1000;
+        metricValue.value = 42;
+        metricData.metricValues.add(metricValue);
+        return metricData;
+    }
+
+    @Test
+    public void testReplaysWhatWasNotCommitted() throws Exception {
+        File directory = Files.createTempDirectory("spill").toFile();
+        SpillDataQueue spillDataQueue = new SpillDataQueue(directory, 1024*1024, 0);
+        for( int i=0; i < 10; i++ )
+            spillDataQueue.add(new MetricData[]{ getMetricData("metric"+i) });
+        IPollingDataQueue reader = spillDataQueue.newReader();
+        for( int i=0; i < 4; i++ ) reader.poll(1, TimeUnit.SECONDS);
+        reader.commit();
+        MetricData[] uncommitted = (MetricData[]) reader.poll(1, TimeUnit.SECONDS);
+        assert "metric4".equals(uncommitted[0].metricName);
+        assert uncommitted[0].metricValues.get(0).value == 42;
+
+        //restart without closing, metric4 was read but never committed so it comes back
+        SpillDataQueue restarted = new SpillDataQueue(directory, 1024*1024, 0);
+        assert restarted.size() == 6;
+        MetricData[] first = (MetricData[]) restarted.newReader().poll(1, TimeUnit.SECONDS);
+        assert "metric4".equals(first[0].metricName);
+        restarted.close();
+        spillDataQueue.close();
+    }
+
+    @Test
+    public void testTruncatesTornRecord() throws Exception {
+        File directory = Files.createTempDirectory("spill").toFile();
+        SpillDataQueue spillDataQueue = new SpillDataQueue(directory, 1024*1024, 0);
+        spillDataQueue.add(new MetricData[]{ getMetricData("whole") });
+        spillDataQueue.close();
+        File[] logs = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        Arrays.sort(logs);
+        try (FileOutputStream outputStream = new FileOutputStream(logs[logs.length-1], true)) {
+            outputStream.write(new byte[]{ (byte) 0xD7, 0, 0, 0, 100, 1, 2, 3 }); //header of a record the crash cut short
+        }
+        SpillDataQueue restarted = new SpillDataQueue(directory, 1024*1024, 0);
+        assert restarted.size() == 1;
+        IPollingDataQueue reader = restarted.newReader();
+        assert "whole".equals(((MetricData[]) reader.poll(1, TimeUnit.SECONDS))[0].metricName);
+        assert reader.poll(10, TimeUnit.MILLISECONDS) == null;
+        restarted.close();
+    }
+}
@@ -0,0 +1,162 @@
+package com.cisco.josouthe.scheduler;
+
+import com.cisco.josouthe.data.analytic.Result;
+import com.cisco.josouthe.data.event.EventData;
+import com.cisco.josouthe.database.ColumnFeatures;
+import com.cisco.josouthe.database.Database;
+import com.cisco.josouthe.database.IAnalyticTable;
+import com.cisco.josouthe.database.IBaselineTable;
+import com.cisco.josouthe.database.IEventTable;
+import com.cisco.josouthe.database.IMetricTable;
+import com.cisco.josouthe.exceptions.FailedDataLoadException;
+import com.cisco.josouthe.queue.DeadLetterStore;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InsertRetrySchedulerTest extends TestCase {
+
+    public InsertRetrySchedulerTest() {}
+
+    //takes everything except the events with a summary of "bad", those fail every time
+    private static class FakeDatabase extends Database {
+        public final List<String> inserted = new ArrayList<>(), deadLettered = new ArrayList<>();
+        public volatile boolean available = true;
+
+        public FakeDatabase() { super(null, "jdbc:csv:test", null, null); }
+
+        @Override
+        public synchronized void importData( Object[] someData ) throws FailedDataLoadException {
+            if( !available ) throw new FailedDataLoadException("database is down", someData);
+            for( Object object : someData )
+                if( "bad".equals(((EventData) object).summary) ) throw new FailedDataLoadException("value too long", someData);
+            for( Object object : someData )
+                inserted.add(((EventData) object).summary);
+        }
+
+        @Override
+        public synchronized void deadLettered( Object[] someData ) {
+            for( Object object : someData )
+                deadLettered.add(((EventData) object).summary);
+        }
+
+        @Override
+        public boolean isDatabaseAvailable() { return available; }
+
+        @Override
+        protected IAnalyticTable getAnalyticTable( Result result ) { return null; }
+        @Override
+        protected IEventTable getEventTable( String name ) { return null; }
+        @Override
+        protected IMetricTable getMetricTable( String name ) { return null; }
+        @Override
+        protected IBaselineTable getBaselineTable( String name ) { return null; }
+        @Override
+        protected Connection getPooledConnection() { return null; }
+        @Override
+        public String convertToAcceptableColumnName( String label, Collection<ColumnFeatures> existingColumns ) { return label; }
+        @Override
+        public boolean isValidDatabaseTableName( String tableName ) { return true; }
+        @Override
+        public String convertToAcceptableTableName( String tableName ) { return tableName; }
+    }
+
+    private EventData[] getEvents( String... summaries ) {
+        EventData[] events = new EventData[summaries.length];
+        for( int i=0; i < summaries.length; i++ ) {
+            events[i] = new EventData();
+            events[i].summary = summaries[i];
+        }
+        return events;
+    }
+
+    private InsertRetryScheduler getScheduler( FakeDatabase database, int maxAttempts, long baseDelayMS, long maxDelayMS, long maxRows ) throws Exception {
+        DeadLetterStore deadLetterStore = new DeadLetterStore(Files.createTempDirectory("deadletter").toFile());
+        return new InsertRetryScheduler(database, deadLetterStore, maxAttempts, baseDelayMS, maxDelayMS, 0, maxRows);
+    }
+
+    private void waitFor( AtomicInteger pendingRetries ) throws InterruptedException {
+        long until = System.currentTimeMillis() + 10000;
+        while( pendingRetries.get() > 0 && System.currentTimeMillis() < until )
+            Thread.sleep(10);
+    }
+
+    @Test
+    public void testDelayDoublesWithJitterUpToTheMax() throws Exception {
+        InsertRetryScheduler scheduler = getScheduler(new FakeDatabase(), 8, 1000, 6000, 0);
+        for( int i=0; i < 100; i++ ) {
+            long first = scheduler.getRetryDelay(1), second = scheduler.getRetryDelay(2), third = scheduler.getRetryDelay(3), capped = scheduler.getRetryDelay(20);
+            assert first >= 500 && first <= 1000;
+            assert second >= 1000 && second <= 2000;
+            assert third >= 2000 && third <= 4000;
+            assert capped >= 3000 && capped <= 6000;
+        }
+    }
+
+    @Test
+    public void testFailingBatchIsSplitAndTheBadRowDeadLettered() throws Exception {
+        FakeDatabase database = new FakeDatabase();
+        InsertRetryScheduler scheduler = getScheduler(database, 5, 1, 2, 0);
+        Thread thread = new Thread(scheduler);
+        thread.start();
+        AtomicInteger pendingRetries = new AtomicInteger();
+        scheduler.retry(getEvents("a", "b", "bad", "c"), "value too long", pendingRetries);
+        waitFor(pendingRetries);
+        scheduler.shutdown();
+        thread.join(5000);
+
+        assert pendingRetries.get() == 0;
+        assert database.inserted.size() == 3;
+        assert database.inserted.containsAll(Arrays.asList("a", "b", "c"));
+        assert database.deadLettered.size() == 1;
+        assert "bad".equals(database.deadLettered.get(0));
+    }
+
+    @Test
+    public void testOutageDoesNotCountAsAnAttemptAndPendingDataIsNotDeadLettered() throws Exception {
+        FakeDatabase database = new FakeDatabase();
+        database.available = false;
+        InsertRetryScheduler scheduler = getScheduler(database, 2, 1, 2, 0);
+        Thread thread = new Thread(scheduler);
+        thread.start();
+        AtomicInteger pendingRetries = new AtomicInteger();
+        scheduler.retry(getEvents("a", "b"), "database is down", pendingRetries);
+        Thread.sleep(200); //many more tries than maxAttempts
+        assert database.deadLettered.isEmpty();
+        assert pendingRetries.get() > 0;
+
+        //durable data is left to the queue it was read from, nothing is dead lettered and the count never goes to 0, so it is never committed
+        scheduler.shutdown();
+        thread.join(5000);
+        assert database.deadLettered.isEmpty();
+        assert pendingRetries.get() > 0;
+    }
+
+    @Test
+    public void testRetryBlocksWhileOverBudget() throws Exception {
+        FakeDatabase database = new FakeDatabase();
+        database.available = false;
+        InsertRetryScheduler scheduler = getScheduler(database, 8, 1, 2, 2);
+        Thread thread = new Thread(scheduler);
+        thread.start();
+        scheduler.retry(getEvents("a", "b"), "database is down");
+
+        Thread blocked = new Thread(() -> scheduler.retry(getEvents("c"), "database is down"));
+        blocked.start();
+        blocked.join(300);
+        assert blocked.isAlive(); //the insert thread waits instead of piling more data up in the retries
+
+        database.available = true;
+        blocked.join(5000);
+        assert !blocked.isAlive();
+        scheduler.shutdown();
+        thread.join(5000);
+    }
+}
@@ -0,0 +1,42 @@
+package com.cisco.josouthe.scheduler;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.util.List;
+
+public class WindowPlannerTest extends TestCase {
+    private static final long HOUR = 3600000;
+
+    public WindowPlannerTest() {}
+
+    @Test
+    public void testSlicesAreAlignedAndContiguous() {
+        long start = 10*HOUR + 7*60000, end = 13*HOUR + 30*60000;
+        List<WindowPlanner.TimeSlice> slices = WindowPlanner.plan(start, end, HOUR);
+        assert slices.size() == 4;
+        assert slices.get(0).start == start && slices.get(0).end == 11*HOUR;
+        assert slices.get(1).start == 11*HOUR && slices.get(1).end == 12*HOUR;
+        assert slices.get(3).end == end;
+        for( int i=1; i < slices.size(); i++ )
+            assert slices.get(i).start == slices.get(i-1).end;
+    }
+
+    @Test
+    public void testShortWindowIsOneRequest() {
+        List<WindowPlanner.TimeSlice> slices = WindowPlanner.plan(10*HOUR + 7*60000, 11*HOUR + 2*60000, HOUR);
+        assert slices.size() == 1;
+        assert WindowPlanner.plan(HOUR, HOUR, HOUR).isEmpty();
+    }
+
+    @Test
+    public void testWatermarkStopsAtFirstFailedSlice() {
+        List<WindowPlanner.TimeSlice> slices = WindowPlanner.plan(0, 5*HOUR, HOUR);
+        assert WindowPlanner.getWatermark(0, slices) == 5*HOUR;
+        slices.get(2).failed = true;
+        slices.get(4).failed = true;
+        assert WindowPlanner.getWatermark(0, slices) == 2*HOUR;
+        slices.get(0).failed = true;
+        assert WindowPlanner.getWatermark(0, slices) == 0;
+    }
+}